@@ -0,0 +1,57 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A record of large arrays and maps.
+ *
+ * @author Tony He
+ */
+public class CollectionRecord extends GenericData.Record implements SpecificRecord {
+
+    public static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+            "\"name\":\"CollectionRecord\", \"namespace\":\"com.xqbase.bn.benchmarks\", \"fields\":[" +
+            "{\"name\":\"ids\", \"type\":{\"type\":\"array\", \"items\":\"long\"}}, " +
+            "{\"name\":\"scores\", \"type\":{\"type\":\"map\", \"values\":\"double\"}}, " +
+            "{\"name\":\"items\", \"type\":{\"type\":\"array\", \"items\":{\"type\":\"record\", \"name\":\"Item\", " +
+            "\"fields\":[{\"name\":\"sku\", \"type\":\"string\"}, {\"name\":\"quantity\", \"type\":\"int\"}, " +
+            "{\"name\":\"price\", \"type\":\"double\"}]}}}]}");
+
+    public CollectionRecord() {
+        super(SCHEMA);
+    }
+
+    static CollectionRecord sample() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(1000000L + i * 37);
+        }
+        Map<String, Double> scores = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            scores.put("key-" + i, i * 1.5);
+        }
+        RecordSchema itemSchema = (RecordSchema) ((ArraySchema) SCHEMA.getField("items").getSchema()).getItemSchema();
+        List<GenericData.Record> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            GenericData.Record item = new GenericData.Record(itemSchema);
+            item.put(0, "SKU-" + i);
+            item.putInt(1, i % 7 + 1);
+            item.putDouble(2, 9.99 + i);
+            items.add(item);
+        }
+        CollectionRecord record = new CollectionRecord();
+        record.put(0, ids);
+        record.put(1, scores);
+        record.put(2, items);
+        return record;
+    }
+}
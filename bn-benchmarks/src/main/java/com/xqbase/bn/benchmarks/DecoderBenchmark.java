@@ -0,0 +1,92 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.generic.GenericJsonDatumWriter;
+import com.xqbase.bn.io.Decoder;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.io.JsonDecoder;
+import com.xqbase.bn.io.ValidatingDecoder;
+import com.xqbase.bn.io.parsing.Symbol;
+import com.xqbase.bn.io.parsing.ValidatingGrammarGenerator;
+import com.xqbase.bn.specific.SpecificRecord;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Throughput of reading a record through each {@link Decoder}: binary, binary
+ * wrapped in a {@link ValidatingDecoder}, and JSON. The record read is reused.
+ *
+ * @author Tony He
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+    @Param({"BINARY", "VALIDATING", "JSON"})
+    public String decoder;
+
+    @Param
+    public Shape shape;
+
+    private GenericDatumReader<Object> reader;
+    private Symbol grammar;
+    private byte[] bytes;
+    private Object reuse;
+
+    @Setup
+    public void setUp() throws IOException {
+        reader = new GenericDatumReader<>(shape.getSchema());
+        grammar = new ValidatingGrammarGenerator().generate(shape.getSchema());
+        SpecificRecord record = shape.sample();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ("JSON".equals(decoder)) {
+            JsonGenerator generator = new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+            new GenericJsonDatumWriter<>(shape.getSchema()).write(record, generator);
+            generator.flush();
+        } else {
+            Encoder encoder = new DirectBinaryEncoder(out);
+            new GenericDatumWriter<>(shape.getSchema()).write(record, encoder);
+            encoder.flush();
+        }
+        bytes = out.toByteArray();
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        Decoder input;
+        switch (decoder) {
+            case "JSON":
+                input = new JsonDecoder(shape.getSchema(), in);
+                break;
+            case "VALIDATING":
+                input = new ValidatingDecoder(grammar, new DirectBinaryDecoder(in));
+                break;
+            default:
+                input = new DirectBinaryDecoder(in);
+        }
+        reuse = reader.read(reuse, input);
+        return reuse;
+    }
+}
@@ -0,0 +1,64 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.io.BufferedBinaryEncoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.specific.SpecificRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Throughput of writing a record through {@link DirectBinaryEncoder} and
+ * {@link BufferedBinaryEncoder}. The encoder and its stream are reused across
+ * operations, as a long-lived connection would.
+ *
+ * @author Tony He
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+
+    @Param({"DIRECT", "BUFFERED"})
+    public String encoder;
+
+    @Param
+    public Shape shape;
+
+    private GenericDatumWriter<Object> writer;
+    private SpecificRecord record;
+    private ByteArrayOutputStream out;
+    private Encoder binaryEncoder;
+
+    @Setup
+    public void setUp() {
+        writer = new GenericDatumWriter<>(shape.getSchema());
+        record = shape.sample();
+        out = new ByteArrayOutputStream(1 << 16);
+        binaryEncoder = "BUFFERED".equals(encoder)
+                ? new BufferedBinaryEncoder(out, 8192)
+                : new DirectBinaryEncoder(out);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        out.reset();
+        writer.write(record, binaryEncoder);
+        binaryEncoder.flush();
+        return out.size();
+    }
+}
@@ -0,0 +1,41 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericEnum;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+/**
+ * A record of primitive fields only.
+ *
+ * @author Tony He
+ */
+public class FlatRecord extends GenericData.Record implements SpecificRecord {
+
+    public static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+            "\"name\":\"FlatRecord\", \"namespace\":\"com.xqbase.bn.benchmarks\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"count\", \"type\":\"int\"}, " +
+            "{\"name\":\"price\", \"type\":\"double\"}, {\"name\":\"ratio\", \"type\":\"float\"}, " +
+            "{\"name\":\"active\", \"type\":\"boolean\"}, {\"name\":\"created\", \"type\":\"datetime\"}, " +
+            "{\"name\":\"status\", \"type\":{\"type\":\"enum\", \"name\":\"Status\", " +
+            "\"symbols\":[\"NEW\", \"PAID\", \"SHIPPED\"]}}, {\"name\":\"code\", \"type\":\"string\"}]}");
+
+    public FlatRecord() {
+        super(SCHEMA);
+    }
+
+    static FlatRecord sample() {
+        FlatRecord record = new FlatRecord();
+        record.putLong(0, 1234567890123L);
+        record.putInt(1, 42);
+        record.putDouble(2, 199.99);
+        record.putFloat(3, 0.25f);
+        record.putBoolean(4, true);
+        record.putDatetimeMillis(5, 1431648000123L);
+        record.put(6, new GenericEnum((EnumSchema) SCHEMA.getField("status").getSchema(), "PAID"));
+        record.put(7, "SKU-0042");
+        return record;
+    }
+}
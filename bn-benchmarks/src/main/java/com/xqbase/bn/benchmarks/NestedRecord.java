@@ -0,0 +1,42 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+/**
+ * A record holding a chain of {@value #DEPTH} nested records.
+ *
+ * @author Tony He
+ */
+public class NestedRecord extends GenericData.Record implements SpecificRecord {
+
+    static final int DEPTH = 16;
+
+    public static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+            "\"name\":\"NestedRecord\", \"namespace\":\"com.xqbase.bn.benchmarks\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"root\", \"type\":{\"type\":\"record\", " +
+            "\"name\":\"Node\", \"fields\":[{\"name\":\"level\", \"type\":\"int\"}, " +
+            "{\"name\":\"name\", \"type\":\"string\"}, {\"name\":\"child\", \"type\":[\"null\", \"Node\"]}]}}]}");
+
+    public NestedRecord() {
+        super(SCHEMA);
+    }
+
+    static NestedRecord sample() {
+        RecordSchema nodeSchema = (RecordSchema) SCHEMA.getField("root").getSchema();
+        GenericData.Record child = null;
+        for (int level = DEPTH - 1; level >= 0; level--) {
+            GenericData.Record node = new GenericData.Record(nodeSchema);
+            node.putInt(0, level);
+            node.put(1, "node-" + level);
+            node.put(2, child);
+            child = node;
+        }
+        NestedRecord record = new NestedRecord();
+        record.putLong(0, 7L);
+        record.put(1, child);
+        return record;
+    }
+}
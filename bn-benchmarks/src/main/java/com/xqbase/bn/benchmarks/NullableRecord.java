@@ -0,0 +1,36 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+/**
+ * A record of nullable fields, half of which are set.
+ *
+ * @author Tony He
+ */
+public class NullableRecord extends GenericData.Record implements SpecificRecord {
+
+    public static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+            "\"name\":\"NullableRecord\", \"namespace\":\"com.xqbase.bn.benchmarks\", \"fields\":[" +
+            "{\"name\":\"a\", \"type\":[\"null\", \"int\"]}, {\"name\":\"b\", \"type\":[\"null\", \"long\"]}, " +
+            "{\"name\":\"c\", \"type\":[\"null\", \"string\"]}, {\"name\":\"d\", \"type\":[\"null\", \"double\"]}, " +
+            "{\"name\":\"e\", \"type\":[\"null\", \"boolean\"]}, {\"name\":\"f\", \"type\":[\"null\", \"int\"]}, " +
+            "{\"name\":\"g\", \"type\":[\"null\", \"long\"]}, {\"name\":\"h\", \"type\":[\"null\", \"string\"]}, " +
+            "{\"name\":\"i\", \"type\":[\"null\", \"double\"]}, {\"name\":\"j\", \"type\":[\"null\", \"boolean\"]}]}");
+
+    public NullableRecord() {
+        super(SCHEMA);
+    }
+
+    static NullableRecord sample() {
+        NullableRecord record = new NullableRecord();
+        record.put(0, 1);
+        record.put(2, "value");
+        record.put(4, Boolean.TRUE);
+        record.put(6, 123456789L);
+        record.put(8, 3.5);
+        return record;
+    }
+}
@@ -0,0 +1,112 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.io.ResolvingDecoder;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Throughput of reading a record written with another version of its schema,
+ * through the program of a {@link ResolvingDecoder}. The writer's schema either
+ * is the reader's, has a field the reader skips, lacks a field the reader reads
+ * from its default, or lists the fields in reverse order. The record read is reused.
+ *
+ * @author Tony He
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolvingBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({"SAME", "SKIPPED", "DEFAULTED", "REORDERED"})
+    public String evolution;
+
+    @Param
+    public Shape shape;
+
+    private GenericDatumReader<Object> reader;
+    private byte[] bytes;
+    private Object reuse;
+
+    @Setup
+    public void setUp() throws IOException {
+        RecordSchema readerSchema = shape.getSchema();
+        RecordSchema writerSchema = readerSchema;
+        switch (evolution) {
+            case "SKIPPED":
+                writerSchema = withField(readerSchema, "{\"name\":\"extra\", \"type\":\"string\"}");
+                break;
+            case "DEFAULTED":
+                readerSchema = withField(readerSchema,
+                        "{\"name\":\"extra\", \"type\":\"string\", \"default\":\"none\"}");
+                break;
+            case "REORDERED":
+                writerSchema = reversed(readerSchema);
+                break;
+            default:
+        }
+        reader = new GenericDatumReader<>(writerSchema, readerSchema);
+
+        // the sample, copied by field name into a record of the writer's schema
+        GenericData.Record sample = (GenericData.Record) shape.sample();
+        GenericData.Record record = new GenericData.Record(writerSchema);
+        for (Field field : writerSchema.getFields()) {
+            Object value = "extra".equals(field.getName()) ? "written, then skipped" : sample.get(field.getName());
+            record.put(field.getName(), value);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encoder encoder = new DirectBinaryEncoder(out);
+        new GenericDatumWriter<>(writerSchema).write(record, encoder);
+        encoder.flush();
+        bytes = out.toByteArray();
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        reuse = reader.read(reuse, new DirectBinaryDecoder(new ByteArrayInputStream(bytes)));
+        return reuse;
+    }
+
+    private static RecordSchema withField(RecordSchema schema, String field) throws IOException {
+        ObjectNode node = (ObjectNode) MAPPER.readTree(schema.toString());
+        ((ArrayNode) node.get("fields")).insert(0, MAPPER.readTree(field));
+        return (RecordSchema) Schema.parse(node.toString());
+    }
+
+    private static RecordSchema reversed(RecordSchema schema) throws IOException {
+        ObjectNode node = (ObjectNode) MAPPER.readTree(schema.toString());
+        ArrayNode fields = (ArrayNode) node.get("fields");
+        ArrayNode reversed = node.putArray("fields");
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            reversed.add(fields.get(i));
+        }
+        return (RecordSchema) Schema.parse(node.toString());
+    }
+}
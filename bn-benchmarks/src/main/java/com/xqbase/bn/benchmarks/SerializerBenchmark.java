@@ -0,0 +1,65 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.BinarySerializer;
+import com.xqbase.bn.JSONSerializer;
+import com.xqbase.bn.Serializer;
+import com.xqbase.bn.specific.SpecificRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Throughput of {@link BinarySerializer} and {@link JSONSerializer}.
+ *
+ * @author Tony He
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"BINARY", "JSON"})
+    public String format;
+
+    @Param
+    public Shape shape;
+
+    private Serializer serializer;
+    private SpecificRecord record;
+    private byte[] bytes;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        serializer = "JSON".equals(format) ? new JSONSerializer() : new BinarySerializer();
+        record = shape.sample();
+        out = new ByteArrayOutputStream(1 << 16);
+        serializer.serialize(record, out);
+        bytes = out.toByteArray();
+    }
+
+    @Benchmark
+    public int serialize() throws IOException {
+        out.reset();
+        serializer.serialize(record, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return serializer.deserialize(shape.getRecordClass(), new ByteArrayInputStream(bytes));
+    }
+}
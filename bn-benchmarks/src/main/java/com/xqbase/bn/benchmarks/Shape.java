@@ -0,0 +1,64 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+/**
+ * The schema shapes the benchmarks run across.
+ *
+ * @author Tony He
+ */
+public enum Shape {
+
+    FLAT(FlatRecord.class, FlatRecord.SCHEMA) {
+        @Override
+        public SpecificRecord sample() {
+            return FlatRecord.sample();
+        }
+    },
+    NESTED(NestedRecord.class, NestedRecord.SCHEMA) {
+        @Override
+        public SpecificRecord sample() {
+            return NestedRecord.sample();
+        }
+    },
+    COLLECTIONS(CollectionRecord.class, CollectionRecord.SCHEMA) {
+        @Override
+        public SpecificRecord sample() {
+            return CollectionRecord.sample();
+        }
+    },
+    NULLABLE(NullableRecord.class, NullableRecord.SCHEMA) {
+        @Override
+        public SpecificRecord sample() {
+            return NullableRecord.sample();
+        }
+    },
+    STRINGS(StringRecord.class, StringRecord.SCHEMA) {
+        @Override
+        public SpecificRecord sample() {
+            return StringRecord.sample();
+        }
+    };
+
+    private final Class<? extends SpecificRecord> recordClass;
+    private final RecordSchema schema;
+
+    Shape(Class<? extends SpecificRecord> recordClass, RecordSchema schema) {
+        this.recordClass = recordClass;
+        this.schema = schema;
+    }
+
+    public Class<? extends SpecificRecord> getRecordClass() {
+        return recordClass;
+    }
+
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns a new record of this shape with representative values.
+     */
+    public abstract SpecificRecord sample();
+}
@@ -0,0 +1,39 @@
+package com.xqbase.bn.benchmarks;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+/**
+ * A record of string fields, short and long, ASCII and not.
+ *
+ * @author Tony He
+ */
+public class StringRecord extends GenericData.Record implements SpecificRecord {
+
+    public static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+            "\"name\":\"StringRecord\", \"namespace\":\"com.xqbase.bn.benchmarks\", \"fields\":[" +
+            "{\"name\":\"name\", \"type\":\"string\"}, {\"name\":\"email\", \"type\":\"string\"}, " +
+            "{\"name\":\"city\", \"type\":\"string\"}, {\"name\":\"address\", \"type\":\"string\"}, " +
+            "{\"name\":\"title\", \"type\":\"string\"}, {\"name\":\"description\", \"type\":\"string\"}]}");
+
+    public StringRecord() {
+        super(SCHEMA);
+    }
+
+    static StringRecord sample() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            description.append("A fairly long product description, line ").append(i).append(". ");
+        }
+        StringRecord record = new StringRecord();
+        record.put(0, "Tony He");
+        record.put(1, "tony.he@example.com");
+        record.put(2, "\u4e0a\u6d77");
+        record.put(3, "\u4e0a\u6d77\u5e02\u6d66\u4e1c\u65b0\u533a\u4e16\u7eaa\u5927\u9053 100 \u53f7");
+        record.put(4, "Senior Engineer");
+        record.put(5, description.toString());
+        return record;
+    }
+}
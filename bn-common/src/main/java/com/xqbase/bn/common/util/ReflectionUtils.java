@@ -1,9 +1,13 @@
 package com.xqbase.bn.common.util;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Simple utility class for working with the reflection
@@ -61,6 +65,28 @@ public class ReflectionUtils {
         return null;
     }
 
+    /**
+     * Find the instance fields declared by the supplied class and its
+     * superclasses, superclass fields first. Static and transient fields
+     * are left out.
+     */
+    public static List<Field> findFields(Class<?> clazz) {
+        List<Field> fields = new ArrayList<>();
+        Class<?> searchType = clazz;
+        while (searchType != null && searchType != Object.class) {
+            List<Field> declared = new ArrayList<>();
+            for (Field field : searchType.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    declared.add(field);
+                }
+            }
+            fields.addAll(0, declared);
+            searchType = searchType.getSuperclass();
+        }
+        return fields;
+    }
+
     /**
      * Handle the given reflection exception. Should only be called
      * if no checked exception is expected to be thrown by the target
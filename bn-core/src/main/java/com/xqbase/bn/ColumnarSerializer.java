@@ -0,0 +1,114 @@
+package com.xqbase.bn;
+
+import com.xqbase.bn.columnar.ColumnBatch;
+import com.xqbase.bn.columnar.ColumnarCodec;
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.metrics.CacheCounter;
+import com.xqbase.bn.metrics.SchemaMetrics;
+import com.xqbase.bn.metrics.SerializerMetrics;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificData;
+import com.xqbase.bn.specific.SpecificRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializer with a columnar encoding, meant for batches of records of one class.
+ * See {@link ColumnarCodec} for the encoding. A single record is written as a
+ * batch of one.
+ *
+ * @author Tony He
+ */
+public class ColumnarSerializer implements Serializer {
+
+    private static final ConcurrentHashMap<Class<?>, ColumnarCodec> codecCache = new ConcurrentHashMap<>();
+
+    @Override
+    public <T extends SpecificRecord> void serialize(T obj, OutputStream stream) throws IOException {
+        serializeBatch(Collections.singletonList(obj), stream);
+    }
+
+    @Override
+    public <T extends SpecificRecord> T deserialize(Class<T> objClass, InputStream stream) throws IOException {
+        ColumnBatch<T> batch = readBatch(objClass, stream);
+        if (batch.size() != 1) {
+            throw new BaijiRuntimeException("Expected a single record, found " + batch.size());
+        }
+        return batch.getRow(0);
+    }
+
+    /**
+     * Writes records of one class as a single batch.
+     */
+    public <T extends SpecificRecord> void serializeBatch(List<T> records, OutputStream stream) throws IOException {
+        Encoder encoder = new DirectBinaryEncoder(stream);
+        if (records.isEmpty()) {
+            encoder.writeInt(0);
+        } else {
+            T first = records.get(0);
+            getCodec(first.getClass(), first).write(records, encoder);
+        }
+        encoder.flush();
+    }
+
+    /**
+     * Reads a batch written by {@link #serializeBatch}, assembling every record.
+     */
+    public <T extends SpecificRecord> List<T> deserializeBatch(Class<T> objClass, InputStream stream)
+            throws IOException {
+        return new ArrayList<>(readBatch(objClass, stream).asList());
+    }
+
+    /**
+     * Reads a batch written by {@link #serializeBatch} into columns.
+     */
+    public <T extends SpecificRecord> ColumnBatch<T> readBatch(Class<T> objClass, InputStream stream)
+            throws IOException {
+        return getCodec(objClass, null).read(new DirectBinaryDecoder(stream));
+    }
+
+    private static ColumnarCodec getCodec(Class<?> clazz, SpecificRecord record) {
+        // the record is only given when writing
+        boolean writing = record != null;
+        ColumnarCodec codec = codecCache.get(clazz);
+        if (codec != null && SerializerMetrics.isEnabled()) {
+            cacheCounter(codec.getSchema(), writing).record(true);
+        }
+        if (null == codec) {
+            if (null == record) {
+                try {
+                    Constructor<?> ctor = clazz.getDeclaredConstructor();
+                    ctor.setAccessible(true);
+                    record = (SpecificRecord) ctor.newInstance();
+                } catch (Exception e) {
+                    throw new BaijiRuntimeException("Can not create instance of " + clazz.getName(), e);
+                }
+            }
+            if (SerializerMetrics.isEnabled()) {
+                cacheCounter(record.getSchema(), writing).record(false);
+            }
+            codec = new ColumnarCodec((RecordSchema) record.getSchema(), SpecificData.get());
+            ColumnarCodec existedCodec = codecCache.putIfAbsent(clazz, codec);
+            if (existedCodec != null) {
+                codec = existedCodec;
+            }
+        }
+        return codec;
+    }
+
+    private static CacheCounter cacheCounter(Schema schema, boolean writing) {
+        SchemaMetrics metrics = SerializerMetrics.get(schema);
+        return writing ? metrics.getWriterCache() : metrics.getReaderCache();
+    }
+}
@@ -0,0 +1,58 @@
+package com.xqbase.bn;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.xqbase.bn.metrics.SerializerMetrics;
+import com.xqbase.bn.specific.SpecificRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Wraps a serializer, recording the calls, bytes and time spent per schema in
+ * {@link SerializerMetrics} while instrumentation is enabled. Bytes read are
+ * counted as consumed from the stream, which includes any read-ahead of the
+ * decoder.
+ *
+ * @author Tony He
+ */
+public class InstrumentedSerializer implements Serializer {
+
+    private final Serializer serializer;
+
+    public InstrumentedSerializer(Serializer serializer) {
+        if (null == serializer) {
+            throw new NullPointerException("serializer cannot be null");
+        }
+        this.serializer = serializer;
+    }
+
+    @Override
+    public <T extends SpecificRecord> void serialize(T obj, OutputStream stream) throws IOException {
+        if (!SerializerMetrics.isEnabled()) {
+            serializer.serialize(obj, stream);
+            return;
+        }
+        CountingOutputStream counting = new CountingOutputStream(stream);
+        long start = System.nanoTime();
+        serializer.serialize(obj, counting);
+        long nanos = System.nanoTime() - start;
+        SerializerMetrics.get(obj.getSchema()).recordSerialize(counting.getCount(), nanos);
+    }
+
+    @Override
+    public <T extends SpecificRecord> T deserialize(Class<T> objClass, InputStream stream) throws IOException {
+        if (!SerializerMetrics.isEnabled()) {
+            return serializer.deserialize(objClass, stream);
+        }
+        CountingInputStream counting = new CountingInputStream(stream);
+        long start = System.nanoTime();
+        T obj = serializer.deserialize(objClass, counting);
+        long nanos = System.nanoTime() - start;
+        if (obj != null) {
+            SerializerMetrics.get(obj.getSchema()).recordDeserialize(counting.getCount(), nanos);
+        }
+        return obj;
+    }
+}
@@ -1,71 +1,30 @@
 package com.xqbase.bn;
 
-import com.xqbase.bn.exceptions.BaijiRuntimeException;
-import com.xqbase.bn.io.*;
-import com.xqbase.bn.specific.SpecificDatumReader;
-import com.xqbase.bn.specific.SpecificDatumWriter;
 import com.xqbase.bn.specific.SpecificRecord;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Constructor;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Serializer with JSON encoding.
+ * Serializer with JSON encoding. Records are written by walking the schema
+ * directly, and read by a streaming {@link com.xqbase.bn.io.JsonDecoder}, both
+ * held by the {@link SerializerPlan} of their class.
  *
  * @author Tony He
  */
 public class JSONSerializer implements Serializer {
 
-    private static final ConcurrentHashMap<Class<?>, DatumWriter> writerCache = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<Class<?>, DatumReader> readerCache = new ConcurrentHashMap<>();
-
     @Override
+    @SuppressWarnings("unchecked")
     public <T extends SpecificRecord> void serialize(T obj, OutputStream stream) throws IOException {
-        DatumWriter<T> writer = getWriter(obj);
-        writer.write(obj, new JsonEncoder(obj.getSchema(), stream));
+        SerializerPlan<T> plan = SerializerPlan.lookup((Class<T>) obj.getClass(), SerializerPlan.Format.JSON, true);
+        plan.write(obj, stream);
     }
 
     @Override
     public <T extends SpecificRecord> T deserialize(Class<T> objClass, InputStream stream) throws IOException {
-        DatumReader<T> reader = getReader(objClass);
-        return reader.read(null, new DirectBinaryDecoder(stream));
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T extends SpecificRecord> DatumWriter<T> getWriter(T obj) {
-        Class<?> clazz = obj.getClass();
-        DatumWriter<T> writer = writerCache.get(clazz);
-        if (null == writer) {
-            writer = new SpecificDatumWriter(obj.getSchema());
-            DatumWriter<T> existedWriter = writerCache.putIfAbsent(clazz, writer);
-            if (existedWriter != null) {
-                writer = existedWriter;
-            }
-        }
-        return writer;
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T extends SpecificRecord> DatumReader<T> getReader(Class<T> clazz) {
-        DatumReader<T> reader = readerCache.get(clazz);
-        if (null == reader) {
-            SpecificRecord record;
-            try {
-                Constructor<T> ctor = clazz.getDeclaredConstructor();
-                ctor.setAccessible(true);
-                record = ctor.newInstance();
-            } catch (Exception e) {
-                throw new BaijiRuntimeException("Can not create instance of " + clazz.getName(), e);
-            }
-            reader = new SpecificDatumReader(record.getSchema());
-            DatumReader<T> existedReader = readerCache.putIfAbsent(clazz, reader);
-            if (existedReader != null) {
-                reader = existedReader;
-            }
-        }
-        return reader;
+        SerializerPlan<T> plan = SerializerPlan.lookup(objClass, SerializerPlan.Format.JSON, false);
+        return plan.read(null, stream);
     }
 }
@@ -0,0 +1,294 @@
+package com.xqbase.bn;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.generic.GenericJsonDatumWriter;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.JsonDecoder;
+import com.xqbase.bn.io.JsonEncoder;
+import com.xqbase.bn.io.ResolvingDecoder;
+import com.xqbase.bn.io.parsing.JsonGrammarGenerator;
+import com.xqbase.bn.io.parsing.Symbol;
+import com.xqbase.bn.metrics.CacheCounter;
+import com.xqbase.bn.metrics.SchemaMetrics;
+import com.xqbase.bn.metrics.SerializerMetrics;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificData;
+import com.xqbase.bn.specific.SpecificDatumReader;
+import com.xqbase.bn.specific.SpecificDatumWriter;
+import com.xqbase.bn.specific.SpecificRecord;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything compiled to write and read records of one class in one format, from
+ * data written with one writer schema: the datum writer and reader, the resolving
+ * program and, for JSON, the grammar.
+ * <p/>
+ * A plan is immutable once built and is shared by all threads. The encoder and
+ * decoder a call needs are kept in a cursor per thread and reconfigured for each
+ * stream, so that a call allocates no codec state. Plans are cached by class,
+ * format and writer schema identity; {@link #get} builds one on first use.
+ *
+ * @author Tony He
+ */
+public final class SerializerPlan<T extends SpecificRecord> {
+
+    public enum Format {
+        BINARY, JSON
+    }
+
+    // generators are closed after each record to recycle their buffers, leaving the stream open
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ConcurrentHashMap<Key, SerializerPlan<?>> planCache = new ConcurrentHashMap<>();
+
+    private final Class<T> recordClass;
+    private final Format format;
+    private final Schema schema;
+    private final Schema writerSchema;
+    private final SpecificDatumWriter<T> binaryWriter;
+    private final GenericJsonDatumWriter<T> jsonWriter;
+    private final SpecificDatumReader<T> reader;
+    private final Object resolver;
+    private final Symbol jsonGrammar;
+
+    private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+        @Override
+        protected Cursor initialValue() {
+            return new Cursor();
+        }
+    };
+
+    private SerializerPlan(Class<T> recordClass, Format format, Schema schema, Schema writerSchema) {
+        this.recordClass = recordClass;
+        this.format = format;
+        this.schema = schema;
+        this.writerSchema = writerSchema;
+        this.reader = new SpecificDatumReader<>(writerSchema, schema, SpecificData.get());
+        this.resolver = ResolvingDecoder.resolve(writerSchema, schema);
+        if (format == Format.BINARY) {
+            this.binaryWriter = new SpecificDatumWriter<>(schema);
+            this.jsonWriter = null;
+            this.jsonGrammar = null;
+        } else {
+            this.binaryWriter = null;
+            this.jsonWriter = new GenericJsonDatumWriter<>(schema, SpecificData.get());
+            this.jsonGrammar = new JsonGrammarGenerator().generate(schema);
+        }
+    }
+
+    /**
+     * Returns the plan for data of <tt>recordClass</tt> written with its own schema.
+     */
+    public static <T extends SpecificRecord> SerializerPlan<T> get(Class<T> recordClass, Format format) {
+        return get(recordClass, format, null);
+    }
+
+    /**
+     * Returns the plan for data of <tt>recordClass</tt> written with <tt>writerSchema</tt>,
+     * or with its own schema if <tt>writerSchema</tt> is null.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends SpecificRecord> SerializerPlan<T> get(Class<T> recordClass, Format format,
+                                                                   Schema writerSchema) {
+        if (null == recordClass) {
+            throw new NullPointerException("recordClass cannot be null");
+        }
+        if (null == format) {
+            throw new NullPointerException("format cannot be null");
+        }
+        Key key = new Key(recordClass, format, writerSchema);
+        SerializerPlan<T> plan = (SerializerPlan<T>) planCache.get(key);
+        if (null == plan) {
+            Schema schema = newRecord(recordClass).getSchema();
+            plan = new SerializerPlan<>(recordClass, format, schema, null == writerSchema ? schema : writerSchema);
+            SerializerPlan<T> existedPlan = (SerializerPlan<T>) planCache.putIfAbsent(key, plan);
+            if (existedPlan != null) {
+                plan = existedPlan;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Looks up a plan as a serializer does, recording the lookup in the writer or
+     * reader cache counter of {@link SerializerMetrics}.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends SpecificRecord> SerializerPlan<T> lookup(Class<T> recordClass, Format format, boolean writing) {
+        if (!SerializerMetrics.isEnabled()) {
+            return get(recordClass, format);
+        }
+        boolean hit = planCache.containsKey(new Key(recordClass, format, null));
+        SerializerPlan<T> plan = get(recordClass, format);
+        SchemaMetrics metrics = SerializerMetrics.get(plan.schema);
+        CacheCounter counter = writing ? metrics.getWriterCache() : metrics.getReaderCache();
+        counter.record(hit);
+        return plan;
+    }
+
+    private static <T extends SpecificRecord> T newRecord(Class<T> recordClass) {
+        try {
+            Constructor<T> ctor = recordClass.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            return ctor.newInstance();
+        } catch (Exception e) {
+            throw new BaijiRuntimeException("Can not create instance of " + recordClass.getName(), e);
+        }
+    }
+
+    public Class<T> getRecordClass() {
+        return recordClass;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the schema of the record class, which records are read as.
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the schema the data read by this plan was written with.
+     */
+    public Schema getWriterSchema() {
+        return writerSchema;
+    }
+
+    /**
+     * Returns the resolver of the writer schema against the record schema, as
+     * given by {@link ResolvingDecoder#resolve(Schema, Schema)}.
+     */
+    public Object getResolver() {
+        return resolver;
+    }
+
+    /**
+     * Returns the JSON grammar of the record schema, or null for a binary plan.
+     */
+    public Symbol getJsonGrammar() {
+        return jsonGrammar;
+    }
+
+    /**
+     * Returns a validating {@link JsonEncoder} built on the grammar of this plan.
+     */
+    public JsonEncoder newJsonEncoder(JsonGenerator generator) throws IOException {
+        if (null == jsonGrammar) {
+            throw new BaijiRuntimeException("Not a JSON plan: " + recordClass.getName());
+        }
+        return new JsonEncoder(jsonGrammar, generator);
+    }
+
+    /**
+     * Writes a record with the record schema. Only plans for data written with the
+     * record schema can write.
+     */
+    public void write(T datum, OutputStream out) throws IOException {
+        if (writerSchema != schema) {
+            throw new BaijiRuntimeException("Plan reads data written with another schema, it cannot write "
+                    + recordClass.getName());
+        }
+        if (format == Format.JSON) {
+            JsonGenerator generator = JSON_FACTORY.createJsonGenerator(out, JsonEncoding.UTF8);
+            try {
+                jsonWriter.write(datum, generator);
+            } finally {
+                generator.close();
+            }
+            return;
+        }
+        Cursor cursor = acquire();
+        try {
+            binaryWriter.write(datum, cursor.encoder(out));
+        } finally {
+            cursor.busy = false;
+        }
+    }
+
+    /**
+     * Reads a record, reusing <tt>reuse</tt> if possible.
+     */
+    public T read(T reuse, InputStream in) throws IOException {
+        Cursor cursor = acquire();
+        try {
+            if (format == Format.JSON) {
+                return reader.read(reuse, cursor.jsonDecoder(in));
+            }
+            return reader.read(reuse, cursor.decoder(in));
+        } finally {
+            cursor.busy = false;
+        }
+    }
+
+    private Cursor acquire() {
+        Cursor cursor = cursors.get();
+        if (cursor.busy) {
+            // a record being written or read by this thread writes or reads another
+            cursor = new Cursor();
+        }
+        cursor.busy = true;
+        return cursor;
+    }
+
+    /**
+     * The encoder and decoders of one thread, created on first use.
+     */
+    private final class Cursor {
+        private boolean busy;
+        private DirectBinaryEncoder encoder;
+        private DirectBinaryDecoder decoder;
+        private JsonDecoder jsonDecoder;
+
+        DirectBinaryEncoder encoder(OutputStream out) {
+            return null == encoder ? encoder = new DirectBinaryEncoder(out) : encoder.configure(out);
+        }
+
+        DirectBinaryDecoder decoder(InputStream in) {
+            return null == decoder ? decoder = new DirectBinaryDecoder(in) : decoder.configure(in);
+        }
+
+        JsonDecoder jsonDecoder(InputStream in) throws IOException {
+            return null == jsonDecoder ? jsonDecoder = new JsonDecoder(writerSchema, in) : jsonDecoder.configure(in);
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> recordClass;
+        private final Format format;
+        // compared by identity, null for the schema of the record class
+        private final Schema writerSchema;
+
+        Key(Class<?> recordClass, Format format, Schema writerSchema) {
+            this.recordClass = recordClass;
+            this.format = format;
+            this.writerSchema = writerSchema;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return recordClass == that.recordClass && format == that.format && writerSchema == that.writerSchema;
+        }
+
+        @Override
+        public int hashCode() {
+            return (recordClass.hashCode() * 31 + format.hashCode()) * 31 + System.identityHashCode(writerSchema);
+        }
+    }
+}
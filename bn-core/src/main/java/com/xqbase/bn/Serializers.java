@@ -0,0 +1,91 @@
+package com.xqbase.bn;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.specific.SpecificData;
+import com.xqbase.bn.specific.SpecificRecord;
+import com.xqbase.bn.util.RandomData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Static helpers for the serializers.
+ *
+ * @author Tony He
+ */
+public final class Serializers {
+
+    public static final int DEFAULT_WARM_UP_ROUNDS = 2000;
+
+    // distinct records generated per class, cycled through by the rounds
+    private static final int SAMPLES = 16;
+    private static final long SEED = 0x5eed;
+
+    private Serializers() {
+    }
+
+    /**
+     * Warms up the serializers of the given record classes with
+     * {@value #DEFAULT_WARM_UP_ROUNDS} rounds. See {@link #warmUp(Collection, int)}.
+     */
+    public static void warmUp(Collection<Class<? extends SpecificRecord>> classes) {
+        warmUp(classes, DEFAULT_WARM_UP_ROUNDS);
+    }
+
+    /**
+     * Builds the {@link SerializerPlan}s of the given record classes in every format,
+     * which compiles their writers, readers, resolvers and grammars, then writes and
+     * reads <tt>rounds</tt> random records per class and format so that the JIT
+     * compiles the paths they take. Each distinct random record is checked to read
+     * back equal to the record written. Meant to be called at startup, before traffic.
+     * <p/>
+     * The resolvers datum readers keep per thread are only built for the calling
+     * thread; other threads build theirs from the shared compiled programs.
+     *
+     * @throws BaijiRuntimeException if a class cannot be instantiated, or a random
+     *                               record of it does not round trip
+     */
+    public static void warmUp(Collection<Class<? extends SpecificRecord>> classes, int rounds) {
+        if (rounds < 0) {
+            throw new IllegalArgumentException("rounds cannot be negative: " + rounds);
+        }
+        for (Class<? extends SpecificRecord> clazz : classes) {
+            for (SerializerPlan.Format format : SerializerPlan.Format.values()) {
+                warmUp(SerializerPlan.get(clazz, format), rounds);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends SpecificRecord> void warmUp(SerializerPlan<T> plan, int rounds) {
+        if (0 == rounds) {
+            return;
+        }
+        RandomData random = new RandomData(SpecificData.get(), SEED);
+        Object[] samples = new Object[Math.min(rounds, SAMPLES)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.generate(plan.getSchema());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        T reuse = null;
+        try {
+            for (int i = 0; i < rounds; i++) {
+                T sample = (T) samples[i % samples.length];
+                out.reset();
+                plan.write(sample, out);
+                reuse = plan.read(reuse, new ByteArrayInputStream(out.toByteArray()));
+                // later rounds repeat the samples, checked in the first ones
+                if (i < samples.length && !sample.equals(reuse)) {
+                    throw new BaijiRuntimeException(plan.getFormat() + " serialization of "
+                            + plan.getRecordClass().getName() + " does not round trip: wrote " + sample
+                            + ", read " + reuse);
+                }
+            }
+        } catch (IOException e) {
+            throw new BaijiRuntimeException("Failed to warm up " + plan.getFormat() + " serialization of "
+                    + plan.getRecordClass().getName(), e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.xqbase.bn.columnar;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.schema.SchemaType;
+
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A batch of records read by a {@link ColumnarCodec}, held as one column per field.
+ * <p/>
+ * Int, long, date time and enum columns are held as <tt>long[]</tt> (date times
+ * in milliseconds since the epoch, enums as ordinals), float and double columns
+ * as <tt>double[]</tt>, boolean columns as a {@link BitSet} and string columns as
+ * a dictionary and an index into it per row. The vectors are indexed by row and
+ * returned without copying. Rows are only assembled into records when asked for.
+ *
+ * @author Tony He
+ */
+public class ColumnBatch<T> {
+
+    private final RecordSchema schema;
+    private final GenericData data;
+    private final int size;
+    private final Column[] columns;
+
+    ColumnBatch(RecordSchema schema, GenericData data, int size, Column[] columns) {
+        this.schema = schema;
+        this.data = data;
+        this.size = size;
+        this.columns = columns;
+    }
+
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the field at <tt>field</tt> is null in <tt>row</tt>.
+     */
+    public boolean isNull(int field, int row) {
+        Column column = columns[field];
+        checkRow(row);
+        if (column.values != null) {
+            return null == column.values[row];
+        }
+        return column.present != null && !column.present.get(row);
+    }
+
+    public long getLong(int field, int row) {
+        checkRow(row);
+        return getLongs(field)[row];
+    }
+
+    public int getInt(int field, int row) {
+        return (int) getLong(field, row);
+    }
+
+    public double getDouble(int field, int row) {
+        checkRow(row);
+        return getDoubles(field)[row];
+    }
+
+    public float getFloat(int field, int row) {
+        return (float) getDouble(field, row);
+    }
+
+    public boolean getBoolean(int field, int row) {
+        checkRow(row);
+        return getBooleans(field).get(row);
+    }
+
+    /**
+     * Returns the string of a string column, or null if it is not set in <tt>row</tt>.
+     */
+    public String getString(int field, int row) {
+        if (isNull(field, row)) {
+            return null;
+        }
+        return getDictionary(field)[getCodes(field)[row]];
+    }
+
+    /**
+     * Returns the value of the field at <tt>field</tt> in <tt>row</tt>, as it
+     * would be read by a {@link com.xqbase.bn.generic.GenericDatumReader}.
+     */
+    public Object get(int field, int row) {
+        if (isNull(field, row)) {
+            return null;
+        }
+        Column column = columns[field];
+        switch (column.kind) {
+            case LONG:
+                SchemaType type = column.valueSchema.getType();
+                if (type == SchemaType.INT) {
+                    return (int) column.longs[row];
+                } else if (type == SchemaType.DATETIME) {
+                    return Instant.ofEpochMilli(column.longs[row]);
+                }
+                return column.longs[row];
+            case ENUM:
+                return data.createEnum((int) column.longs[row], (EnumSchema) column.valueSchema);
+            case FLOAT:
+                return (float) column.doubles[row];
+            case DOUBLE:
+                return column.doubles[row];
+            case BOOLEAN:
+                return column.booleans.get(row);
+            case STRING:
+                return column.dictionary[column.codes[row]];
+            default:
+                return column.values[row];
+        }
+    }
+
+    /**
+     * Returns the values of an int, long, date time or enum column.
+     */
+    public long[] getLongs(int field) {
+        return column(field, ColumnarCodec.Kind.LONG, ColumnarCodec.Kind.ENUM).longs;
+    }
+
+    /**
+     * Returns the values of a float or double column.
+     */
+    public double[] getDoubles(int field) {
+        return column(field, ColumnarCodec.Kind.FLOAT, ColumnarCodec.Kind.DOUBLE).doubles;
+    }
+
+    /**
+     * Returns the rows a boolean column is true in.
+     */
+    public BitSet getBooleans(int field) {
+        return column(field, ColumnarCodec.Kind.BOOLEAN, ColumnarCodec.Kind.BOOLEAN).booleans;
+    }
+
+    /**
+     * Returns the distinct values of a string column.
+     */
+    public String[] getDictionary(int field) {
+        return column(field, ColumnarCodec.Kind.STRING, ColumnarCodec.Kind.STRING).dictionary;
+    }
+
+    /**
+     * Returns the index into {@link #getDictionary} of each row of a string column.
+     */
+    public int[] getCodes(int field) {
+        return column(field, ColumnarCodec.Kind.STRING, ColumnarCodec.Kind.STRING).codes;
+    }
+
+    /**
+     * Assembles the record at <tt>row</tt>.
+     */
+    public T getRow(int row) {
+        return getRow(row, null);
+    }
+
+    /**
+     * Assembles the record at <tt>row</tt>, reusing <tt>reuse</tt> if possible.
+     */
+    @SuppressWarnings("unchecked")
+    public T getRow(int row, T reuse) {
+        checkRow(row);
+        Object record = data.newRecord(reuse, schema);
+        for (Field field : schema.getFields()) {
+            data.setField(record, field.getName(), field.getPos(), get(field.getPos(), row));
+        }
+        return (T) record;
+    }
+
+    /**
+     * Returns a view of the rows, each assembled when it is got.
+     */
+    public List<T> asList() {
+        return new RowList();
+    }
+
+    private Column column(int field, ColumnarCodec.Kind kind, ColumnarCodec.Kind other) {
+        Column column = columns[field];
+        if (column.kind != kind && column.kind != other) {
+            throw new BaijiTypeException("Field " + column.field.getName() + " is a " + column.kind + " column");
+        }
+        return column;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    static final class Column {
+        final Field field;
+        final ColumnarCodec.Kind kind;
+        final Schema valueSchema;
+        // the rows a nullable column is set in, or null
+        final BitSet present;
+        long[] longs;
+        double[] doubles;
+        BitSet booleans;
+        String[] dictionary;
+        int[] codes;
+        Object[] values;
+
+        Column(Field field, ColumnarCodec.Kind kind, Schema valueSchema, BitSet present) {
+            this.field = field;
+            this.kind = kind;
+            this.valueSchema = valueSchema;
+            this.present = present;
+        }
+    }
+
+    private class RowList extends AbstractList<T> implements RandomAccess {
+        @Override
+        public T get(int index) {
+            return getRow(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
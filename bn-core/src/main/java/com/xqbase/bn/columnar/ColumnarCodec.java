@@ -0,0 +1,369 @@
+package com.xqbase.bn.columnar;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.io.Decoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.schema.SchemaType;
+import com.xqbase.bn.schema.UnionSchema;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a list of records of one schema column by column, and reads them back
+ * into a {@link ColumnBatch}.
+ * <p/>
+ * A batch starts with its number of rows, followed by one column per field in
+ * schema order. Int, long and date time columns are written as the zig-zag
+ * differences between consecutive values, enums as ordinals, booleans packed
+ * eight to a byte, and strings as a dictionary of distinct values followed by
+ * an index into it per row. A field of type <tt>["null", X]</tt> starts with a
+ * bitmap of the rows it is set in; only those rows are written. Other fields are
+ * written value by value in the binary encoding of their schema.
+ * <p/>
+ * ColumnarCodec is thread safe; the encoders and decoders passed in are not.
+ *
+ * @author Tony He
+ */
+public class ColumnarCodec {
+
+    enum Kind {
+        LONG, ENUM, FLOAT, DOUBLE, BOOLEAN, STRING, DATUM
+    }
+
+    private final RecordSchema schema;
+    private final GenericData data;
+    private final ColumnType[] types;
+
+    public ColumnarCodec(RecordSchema schema) {
+        this(schema, GenericData.get());
+    }
+
+    public ColumnarCodec(RecordSchema schema, GenericData data) {
+        if (null == schema) {
+            throw new NullPointerException("schema cannot be null");
+        }
+        this.schema = schema;
+        this.data = data;
+        List<Field> fields = schema.getFields();
+        this.types = new ColumnType[fields.size()];
+        for (Field field : fields) {
+            types[field.getPos()] = new ColumnType(field, data);
+        }
+    }
+
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Writes <tt>records</tt> as one batch.
+     */
+    public void write(List<?> records, Encoder out) throws IOException {
+        int rows = records.size();
+        out.writeInt(rows);
+        if (0 == rows) {
+            return;
+        }
+        Object[] values = new Object[rows];
+        for (ColumnType type : types) {
+            Field field = type.field;
+            int count = 0;
+            BitSet present = null;
+            for (int row = 0; row < rows; row++) {
+                Object value = data.getField(records.get(row), field.getName(), field.getPos());
+                if (type.nullable) {
+                    if (null == value) {
+                        continue;
+                    }
+                    if (null == present) {
+                        present = new BitSet(rows);
+                    }
+                    present.set(row);
+                }
+                values[count++] = value;
+            }
+            if (type.nullable) {
+                writeBits(present, rows, out);
+            }
+            writeColumn(type, values, count, out);
+        }
+    }
+
+    /**
+     * Reads the next batch of <tt>in</tt>.
+     */
+    public <T> ColumnBatch<T> read(Decoder in) throws IOException {
+        int rows = in.readInt();
+        if (rows < 0) {
+            throw new BaijiTypeException("Invalid number of rows: " + rows);
+        }
+        ColumnBatch.Column[] columns = new ColumnBatch.Column[types.length];
+        for (ColumnType type : types) {
+            BitSet present = null;
+            if (rows > 0 && type.nullable) {
+                present = readBits(rows, in);
+            }
+            ColumnBatch.Column column = new ColumnBatch.Column(type.field, type.kind, type.valueSchema, present);
+            if (rows > 0) {
+                readColumn(type, column, rows, in);
+            }
+            columns[type.field.getPos()] = column;
+        }
+        return new ColumnBatch<>(schema, data, rows, columns);
+    }
+
+    private void writeColumn(ColumnType type, Object[] values, int count, Encoder out) throws IOException {
+        switch (type.kind) {
+            case LONG:
+                long previous = 0;
+                for (int i = 0; i < count; i++) {
+                    long value = toLong(values[i]);
+                    out.writeLong(value - previous);
+                    previous = value;
+                }
+                break;
+            case ENUM:
+                EnumSchema enumSchema = (EnumSchema) type.valueSchema;
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(data.getEnumOrdinal(enumSchema, values[i]));
+                }
+                break;
+            case FLOAT:
+                for (int i = 0; i < count; i++) {
+                    out.writeFloat((Float) values[i]);
+                }
+                break;
+            case DOUBLE:
+                for (int i = 0; i < count; i++) {
+                    out.writeDouble((Double) values[i]);
+                }
+                break;
+            case BOOLEAN:
+                BitSet bits = new BitSet(count);
+                for (int i = 0; i < count; i++) {
+                    if ((Boolean) values[i]) {
+                        bits.set(i);
+                    }
+                }
+                writeBits(bits, count, out);
+                break;
+            case STRING:
+                Map<String, Integer> dictionary = new HashMap<>();
+                int[] codes = new int[count];
+                String[] entries = new String[count];
+                for (int i = 0; i < count; i++) {
+                    String value = values[i].toString();
+                    Integer code = dictionary.get(value);
+                    if (null == code) {
+                        code = dictionary.size();
+                        dictionary.put(value, code);
+                        entries[code] = value;
+                    }
+                    codes[i] = code;
+                }
+                out.writeInt(dictionary.size());
+                for (int i = 0; i < dictionary.size(); i++) {
+                    out.writeString(entries[i]);
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(codes[i]);
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    type.writer.write(values[i], out);
+                }
+        }
+    }
+
+    private void readColumn(ColumnType type, ColumnBatch.Column column, int rows, Decoder in) throws IOException {
+        BitSet present = column.present;
+        switch (type.kind) {
+            case LONG:
+            case ENUM:
+                long[] longs = new long[rows];
+                long previous = 0;
+                for (int row = nextRow(present, 0, rows); row < rows; row = nextRow(present, row + 1, rows)) {
+                    if (type.kind == Kind.ENUM) {
+                        longs[row] = in.readInt();
+                    } else {
+                        previous += in.readLong();
+                        longs[row] = previous;
+                    }
+                }
+                column.longs = longs;
+                break;
+            case FLOAT:
+            case DOUBLE:
+                double[] doubles = new double[rows];
+                for (int row = nextRow(present, 0, rows); row < rows; row = nextRow(present, row + 1, rows)) {
+                    doubles[row] = type.kind == Kind.FLOAT ? in.readFloat() : in.readDouble();
+                }
+                column.doubles = doubles;
+                break;
+            case BOOLEAN:
+                int count = null == present ? rows : present.cardinality();
+                BitSet packed = readBits(count, in);
+                BitSet booleans = new BitSet(rows);
+                int i = 0;
+                for (int row = nextRow(present, 0, rows); row < rows; row = nextRow(present, row + 1, rows)) {
+                    if (packed.get(i++)) {
+                        booleans.set(row);
+                    }
+                }
+                column.booleans = booleans;
+                break;
+            case STRING:
+                int size = in.readInt();
+                if (size < 0) {
+                    throw new BaijiTypeException("Invalid dictionary size: " + size);
+                }
+                String[] dictionary = new String[size];
+                for (int j = 0; j < size; j++) {
+                    dictionary[j] = in.readString();
+                }
+                int[] codes = new int[rows];
+                for (int row = nextRow(present, 0, rows); row < rows; row = nextRow(present, row + 1, rows)) {
+                    int code = in.readInt();
+                    if (code < 0 || code >= size) {
+                        throw new BaijiTypeException("Invalid dictionary index: " + code);
+                    }
+                    codes[row] = code;
+                }
+                column.dictionary = dictionary;
+                column.codes = codes;
+                break;
+            default:
+                Object[] values = new Object[rows];
+                for (int row = 0; row < rows; row++) {
+                    values[row] = type.reader.read(null, in);
+                }
+                column.values = values;
+        }
+    }
+
+    // The rows a nullable column is set in, or all of them.
+    private static int nextRow(BitSet present, int from, int rows) {
+        if (null == present) {
+            return from;
+        }
+        int row = present.nextSetBit(from);
+        return row < 0 ? rows : row;
+    }
+
+    private static void writeBits(BitSet bits, int count, Encoder out) throws IOException {
+        byte[] bytes = new byte[(count + 7) >>> 3];
+        if (bits != null) {
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                bytes[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.writeFixed(bytes, 0, bytes.length);
+    }
+
+    private static BitSet readBits(int count, Decoder in) throws IOException {
+        byte[] bytes = new byte[(count + 7) >>> 3];
+        in.readFixed(bytes, 0, bytes.length);
+        return BitSet.valueOf(bytes);
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli();
+        } else if (value instanceof Calendar) {
+            return ((Calendar) value).getTimeInMillis();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        throw new BaijiTypeException("Not a number or date time: " + value);
+    }
+
+    /**
+     * How the values of a field are written. Only <tt>["null", X]</tt> with a
+     * primitive, string or enum <tt>X</tt> is written as a nullable column.
+     */
+    private static final class ColumnType {
+        final Field field;
+        final Kind kind;
+        final Schema valueSchema;
+        final boolean nullable;
+        final GenericDatumWriter<Object> writer;
+        final GenericDatumReader<Object> reader;
+
+        ColumnType(Field field, GenericData data) {
+            this.field = field;
+            Schema schema = field.getSchema();
+            Schema branch = nullableBranch(schema);
+            Kind branchKind = null == branch ? Kind.DATUM : kind(branch);
+            if (branchKind != Kind.DATUM) {
+                this.kind = branchKind;
+                this.valueSchema = branch;
+                this.nullable = true;
+            } else {
+                this.kind = kind(schema);
+                this.valueSchema = schema;
+                this.nullable = false;
+            }
+            if (kind == Kind.DATUM) {
+                this.writer = new GenericDatumWriter<>(valueSchema, data);
+                this.reader = new GenericDatumReader<>(valueSchema, data);
+            } else {
+                this.writer = null;
+                this.reader = null;
+            }
+        }
+
+        private static Schema nullableBranch(Schema schema) {
+            if (schema.getType() != SchemaType.UNION) {
+                return null;
+            }
+            UnionSchema union = (UnionSchema) schema;
+            if (union.size() != 2) {
+                return null;
+            }
+            if (union.get(0).getType() == SchemaType.NULL) {
+                return union.get(1);
+            } else if (union.get(1).getType() == SchemaType.NULL) {
+                return union.get(0);
+            }
+            return null;
+        }
+
+        private static Kind kind(Schema schema) {
+            switch (schema.getType()) {
+                case INT:
+                case LONG:
+                case DATETIME:
+                    return Kind.LONG;
+                case ENUM:
+                    return Kind.ENUM;
+                case FLOAT:
+                    return Kind.FLOAT;
+                case DOUBLE:
+                    return Kind.DOUBLE;
+                case BOOLEAN:
+                    return Kind.BOOLEAN;
+                case STRING:
+                    return Kind.STRING;
+                default:
+                    return Kind.DATUM;
+            }
+        }
+    }
+}
@@ -1,9 +1,30 @@
 package com.xqbase.bn.generic;
 
+import com.google.common.collect.MapMaker;
 import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.BinaryData;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.MapSchema;
 import com.xqbase.bn.schema.RecordSchema;
 import com.xqbase.bn.schema.Schema;
 import com.xqbase.bn.schema.SchemaType;
+import com.xqbase.bn.schema.UnionSchema;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.BaseStream;
 
 /**
  * Utilities for generic Java data.
@@ -16,6 +37,15 @@ public class GenericData {
 
     private final ClassLoader classLoader;
 
+    // union branches by runtime class, keyed by union identity.
+    private final Map<UnionSchema, UnionBranches> unionBranches = new MapMaker().weakKeys().makeMap();
+    // fixed and variable sized fields, keyed by record schema identity.
+    private final Map<RecordSchema, RecordSize> recordSizes = new MapMaker().weakKeys().makeMap();
+    // symbol ordinals of the constants of each Java enum class, keyed by enum schema identity.
+    private final Map<EnumSchema, Map<Class<?>, int[]>> enumOrdinals = new MapMaker().weakKeys().makeMap();
+    // the immutable enum values read for each symbol, keyed by enum schema identity.
+    private final Map<EnumSchema, GenericEnum[]> enumValues = new MapMaker().weakKeys().makeMap();
+
     /** Return the singleton instance. */
     public static GenericData get() {
         return INSTANCE;
@@ -33,16 +63,271 @@ public class GenericData {
                 : getClass().getClassLoader();
     }
 
+    /** Return the class loader used to find generated classes. */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Called by {@link com.xqbase.bn.generic.GenericDatumWriter} to retrieve a record field value.
+     */
     public Object getField(Object record, String name, int position) {
         return ((IndexedRecord) record).get(position);
     }
 
     /**
-     * A default implementation of {@link com.xqbase.bn.generic.GenericRecord}.
+     * Called by {@link com.xqbase.bn.generic.GenericDatumReader} to set a record field value.
+     */
+    public void setField(Object record, String name, int position, Object value) {
+        ((IndexedRecord) record).put(position, value);
+    }
+
+    /**
+     * Called by {@link com.xqbase.bn.generic.GenericDatumReader} to create an enum value.
+     */
+    public Object createEnum(String symbol, EnumSchema schema) {
+        return new GenericEnum(schema, symbol);
+    }
+
+    /**
+     * Called by {@link com.xqbase.bn.generic.GenericDatumReader} to create the enum value
+     * of the symbol at <tt>ordinal</tt>. Subclasses overriding {@link #createEnum(String, EnumSchema)}
+     * should override this too. The values are shared, and cannot be changed.
+     */
+    public Object createEnum(int ordinal, EnumSchema schema) {
+        GenericEnum[] values = enumValues.get(schema);
+        if (null == values) {
+            values = new GenericEnum[schema.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new GenericEnum(schema, i, true);
+            }
+            enumValues.put(schema, values);
+        }
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new BaijiRuntimeException("Unknown ordinal for enum: " + ordinal + "(" + schema + ")");
+        }
+        return values[ordinal];
+    }
+
+    /**
+     * Returns the ordinal in <tt>schema</tt> of an enum value, which may be a
+     * {@link GenericEnum}, a Java enum or a symbol. The ordinal of a
+     * {@link GenericEnum} of the same schema is carried by the value, and the
+     * ordinals of Java enum constants are looked up in an array per enum class.
+     */
+    public int getEnumOrdinal(EnumSchema schema, Object datum) {
+        if (datum instanceof GenericEnum) {
+            GenericEnum genericEnum = (GenericEnum) datum;
+            return genericEnum.getSchema() == schema
+                    ? genericEnum.getOrdinal()
+                    : schema.getEnumOrdinal(genericEnum.getValue());
+        } else if (datum instanceof Enum) {
+            Enum<?> constant = (Enum<?>) datum;
+            int ordinal = enumOrdinals(schema, constant.getDeclaringClass())[constant.ordinal()];
+            if (ordinal < 0) {
+                throw new BaijiTypeException("Unknown symbol for enum: " + constant.name() + "(" + schema + ")");
+            }
+            return ordinal;
+        }
+        return schema.getEnumOrdinal(datum.toString());
+    }
+
+    private int[] enumOrdinals(EnumSchema schema, Class<?> enumClass) {
+        Map<Class<?>, int[]> byClass = enumOrdinals.get(schema);
+        if (null == byClass) {
+            byClass = new MapMaker().weakKeys().makeMap();
+            enumOrdinals.put(schema, byClass);
+        }
+        int[] ordinals = byClass.get(enumClass);
+        if (null == ordinals) {
+            Object[] constants = enumClass.getEnumConstants();
+            ordinals = new int[constants.length];
+            for (int i = 0; i < constants.length; i++) {
+                String name = ((Enum<?>) constants[i]).name();
+                ordinals[i] = schema.contains(name) ? schema.getEnumOrdinal(name) : -1;
+            }
+            byClass.put(enumClass, ordinals);
+        }
+        return ordinals;
+    }
+
+    /**
+     * Called by {@link com.xqbase.bn.generic.GenericDatumWriter} to find the branch of
+     * the union the datum is written as. Branches are cached per runtime class, and
+     * the non-null branch of <tt>["null", X]</tt> is returned without any lookup.
+     */
+    public int resolveUnion(UnionSchema union, Object datum) {
+        UnionBranches branches = unionBranches.get(union);
+        if (null == branches) {
+            branches = new UnionBranches(union);
+            unionBranches.put(union, branches);
+        }
+        if (null == datum) {
+            if (branches.nullIndex < 0) {
+                throw new BaijiRuntimeException("Not in union " + union + ": null");
+            }
+            return branches.nullIndex;
+        }
+        if (branches.valueIndex >= 0) {
+            return branches.valueIndex;
+        }
+
+        Class<?> c = datum.getClass();
+        Integer index = branches.byClass.get(c);
+        if (null == index) {
+            index = resolveUnion(union, c);
+            branches.byClass.put(c, index);
+        }
+        if (index == UnionBranches.BY_SCHEMA) {
+            Schema schema = datum instanceof GenericContainer ? ((GenericContainer) datum).getSchema()
+                    : ((GenericEnum) datum).getSchema();
+            index = union.getIndexNamed(schema.getName());
+        }
+        if (null == index || index < 0) {
+            throw new BaijiRuntimeException("Not in union " + union + ": " + datum);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the only branch of the union that accepts instances of the class, or
+     * {@link UnionBranches#BY_SCHEMA} if the branch depends on the schema of the datum,
+     * or -1 if no branch accepts it.
+     */
+    private int resolveUnion(UnionSchema union, Class<?> c) {
+        int result = -1;
+        for (int i = 0; i < union.size(); i++) {
+            if (accepts(union.get(i), c)) {
+                if (result >= 0) {
+                    if (GenericContainer.class.isAssignableFrom(c) || GenericEnum.class.isAssignableFrom(c)) {
+                        return UnionBranches.BY_SCHEMA;
+                    }
+                    return c.isEnum() ? resolveEnumUnion(union, c) : result;
+                }
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the branch of a union with several enum branches that a Java enum
+     * class is written as: the branch named like the class, or else the only branch
+     * with all the constants of the class among its symbols.
+     */
+    private int resolveEnumUnion(UnionSchema union, Class<?> c) {
+        Object[] constants = c.getEnumConstants();
+        int named = -1;
+        int namedCount = 0;
+        int matching = -1;
+        int matchingCount = 0;
+        for (int i = 0; i < union.size(); i++) {
+            Schema branch = union.get(i);
+            if (branch.getType() != SchemaType.ENUM || !accepts(branch, c)) {
+                continue;
+            }
+            EnumSchema enumSchema = (EnumSchema) branch;
+            if (enumSchema.getName().equals(c.getSimpleName())) {
+                named = i;
+                namedCount++;
+            }
+            boolean all = true;
+            for (Object constant : constants) {
+                if (!enumSchema.contains(((Enum<?>) constant).name())) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                matching = i;
+                matchingCount++;
+            }
+        }
+        if (1 == namedCount) {
+            return named;
+        }
+        if (1 == matchingCount) {
+            return matching;
+        }
+        throw new BaijiRuntimeException("Ambiguous union " + union + " for enum " + c.getName());
+    }
+
+    /**
+     * Returns whether values of the schema may be represented by instances of the class.
+     */
+    protected boolean accepts(Schema schema, Class<?> c) {
+        switch (schema.getType()) {
+            case RECORD:
+                return IndexedRecord.class.isAssignableFrom(c);
+            case ENUM:
+                return GenericEnum.class.isAssignableFrom(c) || c.isEnum();
+            case ARRAY:
+                return Collection.class.isAssignableFrom(c) || Iterator.class.isAssignableFrom(c)
+                        || BaseStream.class.isAssignableFrom(c);
+            case MAP:
+                return Map.class.isAssignableFrom(c);
+            case STRING:
+                return CharSequence.class.isAssignableFrom(c);
+            case BYTES:
+                return ByteBuffer.class.isAssignableFrom(c);
+            case INT:
+                return c == Integer.class;
+            case LONG:
+                return c == Long.class;
+            case FLOAT:
+                return c == Float.class;
+            case DOUBLE:
+                return c == Double.class;
+            case BOOLEAN:
+                return c == Boolean.class;
+            case DATETIME:
+                return Instant.class.isAssignableFrom(c) || Calendar.class.isAssignableFrom(c)
+                        || Date.class.isAssignableFrom(c);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The resolved branches of a union.
+     */
+    private static final class UnionBranches {
+
+        // the branch depends on the schema of the datum, not on its class.
+        static final int BY_SCHEMA = Integer.MAX_VALUE;
+
+        final int nullIndex;
+        // the non-null branch of ["null", X], or -1.
+        final int valueIndex;
+        final Map<Class<?>, Integer> byClass = new ConcurrentHashMap<>();
+
+        UnionBranches(UnionSchema union) {
+            int nullIndex = -1;
+            for (int i = 0; i < union.size(); i++) {
+                if (union.get(i).getType() == SchemaType.NULL) {
+                    nullIndex = i;
+                }
+            }
+            this.nullIndex = nullIndex;
+            this.valueIndex = nullIndex >= 0 && union.size() == 2 ? 1 - nullIndex : -1;
+        }
+    }
+
+    /**
+     * Default implementation of {@link com.xqbase.bn.generic.GenericRecord}.
+     * <p/>
+     * Values of int, long, boolean and datetime fields are kept in a <tt>long[]</tt>
+     * and values of float and double fields in a <tt>double[]</tt>, so that the typed
+     * accessors such as {@link #getLong(int)} and {@link #putLong(int, long)} never box.
+     * Datetime values are kept as milliseconds since the epoch and returned
+     * as {@link Instant} by {@link #get(int)}.
      */
-    private static class Record implements GenericRecord, Comparable<Record> {
+    public static class Record implements GenericRecord, Comparable<Record> {
 
         private final RecordSchema recordSchema;
+        private final RecordLayout layout;
+        private final long[] longs;
+        private final double[] doubles;
         private final Object[] values;
 
         public Record(RecordSchema recordSchema) {
@@ -50,44 +335,227 @@ public class GenericData {
                 throw new BaijiRuntimeException("schema type is not record: " + recordSchema);
             }
             this.recordSchema = recordSchema;
-            this.values = new Object[recordSchema.getFields().size()];
+            this.layout = RecordLayout.of(recordSchema);
+            this.longs = new long[layout.longCount];
+            this.doubles = new double[layout.doubleCount];
+            this.values = new Object[layout.referenceCount];
         }
 
         @Override
-        public int compareTo(Record o) {
-            return 0;
+        public Schema getSchema() {
+            return recordSchema;
+        }
+
+        RecordLayout getLayout() {
+            return layout;
         }
 
         @Override
         public void put(String key, Object v) {
-
+            int pos = indexOf(key);
+            if (pos < 0) {
+                throw new BaijiRuntimeException("Not a valid schema field: " + key);
+            }
+            put(pos, v);
         }
 
         @Override
         public Object get(String key) {
-            return null;
+            int pos = indexOf(key);
+            return pos < 0 ? null : get(pos);
+        }
+
+        private int indexOf(String key) {
+            int pos = layout.indexOf(key);
+            if (pos < 0) {
+                Field field = recordSchema.getField(key);
+                pos = field != null ? field.getPos() : -1;
+            }
+            return pos;
         }
 
         @Override
         public void put(int i, Object v) {
-
+            int slot = layout.slots[i];
+            switch (layout.types[i]) {
+                case INT:
+                case LONG:
+                    longs[slot] = null == v ? 0L : ((Number) v).longValue();
+                    break;
+                case BOOLEAN:
+                    longs[slot] = null != v && (Boolean) v ? 1L : 0L;
+                    break;
+                case DATETIME:
+                    longs[slot] = null == v ? 0L : toMillis(v);
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    doubles[slot] = null == v ? 0D : ((Number) v).doubleValue();
+                    break;
+                default:
+                    values[slot] = v;
+            }
         }
 
         @Override
         public Object get(int i) {
-            return null;
+            int slot = layout.slots[i];
+            switch (layout.types[i]) {
+                case INT:
+                    return (int) longs[slot];
+                case LONG:
+                    return longs[slot];
+                case BOOLEAN:
+                    return longs[slot] != 0L;
+                case DATETIME:
+                    return Instant.ofEpochMilli(longs[slot]);
+                case FLOAT:
+                    return (float) doubles[slot];
+                case DOUBLE:
+                    return doubles[slot];
+                default:
+                    return values[slot];
+            }
+        }
+
+        public int getInt(int i) {
+            return layout.kinds[i] == RecordLayout.LONG_SLOT
+                    ? (int) longs[layout.slots[i]] : ((Number) get(i)).intValue();
+        }
+
+        public long getLong(int i) {
+            return layout.kinds[i] == RecordLayout.LONG_SLOT
+                    ? longs[layout.slots[i]] : ((Number) get(i)).longValue();
+        }
+
+        public float getFloat(int i) {
+            return layout.kinds[i] == RecordLayout.DOUBLE_SLOT
+                    ? (float) doubles[layout.slots[i]] : ((Number) get(i)).floatValue();
+        }
+
+        public double getDouble(int i) {
+            return layout.kinds[i] == RecordLayout.DOUBLE_SLOT
+                    ? doubles[layout.slots[i]] : ((Number) get(i)).doubleValue();
+        }
+
+        public boolean getBoolean(int i) {
+            return layout.kinds[i] == RecordLayout.LONG_SLOT
+                    ? longs[layout.slots[i]] != 0L : (Boolean) get(i);
+        }
+
+        /**
+         * Returns the value of a datetime field as milliseconds since the epoch.
+         */
+        public long getDatetimeMillis(int i) {
+            return layout.kinds[i] == RecordLayout.LONG_SLOT
+                    ? longs[layout.slots[i]] : toMillis(get(i));
+        }
+
+        public void putInt(int i, int v) {
+            if (layout.kinds[i] == RecordLayout.LONG_SLOT) {
+                longs[layout.slots[i]] = v;
+            } else {
+                put(i, v);
+            }
+        }
+
+        public void putLong(int i, long v) {
+            if (layout.kinds[i] == RecordLayout.LONG_SLOT) {
+                longs[layout.slots[i]] = v;
+            } else {
+                put(i, v);
+            }
+        }
+
+        public void putFloat(int i, float v) {
+            if (layout.kinds[i] == RecordLayout.DOUBLE_SLOT) {
+                doubles[layout.slots[i]] = v;
+            } else {
+                put(i, v);
+            }
+        }
+
+        public void putDouble(int i, double v) {
+            if (layout.kinds[i] == RecordLayout.DOUBLE_SLOT) {
+                doubles[layout.slots[i]] = v;
+            } else {
+                put(i, v);
+            }
+        }
+
+        public void putBoolean(int i, boolean v) {
+            if (layout.kinds[i] == RecordLayout.LONG_SLOT) {
+                longs[layout.slots[i]] = v ? 1L : 0L;
+            } else {
+                put(i, v);
+            }
+        }
+
+        /**
+         * Sets the value of a datetime field from milliseconds since the epoch.
+         */
+        public void putDatetimeMillis(int i, long v) {
+            if (layout.kinds[i] == RecordLayout.LONG_SLOT) {
+                longs[layout.slots[i]] = v;
+            } else {
+                put(i, v);
+            }
+        }
+
+        private static long toMillis(Object v) {
+            if (v instanceof Instant) {
+                return ((Instant) v).toEpochMilli();
+            } else if (v instanceof Calendar) {
+                return ((Calendar) v).getTimeInMillis();
+            } else if (v instanceof Date) {
+                return ((Date) v).getTime();
+            }
+            return ((Number) v).longValue();
         }
 
         @Override
-        public Schema getSchema() {
-            return null;
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Record)) {
+                return false;
+            }
+            Record that = (Record) o;
+            return recordSchema.equals(that.recordSchema) && Arrays.equals(longs, that.longs)
+                    && Arrays.equals(doubles, that.doubles) && Arrays.deepEquals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(longs);
+            result = 31 * result + Arrays.hashCode(doubles);
+            return 31 * result + Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public int compareTo(Record o) {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("{");
+            List<Field> fields = recordSchema.getFields();
+            for (int i = 0; i < fields.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append('"').append(fields.get(i).getName()).append("\": ").append(get(i));
+            }
+            return builder.append('}').toString();
         }
     }
 
     public Object newRecord(Object reuse, RecordSchema schema) {
         if (reuse instanceof IndexedRecord) {
             IndexedRecord record = (IndexedRecord) reuse;
-            if (record.getSchema().equals(schema)) {
+            if (record.getSchema() == schema || record.getSchema().equals(schema)) {
                 return reuse;
             }
         }
@@ -95,6 +563,166 @@ public class GenericData {
         return new Record(schema);
     }
 
+    /**
+     * Returns the exact number of bytes the binary encoding of the datum takes, so
+     * that output buffers or length prefixes can be sized without encoding twice.
+     * Values are interpreted as by {@link GenericDatumWriter}, and sparse records
+     * are sized as such.
+     */
+    public int sizeOf(Schema schema, Object datum) {
+        try {
+            switch (schema.getType()) {
+                case RECORD:
+                    return sizeOfRecord((RecordSchema) schema, datum);
+                case ENUM:
+                    return BinaryData.sizeOfInt(getEnumOrdinal((EnumSchema) schema, datum));
+                case ARRAY:
+                    Schema itemSchema = ((ArraySchema) schema).getItemSchema();
+                    if (datum instanceof Iterator || datum instanceof BaseStream) {
+                        throw new BaijiRuntimeException("Cannot size an array streamed from " + datum);
+                    }
+                    Collection<?> array = (Collection<?>) datum;
+                    int arraySize = array.isEmpty() ? 1 : BinaryData.sizeOfLong(array.size()) + 1;
+                    for (Object item : array) {
+                        arraySize += sizeOf(itemSchema, item);
+                    }
+                    return arraySize;
+                case MAP:
+                    Schema valueSchema = ((MapSchema) schema).getValueSchema();
+                    Map<?, ?> map = (Map<?, ?>) datum;
+                    int mapSize = map.isEmpty() ? 1 : BinaryData.sizeOfLong(map.size()) + 1;
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        mapSize += BinaryData.sizeOfString((CharSequence) entry.getKey())
+                                + sizeOf(valueSchema, entry.getValue());
+                    }
+                    return mapSize;
+                case UNION:
+                    UnionSchema union = (UnionSchema) schema;
+                    int index = resolveUnion(union, datum);
+                    return BinaryData.sizeOfInt(index) + sizeOf(union.get(index), datum);
+                case STRING:
+                    return BinaryData.sizeOfString((CharSequence) datum);
+                case BYTES:
+                    return BinaryData.sizeOfBytes(((ByteBuffer) datum).remaining());
+                case INT:
+                    return BinaryData.sizeOfInt(((Number) datum).intValue());
+                case LONG:
+                    return BinaryData.sizeOfLong((Long) datum);
+                case FLOAT:
+                    return 4;
+                case DOUBLE:
+                    return 8;
+                case DATETIME:
+                    return BinaryData.sizeOfLong(datetimeMillis(datum));
+                case BOOLEAN:
+                    return 1;
+                case NULL:
+                    return 0;
+                default:
+                    throw new BaijiTypeException("Not a " + schema + ": " + datum);
+            }
+        } catch (NullPointerException e) {
+            NullPointerException result = new NullPointerException("null of " + schema.getName());
+            result.initCause(e);
+            throw result;
+        }
+    }
+
+    private int sizeOfRecord(RecordSchema schema, Object datum) {
+        RecordSize recordSize = recordSizes.get(schema);
+        if (null == recordSize) {
+            recordSize = new RecordSize(schema);
+            recordSizes.put(schema, recordSize);
+        }
+        int size = recordSize.fixed;
+        if (datum instanceof Record && ((Record) datum).getSchema() == schema && !recordSize.sparse) {
+            Record record = (Record) datum;
+            SchemaType[] types = record.getLayout().types;
+            for (Field field : recordSize.variable) {
+                int pos = field.getPos();
+                switch (types[pos]) {
+                    case INT:
+                        size += BinaryData.sizeOfInt(record.getInt(pos));
+                        break;
+                    case LONG:
+                        size += BinaryData.sizeOfLong(record.getLong(pos));
+                        break;
+                    case DATETIME:
+                        size += BinaryData.sizeOfLong(record.getDatetimeMillis(pos));
+                        break;
+                    default:
+                        size += sizeOf(field.getSchema(), record.get(pos));
+                }
+            }
+        } else {
+            for (Field field : recordSize.variable) {
+                Object value = getField(datum, field.getName(), field.getPos());
+                if (recordSize.sparse && schema.getPresenceBit(field.getPos()) >= 0) {
+                    if (null == value) {
+                        // left out of the sparse encoding
+                        continue;
+                    }
+                    int branch = schema.getPresentBranch(field.getPos());
+                    if (branch >= 0) {
+                        // written without its union index
+                        size += sizeOf(((UnionSchema) field.getSchema()).get(branch), value);
+                        continue;
+                    }
+                }
+                size += sizeOf(field.getSchema(), value);
+            }
+        }
+        return size;
+    }
+
+    private static long datetimeMillis(Object datum) {
+        if (datum instanceof Instant) {
+            return ((Instant) datum).toEpochMilli();
+        } else if (datum instanceof Calendar) {
+            return ((Calendar) datum).getTimeInMillis();
+        } else if (datum instanceof Date) {
+            return ((Date) datum).getTime();
+        }
+        return (Long) datum;
+    }
+
+    /**
+     * The encoded size of the fixed-width fields of a record, computed once per
+     * schema, and the fields whose size depends on their values.
+     */
+    private static final class RecordSize {
+
+        final int fixed;
+        final Field[] variable;
+        final boolean sparse;
+
+        RecordSize(RecordSchema schema) {
+            this.sparse = schema.isSparse();
+            // the presence bitmap of a sparse record
+            int fixed = sparse ? schema.getPresenceBytes() : 0;
+            List<Field> variable = new ArrayList<>();
+            for (Field field : schema.getFields()) {
+                switch (field.getSchema().getType()) {
+                    case FLOAT:
+                        fixed += 4;
+                        break;
+                    case DOUBLE:
+                        fixed += 8;
+                        break;
+                    case BOOLEAN:
+                        fixed += 1;
+                        break;
+                    case NULL:
+                        break;
+                    default:
+                        variable.add(field);
+                }
+            }
+            this.fixed = fixed;
+            this.variable = variable.toArray(new Field[variable.size()]);
+        }
+    }
+
     public int hashCode(Object o, Schema s) {
         return 0;
     }
@@ -1,34 +1,49 @@
 package com.xqbase.bn.generic;
 
+import com.google.common.collect.MapMaker;
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
 import com.xqbase.bn.io.DatumReader;
 import com.xqbase.bn.io.Decoder;
 import com.xqbase.bn.io.DecoderFactory;
 import com.xqbase.bn.io.ResolvingDecoder;
-import com.xqbase.bn.schema.RecordSchema;
-import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.metrics.SerializerMetrics;
+import com.xqbase.bn.schema.*;
+import com.xqbase.bn.util.Utf8;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * {@link com.xqbase.bn.io.DatumReader} for generic java classes.
  *
  * @author Tony He
  */
-public abstract class GenericDatumReader<T> implements DatumReader<T> {
+public class GenericDatumReader<T> implements DatumReader<T> {
 
     private final GenericData data;
+    private Schema actual;
     private Schema schema;
 
     private ResolvingDecoder creatorResolver = null;
     private final Thread creator;
 
+    private boolean utf8Strings = false;
+
+    // resolvers are keyed by writer, then reader schema identity, which avoids
+    // hashing the whole schema tree.
     private static final ThreadLocal<Map<Schema, Map<Schema, ResolvingDecoder>>>
             RESOLVER_CACHE =
             new ThreadLocal<Map<Schema, Map<Schema, ResolvingDecoder>>>() {
                 @Override
                 protected Map<Schema, Map<Schema, ResolvingDecoder>> initialValue() {
-                    return super.initialValue();
+                    return new MapMaker().weakKeys().makeMap();
                 }
             };
 
@@ -37,8 +52,20 @@ public abstract class GenericDatumReader<T> implements DatumReader<T> {
     }
 
     public GenericDatumReader(Schema schema, GenericData data) {
+        this(schema, schema, data);
+    }
+
+    /**
+     * Construct where the writer's and reader's schemas are distinct.
+     */
+    public GenericDatumReader(Schema writer, Schema reader) {
+        this(writer, reader, GenericData.get());
+    }
+
+    public GenericDatumReader(Schema writer, Schema reader, GenericData data) {
         this(data);
-        this.schema = schema;
+        this.actual = writer;
+        this.schema = reader;
     }
 
     protected GenericDatumReader(GenericData data) {
@@ -46,21 +73,51 @@ public abstract class GenericDatumReader<T> implements DatumReader<T> {
         this.creator = Thread.currentThread();
     }
 
-    protected final ResolvingDecoder getResolver(Schema schema) throws IOException {
+    /**
+     * Return the writer's schema.
+     */
+    public Schema getSchema() {
+        return actual;
+    }
+
+    /**
+     * Return the {@link GenericData} implementation.
+     */
+    public GenericData getData() {
+        return data;
+    }
+
+    /**
+     * If set, strings are read as {@link Utf8} instead of {@link String}, and the
+     * {@link Utf8} found in the reused datum is refilled in place.
+     */
+    public GenericDatumReader<T> setUtf8Strings(boolean utf8Strings) {
+        this.utf8Strings = utf8Strings;
+        return this;
+    }
+
+    protected final ResolvingDecoder getResolver(Schema actual, Schema expected) throws IOException {
         Thread thread = Thread.currentThread();
         ResolvingDecoder resolver;
         if (thread == creator && creatorResolver != null) {
+            if (SerializerMetrics.isEnabled()) {
+                SerializerMetrics.get(expected).getResolverCache().record(true);
+            }
             return creatorResolver;
         }
 
-        Map<Schema, ResolvingDecoder> cache = RESOLVER_CACHE.get().get(schema);
+        Map<Schema, ResolvingDecoder> cache = RESOLVER_CACHE.get().get(actual);
         if (null == cache) {
-
+            cache = new MapMaker().weakKeys().makeMap();
+            RESOLVER_CACHE.get().put(actual, cache);
+        }
+        resolver = cache.get(expected);
+        if (SerializerMetrics.isEnabled()) {
+            SerializerMetrics.get(expected).getResolverCache().record(resolver != null);
         }
-        resolver = cache.get(schema);
         if (null == resolver) {
-            resolver = DecoderFactory.get().resolvingDecoder(schema, null);
-            cache.put(schema, resolver);
+            resolver = DecoderFactory.get().resolvingDecoder(actual, expected, null);
+            cache.put(expected, resolver);
         }
         if (thread == creator) {
             creatorResolver = resolver;
@@ -71,21 +128,345 @@ public abstract class GenericDatumReader<T> implements DatumReader<T> {
     @Override
     @SuppressWarnings("unchecked")
     public T read(T reuse, Decoder in) throws IOException {
-        ResolvingDecoder resolver = getResolver(schema);
+        ResolvingDecoder resolver = getResolver(actual, schema);
         resolver.configure(in);
         T result = (T) read(reuse, schema, resolver);
         resolver.drain();
         return result;
     }
 
-    protected Object read(Object reuse, Schema schema, ResolvingDecoder resolver) {
+    /**
+     * Reads a datum of an array schema item by item, passing each item to the
+     * visitor instead of collecting them in a list. A single item is reused for all
+     * items, so memory stays bounded by one item however large the array is.
+     * <p/>
+     * The visitor may read other data with this reader.
+     *
+     * @return the number of items read
+     */
+    @SuppressWarnings("unchecked")
+    public <I> long readItems(Decoder in, ItemVisitor<I> visitor) throws IOException {
+        Schema itemSchema = itemSchema();
+        ResolvingDecoder resolver = newResolver(in);
+        long count = 0;
+        I item = null;
+        for (long l = resolver.readArrayStart(); l > 0; l = resolver.readArrayNext()) {
+            for (long i = 0; i < l; i++, count++) {
+                item = (I) read(item, itemSchema, resolver);
+                visitor.visit(item);
+            }
+        }
+        resolver.drain();
+        return count;
+    }
+
+    /**
+     * Returns an iterator over the items of a datum of an array schema, reading each
+     * item from the decoder only when it is asked for. If <tt>reuseItem</tt> is set,
+     * the previous item is reused to read the next one.
+     * <p/>
+     * The decoder must not be used for anything else until the iterator is exhausted.
+     * This reader may be, including by other iterators. Errors are thrown as
+     * {@link BaijiRuntimeException}.
+     */
+    public <I> Iterator<I> iterateItems(Decoder in, boolean reuseItem) throws IOException {
+        Schema itemSchema = itemSchema();
+        return new ItemIterator<>(itemSchema, newResolver(in), reuseItem);
+    }
+
+    /**
+     * Returns a resolver of its own for a read that outlives a call, since the
+     * cached one is reconfigured by every read on the thread.
+     */
+    private ResolvingDecoder newResolver(Decoder in) throws IOException {
+        return DecoderFactory.get().resolvingDecoder(actual, schema, in);
+    }
+
+    private Schema itemSchema() {
+        if (schema.getType() != SchemaType.ARRAY) {
+            throw new BaijiRuntimeException("Not an array schema: " + schema);
+        }
+        return ((ArraySchema) schema).getItemSchema();
+    }
+
+    /**
+     * Reads the items of an array lazily, block by block.
+     */
+    private final class ItemIterator<I> implements Iterator<I> {
+
+        private final Schema itemSchema;
+        private final ResolvingDecoder in;
+        private final boolean reuseItem;
+        private boolean started;
+        private boolean done;
+        // the number of items left in the current block.
+        private long remaining;
+        private I item;
+
+        ItemIterator(Schema itemSchema, ResolvingDecoder in, boolean reuseItem) {
+            this.itemSchema = itemSchema;
+            this.in = in;
+            this.reuseItem = reuseItem;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (remaining > 0) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            try {
+                remaining = started ? in.readArrayNext() : in.readArrayStart();
+                started = true;
+                if (remaining == 0) {
+                    done = true;
+                    in.drain();
+                }
+            } catch (IOException e) {
+                throw new BaijiRuntimeException("Failed to read array block", e);
+            }
+            return remaining > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public I next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                item = (I) read(reuseItem ? item : null, itemSchema, in);
+            } catch (IOException e) {
+                throw new BaijiRuntimeException("Failed to read array item", e);
+            }
+            remaining--;
+            return item;
+        }
+    }
+
+    /**
+     * Called to read data.
+     */
+    protected Object read(Object reuse, Schema schema, ResolvingDecoder in) throws IOException {
+        switch (schema.getType()) {
+            case RECORD:
+                return readRecord(reuse, (RecordSchema) schema, in);
+            case ENUM:
+                return readEnum((EnumSchema) schema, in);
+            case ARRAY:
+                return readArray(reuse, (ArraySchema) schema, in);
+            case MAP:
+                return readMap(reuse, (MapSchema) schema, in);
+            case UNION:
+                return read(reuse, ((UnionSchema) schema).get(in.readUnionIndex()), in);
+            case STRING:
+                return readString(reuse, schema, in);
+            case BYTES:
+                return readBytes(reuse, schema, in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case DATETIME:
+                return readDatetime(reuse, schema, in);
+            case BOOLEAN:
+                return in.readBoolean();
+            case NULL:
+                in.readNull();
+                return null;
+            default:
+                throw new BaijiRuntimeException("Unknown type: " + schema);
+        }
+    }
+
+    /**
+     * Called to read a record instance. May be overridden for alternate record representations.
+     */
+    protected Object readRecord(Object reuse, RecordSchema recordSchema, ResolvingDecoder in)
+            throws IOException {
+        Object record = data.newRecord(reuse, recordSchema);
+        if (record instanceof GenericData.Record
+                && ((GenericData.Record) record).getSchema() == recordSchema) {
+            readRecord((GenericData.Record) record, in);
+        } else {
+            boolean reused = record == reuse;
+            for (Field field : in.readFieldOrder()) {
+                Object oldDatum = reused ? data.getField(record, field.getName(), field.getPos()) : null;
+                readField(record, field, oldDatum, in);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Reads into a {@link GenericData.Record} through its typed setters, so that
+     * primitive field values are never boxed. Values of other fields are
+     * read reusing the previous value of the field.
+     */
+    private void readRecord(GenericData.Record record, ResolvingDecoder in) throws IOException {
+        RecordLayout layout = record.getLayout();
+        SchemaType[] types = layout.types;
+        for (Field field : in.readFieldOrder()) {
+            int pos = field.getPos();
+            switch (types[pos]) {
+                case INT:
+                    record.putInt(pos, in.readInt());
+                    break;
+                case LONG:
+                    record.putLong(pos, in.readLong());
+                    break;
+                case FLOAT:
+                    record.putFloat(pos, in.readFloat());
+                    break;
+                case DOUBLE:
+                    record.putDouble(pos, in.readDouble());
+                    break;
+                case BOOLEAN:
+                    record.putBoolean(pos, in.readBoolean());
+                    break;
+                case DATETIME:
+                    record.putDatetimeMillis(pos, in.readDatetimeMillis());
+                    break;
+                default:
+                    Object oldDatum = layout.kinds[pos] == RecordLayout.REFERENCE ? record.get(pos) : null;
+                    readField(record, field, oldDatum, in);
+            }
+        }
+    }
+
+    /**
+     * Called to read a single field of a record. May be overridden for more
+     * efficient or alternate implementations.
+     */
+    protected void readField(Object record, Field field, Object oldDatum, ResolvingDecoder in)
+            throws IOException {
+        data.setField(record, field.getName(), field.getPos(), read(oldDatum, field.getSchema(), in));
+    }
+
+    /**
+     * Called to read an enum value. May be overridden for alternate enum representations.
+     */
+    protected Object readEnum(EnumSchema enumSchema, ResolvingDecoder in) throws IOException {
+        return data.createEnum(in.readEnum(), enumSchema);
+    }
+
+    /**
+     * Called to read an array instance. May be overridden for alternate array representations.
+     * <p/>
+     * A reused list is refilled in place, and its previous elements are passed as the
+     * reuse objects of the elements read at the same positions.
+     */
+    @SuppressWarnings("unchecked")
+    protected Object readArray(Object reuse, ArraySchema arraySchema, ResolvingDecoder in)
+            throws IOException {
+        Schema itemSchema = arraySchema.getItemSchema();
+        long l = in.readArrayStart();
+        List<Object> array;
+        if (reuse instanceof List) {
+            array = (List<Object>) reuse;
+        } else {
+            array = new ArrayList<>((int) l);
+        }
+        int oldSize = array.size();
+        int size = 0;
+        if (l > 0) {
+            do {
+                for (long i = 0; i < l; i++, size++) {
+                    if (size < oldSize) {
+                        array.set(size, read(array.get(size), itemSchema, in));
+                    } else {
+                        array.add(read(null, itemSchema, in));
+                    }
+                }
+            } while ((l = in.readArrayNext()) > 0);
+        }
+        if (size < oldSize) {
+            array.subList(size, oldSize).clear();
+        }
+        return array;
+    }
+
+    /**
+     * Called to read a map instance. May be overridden for alternate map representations.
+     * <p/>
+     * A reused map is cleared and refilled. If its values can be reused, the previous
+     * value of each key is passed as the reuse object of the value read for that key.
+     */
+    @SuppressWarnings("unchecked")
+    protected Object readMap(Object reuse, MapSchema mapSchema, ResolvingDecoder in)
+            throws IOException {
+        Schema valueSchema = mapSchema.getValueSchema();
+        long l = in.readMapStart();
+        Map<String, Object> map;
+        Map<String, Object> oldValues = null;
+        if (reuse instanceof Map) {
+            map = (Map<String, Object>) reuse;
+            if (l > 0 && !map.isEmpty() && reusesValues(valueSchema)) {
+                oldValues = new HashMap<>(map);
+            }
+            map.clear();
+        } else {
+            map = new HashMap<>();
+        }
+        if (l > 0) {
+            do {
+                for (long i = 0; i < l; i++) {
+                    String key = in.readString();
+                    Object oldValue = null == oldValues ? null : oldValues.remove(key);
+                    map.put(key, read(oldValue, valueSchema, in));
+                }
+            } while ((l = in.readMapNext()) > 0);
+        }
+        return map;
+    }
+
+    /**
+     * Returns whether values of <tt>schema</tt> are read into the objects passed for reuse.
+     */
+    private boolean reusesValues(Schema schema) {
         switch (schema.getType()) {
             case RECORD:
+            case ARRAY:
+            case MAP:
+            case BYTES:
+            case UNION:
+                return true;
+            case STRING:
+                return utf8Strings;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Called to read a string. May be overridden for alternate string representations.
+     */
+    protected Object readString(Object reuse, Schema schema, ResolvingDecoder in) throws IOException {
+        if (utf8Strings) {
+            return in.readString(reuse instanceof Utf8 ? (Utf8) reuse : null);
         }
-        return null;
+        return in.readString();
+    }
+
+    /**
+     * Called to read a date time, as an {@link Instant} by default.
+     * May be overridden for alternate date time representations.
+     */
+    protected Object readDatetime(Object reuse, Schema schema, ResolvingDecoder in) throws IOException {
+        return in.readDatetimeInstant();
     }
 
-    private Object readRecord(Object reuse, RecordSchema recordSchema, ResolvingDecoder resolver) {
-        return null;
+    /**
+     * Called to read a byte buffer. A reused buffer is refilled if it is large enough.
+     * May be overridden for alternate bytes representations.
+     */
+    protected Object readBytes(Object reuse, Schema schema, ResolvingDecoder in) throws IOException {
+        return in.readBytes(reuse instanceof ByteBuffer ? (ByteBuffer) reuse : null);
     }
 }
@@ -1,30 +1,54 @@
 package com.xqbase.bn.generic;
 
 import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.BinaryEncoder;
 import com.xqbase.bn.io.DatumWriter;
 import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.io.SegmentedBinaryEncoder;
+import com.xqbase.bn.io.SegmentedOutputStream;
 import com.xqbase.bn.schema.*;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.*;
+import java.util.stream.BaseStream;
 
 /**
  * {@link com.xqbase.bn.io.DatumWriter} for generic Java objects.
  *
  * @author Tony He
  */
-public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
+public class GenericDatumWriter<D> implements DatumWriter<D> {
+
+    public static final int DEFAULT_ARRAY_BLOCK_SIZE = 1000;
+
+    // the field values of the sparse records being written on this thread, innermost last.
+    private static final ThreadLocal<SparseScratch> SPARSE_SCRATCH = new ThreadLocal<SparseScratch>() {
+        @Override
+        protected SparseScratch initialValue() {
+            return new SparseScratch();
+        }
+    };
 
     private final GenericData data;
     private Schema schema;
+    private final int arrayBlockSize;
 
     public GenericDatumWriter() {
         this(GenericData.get());
     }
 
     protected GenericDatumWriter(GenericData data) {
+        this(data, DEFAULT_ARRAY_BLOCK_SIZE);
+    }
+
+    private GenericDatumWriter(GenericData data, int arrayBlockSize) {
+        if (arrayBlockSize < 1) {
+            throw new IllegalArgumentException("arrayBlockSize must be positive: " + arrayBlockSize);
+        }
         this.data = data;
+        this.arrayBlockSize = arrayBlockSize;
     }
 
     public GenericDatumWriter(Schema schema) {
@@ -33,7 +57,15 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
     }
 
     public GenericDatumWriter(Schema schema, GenericData data) {
-        this.data = data;
+        this(schema, data, DEFAULT_ARRAY_BLOCK_SIZE);
+    }
+
+    /**
+     * @param arrayBlockSize the number of items of each block written for an array
+     *                       read from an {@link Iterator} or a {@link BaseStream}
+     */
+    public GenericDatumWriter(Schema schema, GenericData data, int arrayBlockSize) {
+        this(data, arrayBlockSize);
         setSchema(schema);
     }
 
@@ -56,6 +88,14 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
         write(schema, datum, out);
     }
 
+    /**
+     * Returns the exact number of bytes {@link #write} takes to write the datum
+     * with a binary encoder. See {@link GenericData#sizeOf}.
+     */
+    public int sizeOf(D datum) {
+        return data.sizeOf(schema, datum);
+    }
+
     protected void write(Schema schema, Object datum, Encoder out)
                 throws IOException {
         try {
@@ -72,6 +112,9 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
                 case MAP:
                     writeMap((MapSchema) schema, datum, out);
                     break;
+                case UNION:
+                    writeUnion((UnionSchema) schema, datum, out);
+                    break;
                 case STRING:
                     writeString(schema, datum, out);
                     break;
@@ -91,7 +134,7 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
                     out.writeDouble((Double) datum);
                     break;
                 case DATETIME:
-                    out.writeDatetime((Calendar) datum);
+                    writeDatetime(schema, datum, out);
                     break;
                 case BOOLEAN:
                     out.writeBoolean((Boolean) datum);
@@ -111,11 +154,103 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
      * Called to write a record. May be overridden for alternate record representations.
      */
     protected void writeRecord(RecordSchema recordSchema, Object datum, Encoder out) throws IOException {
+        if (recordSchema.isSparse() && out.usesPresenceBitmap()) {
+            writeSparseRecord(recordSchema, datum, out);
+            return;
+        }
+        if (datum instanceof GenericData.Record
+                && ((GenericData.Record) datum).getSchema() == recordSchema) {
+            writeRecord(recordSchema, (GenericData.Record) datum, out);
+            return;
+        }
         for (Field field : recordSchema.getFields()) {
             writeField(field, datum, out);
         }
     }
 
+    /**
+     * Writes a record in the sparse encoding: the presence bitmap of its nullable
+     * fields, followed by the fields that are not null. Each field is got once, and
+     * held in a per-thread scratch until the bitmap is written. A field of a union
+     * of null and one other branch is written without its union index.
+     */
+    private void writeSparseRecord(RecordSchema recordSchema, Object datum, Encoder out) throws IOException {
+        List<Field> fields = recordSchema.getFields();
+        int bytes = recordSchema.getPresenceBytes();
+        SparseScratch scratch = SPARSE_SCRATCH.get();
+        int base = scratch.push(fields.size(), bytes);
+        try {
+            Object[] values = scratch.values;
+            byte[] bitmap = scratch.bitmap;
+            for (Field field : fields) {
+                int pos = field.getPos();
+                Object value = data.getField(datum, field.getName(), pos);
+                values[base + pos] = value;
+                int bit = recordSchema.getPresenceBit(pos);
+                if (bit >= 0 && value != null) {
+                    bitmap[bit >>> 3] |= 1 << (bit & 7);
+                }
+            }
+            out.writeFixed(bitmap, 0, bytes);
+            for (Field field : fields) {
+                int pos = field.getPos();
+                // nested sparse records may have grown the scratch
+                Object value = scratch.values[base + pos];
+                Schema fieldSchema = field.getSchema();
+                if (recordSchema.getPresenceBit(pos) >= 0) {
+                    if (null == value) {
+                        continue;
+                    }
+                    int branch = recordSchema.getPresentBranch(pos);
+                    if (branch >= 0) {
+                        fieldSchema = ((UnionSchema) fieldSchema).get(branch);
+                    }
+                }
+                try {
+                    write(fieldSchema, value, out);
+                } catch (NullPointerException e) {
+                    throw npe(e, " in field " + field.getName());
+                }
+            }
+        } finally {
+            scratch.pop(base);
+        }
+    }
+
+    /**
+     * Writes a {@link GenericData.Record} through its typed accessors, so that
+     * primitive field values are never boxed.
+     */
+    private void writeRecord(RecordSchema recordSchema, GenericData.Record record, Encoder out)
+            throws IOException {
+        SchemaType[] types = record.getLayout().types;
+        for (Field field : recordSchema.getFields()) {
+            int pos = field.getPos();
+            switch (types[pos]) {
+                case INT:
+                    out.writeInt(record.getInt(pos));
+                    break;
+                case LONG:
+                    out.writeLong(record.getLong(pos));
+                    break;
+                case FLOAT:
+                    out.writeFloat(record.getFloat(pos));
+                    break;
+                case DOUBLE:
+                    out.writeDouble(record.getDouble(pos));
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean(record.getBoolean(pos));
+                    break;
+                case DATETIME:
+                    out.writeDatetimeMillis(record.getDatetimeMillis(pos));
+                    break;
+                default:
+                    writeField(field, record, out);
+            }
+        }
+    }
+
     /**
      * Called to write a single field of a record. May be overridden for more
      * efficient or alternate implementations.
@@ -133,14 +268,27 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
      * Called to write an enum value. May be overridden for alternate enum representations.
      */
     protected void writeEnum(EnumSchema enumSchema, Object datum, Encoder out) throws IOException {
-        out.writeEnum(enumSchema.getEnumOrdinal(datum.toString()));
+        out.writeEnum(data.getEnumOrdinal(enumSchema, datum));
     }
 
     /**
      * Called to write an array. May be overridden for alternate array representations.
+     * <p/>
+     * Besides collections, an array may be given as an {@link Iterator} or a
+     * {@link BaseStream}, e.g. over a database cursor. Its items are then written
+     * as they come, in blocks of at most the array block size given at construction,
+     * {@value #DEFAULT_ARRAY_BLOCK_SIZE} by default, so that the whole array is never
+     * held in memory. The stream is not closed.
      */
     protected void writeArray(ArraySchema arraySchema, Object datum, Encoder out) throws IOException {
         Schema itemSchema = arraySchema.getItemSchema();
+        if (datum instanceof Iterator) {
+            writeArrayBlocks(itemSchema, (Iterator<?>) datum, out);
+            return;
+        } else if (datum instanceof BaseStream) {
+            writeArrayBlocks(itemSchema, ((BaseStream<?, ?>) datum).iterator(), out);
+            return;
+        }
         long size = getArraySize(datum);
         long actualSize = 0;
         out.writeArrayStart();
@@ -158,6 +306,46 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
         }
     }
 
+    /**
+     * Writes the items of the iterator as a sequence of blocks. Each item is encoded
+     * as soon as it is returned, since iterators may reuse a single mutable item.
+     * <p/>
+     * A binary block is encoded into a pooled buffer, reused from block to block, and
+     * copied out once its count is known. Other encoders write each item as a block
+     * of its own.
+     */
+    private void writeArrayBlocks(Schema itemSchema, Iterator<?> items, Encoder out) throws IOException {
+        out.writeArrayStart();
+        if (!(out instanceof BinaryEncoder)) {
+            while (items.hasNext()) {
+                out.setItemCount(1);
+                out.startItem();
+                write(itemSchema, items.next(), out);
+            }
+            out.writeArrayEnd();
+            return;
+        }
+        SegmentedOutputStream block = new SegmentedOutputStream();
+        try {
+            SegmentedBinaryEncoder blockEncoder = new SegmentedBinaryEncoder(block);
+            int count = 0;
+            while (items.hasNext()) {
+                write(itemSchema, items.next(), blockEncoder);
+                if (++count == arrayBlockSize || !items.hasNext()) {
+                    out.setItemCount(count);
+                    for (ByteBuffer buffer : block.toByteBuffers()) {
+                        out.writeFixed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    }
+                    block.release();
+                    count = 0;
+                }
+            }
+        } finally {
+            block.release();
+        }
+        out.writeArrayEnd();
+    }
+
     /**
      * Called by the default implementation of {@link #writeArray} to get
      * size of an array.
@@ -182,8 +370,8 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
         Schema valueSchema = mapSchema.getValueSchema();
         long size = getMapSize(datum);
         long actualSize = 0;
-        out.setItemCount(size);
         out.writeMapStart();
+        out.setItemCount(size);
         for (Map.Entry<String, Object> entry : getMapEntry(datum)) {
             out.startItem();
             out.writeString(entry.getKey());
@@ -216,6 +404,15 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
         return ((Map) map).entrySet();
     }
 
+    /**
+     * Called to write a union. The branch is resolved by {@link GenericData#resolveUnion}.
+     */
+    protected void writeUnion(UnionSchema unionSchema, Object datum, Encoder out) throws IOException {
+        int index = data.resolveUnion(unionSchema, datum);
+        out.writeUnionIndex(index);
+        write(unionSchema.get(index), datum, out);
+    }
+
     /**
      * Called to write a string. May be overridden by alternate string representation.
      */
@@ -237,7 +434,57 @@ public abstract class GenericDatumWriter<D> implements DatumWriter<D> {
         out.writeBytes((ByteBuffer) datum);
     }
 
+    /**
+     * Called to write a date time. Accepts {@link Instant}, {@link Calendar}, {@link Date}
+     * and milliseconds since the epoch. May be overridden by alternate date time representation.
+     */
+    protected void writeDatetime(Schema schema, Object datum, Encoder out) throws IOException {
+        if (datum instanceof Instant) {
+            out.writeDatetime((Instant) datum);
+        } else if (datum instanceof Calendar) {
+            out.writeDatetime((Calendar) datum);
+        } else if (datum instanceof Date) {
+            out.writeDatetimeMillis(((Date) datum).getTime());
+        } else {
+            out.writeDatetimeMillis((Long) datum);
+        }
+    }
+
     private void error(Schema schema, Object datum) {
         throw new BaijiTypeException("Not a" + schema + ": " + datum);
     }
+
+    /**
+     * A stack of the field values of the sparse records being written, and the
+     * presence bitmap of the innermost one, which is written before its fields.
+     */
+    private static final class SparseScratch {
+
+        Object[] values = new Object[64];
+        int size;
+        byte[] bitmap = new byte[8];
+
+        /**
+         * Reserves room for the values of a record, clears the bitmap, and returns
+         * the index of the first value.
+         */
+        int push(int count, int bytes) {
+            int base = size;
+            if (base + count > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, base + count));
+            }
+            size = base + count;
+            if (bytes > bitmap.length) {
+                bitmap = new byte[bytes];
+            } else {
+                Arrays.fill(bitmap, 0, bytes, (byte) 0);
+            }
+            return base;
+        }
+
+        void pop(int base) {
+            Arrays.fill(values, base, size, null);
+            size = base;
+        }
+    }
 }
@@ -12,11 +12,37 @@ public class GenericEnum {
 
     private String _value;
 
+    private int _ordinal;
+
+    private final boolean _immutable;
+
     public GenericEnum(EnumSchema schema, String value) {
         _schema = schema;
+        _immutable = false;
         setValue(value);
     }
 
+    /**
+     * Creates the enum of the symbol at <tt>ordinal</tt>, without looking the symbol up.
+     */
+    public GenericEnum(EnumSchema schema, int ordinal) {
+        this(schema, ordinal, false);
+    }
+
+    /**
+     * Creates an enum that may be immutable, as the values shared by
+     * {@link GenericData#createEnum(int, EnumSchema)}.
+     */
+    GenericEnum(EnumSchema schema, int ordinal, boolean immutable) {
+        _schema = schema;
+        _immutable = immutable;
+        if (ordinal < 0 || ordinal >= schema.size()) {
+            throw new BaijiRuntimeException("Unknown ordinal for enum: " + ordinal + "(" + schema + ")");
+        }
+        _value = schema.getEnumSymbols().get(ordinal);
+        _ordinal = ordinal;
+    }
+
     public EnumSchema getSchema() {
         return _schema;
     }
@@ -25,11 +51,22 @@ public class GenericEnum {
         return _value;
     }
 
+    /**
+     * Returns the position of the value in the symbols of the schema.
+     */
+    public int getOrdinal() {
+        return _ordinal;
+    }
+
     public void setValue(String value) {
+        if (_immutable) {
+            throw new UnsupportedOperationException("Enum value read by a reader cannot be changed: " + _value);
+        }
         if (!_schema.contains(value)) {
             throw new BaijiRuntimeException("Unknown value for enum: " + value + "(" + _schema + ")");
         }
         _value = value;
+        _ordinal = _schema.getEnumOrdinal(value);
     }
 
     @Override
@@ -0,0 +1,203 @@
+package com.xqbase.bn.generic;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.schema.*;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.BaseStream;
+
+/**
+ * Writes generic Java objects in Baiji's JSON data encoding.
+ * <p/>
+ * Unlike {@link com.xqbase.bn.io.JsonEncoder}, the schema is walked directly along with
+ * the datum, and values go straight to the {@link JsonGenerator}, without validating
+ * each write against a grammar. The output is the same.
+ *
+ * @author Tony He
+ */
+public class GenericJsonDatumWriter<D> {
+
+    // bytes are written as JSON strings, one char per byte
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final GenericData data;
+    private final Schema schema;
+
+    public GenericJsonDatumWriter(Schema schema) {
+        this(schema, GenericData.get());
+    }
+
+    public GenericJsonDatumWriter(Schema schema, GenericData data) {
+        this.schema = schema;
+        this.data = data;
+    }
+
+    /**
+     * Writes a datum as a JSON value.
+     */
+    public void write(D datum, JsonGenerator out) throws IOException {
+        write(schema, datum, out);
+    }
+
+    protected void write(Schema schema, Object datum, JsonGenerator out) throws IOException {
+        switch (schema.getType()) {
+            case RECORD:
+                writeRecord((RecordSchema) schema, datum, out);
+                break;
+            case ENUM:
+                writeEnum(datum, out);
+                break;
+            case ARRAY:
+                Schema itemSchema = ((ArraySchema) schema).getItemSchema();
+                out.writeStartArray();
+                for (Iterator<?> items = iterator(datum); items.hasNext();) {
+                    write(itemSchema, items.next(), out);
+                }
+                out.writeEndArray();
+                break;
+            case MAP:
+                Schema valueSchema = ((MapSchema) schema).getValueSchema();
+                out.writeStartObject();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) datum).entrySet()) {
+                    out.writeFieldName(entry.getKey().toString());
+                    write(valueSchema, entry.getValue(), out);
+                }
+                out.writeEndObject();
+                break;
+            case UNION:
+                UnionSchema unionSchema = (UnionSchema) schema;
+                Schema branch = unionSchema.get(data.resolveUnion(unionSchema, datum));
+                if (branch.getType() == SchemaType.NULL) {
+                    out.writeNull();
+                } else {
+                    out.writeStartObject();
+                    out.writeFieldName(branch.getName());
+                    write(branch, datum, out);
+                    out.writeEndObject();
+                }
+                break;
+            case STRING:
+                out.writeString(datum.toString());
+                break;
+            case BYTES:
+                writeBytes((ByteBuffer) datum, out);
+                break;
+            case INT:
+                out.writeNumber(((Number) datum).intValue());
+                break;
+            case LONG:
+                out.writeNumber((Long) datum);
+                break;
+            case FLOAT:
+                out.writeNumber((Float) datum);
+                break;
+            case DOUBLE:
+                out.writeNumber((Double) datum);
+                break;
+            case DATETIME:
+                out.writeNumber(toMillis(datum));
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean) datum);
+                break;
+            case NULL:
+                out.writeNull();
+                break;
+            default:
+                throw new BaijiTypeException("Not a" + schema + ": " + datum);
+        }
+    }
+
+    private void writeRecord(RecordSchema recordSchema, Object datum, JsonGenerator out) throws IOException {
+        out.writeStartObject();
+        if (datum instanceof GenericData.Record
+                && ((GenericData.Record) datum).getSchema() == recordSchema) {
+            // primitive field values are never boxed
+            GenericData.Record record = (GenericData.Record) datum;
+            SchemaType[] types = record.getLayout().types;
+            for (Field field : recordSchema.getFields()) {
+                int pos = field.getPos();
+                out.writeFieldName(field.getName());
+                switch (types[pos]) {
+                    case INT:
+                        out.writeNumber(record.getInt(pos));
+                        break;
+                    case LONG:
+                        out.writeNumber(record.getLong(pos));
+                        break;
+                    case FLOAT:
+                        out.writeNumber(record.getFloat(pos));
+                        break;
+                    case DOUBLE:
+                        out.writeNumber(record.getDouble(pos));
+                        break;
+                    case BOOLEAN:
+                        out.writeBoolean(record.getBoolean(pos));
+                        break;
+                    case DATETIME:
+                        out.writeNumber(record.getDatetimeMillis(pos));
+                        break;
+                    default:
+                        write(field.getSchema(), record.get(pos), out);
+                }
+            }
+        } else {
+            for (Field field : recordSchema.getFields()) {
+                out.writeFieldName(field.getName());
+                write(field.getSchema(), data.getField(datum, field.getName(), field.getPos()), out);
+            }
+        }
+        out.writeEndObject();
+    }
+
+    private static void writeEnum(Object datum, JsonGenerator out) throws IOException {
+        if (datum instanceof GenericEnum) {
+            out.writeString(((GenericEnum) datum).getValue());
+        } else if (datum instanceof Enum) {
+            out.writeString(((Enum) datum).name());
+        } else {
+            out.writeString(datum.toString());
+        }
+    }
+
+    private static void writeBytes(ByteBuffer bytes, JsonGenerator out) throws IOException {
+        if (bytes.hasArray()) {
+            out.writeString(new String(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                    bytes.remaining(), ISO_8859_1));
+        } else {
+            byte[] b = new byte[bytes.remaining()];
+            bytes.duplicate().get(b);
+            out.writeString(new String(b, ISO_8859_1));
+        }
+    }
+
+    // arrays may also be given as an Iterator or a Stream, as by GenericDatumWriter.
+    private static Iterator<?> iterator(Object datum) {
+        if (datum instanceof Iterator) {
+            return (Iterator<?>) datum;
+        } else if (datum instanceof BaseStream) {
+            return ((BaseStream<?, ?>) datum).iterator();
+        }
+        return ((Collection<?>) datum).iterator();
+    }
+
+    private static long toMillis(Object datum) {
+        if (datum instanceof Instant) {
+            return ((Instant) datum).toEpochMilli();
+        } else if (datum instanceof Calendar) {
+            return ((Calendar) datum).getTimeInMillis();
+        } else if (datum instanceof Date) {
+            return ((Date) datum).getTime();
+        }
+        return (Long) datum;
+    }
+}
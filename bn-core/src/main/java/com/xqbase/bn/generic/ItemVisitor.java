@@ -0,0 +1,18 @@
+package com.xqbase.bn.generic;
+
+import java.io.IOException;
+
+/**
+ * Receives the items of an array one at a time, as they are read by
+ * {@link GenericDatumReader#readItems(com.xqbase.bn.io.Decoder, ItemVisitor)}.
+ *
+ * @author Tony He
+ */
+public interface ItemVisitor<I> {
+
+    /**
+     * Called with each item of the array, in order. The item is reused to read
+     * the next one, so it must not be kept after this method returns.
+     */
+    void visit(I item) throws IOException;
+}
@@ -0,0 +1,170 @@
+package com.xqbase.bn.generic;
+
+import com.google.common.collect.MapMaker;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.SchemaType;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The storage layout of a {@link GenericData.Record}, computed once per {@link RecordSchema}.
+ * <p/>
+ * Fields of type int, long, boolean and datetime are stored in a <tt>long[]</tt>,
+ * fields of type float and double in a <tt>double[]</tt>, and all other fields
+ * in an <tt>Object[]</tt>. Field names are looked up through a perfect hash table
+ * built from the field names of the schema.
+ *
+ * @author Tony He
+ */
+final class RecordLayout {
+
+    static final byte REFERENCE = 0;
+    static final byte LONG_SLOT = 1;
+    static final byte DOUBLE_SLOT = 2;
+
+    // the largest table size tried is the field count rounded up to a power of two, times this factor.
+    private static final int MAX_TABLE_FACTOR = 8;
+    private static final int MAX_SEEDS = 256;
+
+    private static final ConcurrentMap<RecordSchema, RecordLayout> LAYOUTS =
+            new MapMaker().weakKeys().makeMap();
+
+    final RecordSchema schema;
+    final SchemaType[] types;
+    final byte[] kinds;
+    final int[] slots;
+    final int longCount;
+    final int doubleCount;
+    final int referenceCount;
+
+    private final String[] hashNames;
+    private final int[] hashPositions;
+    private final int hashSeed;
+    private final int hashMask;
+    // used only if no perfect hash could be found, e.g. for names sharing a hash code.
+    private final Map<String, Integer> fallback;
+
+    private RecordLayout(RecordSchema schema) {
+        List<Field> fields = schema.getFields();
+        int size = fields.size();
+        this.schema = schema;
+        this.types = new SchemaType[size];
+        this.kinds = new byte[size];
+        this.slots = new int[size];
+
+        int longs = 0;
+        int doubles = 0;
+        int references = 0;
+        for (Field field : fields) {
+            int pos = field.getPos();
+            SchemaType type = field.getSchema().getType();
+            types[pos] = type;
+            switch (type) {
+                case INT:
+                case LONG:
+                case BOOLEAN:
+                case DATETIME:
+                    kinds[pos] = LONG_SLOT;
+                    slots[pos] = longs++;
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    kinds[pos] = DOUBLE_SLOT;
+                    slots[pos] = doubles++;
+                    break;
+                default:
+                    kinds[pos] = REFERENCE;
+                    slots[pos] = references++;
+            }
+        }
+        this.longCount = longs;
+        this.doubleCount = doubles;
+        this.referenceCount = references;
+
+        String[] names = new String[size];
+        for (Field field : fields) {
+            names[field.getPos()] = field.getName();
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(size, 1));
+        if (tableSize < size) {
+            tableSize <<= 1;
+        }
+        int maxTableSize = tableSize * MAX_TABLE_FACTOR;
+        for (; tableSize <= maxTableSize; tableSize <<= 1) {
+            int mask = tableSize - 1;
+            for (int seed = 0; seed < MAX_SEEDS; seed++) {
+                String[] table = tryBuild(names, seed, mask);
+                if (table != null) {
+                    this.hashNames = table;
+                    this.hashPositions = new int[tableSize];
+                    for (int i = 0; i < names.length; i++) {
+                        hashPositions[index(names[i].hashCode(), seed, mask)] = i;
+                    }
+                    this.hashSeed = seed;
+                    this.hashMask = mask;
+                    this.fallback = null;
+                    return;
+                }
+            }
+        }
+
+        this.hashNames = null;
+        this.hashPositions = null;
+        this.hashSeed = 0;
+        this.hashMask = 0;
+        this.fallback = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            fallback.put(names[i], i);
+        }
+    }
+
+    /**
+     * Returns the layout for the given schema, computing it on first use.
+     */
+    static RecordLayout of(RecordSchema schema) {
+        RecordLayout layout = LAYOUTS.get(schema);
+        if (null == layout) {
+            layout = new RecordLayout(schema);
+            RecordLayout existed = LAYOUTS.putIfAbsent(schema, layout);
+            if (existed != null) {
+                layout = existed;
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Returns the position of the field with exactly the given name, or -1.
+     */
+    int indexOf(String name) {
+        if (fallback != null) {
+            Integer pos = fallback.get(name);
+            return pos != null ? pos : -1;
+        }
+        int index = index(name.hashCode(), hashSeed, hashMask);
+        String candidate = hashNames[index];
+        return candidate != null && candidate.equals(name) ? hashPositions[index] : -1;
+    }
+
+    private static String[] tryBuild(String[] names, int seed, int mask) {
+        String[] table = new String[mask + 1];
+        for (String name : names) {
+            int index = index(name.hashCode(), seed, mask);
+            if (table[index] != null) {
+                return null;
+            }
+            table[index] = name;
+        }
+        return table;
+    }
+
+    private static int index(int hash, int seed, int mask) {
+        int h = (hash ^ (seed * 0x85EBCA6B)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -1,5 +1,7 @@
 package com.xqbase.bn.io;
 
+import com.xqbase.bn.util.Utf8;
+
 /**
  * Utilities for binary-encoded data.
  */
@@ -136,4 +138,62 @@ public class BinaryData {
         buf[pos + 3] = (byte)((first >>>  24) & 0xFF);
         return 8;
     }
+
+    /**
+     * Returns the number of bytes {@link #encodeInt} writes for <tt>n</tt>, between 1 and 5.
+     */
+    public static int sizeOfInt(int n) {
+        n = (n << 1) ^ (n >> 31);
+        return (38 - Integer.numberOfLeadingZeros(n | 1)) / 7;
+    }
+
+    /**
+     * Returns the number of bytes {@link #encodeLong} writes for <tt>n</tt>, between 1 and 10.
+     */
+    public static int sizeOfLong(long n) {
+        n = (n << 1) ^ (n >> 63);
+        return (70 - Long.numberOfLeadingZeros(n | 1)) / 7;
+    }
+
+    /**
+     * Returns the encoded size of a byte string of <tt>length</tt> bytes, length prefix included.
+     */
+    public static int sizeOfBytes(int length) {
+        return sizeOfInt(length) + length;
+    }
+
+    /**
+     * Returns the encoded size of a string, length prefix included.
+     */
+    public static int sizeOfString(CharSequence s) {
+        if (s instanceof Utf8) {
+            return sizeOfBytes(((Utf8) s).getByteLength());
+        }
+        return sizeOfBytes(utf8Length(s));
+    }
+
+    /**
+     * Returns the length of the UTF-8 encoding of a string, without encoding it.
+     * An unpaired surrogate counts as one byte, as it is replaced by <tt>'?'</tt>.
+     */
+    public static int utf8Length(CharSequence s) {
+        int length = s.length();
+        int result = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                result += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // 4 bytes for the two chars of the pair
+                result += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                result += 2;
+            }
+        }
+        return result;
+    }
 }
@@ -4,6 +4,7 @@ import com.xqbase.bn.util.Utf8;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Calendar;
 
 /**
@@ -17,7 +18,7 @@ import java.util.Calendar;
  * @see Encoder
  */
 
-public class BinaryDecoder implements Decoder {
+public abstract class BinaryDecoder implements Decoder {
 
 
     protected BinaryDecoder() {}
@@ -27,54 +28,33 @@ public class BinaryDecoder implements Decoder {
 
     }
 
-    @Override
-    public boolean readBoolean() throws IOException {
-        return false;
-    }
-
-    @Override
-    public int readInt() throws IOException {
-        return 0;
-    }
-
-    @Override
-    public long readLong() throws IOException {
-        return 0;
-    }
-
-    @Override
-    public float readFloat() throws IOException {
-        return 0;
-    }
-
-    @Override
-    public double readDouble() throws IOException {
-        return 0;
-    }
-
     @Override
     public byte[] readBytes() throws IOException {
-        return new byte[0];
-    }
-
-    @Override
-    public ByteBuffer readBytes(ByteBuffer old) throws IOException {
-        return null;
+        int length = readInt();
+        byte[] result = new byte[length];
+        doReadBytes(result, 0, length);
+        return result;
     }
 
     @Override
     public void readFixed(byte[] bytes, int start, int length) throws IOException {
-
+        doReadBytes(bytes, start, length);
     }
 
     @Override
     public void readFixed(byte[] bytes) throws IOException {
-
+        readFixed(bytes, 0, bytes.length);
     }
 
     @Override
-    public String readString(Utf8 old) throws IOException {
-        return null;
+    public Utf8 readString(Utf8 old) throws IOException {
+        int length = readInt();
+        Utf8 result = (old != null ? old : new Utf8());
+        result.seByteLength(length);
+        if (length != 0) {
+            doReadBytes(result.getBytes(), 0, length);
+        }
+        return result;
     }
 
     /**
@@ -84,47 +64,79 @@ public class BinaryDecoder implements Decoder {
      *                  If there are not enough number of bytes in the source.
      * @throws java.io.IOException
      */
-    protected void doReadBytes(byte[] bytes, int start, int length) throws IOException {
-
-    }
+    protected abstract void doReadBytes(byte[] bytes, int start, int length) throws IOException;
 
     @Override
     public String readString() throws IOException {
-        return null;
+        return readString(null).toString();
     }
 
     @Override
     public Calendar readDatetime() throws IOException {
-        return null;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(readDatetimeMillis());
+        return calendar;
+    }
+
+    @Override
+    public Instant readDatetimeInstant() throws IOException {
+        return Instant.ofEpochMilli(readDatetimeMillis());
+    }
+
+    @Override
+    public long readDatetimeMillis() throws IOException {
+        // a date is written as long type
+        return readLong();
     }
 
     @Override
     public int readEnum() throws IOException {
-        return 0;
+        return readInt();
+    }
+
+    /**
+     * Returns the number of items to follow in the current array or map.
+     * Returns 0 if there are no more items in the current array and the array/map
+     * has ended.
+     *
+     * @throws IOException
+     */
+    protected long doReadItemCount() throws IOException {
+        long result = readLong();
+        if (result < 0) {
+            readLong(); // Consume byte-count if present
+            result = -result;
+        }
+        return result;
     }
 
     @Override
     public long readArrayStart() throws IOException {
-        return 0;
+        return doReadItemCount();
     }
 
     @Override
     public long readArrayNext() throws IOException {
-        return 0;
+        return doReadItemCount();
     }
 
     @Override
     public long readMapStart() throws IOException {
-        return 0;
+        return doReadItemCount();
     }
 
     @Override
     public long readMapNext() throws IOException {
-        return 0;
+        return doReadItemCount();
     }
 
     @Override
     public int readUnionIndex() throws IOException {
-        return 0;
+        return readInt();
+    }
+
+    @Override
+    public boolean usesPresenceBitmap() {
+        return true;
     }
 }
@@ -4,6 +4,8 @@ import com.xqbase.bn.util.Utf8;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Calendar;
 
 /**
  * An abstract {@link Encoder} for Baiji's binary encoding.
@@ -57,7 +59,7 @@ public abstract class BinaryEncoder implements Encoder {
 
     @Override
     public void writeBytes(ByteBuffer bytes) throws IOException {
-        int len = bytes.limit() - bytes.remaining();
+        int len = bytes.remaining();
         if (len == 0) {
             writeZero();
         } else {
@@ -74,6 +76,22 @@ public abstract class BinaryEncoder implements Encoder {
         }
     }
 
+    @Override
+    public void writeDatetime(Calendar date) throws IOException {
+        writeDatetimeMillis(date.getTimeInMillis());
+    }
+
+    @Override
+    public void writeDatetime(Instant instant) throws IOException {
+        writeDatetimeMillis(instant.toEpochMilli());
+    }
+
+    @Override
+    public void writeDatetimeMillis(long millis) throws IOException {
+        // a date is written as long type
+        writeLong(millis);
+    }
+
     @Override
     public void writeEnum(int e) throws IOException {
         this.writeInt(e);
@@ -110,6 +128,11 @@ public abstract class BinaryEncoder implements Encoder {
         writeInt(unionIndex);
     }
 
+    @Override
+    public boolean usesPresenceBitmap() {
+        return true;
+    }
+
     /** Write a zero byte to the underlying output. **/
     protected abstract void writeZero() throws IOException;
 
@@ -7,7 +7,6 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
-import java.util.Calendar;
 
 /**
  * A {@link Encoder} for Baiji's binary encoding.
@@ -147,10 +146,10 @@ public class BufferedBinaryEncoder extends BinaryEncoder {
     }
 
     @Override
-    public void writeDatetime(Calendar date) throws IOException {
+    public void writeDatetimeMillis(long millis) throws IOException {
         // write datetime as long
         ensureBounds(10);
-        pos += BinaryData.encodeLong(date.getTimeInMillis(), buf, pos);
+        pos += BinaryData.encodeLong(millis, buf, pos);
     }
 
     @Override
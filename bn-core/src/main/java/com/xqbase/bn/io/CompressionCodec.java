@@ -0,0 +1,38 @@
+package com.xqbase.bn.io;
+
+import java.io.IOException;
+
+/**
+ * A block compression codec for the bodies of {@link MessageFramer} frames.
+ * Implementations must be thread safe.
+ *
+ * @author Tony He
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the id recorded in the frames compressed by this codec, between 1 and 255.
+     * Id 0 marks uncompressed frames.
+     */
+    int getId();
+
+    /**
+     * Returns the largest size <tt>length</tt> bytes may compress to.
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses <tt>srcLen</tt> bytes of <tt>src</tt> into <tt>dst</tt>, which has room
+     * for at least {@link #maxCompressedLength} bytes from <tt>dstOff</tt>.
+     *
+     * @return the compressed size
+     */
+    int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) throws IOException;
+
+    /**
+     * Decompresses <tt>srcLen</tt> bytes of <tt>src</tt> into exactly <tt>dstLen</tt> bytes of <tt>dst</tt>.
+     *
+     * @throws IOException if the data is corrupt
+     */
+    void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException;
+}
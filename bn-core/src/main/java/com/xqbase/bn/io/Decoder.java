@@ -5,6 +5,7 @@ import com.xqbase.bn.util.Utf8;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Calendar;
 
 /**
@@ -117,11 +118,13 @@ public interface Decoder {
 
     /**
      * Reads a char-string written by {@link Encoder#writeString}.
+     * If <tt>old</tt> is not null, its buffer is reused and <tt>old</tt>
+     * is returned.
      *
      * @throws BaijiTypeException If this is a stateful reader and
      *                            char-string is not the type of the next value to be read
      */
-    String readString(Utf8 old) throws IOException;
+    Utf8 readString(Utf8 old) throws IOException;
 
     /**
      * Reads a char-string written by {@link Encoder#writeString}.
@@ -140,6 +143,24 @@ public interface Decoder {
      */
     Calendar readDatetime() throws IOException;
 
+    /**
+     * Reads a date time written by {@link Encoder#writeDatetime(java.util.Calendar)}
+     *
+     * @return a date time
+     * @throws BaijiTypeException If this is a stateful reader and
+     *                            date time is not the type of the next value to be read
+     */
+    Instant readDatetimeInstant() throws IOException;
+
+    /**
+     * Reads a date time written by {@link Encoder#writeDatetime(java.util.Calendar)}
+     *
+     * @return the date time as milliseconds since the epoch
+     * @throws BaijiTypeException If this is a stateful reader and
+     *                            date time is not the type of the next value to be read
+     */
+    long readDatetimeMillis() throws IOException;
+
     /**
      * Reads an enumeration.
      *
@@ -220,5 +241,12 @@ public interface Decoder {
      *                            union is not the type of the next value to be read
      */
     int readUnionIndex() throws IOException;
+
+    /**
+     * Returns whether this decoder reads the binary encoding, in which a sparse
+     * record starts with the presence bitmap of its nullable fields. A decoder
+     * delegating to another one answers as that one does.
+     */
+    boolean usesPresenceBitmap();
 }
 
@@ -64,6 +64,26 @@ public class DecoderFactory {
         return new ResolvingDecoder(schema, wrapped);
     }
 
+    /**
+     * Creates a {@link ResolvingDecoder} that reads data written with the
+     * <i>writer</i> schema from the wrapped Decoder, and presents it as the
+     * <i>reader</i> schema.
+     *
+     * @param writer
+     *          The Schema that the source data is in. Cannot be null.
+     * @param reader
+     *          The Schema that the reader wishes to read the data as. Cannot be null.
+     * @param wrapped
+     *          The Decoder to wrap.
+     * @return A ResolvingDecoder configured to resolve <i>writer</i> to
+     *         <i>reader</i> from <i>in</i>
+     * @throws IOException
+     */
+    public ResolvingDecoder resolvingDecoder(Schema writer, Schema reader, Decoder wrapped)
+            throws IOException {
+        return new ResolvingDecoder(writer, reader, wrapped);
+    }
+
     private static class DefaultDecoderFactory extends DecoderFactory {
         @Override
         public DecoderFactory configureDecoderBufferSize(int size) {
@@ -0,0 +1,94 @@
+package com.xqbase.bn.io;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The JDK's deflate, with a {@link Deflater} and an {@link Inflater} reused per thread.
+ *
+ * @author Tony He
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    public static final int ID = 1;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflateCodec(final int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.deflaters = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(level);
+            }
+        };
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // zlib's deflateBound, plus room for the zlib header and checksum
+        return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 32;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) throws IOException {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(src, srcOff, srcLen);
+        deflater.finish();
+        int pos = dstOff;
+        while (!deflater.finished()) {
+            if (pos == dst.length) {
+                throw new IOException("Compressed data exceeds maxCompressedLength");
+            }
+            pos += deflater.deflate(dst, pos, dst.length - pos);
+        }
+        return pos - dstOff;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(src, srcOff, srcLen);
+        int pos = dstOff;
+        int end = dstOff + dstLen;
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(dst, pos, end - pos);
+                if (0 == n && (inflater.needsInput() || inflater.needsDictionary() || pos == end)) {
+                    break;
+                }
+                pos += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate data", e);
+        }
+        if (!inflater.finished() || pos != end) {
+            throw new IOException("Corrupt deflate data: expected " + dstLen + " bytes");
+        }
+    }
+}
@@ -21,22 +21,33 @@ public class DirectBinaryDecoder extends BinaryDecoder {
 
     private InputStream in;
     private ByteReader byteReader;
+    // stateless, so shared by all the streams that don't need a ReuseByteReader
+    private final ByteReader defaultByteReader = new ByteReader();
 
     // used for {@link readFloat} and {@link readDouble}.
     private final byte[] buf = new byte[8];
 
     public DirectBinaryDecoder(InputStream in) {
         super();
+        configure(in);
     }
 
-    private DirectBinaryDecoder configure(InputStream in) {
+    /**
+     * Reconfigures this decoder to read from the given input stream, so that it
+     * can be reused across messages.
+     */
+    public DirectBinaryDecoder configure(InputStream in) {
         if (null == in) {
             throw new NullPointerException("InputStream cannot be null");
         }
         this.in = in;
-        this.byteReader = (in instanceof ByteBufferInputStream)
-                ? new ReuseByteReader((ByteBufferInputStream) in)
-                : new ByteReader();
+        if (in instanceof ByteBufferInputStream) {
+            if (!(byteReader instanceof ReuseByteReader) || ((ReuseByteReader) byteReader).bbi != in) {
+                byteReader = new ReuseByteReader((ByteBufferInputStream) in);
+            }
+        } else {
+            byteReader = defaultByteReader;
+        }
         return this;
     }
 
@@ -104,7 +115,7 @@ public class DirectBinaryDecoder extends BinaryDecoder {
             if (b >= 0) {
                 n |= (b & 0x7FL) << shift;
                 if ((b & 0x80) == 0) { // no more data
-                    return (n >>> 1) & -(n & 1);
+                    return (n >>> 1) ^ -(n & 1); // back to two's-complement
                 }
             } else {
                 throw new EOFException();
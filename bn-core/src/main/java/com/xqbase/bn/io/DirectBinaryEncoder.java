@@ -2,7 +2,6 @@ package com.xqbase.bn.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Calendar;
 
 /**
  * An {@link Encoder} for Baiji's binary encoding that does not buffer output.
@@ -22,9 +21,18 @@ public class DirectBinaryEncoder extends BinaryEncoder {
     private final byte[] buf = new byte[12];
 
     public DirectBinaryEncoder(OutputStream out) {
+        configure(out);
+    }
+
+    /**
+     * Reconfigures this encoder to write to the given output stream, so that it
+     * can be reused across messages.
+     */
+    public DirectBinaryEncoder configure(OutputStream out) {
         if (null == out)
             throw new NullPointerException("OutputStream cannot be null!");
         this.out = out;
+        return this;
     }
 
     @Override
@@ -113,12 +121,6 @@ public class DirectBinaryEncoder extends BinaryEncoder {
         out.write(bytes, start, len);
     }
 
-    @Override
-    public void writeDatetime(Calendar date) throws IOException {
-        // a date is written as long type
-        writeLong(date.getTimeInMillis());
-    }
-
     @Override
     public void flush() throws IOException {
         out.flush();
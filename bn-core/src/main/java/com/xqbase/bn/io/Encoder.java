@@ -6,6 +6,7 @@ import com.xqbase.bn.util.Utf8;
 import java.io.Flushable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Calendar;
 
 /**
@@ -142,6 +143,25 @@ public interface Encoder extends Flushable {
      */
     void writeDatetime(Calendar date) throws IOException;
 
+    /**
+     * Write a date
+     * @param instant the date
+     * @throws java.io.IOException
+     * @throws BaijiTypeException If this is a stateful writer and a
+     *                            date is not expected
+     */
+    void writeDatetime(Instant instant) throws IOException;
+
+    /**
+     * Write a date given as milliseconds since the epoch. The encoding is
+     * the same as that of {@link #writeDatetime(java.util.Calendar)}.
+     * @param millis milliseconds since the epoch
+     * @throws java.io.IOException
+     * @throws BaijiTypeException If this is a stateful writer and a
+     *                            date is not expected
+     */
+    void writeDatetimeMillis(long millis) throws IOException;
+
     /**
      * Writes an enumeration.
      *
@@ -265,5 +285,12 @@ public interface Encoder extends Flushable {
      *                            map is not expected
      */
     void writeUnionIndex(int unionIndex) throws IOException;
+
+    /**
+     * Returns whether this encoder writes the binary encoding, in which a sparse
+     * record starts with the presence bitmap of its nullable fields. An encoder
+     * delegating to another one answers as that one does.
+     */
+    boolean usesPresenceBitmap();
 }
 
@@ -0,0 +1,624 @@
+package com.xqbase.bn.io;
+
+import com.google.common.collect.MapMaker;
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.parsing.Program;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.util.Utf8;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.TokenBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link Decoder} for Baiji's JSON data encoding, as written by {@link JsonEncoder}.
+ * <p/>
+ * JsonDecoder runs the {@link Program} compiled for the writer's schema, and reads the
+ * values it expects straight from a {@link JsonParser}. Fields are matched by name through
+ * a table computed once per record schema. A field that arrives ahead of its turn is
+ * buffered, and read back from the buffer when its turn comes; fields in schema order
+ * are never buffered.
+ * <p/>
+ * A JsonDecoder given an input stream or string creates its own parser, and closes it
+ * when reconfigured or closed, so that Jackson recycles its buffers. The stream itself
+ * is left open. A parser given to the decoder is left to its owner.
+ * <p/>
+ * JsonDecoder is not thread safe.
+ *
+ * @author Tony He
+ */
+public class JsonDecoder implements Decoder, Closeable {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    // bytes are written as JSON strings, one char per byte
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    // field name to field index tables, keyed by the fields of a compiled record.
+    private static final ConcurrentMap<Field[], Map<String, Integer>> FIELD_TABLES =
+            new MapMaker().weakKeys().makeMap();
+
+    private static final int RECORD = 0;
+    private static final int ARRAY = 1;
+    private static final int MAP = 2;
+    private static final int UNION = 3;
+
+    private final int[] code;
+    private final Object[] constants;
+
+    private JsonParser in;
+    // the parser created by this decoder, null if it was given one
+    private JsonParser owned;
+    // whether the current token of the parser has been read already
+    private boolean consumed;
+
+    private int pc;
+    private int[] calls = new int[8];
+    private int callDepth;
+
+    private Frame[] frames = new Frame[8];
+    private int depth;
+
+    public JsonDecoder(Schema schema, InputStream in) throws IOException {
+        this(schema, JSON_FACTORY.createJsonParser(in));
+        this.owned = this.in;
+    }
+
+    public JsonDecoder(Schema schema, String in) throws IOException {
+        this(schema, JSON_FACTORY.createJsonParser(in));
+        this.owned = this.in;
+    }
+
+    public JsonDecoder(Schema schema, JsonParser in) throws IOException {
+        Program program = (Program) ResolvingDecoder.resolve(schema);
+        this.code = program.code;
+        this.constants = program.constants;
+        configure(in);
+    }
+
+    /**
+     * Reconfigures this JsonDecoder to read from the given input stream, starting
+     * a new datum.
+     */
+    public JsonDecoder configure(InputStream in) throws IOException {
+        if (null == in) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        close();
+        owned = JSON_FACTORY.createJsonParser(in);
+        return configure(owned);
+    }
+
+    /**
+     * Closes the parser this JsonDecoder created, returning its buffers to Jackson.
+     * The stream it reads from is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (owned != null) {
+            JsonParser parser = owned;
+            owned = null;
+            parser.close();
+        }
+    }
+
+    private JsonDecoder configure(JsonParser in) {
+        if (null == in) {
+            throw new NullPointerException("JsonParser cannot be null");
+        }
+        this.in = in;
+        this.consumed = true;
+        this.pc = 0;
+        this.callDepth = 0;
+        // a datum given up on may have left frames with buffered fields behind
+        for (Frame f : frames) {
+            if (f != null) {
+                f.reset();
+            }
+        }
+        this.depth = 0;
+        return this;
+    }
+
+    /**
+     * Consumes the rest of the current datum, up to its last token. The parser
+     * is not advanced past the datum, so that streams are not read ahead.
+     */
+    public void drain() throws IOException {
+        advance(Program.END);
+    }
+
+    /**
+     * Runs implicit instructions until the instruction at the program
+     * counter is <tt>opcode</tt>.
+     */
+    private void advance(int opcode) throws IOException {
+        for (; ;) {
+            int op = code[pc];
+            if (op == opcode) {
+                return;
+            }
+            switch (op) {
+                case Program.CALL:
+                    if (callDepth == calls.length) {
+                        calls = Arrays.copyOf(calls, callDepth * 2);
+                    }
+                    calls[callDepth++] = pc + 2;
+                    pc = code[pc + 1];
+                    break;
+                case Program.RECORD:
+                    startRecord((Field[]) constants[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Program.RETURN:
+                    endRecord();
+                    pc = calls[--callDepth];
+                    break;
+                case Program.JUMP:
+                    endUnion();
+                    pc = code[pc + 1];
+                    break;
+                case Program.REPEAT:
+                case Program.MAP_REPEAT:
+                    pc = code[pc + 1];
+                    break;
+                case Program.END:
+                    // the next datum starts over
+                    pc = 0;
+                    break;
+                case Program.PRESENCE:
+                    // JSON records are never sparse
+                    pc += 2;
+                    break;
+                case Program.OPTIONAL:
+                    pc += 4;
+                    break;
+                case Program.PRESENCE_END:
+                    pc++;
+                    break;
+                default:
+                    throw new BaijiTypeException("Attempt to process a " + Program.name(opcode)
+                            + " when a " + Program.name(op) + " was expected.");
+            }
+        }
+    }
+
+    private JsonToken token() throws IOException {
+        if (consumed) {
+            in.nextToken();
+            consumed = false;
+        }
+        return in.getCurrentToken();
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken t = token();
+        if (t != expected) {
+            throw new BaijiTypeException("Expected " + expected + ". Got " + t);
+        }
+    }
+
+    private Frame push(int kind) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Frame f = frames[depth];
+        if (null == f) {
+            f = frames[depth] = new Frame();
+        }
+        depth++;
+        f.reset();
+        f.kind = kind;
+        return f;
+    }
+
+    private Frame pop(int kind) {
+        if (depth == 0 || frames[depth - 1].kind != kind) {
+            throw new BaijiTypeException("Unbalanced JSON input");
+        }
+        return frames[--depth];
+    }
+
+    /**
+     * Positions the parser on the next value. Within a record, this is the
+     * value of the next field.
+     */
+    private void startValue() throws IOException {
+        if (depth > 0 && frames[depth - 1].kind == RECORD) {
+            startField(frames[depth - 1]);
+        }
+    }
+
+    private void startField(Frame f) throws IOException {
+        restore(f);
+        String name = f.fields[f.next++].getName();
+        if (f.buffered != null && !f.buffered.isEmpty()) {
+            TokenBuffer buffer = f.buffered.remove(name);
+            if (buffer != null) {
+                f.saved = in;
+                f.savedConsumed = consumed;
+                in = buffer.asParser();
+                consumed = true;
+                return;
+            }
+        }
+        for (; ;) {
+            if (token() != JsonToken.FIELD_NAME) {
+                throw new BaijiTypeException("Expected field name not found: " + name);
+            }
+            String current = in.getCurrentName();
+            consume();
+            if (name.equals(current)) {
+                return;
+            }
+            Integer index = f.names.get(current);
+            token();
+            if (index != null && index >= f.next) {
+                // a field ahead of its turn
+                TokenBuffer buffer = new TokenBuffer(null);
+                buffer.copyCurrentStructure(in);
+                if (null == f.buffered) {
+                    f.buffered = new HashMap<>();
+                }
+                f.buffered.put(current, buffer);
+            } else {
+                in.skipChildren();
+            }
+            consume();
+        }
+    }
+
+    private void consume() {
+        consumed = true;
+    }
+
+    // Resumes reading from the stream after a buffered field.
+    private void restore(Frame f) {
+        if (f.saved != null) {
+            in = f.saved;
+            consumed = f.savedConsumed;
+            f.saved = null;
+        }
+    }
+
+    private void startRecord(Field[] fields) throws IOException {
+        startValue();
+        expect(JsonToken.START_OBJECT);
+        consume();
+        Frame f = push(RECORD);
+        f.fields = fields;
+        f.names = fieldTable(fields);
+        f.next = 0;
+    }
+
+    private void endRecord() throws IOException {
+        Frame f = pop(RECORD);
+        restore(f);
+        if (f.buffered != null) {
+            f.buffered.clear();
+        }
+        // skips the fields unknown to the schema
+        while (token() == JsonToken.FIELD_NAME) {
+            consume();
+            token();
+            in.skipChildren();
+            consume();
+        }
+        expect(JsonToken.END_OBJECT);
+        consume();
+    }
+
+    private void endUnion() throws IOException {
+        Frame f = pop(UNION);
+        if (f.wrapped) {
+            expect(JsonToken.END_OBJECT);
+            consume();
+        }
+    }
+
+    private static Map<String, Integer> fieldTable(Field[] fields) {
+        Map<String, Integer> table = FIELD_TABLES.get(fields);
+        if (null == table) {
+            table = new HashMap<>();
+            for (int i = 0; i < fields.length; i++) {
+                table.put(fields[i].getName(), i);
+            }
+            FIELD_TABLES.put(fields, table);
+        }
+        return table;
+    }
+
+    @Override
+    public void readNull() throws IOException {
+        advance(Program.NULL);
+        pc++;
+        startValue();
+        expect(JsonToken.VALUE_NULL);
+        consume();
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        advance(Program.BOOLEAN);
+        pc++;
+        startValue();
+        JsonToken t = token();
+        if (t != JsonToken.VALUE_TRUE && t != JsonToken.VALUE_FALSE) {
+            throw new BaijiTypeException("Expected boolean. Got " + t);
+        }
+        consume();
+        return t == JsonToken.VALUE_TRUE;
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        advance(Program.INT);
+        pc++;
+        startValue();
+        expect(JsonToken.VALUE_NUMBER_INT);
+        consume();
+        return in.getIntValue();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        advance(Program.LONG);
+        pc++;
+        return readLongValue();
+    }
+
+    private long readLongValue() throws IOException {
+        startValue();
+        expect(JsonToken.VALUE_NUMBER_INT);
+        consume();
+        return in.getLongValue();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        advance(Program.FLOAT);
+        pc++;
+        return (float) readDoubleValue();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        advance(Program.DOUBLE);
+        pc++;
+        return readDoubleValue();
+    }
+
+    private double readDoubleValue() throws IOException {
+        startValue();
+        JsonToken t = token();
+        if (t != JsonToken.VALUE_NUMBER_FLOAT && t != JsonToken.VALUE_NUMBER_INT) {
+            throw new BaijiTypeException("Expected double. Got " + t);
+        }
+        consume();
+        return in.getDoubleValue();
+    }
+
+    @Override
+    public byte[] readBytes() throws IOException {
+        advance(Program.BYTES);
+        pc++;
+        return readText().getBytes(ISO_8859_1);
+    }
+
+    @Override
+    public ByteBuffer readBytes(ByteBuffer old) throws IOException {
+        byte[] bytes = readBytes();
+        if (old != null && bytes.length <= old.capacity()) {
+            old.clear();
+            old.put(bytes);
+            old.flip();
+            return old;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void readFixed(byte[] bytes, int start, int length) throws IOException {
+        byte[] result = readText().getBytes(ISO_8859_1);
+        if (result.length != length) {
+            throw new BaijiTypeException("Expected fixed length " + length + ", but got" + result.length);
+        }
+        System.arraycopy(result, 0, bytes, start, length);
+    }
+
+    @Override
+    public void readFixed(byte[] bytes) throws IOException {
+        readFixed(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public Utf8 readString(Utf8 old) throws IOException {
+        String s = readString();
+        return null == old ? new Utf8(s) : old.set(s);
+    }
+
+    @Override
+    public String readString() throws IOException {
+        advance(Program.STRING);
+        pc++;
+        if (depth > 0 && frames[depth - 1].kind == MAP && token() == JsonToken.FIELD_NAME) {
+            // a map key
+            consume();
+            return in.getCurrentName();
+        }
+        return readText();
+    }
+
+    private String readText() throws IOException {
+        startValue();
+        expect(JsonToken.VALUE_STRING);
+        consume();
+        return in.getText();
+    }
+
+    @Override
+    public Calendar readDatetime() throws IOException {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(readDatetimeMillis());
+        return calendar;
+    }
+
+    @Override
+    public Instant readDatetimeInstant() throws IOException {
+        return Instant.ofEpochMilli(readDatetimeMillis());
+    }
+
+    @Override
+    public long readDatetimeMillis() throws IOException {
+        advance(Program.DATETIME);
+        pc++;
+        return readLongValue();
+    }
+
+    @Override
+    public int readEnum() throws IOException {
+        advance(Program.ENUM);
+        String[] symbols = (String[]) constants[code[pc + 3]];
+        pc += 4;
+        String symbol = readText();
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i].equals(symbol)) {
+                return i;
+            }
+        }
+        throw new BaijiTypeException("Unknown symbol in enum " + symbol);
+    }
+
+    @Override
+    public long readArrayStart() throws IOException {
+        advance(Program.ARRAY_START);
+        startValue();
+        expect(JsonToken.START_ARRAY);
+        consume();
+        if (token() == JsonToken.END_ARRAY) {
+            consume();
+            pc = code[pc + 1];
+            return 0;
+        }
+        push(ARRAY);
+        pc += 2;
+        return 1;
+    }
+
+    @Override
+    public long readArrayNext() throws IOException {
+        advance(Program.REPEAT);
+        if (token() == JsonToken.END_ARRAY) {
+            consume();
+            pop(ARRAY);
+            pc += 2;
+            return 0;
+        }
+        return 1;
+    }
+
+    @Override
+    public long readMapStart() throws IOException {
+        advance(Program.MAP_START);
+        startValue();
+        expect(JsonToken.START_OBJECT);
+        consume();
+        if (token() == JsonToken.END_OBJECT) {
+            consume();
+            pc = code[pc + 1];
+            return 0;
+        }
+        push(MAP);
+        pc += 2;
+        return 1;
+    }
+
+    @Override
+    public long readMapNext() throws IOException {
+        advance(Program.MAP_REPEAT);
+        if (token() == JsonToken.END_OBJECT) {
+            consume();
+            pop(MAP);
+            pc += 2;
+            return 0;
+        }
+        return 1;
+    }
+
+    @Override
+    public int readUnionIndex() throws IOException {
+        advance(Program.UNION);
+        int[] targets = (int[]) constants[code[pc + 1]];
+        String[] labels = (String[]) constants[code[pc + 3]];
+        startValue();
+
+        String label;
+        boolean wrapped;
+        if (token() == JsonToken.VALUE_NULL) {
+            label = "null";
+            wrapped = false;
+        } else {
+            expect(JsonToken.START_OBJECT);
+            consume();
+            expect(JsonToken.FIELD_NAME);
+            label = in.getCurrentName();
+            consume();
+            wrapped = true;
+        }
+        for (int n = 0; n < labels.length; n++) {
+            if (labels[n].equals(label)) {
+                push(UNION).wrapped = wrapped;
+                pc = targets[n];
+                return n;
+            }
+        }
+        throw new BaijiTypeException("Unknown union branch " + label);
+    }
+
+    @Override
+    public boolean usesPresenceBitmap() {
+        return false;
+    }
+
+    /**
+     * A record, array, map or union being read.
+     */
+    private static final class Frame {
+        int kind;
+
+        // records
+        Field[] fields;
+        Map<String, Integer> names;
+        int next;
+        Map<String, TokenBuffer> buffered;
+        JsonParser saved;
+        boolean savedConsumed;
+
+        // unions
+        boolean wrapped;
+
+        void reset() {
+            fields = null;
+            names = null;
+            next = 0;
+            if (buffered != null) {
+                buffered.clear();
+            }
+            saved = null;
+            savedConsumed = false;
+            wrapped = false;
+        }
+    }
+}
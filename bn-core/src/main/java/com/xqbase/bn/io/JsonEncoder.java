@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.time.Instant;
 import java.util.BitSet;
 import java.util.Calendar;
 
@@ -29,6 +30,8 @@ import java.util.Calendar;
 public class JsonEncoder extends ParsingEncoder implements Parser.ActionHandler {
 
     private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    // bytes are written as JSON strings, one char per byte
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
 
     private final Parser parser;
     private JsonGenerator out;
@@ -44,8 +47,16 @@ public class JsonEncoder extends ParsingEncoder implements Parser.ActionHandler
     }
 
     public JsonEncoder(Schema sc, JsonGenerator jsonGenerator) throws IOException {
+        this(new JsonGrammarGenerator().generate(sc), jsonGenerator);
+    }
+
+    /**
+     * Creates an encoder for a grammar generated once by a {@link JsonGrammarGenerator}.
+     * Grammars are immutable, so that one can be shared by the encoders of many threads.
+     */
+    public JsonEncoder(Symbol root, JsonGenerator jsonGenerator) throws IOException {
         configure(jsonGenerator);
-        this.parser = new Parser(new JsonGrammarGenerator().generate(sc), this);
+        this.parser = new Parser(root, this);
     }
 
     private static JsonGenerator getJsonGenerator(OutputStream out, boolean pretty) throws IOException {
@@ -190,13 +201,13 @@ public class JsonEncoder extends ParsingEncoder implements Parser.ActionHandler
     }
 
     private void writeByteArray(byte[] bytes, int start, int len) throws IOException {
-        out.writeString(new String(bytes, start, len, Charset.forName("UTF-8")));
+        out.writeString(new String(bytes, start, len, ISO_8859_1));
     }
 
     @Override
     public void writeBytes(ByteBuffer bytes) throws IOException {
         if (bytes.hasArray()) {
-            writeBytes(bytes.array(), bytes.position(), bytes.remaining());
+            writeBytes(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
         } else {
             byte[] b = new byte[bytes.remaining()];
             bytes.duplicate().get(b);
@@ -211,8 +222,18 @@ public class JsonEncoder extends ParsingEncoder implements Parser.ActionHandler
 
     @Override
     public void writeDatetime(Calendar date) throws IOException {
+        writeDatetimeMillis(date.getTimeInMillis());
+    }
+
+    @Override
+    public void writeDatetime(Instant instant) throws IOException {
+        writeDatetimeMillis(instant.toEpochMilli());
+    }
+
+    @Override
+    public void writeDatetimeMillis(long millis) throws IOException {
         parser.advance(Symbol.DATETIME);
-        out.writeNumber(date.getTimeInMillis());
+        out.writeNumber(millis);
     }
 
     @Override
@@ -288,6 +309,11 @@ public class JsonEncoder extends ParsingEncoder implements Parser.ActionHandler
         parser.pushSymbol(symbol);
     }
 
+    @Override
+    public boolean usesPresenceBitmap() {
+        return false;
+    }
+
     @Override
     public void flush() throws IOException {
         parser.processImplicitActions();
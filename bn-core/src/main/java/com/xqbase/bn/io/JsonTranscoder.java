@@ -0,0 +1,291 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.schema.*;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Converts data of a schema between Baiji's JSON and binary encodings, value
+ * by value, without building records in between.
+ * <p/>
+ * JSON input is read by a {@link JsonDecoder}, so fields may come in any order.
+ * Since the number of items of a JSON array or map is not known up front, each
+ * item is written to the binary output as a block of its own. The fields of a
+ * sparse record are buffered, since its presence bitmap is written first.
+ * <p/>
+ * JsonTranscoder is thread safe; the decoders and encoders passed in are not.
+ *
+ * @author Tony He
+ */
+public class JsonTranscoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    // bytes are written as JSON strings, one char per byte
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final Schema schema;
+
+    public JsonTranscoder(Schema schema) {
+        if (null == schema) {
+            throw new NullPointerException("schema cannot be null");
+        }
+        this.schema = schema;
+    }
+
+    /**
+     * Converts one JSON datum read from <tt>in</tt> into binary written to <tt>out</tt>.
+     */
+    public void toBinary(InputStream in, OutputStream out) throws IOException {
+        Encoder encoder = new DirectBinaryEncoder(out);
+        JsonDecoder decoder = new JsonDecoder(schema, in);
+        try {
+            toBinary(decoder, encoder);
+        } finally {
+            decoder.close();
+        }
+        encoder.flush();
+    }
+
+    /**
+     * Converts the next JSON datum of <tt>in</tt>, writing it to the binary encoder <tt>out</tt>.
+     */
+    public void toBinary(JsonDecoder in, Encoder out) throws IOException {
+        toBinary(schema, in, out);
+        in.drain();
+    }
+
+    /**
+     * Converts one binary datum read from <tt>in</tt> into JSON written to <tt>out</tt>.
+     */
+    public void toJson(InputStream in, OutputStream out) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createJsonGenerator(out, JsonEncoding.UTF8);
+        try {
+            toJson(new DirectBinaryDecoder(in), generator);
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * Converts the next datum of the binary decoder <tt>in</tt>, writing it to <tt>out</tt>.
+     */
+    public void toJson(Decoder in, JsonGenerator out) throws IOException {
+        toJson(schema, in, out);
+    }
+
+    private static void toBinary(Schema schema, JsonDecoder in, Encoder out) throws IOException {
+        switch (schema.getType()) {
+            case RECORD:
+                RecordSchema recordSchema = (RecordSchema) schema;
+                if (recordSchema.isSparse()) {
+                    toSparseBinary(recordSchema, in, out);
+                    break;
+                }
+                for (Field field : recordSchema.getFields()) {
+                    toBinary(field.getSchema(), in, out);
+                }
+                break;
+            case ENUM:
+                out.writeEnum(in.readEnum());
+                break;
+            case ARRAY:
+                Schema itemSchema = ((ArraySchema) schema).getItemSchema();
+                out.writeArrayStart();
+                for (long n = in.readArrayStart(); n != 0; n = in.readArrayNext()) {
+                    out.setItemCount(n);
+                    for (long i = 0; i < n; i++) {
+                        out.startItem();
+                        toBinary(itemSchema, in, out);
+                    }
+                }
+                out.writeArrayEnd();
+                break;
+            case MAP:
+                Schema valueSchema = ((MapSchema) schema).getValueSchema();
+                out.writeMapStart();
+                for (long n = in.readMapStart(); n != 0; n = in.readMapNext()) {
+                    out.setItemCount(n);
+                    for (long i = 0; i < n; i++) {
+                        out.startItem();
+                        out.writeString(in.readString());
+                        toBinary(valueSchema, in, out);
+                    }
+                }
+                out.writeMapEnd();
+                break;
+            case UNION:
+                int index = in.readUnionIndex();
+                out.writeUnionIndex(index);
+                toBinary(((UnionSchema) schema).get(index), in, out);
+                break;
+            case STRING:
+                out.writeString(in.readString());
+                break;
+            case BYTES:
+                byte[] bytes = in.readBytes();
+                out.writeBytes(bytes, 0, bytes.length);
+                break;
+            case INT:
+                out.writeInt(in.readInt());
+                break;
+            case LONG:
+                out.writeLong(in.readLong());
+                break;
+            case FLOAT:
+                out.writeFloat(in.readFloat());
+                break;
+            case DOUBLE:
+                out.writeDouble(in.readDouble());
+                break;
+            case DATETIME:
+                out.writeDatetimeMillis(in.readDatetimeMillis());
+                break;
+            case BOOLEAN:
+                out.writeBoolean(in.readBoolean());
+                break;
+            case NULL:
+                in.readNull();
+                out.writeNull();
+                break;
+            default:
+                throw new BaijiTypeException("Unknown type: " + schema.getType());
+        }
+    }
+
+    /**
+     * Converts a sparse record. Which fields are null is only known once they are
+     * read, so the fields are converted into a buffer written after the bitmap.
+     */
+    private static void toSparseBinary(RecordSchema schema, JsonDecoder in, Encoder out) throws IOException {
+        byte[] bitmap = new byte[schema.getPresenceBytes()];
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Encoder fields = new DirectBinaryEncoder(buffer);
+        for (Field field : schema.getFields()) {
+            int bit = schema.getPresenceBit(field.getPos());
+            if (bit < 0) {
+                toBinary(field.getSchema(), in, fields);
+                continue;
+            }
+            int index = in.readUnionIndex();
+            Schema branch = ((UnionSchema) field.getSchema()).get(index);
+            if (branch.getType() == SchemaType.NULL) {
+                in.readNull();
+            } else {
+                bitmap[bit >>> 3] |= 1 << (bit & 7);
+                if (schema.getPresentBranch(field.getPos()) < 0) {
+                    fields.writeUnionIndex(index);
+                }
+                toBinary(branch, in, fields);
+            }
+        }
+        fields.flush();
+        out.writeFixed(bitmap, 0, bitmap.length);
+        out.writeFixed(buffer.toByteArray(), 0, buffer.size());
+    }
+
+    private static void toJson(Schema schema, Decoder in, JsonGenerator out) throws IOException {
+        switch (schema.getType()) {
+            case RECORD:
+                RecordSchema recordSchema = (RecordSchema) schema;
+                byte[] bitmap = null;
+                if (recordSchema.isSparse()) {
+                    bitmap = new byte[recordSchema.getPresenceBytes()];
+                    in.readFixed(bitmap, 0, bitmap.length);
+                }
+                out.writeStartObject();
+                for (Field field : recordSchema.getFields()) {
+                    out.writeFieldName(field.getName());
+                    int bit = null == bitmap ? -1 : recordSchema.getPresenceBit(field.getPos());
+                    int branch = bit < 0 ? -1 : recordSchema.getPresentBranch(field.getPos());
+                    if (bit >= 0 && (bitmap[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                        out.writeNull();
+                    } else if (branch >= 0) {
+                        // the union index is left out of the data
+                        toJson((UnionSchema) field.getSchema(), branch, in, out);
+                    } else {
+                        toJson(field.getSchema(), in, out);
+                    }
+                }
+                out.writeEndObject();
+                break;
+            case ENUM:
+                out.writeString(((EnumSchema) schema).getEnumSymbols().get(in.readEnum()));
+                break;
+            case ARRAY:
+                Schema itemSchema = ((ArraySchema) schema).getItemSchema();
+                out.writeStartArray();
+                for (long n = in.readArrayStart(); n != 0; n = in.readArrayNext()) {
+                    for (long i = 0; i < n; i++) {
+                        toJson(itemSchema, in, out);
+                    }
+                }
+                out.writeEndArray();
+                break;
+            case MAP:
+                Schema valueSchema = ((MapSchema) schema).getValueSchema();
+                out.writeStartObject();
+                for (long n = in.readMapStart(); n != 0; n = in.readMapNext()) {
+                    for (long i = 0; i < n; i++) {
+                        out.writeFieldName(in.readString());
+                        toJson(valueSchema, in, out);
+                    }
+                }
+                out.writeEndObject();
+                break;
+            case UNION:
+                toJson((UnionSchema) schema, in.readUnionIndex(), in, out);
+                break;
+            case STRING:
+                out.writeString(in.readString());
+                break;
+            case BYTES:
+                out.writeString(new String(in.readBytes(), ISO_8859_1));
+                break;
+            case INT:
+                out.writeNumber(in.readInt());
+                break;
+            case LONG:
+                out.writeNumber(in.readLong());
+                break;
+            case FLOAT:
+                out.writeNumber(in.readFloat());
+                break;
+            case DOUBLE:
+                out.writeNumber(in.readDouble());
+                break;
+            case DATETIME:
+                out.writeNumber(in.readDatetimeMillis());
+                break;
+            case BOOLEAN:
+                out.writeBoolean(in.readBoolean());
+                break;
+            case NULL:
+                in.readNull();
+                out.writeNull();
+                break;
+            default:
+                throw new BaijiTypeException("Unknown type: " + schema.getType());
+        }
+    }
+
+    private static void toJson(UnionSchema schema, int index, Decoder in, JsonGenerator out) throws IOException {
+        Schema branch = schema.get(index);
+        if (branch.getType() == SchemaType.NULL) {
+            in.readNull();
+            out.writeNull();
+        } else {
+            out.writeStartObject();
+            out.writeFieldName(branch.getName());
+            toJson(branch, in, out);
+            out.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.xqbase.bn.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure Java codec writing the LZ4 block format. Matches are found greedily
+ * through a hash table of 4-byte sequences, which trades ratio for speed: it
+ * compresses less than {@link DeflateCodec} but several times faster.
+ *
+ * @author Tony He
+ */
+public class Lz4Codec implements CompressionCodec {
+
+    public static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    // the last literals and the end of the last match, as required by the format
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, -1);
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int mfLimit = end - MF_LIMIT;
+        int anchor = srcOff;
+        int d = dstOff;
+        int i = srcOff;
+        while (i < mfLimit) {
+            int sequence = readInt(src, i);
+            int h = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                i++;
+                continue;
+            }
+            while (i > anchor && ref > srcOff && src[i - 1] == src[ref - 1]) {
+                i--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < matchLimit && src[i + matchLength] == src[ref + matchLength]) {
+                matchLength++;
+            }
+            d = writeSequence(src, anchor, i - anchor, i - ref, matchLength, dst, d);
+            i += matchLength;
+            anchor = i;
+        }
+        d = writeLiterals(src, anchor, end - anchor, dst, d, 0);
+        return d - dstOff;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        int s = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int d = dstOff;
+        int dstEnd = dstOff + dstLen;
+        while (true) {
+            if (s >= srcEnd) {
+                throw corrupt();
+            }
+            int token = src[s++] & 0xFF;
+            int literals = token >>> 4;
+            if (15 == literals) {
+                int b;
+                do {
+                    if (s >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[s++] & 0xFF;
+                    literals += b;
+                    // checked per byte, so that a long run can't wrap the length negative
+                    if (literals > dstEnd - d) {
+                        throw corrupt();
+                    }
+                } while (255 == b);
+            }
+            if (literals > srcEnd - s || literals > dstEnd - d) {
+                throw corrupt();
+            }
+            System.arraycopy(src, s, dst, d, literals);
+            s += literals;
+            d += literals;
+            if (s == srcEnd) {
+                break;
+            }
+            if (srcEnd - s < 2) {
+                throw corrupt();
+            }
+            int offset = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8);
+            s += 2;
+            if (0 == offset || offset > d - dstOff) {
+                throw corrupt();
+            }
+            int matchLength = token & 0x0F;
+            if (15 == matchLength) {
+                int b;
+                do {
+                    if (s >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[s++] & 0xFF;
+                    matchLength += b;
+                    if (matchLength > dstEnd - d - MIN_MATCH) {
+                        throw corrupt();
+                    }
+                } while (255 == b);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - d) {
+                throw corrupt();
+            }
+            // byte by byte, since the match may overlap the bytes it produces
+            for (int ref = d - offset, n = 0; n < matchLength; n++) {
+                dst[d++] = dst[ref++];
+            }
+        }
+        if (d != dstEnd) {
+            throw corrupt();
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literals, int offset, int matchLength,
+                                     byte[] dst, int d) {
+        int extra = matchLength - MIN_MATCH;
+        d = writeLiterals(src, literalOff, literals, dst, d, Math.min(extra, 15));
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        if (extra >= 15) {
+            d = writeLength(extra - 15, dst, d);
+        }
+        return d;
+    }
+
+    // writes the token and the literals of a sequence
+    private static int writeLiterals(byte[] src, int off, int literals, byte[] dst, int d, int matchToken) {
+        dst[d++] = (byte) ((Math.min(literals, 15) << 4) | matchToken);
+        if (literals >= 15) {
+            d = writeLength(literals - 15, dst, d);
+        }
+        System.arraycopy(src, off, dst, d, literals);
+        return d + literals;
+    }
+
+    private static int writeLength(int length, byte[] dst, int d) {
+        while (length >= 255) {
+            dst[d++] = (byte) 255;
+            length -= 255;
+        }
+        dst[d++] = (byte) length;
+        return d;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt LZ4 data");
+    }
+}
@@ -0,0 +1,317 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes and reads binary encoded messages as frames, compressing large bodies.
+ * <p/>
+ * A frame starts with a header of {@value #HEADER_SIZE} bytes: the magic byte
+ * {@value #MAGIC}, the format version {@value #VERSION}, the id of the codec the
+ * body is compressed with, or {@value #UNCOMPRESSED} if it is not, then the
+ * uncompressed length and the body length, as big-endian ints. Messages shorter
+ * than the threshold are not compressed, nor are those that do not get smaller.
+ * <p/>
+ * Lengths are read from the header before anything is allocated for them, so
+ * frames longer than the maximum frame size are rejected, on both sides.
+ * <p/>
+ * Frames are read into buffers from a {@link SegmentedOutputStream.ChunkPool}
+ * when they fit in a chunk, so that a {@link Frame} must be released once read.
+ * {@link DeflateCodec} and {@link Lz4Codec} frames can always be read, besides
+ * those of the codec the framer writes with. MessageFramer is thread safe.
+ *
+ * @author Tony He
+ */
+public class MessageFramer {
+
+    public static final int HEADER_SIZE = 11;
+    public static final int MAGIC = 0xB7;
+    public static final int VERSION = 1;
+    public static final int UNCOMPRESSED = 0;
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private static final SegmentedOutputStream.ChunkPool DEFAULT_POOL =
+            new SegmentedOutputStream.ChunkPool(64 * 1024, 64);
+
+    private final CompressionCodec codec;
+    private final int threshold;
+    private final int maxFrameSize;
+    private final SegmentedOutputStream.ChunkPool pool;
+    private final CompressionCodec[] codecs = new CompressionCodec[256];
+
+    /**
+     * Creates a framer compressing messages of {@value #DEFAULT_THRESHOLD} bytes or more.
+     *
+     * @param codec the codec to compress with, or null to never compress
+     */
+    public MessageFramer(CompressionCodec codec) {
+        this(codec, DEFAULT_THRESHOLD, DEFAULT_POOL);
+    }
+
+    /**
+     * @param codec     the codec to compress with, or null to never compress
+     * @param threshold the length from which messages are compressed
+     * @param pool      the pool buffers are taken from
+     */
+    public MessageFramer(CompressionCodec codec, int threshold, SegmentedOutputStream.ChunkPool pool) {
+        this(codec, threshold, pool, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param codec        the codec to compress with, or null to never compress
+     * @param threshold    the length from which messages are compressed
+     * @param pool         the pool buffers are taken from
+     * @param maxFrameSize the maximum length of a message, uncompressed
+     */
+    public MessageFramer(CompressionCodec codec, int threshold, SegmentedOutputStream.ChunkPool pool,
+                         int maxFrameSize) {
+        if (null == pool) {
+            throw new NullPointerException("pool cannot be null");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold cannot be negative: " + threshold);
+        }
+        if (maxFrameSize < 0 || maxFrameSize > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid maxFrameSize: " + maxFrameSize);
+        }
+        this.codec = codec;
+        this.threshold = threshold;
+        this.maxFrameSize = maxFrameSize;
+        this.pool = pool;
+        register(new DeflateCodec());
+        register(new Lz4Codec());
+        if (codec != null) {
+            register(codec);
+        }
+    }
+
+    private void register(CompressionCodec c) {
+        int id = c.getId();
+        if (id <= UNCOMPRESSED || id >= codecs.length) {
+            throw new IllegalArgumentException("Codec id must be between 1 and 255: " + id);
+        }
+        codecs[id] = c;
+    }
+
+    /**
+     * Encodes <tt>datum</tt> and writes it to <tt>out</tt> as one frame.
+     */
+    public <D> void write(DatumWriter<D> writer, D datum, OutputStream out) throws IOException {
+        SegmentedOutputStream message = new SegmentedOutputStream();
+        try {
+            writer.write(datum, new SegmentedBinaryEncoder(message));
+            writeFrame(message, out);
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * Reads the next frame of <tt>in</tt> and decodes it.
+     */
+    public <D> D read(DatumReader<D> reader, D reuse, InputStream in) throws IOException {
+        Frame frame = readFrame(in);
+        try {
+            return reader.read(reuse, frame.getDecoder());
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Writes an encoded message as one frame. An uncompressed message is written
+     * chunk by chunk, without being copied.
+     */
+    public void writeFrame(SegmentedOutputStream message, OutputStream out) throws IOException {
+        long size = message.size();
+        checkFrameSize(size);
+        if (null == codec || size < threshold) {
+            writeHeader(UNCOMPRESSED, (int) size, (int) size, out);
+            message.writeTo(out);
+            return;
+        }
+        byte[] bytes = message.toByteArray();
+        writeFrame(bytes, 0, bytes.length, out);
+    }
+
+    /**
+     * Writes <tt>length</tt> bytes of an encoded message as one frame.
+     */
+    public void writeFrame(byte[] message, int offset, int length, OutputStream out) throws IOException {
+        checkFrameSize(length);
+        if (null == codec || length < threshold) {
+            writeHeader(UNCOMPRESSED, length, length, out);
+            out.write(message, offset, length);
+            return;
+        }
+        int max = codec.maxCompressedLength(length);
+        boolean pooled = max <= pool.getChunkSize();
+        byte[] buffer = pooled ? pool.acquire() : new byte[max];
+        try {
+            int compressed = codec.compress(message, offset, length, buffer, 0);
+            if (compressed < length) {
+                writeHeader(codec.getId(), length, compressed, out);
+                out.write(buffer, 0, compressed);
+            } else {
+                writeHeader(UNCOMPRESSED, length, length, out);
+                out.write(message, offset, length);
+            }
+        } finally {
+            if (pooled) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame of <tt>in</tt>, decompressing its body.
+     */
+    public Frame readFrame(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        readFully(in, header, 0, HEADER_SIZE);
+        if ((header[0] & 0xFF) != MAGIC) {
+            throw new BaijiRuntimeException("Not a frame, bad magic byte: " + (header[0] & 0xFF));
+        }
+        if ((header[1] & 0xFF) != VERSION) {
+            throw new BaijiRuntimeException("Unsupported frame version: " + (header[1] & 0xFF));
+        }
+        int id = header[2] & 0xFF;
+        int length = readInt(header, 3);
+        int bodyLength = readInt(header, 7);
+        // compressed bodies are always shorter than the message, see writeFrame
+        if (length < 0 || bodyLength < 0 || length > maxFrameSize || bodyLength > length) {
+            throw new BaijiRuntimeException("Invalid frame lengths: " + length + ", " + bodyLength
+                    + ", the maximum frame size is " + maxFrameSize);
+        }
+        Frame frame = new Frame(id, length);
+        try {
+            if (UNCOMPRESSED == id) {
+                if (bodyLength != length) {
+                    throw new IOException("Invalid uncompressed frame lengths: " + length + ", " + bodyLength);
+                }
+                readFully(in, frame.buffer, 0, length);
+                return frame;
+            }
+            CompressionCodec c = codecs[id];
+            if (null == c) {
+                throw new IOException("Unknown compression codec: " + id);
+            }
+            boolean pooled = bodyLength <= pool.getChunkSize();
+            byte[] body = pooled ? pool.acquire() : new byte[bodyLength];
+            try {
+                readFully(in, body, 0, bodyLength);
+                c.decompress(body, 0, bodyLength, frame.buffer, 0, length);
+            } finally {
+                if (pooled) {
+                    pool.release(body);
+                }
+            }
+            return frame;
+        } catch (IOException | RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    private void checkFrameSize(long size) {
+        if (size > maxFrameSize) {
+            throw new BaijiRuntimeException("Message of " + size + " bytes exceeds the maximum frame size "
+                    + maxFrameSize);
+        }
+    }
+
+    private static void writeHeader(int id, int length, int bodyLength, OutputStream out) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        header[0] = (byte) MAGIC;
+        header[1] = (byte) VERSION;
+        header[2] = (byte) id;
+        writeInt(length, header, 3);
+        writeInt(bodyLength, header, 7);
+        out.write(header);
+    }
+
+    private static void writeInt(int n, byte[] b, int pos) {
+        b[pos] = (byte) (n >>> 24);
+        b[pos + 1] = (byte) (n >>> 16);
+        b[pos + 2] = (byte) (n >>> 8);
+        b[pos + 3] = (byte) n;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * The decompressed message of a frame. Its buffer may be pooled, so it must
+     * not be used once the frame is released.
+     */
+    public final class Frame {
+
+        private final int codecId;
+        private final int length;
+        private final boolean pooled;
+        private byte[] buffer;
+
+        private Frame(int codecId, int length) {
+            this.codecId = codecId;
+            this.length = length;
+            this.pooled = length <= pool.getChunkSize();
+            this.buffer = pooled ? pool.acquire() : new byte[length];
+        }
+
+        /**
+         * Returns the id of the codec the body was compressed with, or {@value #UNCOMPRESSED}.
+         */
+        public int getCodecId() {
+            return codecId;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the buffer holding the message in its first {@link #getLength} bytes.
+         */
+        public byte[] getBuffer() {
+            if (null == buffer) {
+                throw new IllegalStateException("Frame already released");
+            }
+            return buffer;
+        }
+
+        /**
+         * Returns a decoder of the message.
+         */
+        public Decoder getDecoder() {
+            return new DirectBinaryDecoder(new ByteArrayInputStream(getBuffer(), 0, length));
+        }
+
+        /**
+         * Returns the buffer to the pool. Releasing a frame more than once has no effect.
+         */
+        public void release() {
+            if (pooled && buffer != null) {
+                pool.release(buffer);
+            }
+            buffer = null;
+        }
+    }
+}
@@ -1,156 +1,617 @@
 package com.xqbase.bn.io;
 
-import com.xqbase.bn.io.parsing.BinaryGrammarGenerator;
-import com.xqbase.bn.io.parsing.Symbol;
+import com.google.common.collect.MapMaker;
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.parsing.Program;
+import com.xqbase.bn.schema.Field;
 import com.xqbase.bn.schema.Schema;
 import com.xqbase.bn.util.Utf8;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * {@link com.xqbase.bn.io.Decoder} that performs type-resolution.
+ * <p/>
+ * The resolving grammar is compiled into a {@link Program}, which this decoder
+ * runs with a program counter and a stack of return addresses. Fields missing
+ * from the data are read from their defaults, which are encoded in binary when
+ * the program is compiled. Nullable fields left out of sparse records are read
+ * as null.
  *
  * @author Tony He
  */
-public class ResolvingDecoder extends ValidatingDecoder {
-
-    private Decoder backup;
+public class ResolvingDecoder implements Decoder {
+
+    private static final ConcurrentMap<Schema, Program> PROGRAMS = new MapMaker().weakKeys().makeMap();
+    private static final ConcurrentMap<Schema, ConcurrentMap<Schema, Program>> RESOLVED_PROGRAMS =
+            new MapMaker().weakKeys().makeMap();
+
+    private final int[] code;
+    private final Object[] constants;
+
+    private Decoder in;
+    private int pc;
+    private int[] frames = new int[8];
+    private int depth;
+
+    // the decoder of the data, while a default value is being read
+    private Decoder saved;
+    private DefaultInputStream defaultIn;
+    private DirectBinaryDecoder defaultDecoder;
+
+    // the presence bitmaps of the sparse records being read, innermost last; a null
+    // bitmap, as for JSON input, marks all fields present
+    private byte[][] presence = new byte[4][];
+    private byte[][] bitmaps = new byte[4][];
+    private int presenceDepth;
+    // the writer's branch of the next union, if its field is absent from the data or its
+    // index is left out of the data, or -1
+    private int impliedIndex = -1;
+
+    // the items left in the arrays and maps being skipped
+    private long[] counts = new long[8];
+    private Utf8 skippedString;
+    private ByteBuffer skippedBytes;
 
     public ResolvingDecoder(Schema schema, Decoder in) throws IOException {
         this(resolve(schema), in);
     }
 
+    public ResolvingDecoder(Schema writer, Schema reader, Decoder in) throws IOException {
+        this(resolve(writer, reader), in);
+    }
+
     public ResolvingDecoder(Object resolver, Decoder in) throws IOException {
-        super((Symbol) resolver, in);
+        Program program = (Program) resolver;
+        this.code = program.code;
+        this.constants = program.constants;
+        configure(in);
     }
 
     /**
      * Produces an opaque resolver that can be used to construct a new
      * {@link ResolvingDecoder#ResolvingDecoder(Object, Decoder)}. The
      * returned Object is immutable and hence can be simultaneously used
-     * in many ResolvingDecoders. This method is reasonably expensive, the
-     * users are encouraged to cache the result.
+     * in many ResolvingDecoders. Resolvers are cached by schema identity.
      *
      * @param schema  The writer's schema. Cannot be null.
      * @return  The opaque resolver.
-     * @throws IOException
      */
     public static Object resolve(Schema schema) {
         if (null == schema) {
             throw new NullPointerException("schema cannot be null");
         }
-        return new BinaryGrammarGenerator().generate(schema);
+        Program program = PROGRAMS.get(schema);
+        if (null == program) {
+            program = Program.compile(schema);
+            Program existed = PROGRAMS.putIfAbsent(schema, program);
+            if (existed != null) {
+                program = existed;
+            }
+        }
+        return program;
     }
 
-    @Override
-    public Symbol doAction(Symbol input, Symbol top) throws IOException {
-        return null;
+    /**
+     * Produces an opaque resolver that reads data written with <tt>writer</tt>
+     * as values of <tt>reader</tt>. Resolvers are cached by the identity of both
+     * schemas.
+     *
+     * @param writer  The writer's schema. Cannot be null.
+     * @param reader  The reader's schema. Cannot be null.
+     * @return  The opaque resolver.
+     */
+    public static Object resolve(Schema writer, Schema reader) {
+        if (null == writer) {
+            throw new NullPointerException("writer cannot be null");
+        }
+        if (null == reader) {
+            throw new NullPointerException("reader cannot be null");
+        }
+        if (writer == reader) {
+            return resolve(writer);
+        }
+        ConcurrentMap<Schema, Program> programs = RESOLVED_PROGRAMS.get(writer);
+        if (null == programs) {
+            programs = new MapMaker().weakKeys().makeMap();
+            ConcurrentMap<Schema, Program> existed = RESOLVED_PROGRAMS.putIfAbsent(writer, programs);
+            if (existed != null) {
+                programs = existed;
+            }
+        }
+        Program program = programs.get(reader);
+        if (null == program) {
+            program = Program.compile(writer, reader);
+            Program existed = programs.putIfAbsent(reader, program);
+            if (existed != null) {
+                program = existed;
+            }
+        }
+        return program;
+    }
+
+    // Configure the wrapped decoder.
+    public ResolvingDecoder configure(Decoder in) {
+        this.in = in;
+        this.saved = null;
+        this.pc = 0;
+        this.depth = 0;
+        this.presenceDepth = 0;
+        this.impliedIndex = -1;
+        return this;
+    }
+
+    /**
+     * Consumes the instructions left after the last value of a datum.
+     */
+    public void drain() throws IOException {
+        advance(Program.END);
+    }
+
+    /**
+     * Runs implicit instructions until the instruction at the program
+     * counter is <tt>opcode</tt>.
+     */
+    private void advance(int opcode) throws IOException {
+        for (; ;) {
+            int op = code[pc];
+            if (op == opcode) {
+                return;
+            }
+            step(op, opcode);
+        }
+    }
+
+    /**
+     * Runs the implicit instruction <tt>op</tt> on the way to <tt>opcode</tt>.
+     */
+    private void step(int op, int opcode) throws IOException {
+        switch (op) {
+            case Program.CALL:
+                call(pc + 2, code[pc + 1]);
+                break;
+            case Program.RETURN:
+                pc = frames[--depth];
+                break;
+            case Program.JUMP:
+            case Program.REPEAT:
+            case Program.MAP_REPEAT:
+                pc = code[pc + 1];
+                break;
+            case Program.SKIP:
+                call(pc + 2, code[pc + 1]);
+                skip();
+                break;
+            case Program.DEFAULT:
+                if (null == defaultDecoder) {
+                    defaultIn = new DefaultInputStream();
+                    defaultDecoder = new DirectBinaryDecoder(defaultIn);
+                }
+                defaultIn.reset((byte[]) constants[code[pc + 1]]);
+                saved = in;
+                in = defaultDecoder;
+                pc += 2;
+                break;
+            case Program.DEFAULT_END:
+                in = saved;
+                saved = null;
+                pc++;
+                break;
+            case Program.ERROR:
+                throw new BaijiTypeException((String) constants[code[pc + 1]]);
+            case Program.PRESENCE:
+                readPresence(code[pc + 1]);
+                pc += 2;
+                break;
+            case Program.OPTIONAL:
+                byte[] bitmap = presence[presenceDepth - 1];
+                int bit = code[pc + 1];
+                if (bitmap != null) {
+                    impliedIndex = (bitmap[bit >>> 3] & (1 << (bit & 7))) == 0 ? code[pc + 2] : code[pc + 3];
+                }
+                pc += 4;
+                break;
+            case Program.PRESENCE_END:
+                presence[--presenceDepth] = null;
+                pc++;
+                break;
+            case Program.WRITER_UNION:
+                int[] targets = (int[]) constants[code[pc + 1]];
+                int n = writerUnionIndex();
+                if (n < 0 || n >= targets.length) {
+                    throw new BaijiTypeException("Union index out of range: max is " +
+                            targets.length + " but received " + n);
+                }
+                pc = targets[n];
+                break;
+            default:
+                throw new BaijiTypeException("Attempt to process a " + Program.name(opcode)
+                        + " when a " + Program.name(op) + " was expected.");
+        }
+    }
+
+    /**
+     * Runs implicit instructions up to the terminal <tt>opcode</tt>, or up to a
+     * promotion to it, and moves past it. Returns the terminal written.
+     */
+    private int advancePromoted(int opcode) throws IOException {
+        for (; ;) {
+            int op = code[pc];
+            if (op == opcode) {
+                pc++;
+                return opcode;
+            }
+            if (op == Program.PROMOTE && code[pc + 2] == opcode) {
+                pc += 3;
+                return code[pc - 2];
+            }
+            step(op, opcode);
+        }
+    }
+
+    /**
+     * Reads the presence bitmap of a sparse record, if the decoder read from uses one.
+     */
+    private void readPresence(int bytes) throws IOException {
+        if (presenceDepth == presence.length) {
+            presence = Arrays.copyOf(presence, presenceDepth * 2);
+            bitmaps = Arrays.copyOf(bitmaps, presenceDepth * 2);
+        }
+        byte[] bitmap = null;
+        if (in.usesPresenceBitmap()) {
+            bitmap = bitmaps[presenceDepth];
+            if (null == bitmap || bitmap.length != bytes) {
+                bitmap = bitmaps[presenceDepth] = new byte[bytes];
+            }
+            in.readFixed(bitmap, 0, bytes);
+        }
+        presence[presenceDepth++] = bitmap;
+    }
+
+    /**
+     * Reads the index of the writer's union branch, unless the sparse encoding
+     * implies it.
+     */
+    private int writerUnionIndex() throws IOException {
+        int n = impliedIndex;
+        if (n < 0) {
+            return in.readUnionIndex();
+        }
+        impliedIndex = -1;
+        return n;
+    }
+
+    private void call(int returnAddress, int target) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth++] = returnAddress;
+        pc = target;
+    }
+
+    /**
+     * Reads and discards a value, running the skip subroutine just called
+     * until it returns.
+     */
+    private void skip() throws IOException {
+        final int base = depth - 1;
+        int level = 0;
+        for (; ;) {
+            int op = code[pc];
+            switch (op) {
+                case Program.NULL:
+                    in.readNull();
+                    pc++;
+                    break;
+                case Program.BOOLEAN:
+                    in.readBoolean();
+                    pc++;
+                    break;
+                case Program.INT:
+                    in.readInt();
+                    pc++;
+                    break;
+                case Program.LONG:
+                    in.readLong();
+                    pc++;
+                    break;
+                case Program.FLOAT:
+                    in.readFloat();
+                    pc++;
+                    break;
+                case Program.DOUBLE:
+                    in.readDouble();
+                    pc++;
+                    break;
+                case Program.STRING:
+                    skippedString = in.readString(skippedString);
+                    pc++;
+                    break;
+                case Program.BYTES:
+                    skippedBytes = in.readBytes(skippedBytes);
+                    pc++;
+                    break;
+                case Program.DATETIME:
+                    in.readDatetimeMillis();
+                    pc++;
+                    break;
+                case Program.ENUM:
+                    in.readEnum();
+                    pc += 4;
+                    break;
+                case Program.UNION:
+                    pc = ((int[]) constants[code[pc + 1]])[writerUnionIndex()];
+                    break;
+                case Program.ARRAY_START:
+                case Program.MAP_START:
+                    long n = op == Program.ARRAY_START ? in.readArrayStart() : in.readMapStart();
+                    if (n == 0) {
+                        pc = code[pc + 1];
+                    } else {
+                        if (level == counts.length) {
+                            counts = Arrays.copyOf(counts, level * 2);
+                        }
+                        counts[level++] = n;
+                        pc += 2;
+                    }
+                    break;
+                case Program.REPEAT:
+                case Program.MAP_REPEAT:
+                    if (--counts[level - 1] == 0) {
+                        counts[level - 1] = op == Program.REPEAT ? in.readArrayNext() : in.readMapNext();
+                    }
+                    if (counts[level - 1] == 0) {
+                        level--;
+                        pc += 2;
+                    } else {
+                        pc = code[pc + 1];
+                    }
+                    break;
+                case Program.RECORD:
+                    pc += 2;
+                    break;
+                case Program.RETURN:
+                    pc = frames[--depth];
+                    if (depth == base) {
+                        return;
+                    }
+                    break;
+                default:
+                    step(op, Program.END);
+            }
+        }
+    }
+
+    /**
+     * Returns the fields of the current record in the order the reader
+     * should read them. This method must be called before reading the
+     * first field of a record.
+     */
+    public final Field[] readFieldOrder() throws IOException {
+        advance(Program.RECORD);
+        Field[] fields = (Field[]) constants[code[pc + 1]];
+        pc += 2;
+        return fields;
     }
 
     @Override
     public void readNull() throws IOException {
-
+        advance(Program.NULL);
+        pc++;
+        in.readNull();
     }
 
     @Override
     public boolean readBoolean() throws IOException {
-        return false;
+        advance(Program.BOOLEAN);
+        pc++;
+        return in.readBoolean();
     }
 
     @Override
     public int readInt() throws IOException {
-        return 0;
+        advance(Program.INT);
+        pc++;
+        return in.readInt();
     }
 
     @Override
     public long readLong() throws IOException {
-        return 0;
+        if (advancePromoted(Program.LONG) == Program.INT) {
+            return in.readInt();
+        }
+        return in.readLong();
     }
 
     @Override
     public float readFloat() throws IOException {
-        return 0;
+        switch (advancePromoted(Program.FLOAT)) {
+            case Program.INT:
+                return in.readInt();
+            case Program.LONG:
+                return in.readLong();
+            default:
+                return in.readFloat();
+        }
     }
 
     @Override
     public double readDouble() throws IOException {
-        return 0;
+        switch (advancePromoted(Program.DOUBLE)) {
+            case Program.INT:
+                return in.readInt();
+            case Program.LONG:
+                return in.readLong();
+            case Program.FLOAT:
+                return in.readFloat();
+            default:
+                return in.readDouble();
+        }
     }
 
     @Override
     public byte[] readBytes() throws IOException {
-        return new byte[0];
+        advance(Program.BYTES);
+        pc++;
+        return in.readBytes();
     }
 
     @Override
     public ByteBuffer readBytes(ByteBuffer old) throws IOException {
-        return null;
+        advance(Program.BYTES);
+        pc++;
+        return in.readBytes(old);
     }
 
     @Override
     public void readFixed(byte[] bytes, int start, int length) throws IOException {
-
+        in.readFixed(bytes, start, length);
     }
 
     @Override
     public void readFixed(byte[] bytes) throws IOException {
-
+        readFixed(bytes, 0, bytes.length);
     }
 
     @Override
-    public String readString(Utf8 old) throws IOException {
-        return null;
+    public Utf8 readString(Utf8 old) throws IOException {
+        advance(Program.STRING);
+        pc++;
+        return in.readString(old);
     }
 
     @Override
     public String readString() throws IOException {
-        return null;
+        advance(Program.STRING);
+        pc++;
+        return in.readString();
     }
 
     @Override
     public Calendar readDatetime() throws IOException {
-        return null;
+        advance(Program.DATETIME);
+        pc++;
+        return in.readDatetime();
+    }
+
+    @Override
+    public Instant readDatetimeInstant() throws IOException {
+        advance(Program.DATETIME);
+        pc++;
+        return in.readDatetimeInstant();
+    }
+
+    @Override
+    public long readDatetimeMillis() throws IOException {
+        advance(Program.DATETIME);
+        pc++;
+        return in.readDatetimeMillis();
     }
 
     @Override
     public int readEnum() throws IOException {
-        return 0;
+        advance(Program.ENUM);
+        int[] adjustments = (int[]) constants[code[pc + 1]];
+        String[] messages = (String[]) constants[code[pc + 2]];
+        pc += 4;
+        int n = in.readEnum();
+        if (n < 0 || n >= adjustments.length) {
+            throw new BaijiTypeException("Enumeration out of range: max is " +
+                    adjustments.length + " but received " + n);
+        }
+        int result = adjustments[n];
+        if (result < 0) {
+            throw new BaijiTypeException(messages[n]);
+        }
+        return result;
     }
 
     @Override
     public long readArrayStart() throws IOException {
-        return 0;
+        advance(Program.ARRAY_START);
+        long result = in.readArrayStart();
+        pc = result == 0 ? code[pc + 1] : pc + 2;
+        return result;
     }
 
     @Override
     public long readArrayNext() throws IOException {
-        return 0;
+        advance(Program.REPEAT);
+        long result = in.readArrayNext();
+        if (result == 0) {
+            pc += 2;
+        }
+        return result;
     }
 
     @Override
     public long readMapStart() throws IOException {
-        return 0;
+        advance(Program.MAP_START);
+        long result = in.readMapStart();
+        pc = result == 0 ? code[pc + 1] : pc + 2;
+        return result;
     }
 
     @Override
     public long readMapNext() throws IOException {
-        return 0;
+        advance(Program.MAP_REPEAT);
+        long result = in.readMapNext();
+        if (result == 0) {
+            pc += 2;
+        }
+        return result;
     }
 
     @Override
     public int readUnionIndex() throws IOException {
-        return 0;
+        for (int op = code[pc]; op != Program.UNION; op = code[pc]) {
+            if (op == Program.UNION_BRANCH) {
+                int rindex = code[pc + 1];
+                pc += 2;
+                return rindex;
+            }
+            step(op, Program.UNION);
+        }
+        int[] targets = (int[]) constants[code[pc + 1]];
+        int[] indexes = (int[]) constants[code[pc + 2]];
+        int n = writerUnionIndex();
+        if (n < 0 || n >= targets.length) {
+            throw new BaijiTypeException("Union index out of range: max is " +
+                    targets.length + " but received " + n);
+        }
+        pc = targets[n];
+        return indexes[n];
     }
 
+    /**
+     * Returns false: the presence bitmaps of the data read are consumed here, and
+     * never reach the reader of the resolved values.
+     */
     @Override
-    public void skipAction() throws IOException {
-
+    public boolean usesPresenceBitmap() {
+        return false;
     }
 
-    @Override
-    public void skipTopSymbol() throws IOException {
+    /**
+     * The input of encoded default values, refilled for each default read.
+     */
+    private static class DefaultInputStream extends ByteArrayInputStream {
 
+        DefaultInputStream() {
+            super(new byte[0]);
+        }
+
+        void reset(byte[] contents) {
+            this.buf = contents;
+            this.pos = 0;
+            this.count = contents.length;
+            this.mark = 0;
+        }
     }
 }
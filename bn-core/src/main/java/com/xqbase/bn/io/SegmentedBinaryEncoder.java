@@ -0,0 +1,69 @@
+package com.xqbase.bn.io;
+
+import java.io.IOException;
+
+/**
+ * An {@link Encoder} for Baiji's binary encoding that encodes directly into the
+ * chunks of a {@link SegmentedOutputStream}, so that the encoded data is never
+ * copied, however large it grows.
+ *
+ * @author Tony He
+ */
+public class SegmentedBinaryEncoder extends BinaryEncoder {
+
+    private final SegmentedOutputStream out;
+
+    public SegmentedBinaryEncoder(SegmentedOutputStream out) {
+        if (null == out) {
+            throw new NullPointerException("SegmentedOutputStream cannot be null");
+        }
+        this.out = out;
+    }
+
+    @Override
+    protected void writeZero() throws IOException {
+        out.write(0);
+    }
+
+    @Override
+    public int bytesBuffered() {
+        return 0;
+    }
+
+    @Override
+    public void writeBoolean(boolean b) throws IOException {
+        out.write(b ? 1 : 0);
+    }
+
+    @Override
+    public void writeInt(int n) throws IOException {
+        out.ensure(5);
+        out.pos += BinaryData.encodeInt(n, out.chunk, out.pos);
+    }
+
+    @Override
+    public void writeLong(long n) throws IOException {
+        out.ensure(10);
+        out.pos += BinaryData.encodeLong(n, out.chunk, out.pos);
+    }
+
+    @Override
+    public void writeFloat(float f) throws IOException {
+        out.ensure(4);
+        out.pos += BinaryData.encodeFloat(f, out.chunk, out.pos);
+    }
+
+    @Override
+    public void writeDouble(double d) throws IOException {
+        out.ensure(8);
+        out.pos += BinaryData.encodeDouble(d, out.chunk, out.pos);
+    }
+
+    @Override
+    public void writeFixed(byte[] bytes, int start, int len) throws IOException {
+        out.write(bytes, start, len);
+    }
+
+    @Override
+    public void flush() throws IOException {}
+}
@@ -0,0 +1,207 @@
+package com.xqbase.bn.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory {@link OutputStream} made of a chain of fixed-size chunks taken
+ * from a {@link ChunkPool}. Unlike {@link java.io.ByteArrayOutputStream}, written
+ * data is never copied as the stream grows, and it can be handed out without
+ * copying through {@link #toByteBuffers()}, e.g. for a gathering write, or for
+ * <tt>Unpooled.wrappedBuffer(ByteBuffer...)</tt> to build a composite Netty buffer.
+ * <p/>
+ * Call {@link #release()} once the data has been consumed, to return the chunks
+ * to the pool. The stream is not thread safe.
+ *
+ * @see SegmentedBinaryEncoder
+ *
+ * @author Tony He
+ */
+public class SegmentedOutputStream extends OutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private static final ChunkPool DEFAULT_POOL = new ChunkPool(DEFAULT_CHUNK_SIZE, 1024);
+
+    private final ChunkPool pool;
+    private byte[][] chunks = new byte[4][];
+    private int[] lengths = new int[4];
+    private int count;
+    // the total length of the chunks before the current one.
+    private long sealed;
+
+    // the current chunk and the position in it, written directly by SegmentedBinaryEncoder.
+    byte[] chunk;
+    int pos;
+
+    public SegmentedOutputStream() {
+        this(DEFAULT_POOL);
+    }
+
+    public SegmentedOutputStream(ChunkPool pool) {
+        if (null == pool) {
+            throw new NullPointerException("pool cannot be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Ensures that the current chunk has at least <tt>num</tt> bytes free, moving
+     * on to a new chunk if needed. <tt>num</tt> must not exceed the chunk size.
+     */
+    void ensure(int num) {
+        if (null == chunk || chunk.length - pos < num) {
+            nextChunk();
+        }
+    }
+
+    private void nextChunk() {
+        if (chunk != null) {
+            lengths[count - 1] = pos;
+            sealed += pos;
+        }
+        if (count == chunks.length) {
+            chunks = Arrays.copyOf(chunks, count << 1);
+            lengths = Arrays.copyOf(lengths, count << 1);
+        }
+        chunk = pool.acquire();
+        chunks[count++] = chunk;
+        pos = 0;
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        chunk[pos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(b, off, chunk, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public long size() {
+        return sealed + pos;
+    }
+
+    /**
+     * Returns the written data as buffers wrapping the chunks, without copying.
+     * The buffers are only valid until {@link #release()} is called.
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ByteBuffer.wrap(chunks[i], 0, length(i));
+        }
+        return buffers;
+    }
+
+    /**
+     * Writes all the data to the channel with gathering writes.
+     */
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = toByteBuffers();
+        long remaining = size();
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.write(chunks[i], 0, length(i));
+        }
+    }
+
+    /**
+     * Returns a copy of the data in a single array of the exact size.
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[(int) size()];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            int length = length(i);
+            System.arraycopy(chunks[i], 0, result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the chunks to the pool and empties the stream, which may then be reused.
+     */
+    public void release() {
+        for (int i = 0; i < count; i++) {
+            pool.release(chunks[i]);
+            chunks[i] = null;
+        }
+        count = 0;
+        sealed = 0;
+        chunk = null;
+        pos = 0;
+    }
+
+    private int length(int i) {
+        return i == count - 1 ? pos : lengths[i];
+    }
+
+    /**
+     * A bounded pool of chunks of a fixed size, shared between threads.
+     */
+    public static class ChunkPool {
+
+        private final int chunkSize;
+        private final int maxPooled;
+        private final Queue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        /**
+         * @param chunkSize the size of chunks, at least 16 bytes
+         * @param maxPooled the maximum number of idle chunks kept
+         */
+        public ChunkPool(int chunkSize, int maxPooled) {
+            if (chunkSize < 16) {
+                throw new IllegalArgumentException("chunkSize must be at least 16: " + chunkSize);
+            }
+            this.chunkSize = chunkSize;
+            this.maxPooled = maxPooled;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        byte[] acquire() {
+            byte[] chunk = chunks.poll();
+            if (null == chunk) {
+                return new byte[chunkSize];
+            }
+            pooled.decrementAndGet();
+            return chunk;
+        }
+
+        void release(byte[] chunk) {
+            if (pooled.incrementAndGet() <= maxPooled) {
+                chunks.offer(chunk);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.xqbase.bn.io;
 
+import com.xqbase.bn.exceptions.BaijiTypeException;
 import com.xqbase.bn.io.parsing.Parser;
 import com.xqbase.bn.io.parsing.Symbol;
 import com.xqbase.bn.util.Utf8;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.Calendar;
 
 /**
@@ -42,106 +44,202 @@ public class ValidatingDecoder extends ParsingDecoder
 
     @Override
     public void readNull() throws IOException {
-
+        skipParser.advance(Symbol.NULL);
+        in.readNull();
     }
 
     @Override
     public boolean readBoolean() throws IOException {
-        return false;
+        skipParser.advance(Symbol.BOOLEAN);
+        return in.readBoolean();
     }
 
     @Override
     public int readInt() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.INT);
+        return in.readInt();
     }
 
     @Override
     public long readLong() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.LONG);
+        return in.readLong();
     }
 
     @Override
     public float readFloat() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.FLOAT);
+        return in.readFloat();
     }
 
     @Override
     public double readDouble() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.DOUBLE);
+        return in.readDouble();
     }
 
     @Override
     public byte[] readBytes() throws IOException {
-        return new byte[0];
+        skipParser.advance(Symbol.BYTES);
+        return in.readBytes();
     }
 
     @Override
     public ByteBuffer readBytes(ByteBuffer old) throws IOException {
-        return null;
+        skipParser.advance(Symbol.BYTES);
+        return in.readBytes(old);
     }
 
     @Override
     public void readFixed(byte[] bytes, int start, int length) throws IOException {
-
+        in.readFixed(bytes, start, length);
     }
 
     @Override
     public void readFixed(byte[] bytes) throws IOException {
-
+        readFixed(bytes, 0, bytes.length);
     }
 
     @Override
-    public String readString(Utf8 old) throws IOException {
-        return null;
+    public Utf8 readString(Utf8 old) throws IOException {
+        skipParser.advance(Symbol.STRING);
+        return in.readString(old);
     }
 
     @Override
     public String readString() throws IOException {
-        return null;
+        skipParser.advance(Symbol.STRING);
+        return in.readString();
     }
 
     @Override
     public Calendar readDatetime() throws IOException {
-        return null;
+        skipParser.advance(Symbol.DATETIME);
+        return in.readDatetime();
+    }
+
+    @Override
+    public Instant readDatetimeInstant() throws IOException {
+        skipParser.advance(Symbol.DATETIME);
+        return in.readDatetimeInstant();
+    }
+
+    @Override
+    public long readDatetimeMillis() throws IOException {
+        skipParser.advance(Symbol.DATETIME);
+        return in.readDatetimeMillis();
     }
 
     @Override
     public int readEnum() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.ENUM);
+        Symbol.IntCheckAction top = (Symbol.IntCheckAction) skipParser.popSymbol();
+        int result = in.readEnum();
+        if (result < 0 || result >= top.size) {
+            throw new BaijiTypeException("Enumeration out of range: max is " +
+                    top.size + " but received " + result);
+        }
+        return result;
     }
 
     @Override
     public long readArrayStart() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.ARRAY_START);
+        long result = in.readArrayStart();
+        if (result == 0) {
+            skipParser.advance(Symbol.ARRAY_END);
+        }
+        return result;
     }
 
     @Override
     public long readArrayNext() throws IOException {
-        return 0;
+        skipParser.processTrailingImplicitActions();
+        long result = in.readArrayNext();
+        if (result == 0) {
+            skipParser.advance(Symbol.ARRAY_END);
+        }
+        return result;
     }
 
     @Override
     public long readMapStart() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.MAP_START);
+        long result = in.readMapStart();
+        if (result == 0) {
+            skipParser.advance(Symbol.MAP_END);
+        }
+        return result;
     }
 
     @Override
     public long readMapNext() throws IOException {
-        return 0;
+        skipParser.processTrailingImplicitActions();
+        long result = in.readMapNext();
+        if (result == 0) {
+            skipParser.advance(Symbol.MAP_END);
+        }
+        return result;
     }
 
     @Override
     public int readUnionIndex() throws IOException {
-        return 0;
+        skipParser.advance(Symbol.UNION);
+        Symbol.Alternative top = (Symbol.Alternative) skipParser.popSymbol();
+        int result = in.readUnionIndex();
+        skipParser.pushSymbol(top.getSymbol(result));
+        return result;
     }
 
     @Override
-    public void skipAction() throws IOException {
+    public boolean usesPresenceBitmap() {
+        return in.usesPresenceBitmap();
+    }
 
+    @Override
+    public void skipAction() throws IOException {
+        skipParser.popSymbol();
     }
 
     @Override
     public void skipTopSymbol() throws IOException {
-
+        Symbol top = skipParser.topSymbol();
+        if (top == Symbol.NULL) {
+            readNull();
+        } else if (top == Symbol.BOOLEAN) {
+            readBoolean();
+        } else if (top == Symbol.INT) {
+            readInt();
+        } else if (top == Symbol.LONG) {
+            readLong();
+        } else if (top == Symbol.FLOAT) {
+            readFloat();
+        } else if (top == Symbol.DOUBLE) {
+            readDouble();
+        } else if (top == Symbol.STRING) {
+            readString();
+        } else if (top == Symbol.BYTES) {
+            readBytes(null);
+        } else if (top == Symbol.DATETIME) {
+            readDatetimeMillis();
+        } else if (top == Symbol.ENUM) {
+            readEnum();
+        } else if (top == Symbol.UNION) {
+            readUnionIndex();
+        } else if (top == Symbol.ARRAY_START) {
+            for (long i = readArrayStart(); i != 0; i = readArrayNext()) {
+                for (long j = 0; j < i; j++) {
+                    skipParser.skipRepeater();
+                }
+            }
+        } else if (top == Symbol.MAP_START) {
+            for (long i = readMapStart(); i != 0; i = readMapNext()) {
+                for (long j = 0; j < i; j++) {
+                    skipParser.skipRepeater();
+                }
+            }
+        } else {
+            throw new BaijiTypeException("Unexpected symbol " + top + " on the top of the stack");
+        }
     }
 }
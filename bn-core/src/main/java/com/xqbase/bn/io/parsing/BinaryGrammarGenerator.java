@@ -1,9 +1,15 @@
 package com.xqbase.bn.io.parsing;
 
 import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
 import com.xqbase.bn.schema.*;
+import org.codehaus.jackson.JsonNode;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -70,7 +76,7 @@ public class BinaryGrammarGenerator extends ValidatingGrammarGenerator {
                 MapSchema mapSchema = (MapSchema) schema;
                 return Symbol.seq(Symbol.repeat(Symbol.MAP_END,
                             generate(mapSchema.getValueSchema(), seen), Symbol.STRING),
-                            Symbol.MAP_END);
+                            Symbol.MAP_START);
             default:
                 throw new BaijiTypeException("unknown type: " + type);
         }
@@ -81,7 +87,7 @@ public class BinaryGrammarGenerator extends ValidatingGrammarGenerator {
         Symbol result = seen.get(wsc);
         if (null == result) {
             List<Field> fields = recordSchema.getFields();
-            int count = fields.size() + 1;
+            int count = fields.size() + 1 + sparseActionCount(recordSchema);
 
             Symbol[] production = new Symbol[count];
             production[--count] = Symbol.fieldOrderAction(fields.toArray(new Field[fields.size()]));
@@ -93,9 +99,19 @@ public class BinaryGrammarGenerator extends ValidatingGrammarGenerator {
             result = Symbol.seq(production);
             seen.put(wsc, result);
 
+            boolean sparse = isSparse(recordSchema);
+            if (sparse) {
+                production[--count] = Symbol.presenceAction(recordSchema.getPresenceBytes());
+            }
             for (Field f : fields) {
+                if (sparse) {
+                    count = optionalAction(recordSchema, f, production, count);
+                }
                 production[--count] = generate(f.getSchema(), seen);
             }
+            if (sparse) {
+                production[--count] = Symbol.PRESENCE_END_ACTION;
+            }
         }
         return result;
     }
@@ -108,12 +124,13 @@ public class BinaryGrammarGenerator extends ValidatingGrammarGenerator {
         String[] labels = new String[size];
 
         /**
-         * We construct a symbol without filling the arrays. Please see
-         * {@link Symbol#production} for the reason.
+         * Each branch carries its own adjust action, so that the branch picked
+         * by {@link Symbol.WriterUnionAction} can be handed to the reader without
+         * building any symbol at read time.
          */
         int i = 0;
         for (Schema s: types) {
-            symbols[i] = generate(s, seen);
+            symbols[i] = Symbol.seq(Symbol.unionAdjustAction(i, generate(s, seen)), Symbol.UNION);
             labels[i] = s.getName();
             i ++;
         }
@@ -122,6 +139,452 @@ public class BinaryGrammarGenerator extends ValidatingGrammarGenerator {
                     Symbol.writerUnionAction());
     }
 
+    /**
+     * Resolves the writer schema against the reader schema and returns the start symbol
+     * for the grammar generated. Data is parsed as written by <tt>writer</tt>, while the
+     * reader is handed values shaped by <tt>reader</tt>: writer-only fields are skipped,
+     * and reader-only fields are read from their defaults, encoded once here.
+     *
+     * @param writer    The schema used by the writer
+     * @param reader    The schema used by the reader
+     * @param seen      The &lt;writer-schema, reader-schema&gt; to symbol
+     * map of start symbols of resolving grammars so far.
+     * @return          The start symbol for the resolving grammar
+     */
+    public Symbol generate(Schema writer, Schema reader, Map<LitS, Symbol> seen) {
+        if (writer == reader) {
+            return generate(writer, seen);
+        }
+        final SchemaType writerType = writer.getType();
+        final SchemaType readerType = reader.getType();
+        if (writerType == readerType) {
+            switch (writerType) {
+                case NULL:
+                case BOOLEAN:
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                case STRING:
+                case BYTES:
+                case DATETIME:
+                    return generate(writer, seen);
+                case ENUM:
+                    if (writer.getName().equals(reader.getName())) {
+                        return Symbol.seq(mkEnumAdjust(((EnumSchema) writer).getEnumSymbols(),
+                                ((EnumSchema) reader).getEnumSymbols()), Symbol.ENUM);
+                    }
+                    break;
+                case RECORD:
+                    if (writer.getName().equals(reader.getName())) {
+                        return resolveRecords((RecordSchema) writer, (RecordSchema) reader, seen);
+                    }
+                    break;
+                case ARRAY:
+                    return Symbol.seq(Symbol.repeat(Symbol.ARRAY_END,
+                                    generate(((ArraySchema) writer).getItemSchema(),
+                                            ((ArraySchema) reader).getItemSchema(), seen)),
+                            Symbol.ARRAY_START);
+                case MAP:
+                    return Symbol.seq(Symbol.repeat(Symbol.MAP_END,
+                                    generate(((MapSchema) writer).getValueSchema(),
+                                            ((MapSchema) reader).getValueSchema(), seen), Symbol.STRING),
+                            Symbol.MAP_START);
+                case UNION:
+                    return resolveUnions((UnionSchema) writer, (UnionSchema) reader, seen);
+                default:
+                    throw new BaijiTypeException("unknown type: " + writerType);
+            }
+        } else if (readerType == SchemaType.UNION) {
+            int j = bestBranch((UnionSchema) reader, writer);
+            if (j >= 0) {
+                Symbol s = generate(writer, ((UnionSchema) reader).get(j), seen);
+                return Symbol.seq(Symbol.unionAdjustAction(j, s), Symbol.UNION);
+            }
+        } else if (writerType == SchemaType.UNION) {
+            return resolveWriterUnion((UnionSchema) writer, reader, seen);
+        } else if (isPromotable(writerType, readerType)) {
+            return Symbol.resolve(generate(writer, seen), generate(reader, seen));
+        }
+        return Symbol.error("Found " + writer.getName() + ", expecting " + reader.getName());
+    }
+
+    /**
+     * Resolves each branch of a writer union against a reader that is not a union.
+     * A branch the reader cannot read fails only when it is found in the data.
+     */
+    private Symbol resolveWriterUnion(UnionSchema writer, Schema reader, Map<LitS, Symbol> seen) {
+        List<Schema> types = writer.getSchemas();
+        final int size = types.size();
+
+        Symbol[] symbols = new Symbol[size];
+        String[] labels = new String[size];
+
+        int i = 0;
+        for (Schema w : types) {
+            symbols[i] = generate(w, reader, seen);
+            labels[i] = w.getName();
+            i ++;
+        }
+
+        return Symbol.seq(Symbol.alt(symbols, labels), Symbol.WRITER_UNION_ACTION);
+    }
+
+    /**
+     * Whether a value of the writer's type can be read as the reader's type
+     * without loss of range: int to long, float or double, long to float or
+     * double, and float to double.
+     */
+    private static boolean isPromotable(SchemaType writerType, SchemaType readerType) {
+        switch (writerType) {
+            case INT:
+                return readerType == SchemaType.LONG || readerType == SchemaType.FLOAT
+                        || readerType == SchemaType.DOUBLE;
+            case LONG:
+                return readerType == SchemaType.FLOAT || readerType == SchemaType.DOUBLE;
+            case FLOAT:
+                return readerType == SchemaType.DOUBLE;
+            default:
+                return false;
+        }
+    }
+
+    private Symbol resolveRecords(RecordSchema writer, RecordSchema reader, Map<LitS, Symbol> seen) {
+        LitS wsc = new LitS2(writer, reader);
+        Symbol result = seen.get(wsc);
+        if (null == result) {
+            List<Field> writerFields = writer.getFields();
+            List<Field> readerFields = reader.getFields();
+
+            // reader fields in writer order, followed by the reader-only fields.
+            Field[] reordered = new Field[readerFields.size()];
+            int pos = 0;
+            int count = 1 + writerFields.size() + sparseActionCount(writer);
+
+            for (Field f : writerFields) {
+                Field rf = readerField(reader, f);
+                if (rf != null) {
+                    reordered[pos++] = rf;
+                }
+            }
+            for (Field rf : readerFields) {
+                if (writerField(writer, rf) == null) {
+                    reordered[pos++] = rf;
+                    count += null == rf.getDefaultValue() ? 1 : 3;
+                }
+            }
+
+            Symbol[] production = new Symbol[count];
+            production[--count] = Symbol.fieldOrderAction(reordered);
+
+            /**
+             * We construct a symbol without filling the array. Please see
+             * {@link Symbol#production} for the reason.
+             */
+            result = Symbol.seq(production);
+            seen.put(wsc, result);
+
+            // the presence bitmap follows the writer's schema, whatever the reader reads
+            boolean sparse = isSparse(writer);
+            if (sparse) {
+                production[--count] = Symbol.presenceAction(writer.getPresenceBytes());
+            }
+            for (Field f : writerFields) {
+                if (sparse) {
+                    count = optionalAction(writer, f, production, count);
+                }
+                Field rf = readerField(reader, f);
+                if (null == rf) {
+                    production[--count] = Symbol.skipAction(generate(f.getSchema(), seen));
+                } else {
+                    production[--count] = generate(f.getSchema(), rf.getSchema(), seen);
+                }
+            }
+            for (Field rf : readerFields) {
+                if (writerField(writer, rf) == null) {
+                    if (null == rf.getDefaultValue()) {
+                        production[--count] = Symbol.error("Found " + writer.getName()
+                                + ", expecting " + reader.getName() + ", missing required field " + rf.getName());
+                    } else {
+                        production[--count] = Symbol.defaultStartAction(encodeDefault(rf.getSchema(),
+                                rf.getDefaultValue()));
+                        production[--count] = generate(rf.getSchema(), seen);
+                        production[--count] = Symbol.DEFAULT_END_ACTION;
+                    }
+                }
+            }
+            if (sparse) {
+                production[--count] = Symbol.PRESENCE_END_ACTION;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSparse(RecordSchema schema) {
+        return schema.isSparse() && schema.getPresenceBytes() > 0;
+    }
+
+    /**
+     * Returns the number of symbols the sparse encoding adds to the production of
+     * a record: the presence and presence-end actions, and an optional action
+     * for each nullable field.
+     */
+    private static int sparseActionCount(RecordSchema schema) {
+        if (!isSparse(schema)) {
+            return 0;
+        }
+        int count = 2;
+        for (Field f : schema.getFields()) {
+            if (schema.getPresenceBit(f.getPos()) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the optional action of the field to the production if the field is
+     * nullable, and returns the new count.
+     */
+    private static int optionalAction(RecordSchema schema, Field f, Symbol[] production, int count) {
+        int bit = schema.getPresenceBit(f.getPos());
+        if (bit >= 0) {
+            List<Schema> branches = ((UnionSchema) f.getSchema()).getSchemas();
+            int nullIndex = 0;
+            while (branches.get(nullIndex).getType() != SchemaType.NULL) {
+                nullIndex++;
+            }
+            production[--count] = Symbol.optionalAction(bit, nullIndex, schema.getPresentBranch(f.getPos()));
+        }
+        return count;
+    }
+
+    private Symbol resolveUnions(UnionSchema writer, UnionSchema reader, Map<LitS, Symbol> seen) {
+        List<Schema> types = writer.getSchemas();
+        final int size = types.size();
+
+        Symbol[] symbols = new Symbol[size];
+        String[] labels = new String[size];
+
+        int i = 0;
+        for (Schema w : types) {
+            int j = bestBranch(reader, w);
+            Symbol s = j >= 0 ? Symbol.unionAdjustAction(j, generate(w, reader.get(j), seen))
+                    : Symbol.unionAdjustAction(0, Symbol.error("Found " + w.getName()
+                            + ", expecting " + reader.getSchemas()));
+            symbols[i] = Symbol.seq(s, Symbol.UNION);
+            labels[i] = w.getName();
+            i ++;
+        }
+
+        return Symbol.seq(Symbol.alt(symbols, labels),
+                    Symbol.writerUnionAction());
+    }
+
+    private static int bestBranch(UnionSchema reader, Schema writer) {
+        List<Schema> branches = reader.getSchemas();
+        for (int j = 0; j < branches.size(); j++) {
+            Schema b = branches.get(j);
+            if (b.getType() == writer.getType() && b.getName().equals(writer.getName())) {
+                return j;
+            }
+        }
+        // no exact match, try the branches the written value can be promoted to
+        for (int j = 0; j < branches.size(); j++) {
+            if (isPromotable(writer.getType(), branches.get(j).getType())) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private static Field readerField(RecordSchema reader, Field writerField) {
+        Field rf = reader.getFieldByAlias(writerField.getName());
+        if (null == rf && writerField.getAliases() != null) {
+            for (String alias : writerField.getAliases()) {
+                rf = reader.getFieldByAlias(alias);
+                if (rf != null) {
+                    break;
+                }
+            }
+        }
+        return rf;
+    }
+
+    private static Field writerField(RecordSchema writer, Field readerField) {
+        return readerField(writer, readerField);
+    }
+
+    /**
+     * Encodes the JSON default value of a field in binary, so that it can be
+     * read like any other value.
+     */
+    private static byte[] encodeDefault(Schema schema, JsonNode value) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Encoder e = new DirectBinaryEncoder(out);
+            encode(e, schema, value);
+            e.flush();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new BaijiTypeException("Failed to encode default value " + value + " for " + schema);
+        }
+    }
+
+    private static void encode(Encoder e, Schema schema, JsonNode n) throws IOException {
+        switch (schema.getType()) {
+            case RECORD:
+                RecordSchema recordSchema = (RecordSchema) schema;
+                List<Field> fields = recordSchema.getFields();
+                JsonNode[] values = new JsonNode[fields.size()];
+                for (Field f : fields) {
+                    JsonNode v = n.get(f.getName());
+                    if (null == v) {
+                        v = f.getDefaultValue();
+                    }
+                    if (null == v) {
+                        throw new BaijiTypeException("No default value for: " + f.getName());
+                    }
+                    values[f.getPos()] = v;
+                }
+                boolean sparse = isSparse(recordSchema);
+                if (sparse) {
+                    byte[] bitmap = new byte[recordSchema.getPresenceBytes()];
+                    for (Field f : fields) {
+                        int bit = recordSchema.getPresenceBit(f.getPos());
+                        if (bit >= 0 && !values[f.getPos()].isNull()) {
+                            bitmap[bit >>> 3] |= 1 << (bit & 7);
+                        }
+                    }
+                    e.writeFixed(bitmap, 0, bitmap.length);
+                }
+                for (Field f : fields) {
+                    JsonNode v = values[f.getPos()];
+                    if (sparse && recordSchema.getPresenceBit(f.getPos()) >= 0) {
+                        if (v.isNull()) {
+                            continue;
+                        }
+                        int branch = recordSchema.getPresentBranch(f.getPos());
+                        if (branch >= 0) {
+                            // the union index is left out, see RecordSchema#getPresentBranch(int)
+                            encode(e, ((UnionSchema) f.getSchema()).get(branch), v);
+                            continue;
+                        }
+                    }
+                    encode(e, f.getSchema(), v);
+                }
+                break;
+            case ENUM:
+                e.writeEnum(((EnumSchema) schema).getEnumOrdinal(n.getTextValue()));
+                break;
+            case ARRAY:
+                e.writeArrayStart();
+                e.setItemCount(n.size());
+                Schema i = ((ArraySchema) schema).getItemSchema();
+                for (JsonNode node : n) {
+                    e.startItem();
+                    encode(e, i, node);
+                }
+                e.writeArrayEnd();
+                break;
+            case MAP:
+                e.writeMapStart();
+                e.setItemCount(n.size());
+                Schema v = ((MapSchema) schema).getValueSchema();
+                for (Iterator<String> it = n.getFieldNames(); it.hasNext();) {
+                    e.startItem();
+                    String key = it.next();
+                    e.writeString(key);
+                    encode(e, v, n.get(key));
+                }
+                e.writeMapEnd();
+                break;
+            case UNION:
+                // the default value of a union is that of its first branch
+                e.writeUnionIndex(0);
+                encode(e, ((UnionSchema) schema).get(0), n);
+                break;
+            case STRING:
+                if (!n.isTextual()) {
+                    throw new BaijiTypeException("Non-string default value for string: " + n);
+                }
+                e.writeString(n.getTextValue());
+                break;
+            case BYTES:
+                if (!n.isTextual()) {
+                    throw new BaijiTypeException("Non-string default value for bytes: " + n);
+                }
+                e.writeBytes(n.getTextValue().getBytes("ISO-8859-1"), 0, n.getTextValue().length());
+                break;
+            case INT:
+                if (!n.isNumber()) {
+                    throw new BaijiTypeException("Non-numeric default value for int: " + n);
+                }
+                e.writeInt(n.getIntValue());
+                break;
+            case LONG:
+                if (!n.isNumber()) {
+                    throw new BaijiTypeException("Non-numeric default value for long: " + n);
+                }
+                e.writeLong(n.getLongValue());
+                break;
+            case FLOAT:
+                if (!n.isNumber()) {
+                    throw new BaijiTypeException("Non-numeric default value for float: " + n);
+                }
+                e.writeFloat((float) n.getDoubleValue());
+                break;
+            case DOUBLE:
+                if (!n.isNumber()) {
+                    throw new BaijiTypeException("Non-numeric default value for double: " + n);
+                }
+                e.writeDouble(n.getDoubleValue());
+                break;
+            case DATETIME:
+                if (!n.isNumber()) {
+                    throw new BaijiTypeException("Non-numeric default value for datetime: " + n);
+                }
+                e.writeDatetimeMillis(n.getLongValue());
+                break;
+            case BOOLEAN:
+                if (!n.isBoolean()) {
+                    throw new BaijiTypeException("Non-boolean default for boolean: " + n);
+                }
+                e.writeBoolean(n.getBooleanValue());
+                break;
+            case NULL:
+                if (!n.isNull()) {
+                    throw new BaijiTypeException("Non-null default value for null type: " + n);
+                }
+                e.writeNull();
+                break;
+            default:
+                throw new BaijiTypeException("unknown type: " + schema.getType());
+        }
+    }
+
+    /** A pair of schemas that does "==" equality on both. */
+    static class LitS2 extends LitS {
+        public final Schema expected;
+
+        public LitS2(Schema actual, Schema expected) {
+            super(actual);
+            this.expected = expected;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof LitS2)) return false;
+
+            LitS2 that = (LitS2) o;
+            return actual == that.actual && expected == that.expected;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(actual) + System.identityHashCode(expected);
+        }
+    }
+
     private static Symbol mkEnumAdjust(List<String> writeSymbols, List<String> readerSymbols) {
         Object[] adjustments = new Object[writeSymbols.size()];
         for (int i = 0; i < adjustments.length; i++) {
@@ -129,6 +592,6 @@ public class BinaryGrammarGenerator extends ValidatingGrammarGenerator {
             adjustments[i] = (j == -1 ? "No match for " + writeSymbols.get(i)
                     : new Integer(j));
         }
-        return Symbol.enumAdjustAction(readerSymbols.size(), adjustments);
+        return Symbol.enumAdjustAction(readerSymbols.size(), adjustments, writeSymbols);
     }
 }
@@ -81,8 +81,8 @@ public class JsonGrammarGenerator extends ValidatingGrammarGenerator {
                         n++;
                     }
                     production[--i] = Symbol.RECORD_END;
-                    return result;
                 }
+                return result;
             }
             default:
                 throw new BaijiRuntimeException("Unexpected Schema Type");
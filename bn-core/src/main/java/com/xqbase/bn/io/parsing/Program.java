@@ -0,0 +1,367 @@
+package com.xqbase.bn.io.parsing;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.schema.Schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A resolving grammar compiled into a flat array of instructions.
+ * <p/>
+ * Each instruction is an opcode followed by its operands. Operands are either
+ * jump targets or indexes into {@link #constants}. Records are compiled once
+ * into subroutines, so that recursive schemas need no special treatment.
+ * A program is immutable and can be shared by any number of decoders.
+ *
+ * @author Tony He
+ */
+public final class Program {
+
+    // terminals, matched against the read requested by the caller
+    public static final int NULL = 0;
+    public static final int BOOLEAN = 1;
+    public static final int INT = 2;
+    public static final int LONG = 3;
+    public static final int FLOAT = 4;
+    public static final int DOUBLE = 5;
+    public static final int STRING = 6;
+    public static final int BYTES = 7;
+    public static final int DATETIME = 8;
+    /**
+     * ENUM adjustments messages symbols: reads an enum and maps it through <tt>int[] adjustments</tt>.
+     * <tt>String[] symbols</tt> are the writer's symbols.
+     */
+    public static final int ENUM = 9;
+    /**
+     * UNION targets indexes labels: reads a branch index and jumps to <tt>int[] targets</tt>.
+     * <tt>String[] labels</tt> are the names of the writer's branches.
+     */
+    public static final int UNION = 10;
+    /** ARRAY_START end: starts an array, jumps to <tt>end</tt> if it is empty. */
+    public static final int ARRAY_START = 11;
+    /** MAP_START end: starts a map, jumps to <tt>end</tt> if it is empty. */
+    public static final int MAP_START = 12;
+    /** REPEAT body: ends an array item, jumps back to <tt>body</tt> for the next item. */
+    public static final int REPEAT = 13;
+    /** RECORD fields: starts a record, the fields are handed to the reader. */
+    public static final int RECORD = 14;
+
+    // implicit instructions, executed on the way to the next terminal
+    /** CALL target: calls the record subroutine at <tt>target</tt>. */
+    public static final int CALL = 15;
+    /** RETURN: returns from a record subroutine. */
+    public static final int RETURN = 16;
+    /** JUMP target: continues at <tt>target</tt>. */
+    public static final int JUMP = 17;
+    /** END: the end of a datum. */
+    public static final int END = 18;
+    /** SKIP target: reads and discards a writer-only value, parsed by the subroutine at <tt>target</tt>. */
+    public static final int SKIP = 19;
+    /** DEFAULT contents: reads the following values from the encoded default <tt>byte[] contents</tt>. */
+    public static final int DEFAULT = 20;
+    /** DEFAULT_END: resumes reading from the data after a default value. */
+    public static final int DEFAULT_END = 21;
+    /** ERROR message: the writer and reader schemas do not match here. */
+    public static final int ERROR = 22;
+
+    /** UNION_BRANCH rindex: a non-union written value, read as the reader union branch <tt>rindex</tt>. */
+    public static final int UNION_BRANCH = 23;
+
+    // the sparse encoding of records, see RecordSchema#isSparse()
+    /** PRESENCE bytes: reads the presence bitmap of a sparse record, <tt>bytes</tt> long. */
+    public static final int PRESENCE = 24;
+    /**
+     * OPTIONAL bit nullIndex presentIndex: if <tt>bit</tt> is clear, the next union is read as its branch
+     * <tt>nullIndex</tt>, otherwise as its branch <tt>presentIndex</tt> unless it is -1.
+     */
+    public static final int OPTIONAL = 25;
+    /** PRESENCE_END: the end of a sparse record, drops its presence bitmap. */
+    public static final int PRESENCE_END = 26;
+
+    /** MAP_REPEAT body: ends a map entry, jumps back to <tt>body</tt> for the next entry. */
+    public static final int MAP_REPEAT = 27;
+
+    /**
+     * WRITER_UNION targets labels: reads the writer's branch index and jumps to <tt>int[] targets</tt>,
+     * for a reader that is not a union. <tt>String[] labels</tt> are the names of the writer's branches.
+     */
+    public static final int WRITER_UNION = 28;
+    /** PROMOTE from to: reads the writer's terminal <tt>from</tt> as the wider reader terminal <tt>to</tt>. */
+    public static final int PROMOTE = 29;
+
+    private static final String[] NAMES = {"null", "boolean", "int", "long", "float", "double",
+            "string", "bytes", "datetime", "enum", "union", "array-start", "map-start", "item-end",
+            "record", "call", "return", "jump", "end", "skip", "default", "default-end", "error",
+            "union-branch", "presence", "optional", "presence-end", "map-item-end", "writer-union",
+            "promote"};
+
+    public final int[] code;
+    public final Object[] constants;
+
+    private Program(int[] code, Object[] constants) {
+        this.code = code;
+        this.constants = constants;
+    }
+
+    /**
+     * Returns the printable name of the given opcode.
+     */
+    public static String name(int opcode) {
+        return opcode >= 0 && opcode < NAMES.length ? NAMES[opcode] : String.valueOf(opcode);
+    }
+
+    /**
+     * Compiles the grammar generated by {@link BinaryGrammarGenerator} for the given schema.
+     */
+    public static Program compile(Schema schema) {
+        Symbol start = new BinaryGrammarGenerator()
+                .generate(schema, new HashMap<ValidatingGrammarGenerator.LitS, Symbol>());
+        return new Compiler().compile(start);
+    }
+
+    /**
+     * Compiles the grammar resolving data written with <tt>writer</tt> into
+     * values of <tt>reader</tt>. Default values of reader-only fields are
+     * encoded once, and stored as constants of the program.
+     */
+    public static Program compile(Schema writer, Schema reader) {
+        if (writer == reader) {
+            return compile(writer);
+        }
+        Symbol start = new BinaryGrammarGenerator()
+                .generate(writer, reader, new HashMap<ValidatingGrammarGenerator.LitS, Symbol>());
+        return new Compiler().compile(start);
+    }
+
+    private static final class Compiler {
+
+        private int[] code = new int[64];
+        private int size = 0;
+        private final List<Object> constants = new ArrayList<>();
+
+        // record subroutines: the address of each compiled record, and the calls still to patch
+        private final Map<Symbol, Integer> subroutines = new IdentityHashMap<>();
+        private final Map<Symbol, List<Integer>> pendingCalls = new IdentityHashMap<>();
+        private final List<Symbol> pendingRecords = new ArrayList<>();
+
+        // skip subroutines, compiled after the main program
+        private final List<Symbol> pendingSkips = new ArrayList<>();
+        private final List<Integer> pendingSkipOperands = new ArrayList<>();
+
+        Program compile(Symbol start) {
+            compileSymbol(start);
+            emit(END);
+            while (!pendingRecords.isEmpty() || !pendingSkips.isEmpty()) {
+                if (!pendingRecords.isEmpty()) {
+                    Symbol record = pendingRecords.remove(pendingRecords.size() - 1);
+                    int address = size;
+                    subroutines.put(record, address);
+                    for (int operand : pendingCalls.remove(record)) {
+                        code[operand] = address;
+                    }
+                    compileRecord(record);
+                } else {
+                    Symbol skipped = pendingSkips.remove(pendingSkips.size() - 1);
+                    code[pendingSkipOperands.remove(pendingSkipOperands.size() - 1)] = size;
+                    compileSymbol(skipped);
+                    emit(RETURN);
+                }
+            }
+            return new Program(Arrays.copyOf(code, size), constants.toArray());
+        }
+
+        /**
+         * Compiles a symbol as generated by {@link BinaryGrammarGenerator}.
+         */
+        private void compileSymbol(Symbol symbol) {
+            if (symbol instanceof Symbol.SkipAction) {
+                emit(SKIP, -1);
+                pendingSkips.add(((Symbol.SkipAction) symbol).symToSkip);
+                pendingSkipOperands.add(size - 1);
+            } else if (symbol instanceof Symbol.DefaultStartAction) {
+                emit(DEFAULT, constant(((Symbol.DefaultStartAction) symbol).contents));
+            } else if (symbol == Symbol.DEFAULT_END_ACTION) {
+                emit(DEFAULT_END);
+            } else if (symbol instanceof Symbol.ErrorAction) {
+                emit(ERROR, constant(((Symbol.ErrorAction) symbol).msg));
+            } else if (symbol instanceof Symbol.PresenceAction) {
+                emit(PRESENCE, ((Symbol.PresenceAction) symbol).bytes);
+            } else if (symbol instanceof Symbol.OptionalAction) {
+                Symbol.OptionalAction action = (Symbol.OptionalAction) symbol;
+                emit(OPTIONAL, action.bit, action.nullIndex, action.presentIndex);
+            } else if (symbol == Symbol.PRESENCE_END_ACTION) {
+                emit(PRESENCE_END);
+            } else if (symbol instanceof Symbol.ResolvingAction) {
+                Symbol.ResolvingAction action = (Symbol.ResolvingAction) symbol;
+                emit(PROMOTE, terminal(action.writer), terminal(action.reader));
+            } else if (symbol.kind == Symbol.Kind.TERMINAL) {
+                emit(terminal(symbol));
+            } else if (symbol.kind == Symbol.Kind.SEQUENCE) {
+                Symbol[] p = symbol.production;
+                if (p.length > 0 && p[p.length - 1] instanceof Symbol.FieldOrderAction) {
+                    compileCall(symbol);
+                } else {
+                    // productions are stored in reverse order.
+                    compileProduction(p, p.length - 1, 0);
+                }
+            } else {
+                throw new BaijiTypeException("Unexpected symbol: " + symbol);
+            }
+        }
+
+        /**
+         * Compiles <tt>p[from]</tt> down to <tt>p[to]</tt>, in parse order.
+         */
+        private void compileProduction(Symbol[] p, int from, int to) {
+            for (int i = from; i >= to; i--) {
+                Symbol s = p[i];
+                if (s == Symbol.ENUM) {
+                    compileEnum((Symbol.EnumAdjustAction) p[--i]);
+                } else if (s instanceof Symbol.WriterUnionAction) {
+                    compileUnion((Symbol.Alternative) p[--i]);
+                } else if (s == Symbol.WRITER_UNION_ACTION) {
+                    compileWriterUnion((Symbol.Alternative) p[--i]);
+                } else if (s == Symbol.UNION) {
+                    // a non-union value read as a branch of the reader union
+                    Symbol.UnionAdjustAction action = (Symbol.UnionAdjustAction) p[--i];
+                    emit(UNION_BRANCH, action.rindex);
+                    compileSymbol(action.symToParse);
+                } else if (s == Symbol.ARRAY_START || s == Symbol.MAP_START) {
+                    compileRepeater(s == Symbol.ARRAY_START ? ARRAY_START : MAP_START,
+                            (Symbol.Repeater) p[--i]);
+                } else {
+                    compileSymbol(s);
+                }
+            }
+        }
+
+        private void compileEnum(Symbol.EnumAdjustAction action) {
+            Object[] adjustments = action.adjustments;
+            int[] indexes = new int[adjustments.length];
+            String[] messages = new String[adjustments.length];
+            for (int i = 0; i < adjustments.length; i++) {
+                if (adjustments[i] instanceof Integer) {
+                    indexes[i] = (Integer) adjustments[i];
+                } else {
+                    indexes[i] = -1;
+                    messages[i] = (String) adjustments[i];
+                }
+            }
+            String[] symbols = null == action.symbols ? null
+                    : action.symbols.toArray(new String[action.symbols.size()]);
+            emit(ENUM, constant(indexes), constant(messages), constant(symbols));
+        }
+
+        private void compileUnion(Symbol.Alternative alternative) {
+            int size = alternative.size();
+            int[] targets = new int[size];
+            int[] indexes = new int[size];
+            int[] jumps = new int[size];
+            emit(UNION, constant(targets), constant(indexes), constant(alternative.labels));
+            for (int i = 0; i < size; i++) {
+                // each branch is seq(unionAdjustAction, UNION), see BinaryGrammarGenerator
+                Symbol[] p = alternative.getSymbol(i).production;
+                Symbol.UnionAdjustAction action = (Symbol.UnionAdjustAction) p[0];
+                targets[i] = this.size;
+                indexes[i] = action.rindex;
+                compileSymbol(action.symToParse);
+                emit(JUMP, 0);
+                jumps[i] = this.size - 1;
+            }
+            for (int jump : jumps) {
+                code[jump] = this.size;
+            }
+        }
+
+        private void compileWriterUnion(Symbol.Alternative alternative) {
+            int size = alternative.size();
+            int[] targets = new int[size];
+            int[] jumps = new int[size];
+            emit(WRITER_UNION, constant(targets), constant(alternative.labels));
+            for (int i = 0; i < size; i++) {
+                // each branch is the writer's branch resolved against the whole reader schema
+                targets[i] = this.size;
+                compileSymbol(alternative.getSymbol(i));
+                emit(JUMP, 0);
+                jumps[i] = this.size - 1;
+            }
+            for (int jump : jumps) {
+                code[jump] = this.size;
+            }
+        }
+
+        private void compileRepeater(int opcode, Symbol.Repeater repeater) {
+            emit(opcode, 0);
+            int start = size - 1;
+            int body = size;
+            Symbol[] p = repeater.production;
+            compileProduction(p, p.length - 1, 1);
+            emit(opcode == MAP_START ? MAP_REPEAT : REPEAT, body);
+            code[start] = size;
+        }
+
+        private void compileCall(Symbol record) {
+            Integer address = subroutines.get(record);
+            if (address != null) {
+                emit(CALL, address);
+                return;
+            }
+            emit(CALL, -1);
+            List<Integer> calls = pendingCalls.get(record);
+            if (null == calls) {
+                calls = new ArrayList<>();
+                pendingCalls.put(record, calls);
+                pendingRecords.add(record);
+            }
+            calls.add(size - 1);
+        }
+
+        private void compileRecord(Symbol record) {
+            Symbol[] p = record.production;
+            emit(RECORD, constant(((Symbol.FieldOrderAction) p[p.length - 1]).fields));
+            compileProduction(p, p.length - 2, 0);
+            emit(RETURN);
+        }
+
+        private int constant(Object value) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+
+        private void emit(int... words) {
+            if (size + words.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+            }
+            System.arraycopy(words, 0, code, size, words.length);
+            size += words.length;
+        }
+
+        private static int terminal(Symbol symbol) {
+            if (symbol == Symbol.NULL) {
+                return NULL;
+            } else if (symbol == Symbol.BOOLEAN) {
+                return BOOLEAN;
+            } else if (symbol == Symbol.INT) {
+                return INT;
+            } else if (symbol == Symbol.LONG) {
+                return LONG;
+            } else if (symbol == Symbol.FLOAT) {
+                return FLOAT;
+            } else if (symbol == Symbol.DOUBLE) {
+                return DOUBLE;
+            } else if (symbol == Symbol.STRING) {
+                return STRING;
+            } else if (symbol == Symbol.BYTES) {
+                return BYTES;
+            } else if (symbol == Symbol.DATETIME) {
+                return DATETIME;
+            }
+            throw new BaijiTypeException("Unexpected terminal: " + symbol);
+        }
+    }
+}
@@ -449,13 +449,25 @@ public abstract class Symbol {
         return new EnumAdjustAction(rsymCount, adj);
     }
 
+    public static EnumAdjustAction enumAdjustAction(int rsymCount, Object[] adj, List<String> symbols) {
+        return new EnumAdjustAction(rsymCount, adj, symbols);
+    }
+
     public static class EnumAdjustAction extends IntCheckAction {
         public final Object[] adjustments;
+        /** The writer's symbols, or null if unknown. */
+        public final List<String> symbols;
 
         @Deprecated
         public EnumAdjustAction(int rsymCount, Object[] adjustments) {
+            this(rsymCount, adjustments, null);
+        }
+
+        @Deprecated
+        public EnumAdjustAction(int rsymCount, Object[] adjustments, List<String> symbols) {
             super(rsymCount);
             this.adjustments = adjustments;
+            this.symbols = symbols;
         }
     }
 
@@ -548,6 +560,46 @@ public abstract class Symbol {
         }
     }
 
+    public static PresenceAction presenceAction(int bytes) {
+        return new PresenceAction(bytes);
+    }
+
+    /**
+     * Reads the presence bitmap of a record in the sparse encoding.
+     */
+    public static class PresenceAction extends ImplicitAction {
+        public final int bytes;
+
+        @Deprecated
+        public PresenceAction(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    public static OptionalAction optionalAction(int bit, int nullIndex, int presentIndex) {
+        return new OptionalAction(bit, nullIndex, presentIndex);
+    }
+
+    /**
+     * Precedes a nullable field of a record in the sparse encoding. If the
+     * <tt>bit</tt> of the field is clear, the field is not in the data, and
+     * is read as the branch <tt>nullIndex</tt> of the writer's union. If it is
+     * set and <tt>presentIndex</tt> is not -1, the union index is left out of
+     * the data, and the field is read as the branch <tt>presentIndex</tt>.
+     */
+    public static class OptionalAction extends ImplicitAction {
+        public final int bit;
+        public final int nullIndex;
+        public final int presentIndex;
+
+        @Deprecated
+        public OptionalAction(int bit, int nullIndex, int presentIndex) {
+            this.bit = bit;
+            this.nullIndex = nullIndex;
+            this.presentIndex = presentIndex;
+        }
+    }
+
     public static UnionAdjustAction unionAdjustAction(int rindex, Symbol sym) {
         return new UnionAdjustAction(rindex, sym);
     }
@@ -634,6 +686,9 @@ public abstract class Symbol {
     public static final Symbol FIELD_END = new ImplicitAction(true);
 
     public static final Symbol DEFAULT_END_ACTION = new ImplicitAction(true);
+    public static final Symbol PRESENCE_END_ACTION = new ImplicitAction(true);
+    /* a writer union read by a reader that is not a union, see BinaryGrammarGenerator */
+    public static final Symbol WRITER_UNION_ACTION = new ImplicitAction(false);
     public static final Symbol MAP_KEY_MARKER =
             new Symbol.Terminal("map-key-marker");
 }
@@ -47,6 +47,8 @@ public class ValidatingGrammarGenerator {
                 return Symbol.STRING;
             case BYTES:
                 return Symbol.BYTES;
+            case DATETIME:
+                return Symbol.DATETIME;
             case ENUM:
                 return Symbol.seq(Symbol.intCheckAction(((EnumSchema) sc).getEnumSymbols().size()),
                         Symbol.ENUM);
@@ -107,7 +109,7 @@ public class ValidatingGrammarGenerator {
          */
         public boolean equals(Object o) {
             if (o == this) return true;
-            if (!(o instanceof LitS)) return false;
+            if (null == o || o.getClass() != getClass()) return false;
 
             LitS that = (LitS) o;
             return actual == that.actual;
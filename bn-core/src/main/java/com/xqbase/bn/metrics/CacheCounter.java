@@ -0,0 +1,44 @@
+package com.xqbase.bn.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hits and misses of a cache.
+ *
+ * @author Tony He
+ */
+public class CacheCounter {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public void record(boolean hit) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that hit, or 0 if there were none.
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return 0 == total ? 0.0 : (double) h / total;
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+    }
+}
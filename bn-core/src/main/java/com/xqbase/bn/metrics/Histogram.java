@@ -0,0 +1,93 @@
+package com.xqbase.bn.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as nanoseconds, in power of two
+ * buckets. Recording is lock free: each bucket is a {@link LongAdder}, so that
+ * concurrent threads do not contend on a single counter. Percentiles are
+ * approximated by the upper bound of the bucket they fall in.
+ *
+ * @author Tony He
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    // bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return 0 == n ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns an upper bound of the value below which the given fraction of
+     * the recorded values fall, e.g. 0.99 for the 99th percentile.
+     */
+    public long getPercentile(double fraction) {
+        if (fraction < 0.0 || fraction > 1.0) {
+            throw new IllegalArgumentException("fraction must be in [0, 1]: " + fraction);
+        }
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (0 == total) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(0 == i ? 0 : (1L << i) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,99 @@
+package com.xqbase.bn.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialization counters of a single schema. Times are in nanoseconds.
+ *
+ * @author Tony He
+ */
+public class SchemaMetrics {
+
+    private final String name;
+    private final LongAdder serializeCount = new LongAdder();
+    private final LongAdder deserializeCount = new LongAdder();
+    private final LongAdder serializedBytes = new LongAdder();
+    private final LongAdder deserializedBytes = new LongAdder();
+    private final Histogram serializeNanos = new Histogram();
+    private final Histogram deserializeNanos = new Histogram();
+    private final CacheCounter writerCache = new CacheCounter();
+    private final CacheCounter readerCache = new CacheCounter();
+    private final CacheCounter resolverCache = new CacheCounter();
+
+    SchemaMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordSerialize(long bytes, long nanos) {
+        serializeCount.increment();
+        serializedBytes.add(bytes);
+        serializeNanos.record(nanos);
+    }
+
+    public void recordDeserialize(long bytes, long nanos) {
+        deserializeCount.increment();
+        deserializedBytes.add(bytes);
+        deserializeNanos.record(nanos);
+    }
+
+    public long getSerializeCount() {
+        return serializeCount.sum();
+    }
+
+    public long getDeserializeCount() {
+        return deserializeCount.sum();
+    }
+
+    public long getSerializedBytes() {
+        return serializedBytes.sum();
+    }
+
+    public long getDeserializedBytes() {
+        return deserializedBytes.sum();
+    }
+
+    public Histogram getSerializeNanos() {
+        return serializeNanos;
+    }
+
+    public Histogram getDeserializeNanos() {
+        return deserializeNanos;
+    }
+
+    /**
+     * Lookups of the datum writers cached by the serializers.
+     */
+    public CacheCounter getWriterCache() {
+        return writerCache;
+    }
+
+    /**
+     * Lookups of the datum readers cached by the serializers.
+     */
+    public CacheCounter getReaderCache() {
+        return readerCache;
+    }
+
+    /**
+     * Lookups of the resolving decoders cached by the datum readers.
+     */
+    public CacheCounter getResolverCache() {
+        return resolverCache;
+    }
+
+    public void reset() {
+        serializeCount.reset();
+        deserializeCount.reset();
+        serializedBytes.reset();
+        deserializedBytes.reset();
+        serializeNanos.reset();
+        deserializeNanos.reset();
+        writerCache.reset();
+        readerCache.reset();
+        resolverCache.reset();
+    }
+}
@@ -0,0 +1,67 @@
+package com.xqbase.bn.metrics;
+
+import com.xqbase.bn.schema.NamedSchema;
+import com.xqbase.bn.schema.Schema;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of {@link SchemaMetrics}, by full schema name.
+ * <p/>
+ * Instrumentation is off by default. Once {@link #setEnabled enabled}, the
+ * serializers and datum readers record their cache lookups here, and an
+ * {@link com.xqbase.bn.InstrumentedSerializer} records the calls it wraps.
+ * When disabled, the cost at each call site is a single volatile read.
+ *
+ * @author Tony He
+ */
+public final class SerializerMetrics {
+
+    private static final ConcurrentHashMap<String, SchemaMetrics> metrics = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled;
+
+    private SerializerMetrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        SerializerMetrics.enabled = enabled;
+    }
+
+    /**
+     * Returns the metrics of the schema, creating them on first use.
+     */
+    public static SchemaMetrics get(Schema schema) {
+        String name = schema instanceof NamedSchema
+                ? ((NamedSchema) schema).getFullName()
+                : schema.getType().toString().toLowerCase();
+        SchemaMetrics schemaMetrics = metrics.get(name);
+        if (null == schemaMetrics) {
+            schemaMetrics = new SchemaMetrics(name);
+            SchemaMetrics existed = metrics.putIfAbsent(name, schemaMetrics);
+            if (existed != null) {
+                schemaMetrics = existed;
+            }
+        }
+        return schemaMetrics;
+    }
+
+    /**
+     * Returns the metrics recorded so far, by full schema name.
+     */
+    public static Map<String, SchemaMetrics> getAll() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Discards all metrics recorded so far.
+     */
+    public static void reset() {
+        metrics.clear();
+    }
+}
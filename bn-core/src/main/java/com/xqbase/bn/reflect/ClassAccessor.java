@@ -0,0 +1,327 @@
+package com.xqbase.bn.reflect;
+
+import com.xqbase.bn.common.util.ReflectionUtils;
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cached constructor and field accessors of a class. The method handles are
+ * built once per class, and adapted to <tt>(Object)Object</tt> and
+ * <tt>(Object, Object)void</tt>, so that they are called through
+ * {@link MethodHandle#invokeExact} without any reflective lookup.
+ *
+ * @author Tony He
+ */
+final class ClassAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    final Class<?> type;
+    final FieldAccessor[] fields;
+    private final Map<String, FieldAccessor> fieldsByName = new HashMap<>();
+    private final MethodHandle constructor;
+
+    ClassAccessor(Class<?> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<Field> declared = ReflectionUtils.findFields(type);
+        this.fields = new FieldAccessor[declared.size()];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                Field field = declared.get(i);
+                field.setAccessible(true);
+                fields[i] = new FieldAccessor(field.getName(), field.getType(),
+                        Converter.of(field.getGenericType()),
+                        lookup.unreflectGetter(field).asType(GETTER_TYPE),
+                        lookup.unreflectSetter(field).asType(SETTER_TYPE));
+                fieldsByName.put(field.getName(), fields[i]);
+            }
+            MethodHandle ctor = null;
+            if (!type.isInterface() && !type.isEnum()) {
+                Constructor<?> c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+                ctor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+            }
+            this.constructor = ctor;
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            ReflectionUtils.handleReflectionException(e);
+            throw new IllegalStateException("Should never get here");
+        }
+    }
+
+    /**
+     * Returns the accessor of the field at <tt>position</tt>, or the field named
+     * <tt>name</tt> if the schema does not list fields in declaration order.
+     */
+    FieldAccessor field(String name, int position) {
+        if (position < fields.length) {
+            FieldAccessor field = fields[position];
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        FieldAccessor field = fieldsByName.get(name);
+        if (null == field) {
+            throw new BaijiRuntimeException("No field " + name + " in " + type.getName());
+        }
+        return field;
+    }
+
+    Object newInstance() {
+        if (null == constructor) {
+            throw new BaijiRuntimeException("Can not create instance of " + type.getName());
+        }
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new BaijiRuntimeException("Can not create instance of " + type.getName(), t);
+        }
+    }
+
+    /**
+     * Reads and writes a single field, converting between the Java type of the
+     * field and the representation used by the datum readers and writers.
+     */
+    static final class FieldAccessor {
+        final String name;
+        final Class<?> type;
+        // null if values need no conversion
+        private final Converter converter;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldAccessor(String name, Class<?> type, Converter converter, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.converter = converter;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Object get(Object target) {
+            Object value;
+            try {
+                value = (Object) getter.invokeExact(target);
+            } catch (Throwable t) {
+                throw new BaijiRuntimeException("Failed to get field " + name, t);
+            }
+            return null == value || null == converter ? value : converter.toDatum(value);
+        }
+
+        void set(Object target, Object value) {
+            if (value != null && converter != null) {
+                value = converter.fromDatum(value);
+            }
+            try {
+                setter.invokeExact(target, value);
+            } catch (Throwable t) {
+                throw new BaijiRuntimeException("Failed to set field " + name, t);
+            }
+        }
+    }
+
+    /**
+     * Converts the values of a Java type to and from the representation used by
+     * the datum writers and readers. The items of lists and the values of maps
+     * are converted too, into new collections. Values are never null.
+     */
+    abstract static class Converter {
+
+        private static final Converter BYTES = new Converter() {
+            @Override
+            boolean convertsToDatum() {
+                return true;
+            }
+
+            @Override
+            Object toDatum(Object value) {
+                return ByteBuffer.wrap((byte[]) value);
+            }
+
+            @Override
+            Object fromDatum(Object value) {
+                ByteBuffer buffer = (ByteBuffer) value;
+                if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                        && buffer.remaining() == buffer.array().length) {
+                    return buffer.array();
+                }
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.duplicate().get(bytes);
+                return bytes;
+            }
+        };
+
+        private static final Converter SHORT = new Converter() {
+            @Override
+            Object fromDatum(Object value) {
+                return ((Number) value).shortValue();
+            }
+        };
+
+        private static final Converter BYTE = new Converter() {
+            @Override
+            Object fromDatum(Object value) {
+                return ((Number) value).byteValue();
+            }
+        };
+
+        // datum writers take dates and calendars as they are
+        private static final Converter DATE = new Converter() {
+            @Override
+            Object fromDatum(Object value) {
+                return value instanceof Instant ? Date.from((Instant) value) : value;
+            }
+        };
+
+        private static final Converter CALENDAR = new Converter() {
+            @Override
+            Object fromDatum(Object value) {
+                if (!(value instanceof Instant)) {
+                    return value;
+                }
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(((Instant) value).toEpochMilli());
+                return calendar;
+            }
+        };
+
+        /**
+         * Returns the converter of a field or item type, or null if its values need
+         * no conversion.
+         */
+        static Converter of(Type type) {
+            Class<?> c = rawClass(type);
+            if (c == byte[].class) {
+                return BYTES;
+            } else if (c == short.class || c == Short.class) {
+                return SHORT;
+            } else if (c == byte.class || c == Byte.class) {
+                return BYTE;
+            } else if (c == Date.class) {
+                return DATE;
+            } else if (c == Calendar.class) {
+                return CALENDAR;
+            } else if (type instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+                if (List.class.isAssignableFrom(c) || c == Collection.class) {
+                    Converter items = of(arguments[0]);
+                    return null == items ? null : new ListConverter(items);
+                } else if (Map.class.isAssignableFrom(c)) {
+                    Converter values = of(arguments[1]);
+                    return null == values ? null : new MapConverter(values);
+                }
+            }
+            return null;
+        }
+
+        private static Class<?> rawClass(Type type) {
+            if (type instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) type).getRawType();
+            }
+            return type instanceof Class ? (Class<?>) type : Object.class;
+        }
+
+        /**
+         * Returns whether {@link #toDatum} converts anything, most values being
+         * written as they are.
+         */
+        boolean convertsToDatum() {
+            return false;
+        }
+
+        Object toDatum(Object value) {
+            return value;
+        }
+
+        abstract Object fromDatum(Object value);
+    }
+
+    private static final class ListConverter extends Converter {
+        private final Converter items;
+
+        ListConverter(Converter items) {
+            this.items = items;
+        }
+
+        @Override
+        boolean convertsToDatum() {
+            return items.convertsToDatum();
+        }
+
+        @Override
+        Object toDatum(Object value) {
+            if (!items.convertsToDatum()) {
+                return value;
+            }
+            Collection<?> collection = (Collection<?>) value;
+            List<Object> result = new ArrayList<>(collection.size());
+            for (Object item : collection) {
+                result.add(null == item ? null : items.toDatum(item));
+            }
+            return result;
+        }
+
+        @Override
+        Object fromDatum(Object value) {
+            Collection<?> collection = (Collection<?>) value;
+            List<Object> result = new ArrayList<>(collection.size());
+            for (Object item : collection) {
+                result.add(null == item ? null : items.fromDatum(item));
+            }
+            return result;
+        }
+    }
+
+    private static final class MapConverter extends Converter {
+        private final Converter values;
+
+        MapConverter(Converter values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean convertsToDatum() {
+            return values.convertsToDatum();
+        }
+
+        @Override
+        Object toDatum(Object value) {
+            if (!values.convertsToDatum()) {
+                return value;
+            }
+            Map<?, ?> map = (Map<?, ?>) value;
+            Map<Object, Object> result = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(entry.getKey(), null == entry.getValue() ? null : values.toDatum(entry.getValue()));
+            }
+            return result;
+        }
+
+        @Override
+        Object fromDatum(Object value) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Map<Object, Object> result = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(entry.getKey(), null == entry.getValue() ? null : values.fromDatum(entry.getValue()));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.xqbase.bn.reflect;
+
+import com.xqbase.bn.common.util.ReflectionUtils;
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.generic.IndexedRecord;
+import com.xqbase.bn.schema.NamedSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificData;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utilities for plain Java classes, read and written through reflection.
+ * <p/>
+ * Schemas are derived from the instance fields of a class, as found by
+ * {@link ReflectionUtils#findFields}. Fields are read and written through
+ * method handles cached once per class. Fields of reference types are
+ * nullable.
+ *
+ * @author Tony He
+ */
+public class ReflectData extends SpecificData {
+
+    private static final ReflectData INSTANCE = new ReflectData();
+
+    private final Map<Class<?>, Schema> schemaCache = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ClassAccessor> accessorCache = new ConcurrentHashMap<>();
+    // classes of the schemas derived so far, by full name
+    private final Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+
+    public ReflectData() {}
+
+    public ReflectData(ClassLoader classLoader) {
+        super(classLoader);
+    }
+
+    public static ReflectData get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the schema derived from the class.
+     */
+    public Schema getSchema(Class<?> c) {
+        Schema schema = schemaCache.get(c);
+        if (null == schema) {
+            Map<String, Class<?>> defined = new HashMap<>();
+            schema = Schema.parse(schemaNode(c, c, defined).toString());
+            classCache.putAll(defined);
+            schemaCache.put(c, schema);
+        }
+        return schema;
+    }
+
+    @Override
+    public Class<?> getClass(NamedSchema schema) {
+        Class<?> c = classCache.get(schema.getFullName());
+        return c != null ? c : super.getClass(schema);
+    }
+
+    @Override
+    public Object newRecord(Object reuse, RecordSchema schema) {
+        Class<?> c = getClass(schema);
+        if (null == c || IndexedRecord.class.isAssignableFrom(c)) {
+            return super.newRecord(reuse, schema);
+        }
+        if (c.isInstance(reuse)) {
+            return reuse;
+        }
+        return getAccessor(c).newInstance();
+    }
+
+    @Override
+    public Object getField(Object record, String name, int position) {
+        if (record instanceof IndexedRecord) {
+            return super.getField(record, name, position);
+        }
+        return getAccessor(record.getClass()).field(name, position).get(record);
+    }
+
+    @Override
+    public void setField(Object record, String name, int position, Object value) {
+        if (record instanceof IndexedRecord) {
+            super.setField(record, name, position, value);
+            return;
+        }
+        getAccessor(record.getClass()).field(name, position).set(record, value);
+    }
+
+    private ClassAccessor getAccessor(Class<?> c) {
+        ClassAccessor accessor = accessorCache.get(c);
+        if (null == accessor) {
+            accessor = new ClassAccessor(c);
+            accessorCache.put(c, accessor);
+        }
+        return accessor;
+    }
+
+    private static JsonNode schemaNode(Type type, Class<?> c, Map<String, Class<?>> defined) {
+        if (c == boolean.class || c == Boolean.class) {
+            return text("boolean");
+        } else if (c == int.class || c == Integer.class || c == short.class || c == Short.class
+                || c == byte.class || c == Byte.class) {
+            return text("int");
+        } else if (c == long.class || c == Long.class) {
+            return text("long");
+        } else if (c == float.class || c == Float.class) {
+            return text("float");
+        } else if (c == double.class || c == Double.class) {
+            return text("double");
+        } else if (c == String.class || c == CharSequence.class) {
+            return text("string");
+        } else if (c == byte[].class || c == ByteBuffer.class) {
+            return text("bytes");
+        } else if (c == Instant.class || c == Date.class || c == Calendar.class) {
+            return text("datetime");
+        } else if (List.class.isAssignableFrom(c) || c == Collection.class) {
+            Type item = typeArgument(type, 0);
+            ObjectNode node = JsonNodeFactory.instance.objectNode();
+            node.put("type", "array");
+            node.put("items", schemaNode(item, rawClass(item), defined));
+            return node;
+        } else if (Map.class.isAssignableFrom(c)) {
+            if (rawClass(typeArgument(type, 0)) != String.class) {
+                throw new BaijiRuntimeException("Map keys must be strings: " + type);
+            }
+            Type value = typeArgument(type, 1);
+            ObjectNode node = JsonNodeFactory.instance.objectNode();
+            node.put("type", "map");
+            node.put("values", schemaNode(value, rawClass(value), defined));
+            return node;
+        } else if (c.isPrimitive() || c.isArray() || c == Object.class || c.isInterface()) {
+            throw new BaijiRuntimeException("Unsupported type: " + type);
+        }
+
+        String namespace = namespace(c);
+        String fullName = null == namespace ? c.getSimpleName() : namespace + "." + c.getSimpleName();
+        if (defined.containsKey(fullName)) {
+            return text(fullName);
+        }
+        defined.put(fullName, c);
+
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("name", c.getSimpleName());
+        if (namespace != null) {
+            node.put("namespace", namespace);
+        }
+        if (c.isEnum()) {
+            node.put("type", "enum");
+            ArrayNode symbols = node.putArray("symbols");
+            for (Object constant : c.getEnumConstants()) {
+                symbols.add(((Enum<?>) constant).name());
+            }
+        } else {
+            node.put("type", "record");
+            ArrayNode fields = node.putArray("fields");
+            for (Field field : ReflectionUtils.findFields(c)) {
+                JsonNode fieldSchema = schemaNode(field.getGenericType(), field.getType(), defined);
+                if (!field.getType().isPrimitive()) {
+                    ArrayNode union = JsonNodeFactory.instance.arrayNode();
+                    union.add("null");
+                    union.add(fieldSchema);
+                    fieldSchema = union;
+                }
+                ObjectNode fieldNode = fields.addObject();
+                fieldNode.put("name", field.getName());
+                fieldNode.put("type", fieldSchema);
+            }
+        }
+        return node;
+    }
+
+    // Nested classes are named after their enclosing classes.
+    private static String namespace(Class<?> c) {
+        Class<?> enclosing = c.getEnclosingClass();
+        if (enclosing != null) {
+            String namespace = namespace(enclosing);
+            return null == namespace ? enclosing.getSimpleName() : namespace + "." + enclosing.getSimpleName();
+        }
+        Package p = c.getPackage();
+        return null == p || p.getName().isEmpty() ? null : p.getName();
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (!(type instanceof ParameterizedType)) {
+            throw new BaijiRuntimeException("Unsupported raw type: " + type);
+        }
+        return ((ParameterizedType) type).getActualTypeArguments()[index];
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        throw new BaijiRuntimeException("Unsupported type: " + type);
+    }
+
+    private static JsonNode text(String value) {
+        return JsonNodeFactory.instance.textNode(value);
+    }
+}
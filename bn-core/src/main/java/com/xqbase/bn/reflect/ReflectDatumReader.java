@@ -0,0 +1,32 @@
+package com.xqbase.bn.reflect;
+
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificDatumReader;
+
+/**
+ * {@link com.xqbase.bn.io.DatumReader} for plain Java classes, using the
+ * schema derived by {@link ReflectData}.
+ *
+ * @author Tony He
+ */
+public class ReflectDatumReader<T> extends SpecificDatumReader<T> {
+
+    public ReflectDatumReader(Class<T> c) {
+        this(ReflectData.get().getSchema(c), ReflectData.get());
+    }
+
+    public ReflectDatumReader(Schema schema) {
+        super(schema, ReflectData.get());
+    }
+
+    public ReflectDatumReader(Schema schema, ReflectData data) {
+        super(schema, data);
+    }
+
+    /**
+     * Reads data written with the <tt>writer</tt> schema into instances of the class.
+     */
+    public ReflectDatumReader(Schema writer, Class<T> c) {
+        super(writer, ReflectData.get().getSchema(c), ReflectData.get());
+    }
+}
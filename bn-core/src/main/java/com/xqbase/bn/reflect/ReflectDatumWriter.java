@@ -0,0 +1,25 @@
+package com.xqbase.bn.reflect;
+
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificDatumWriter;
+
+/**
+ * {@link com.xqbase.bn.io.DatumWriter} for plain Java classes, using the
+ * schema derived by {@link ReflectData}.
+ *
+ * @author Tony He
+ */
+public class ReflectDatumWriter<T> extends SpecificDatumWriter<T> {
+
+    public ReflectDatumWriter(Class<T> c) {
+        this(ReflectData.get().getSchema(c), ReflectData.get());
+    }
+
+    public ReflectDatumWriter(Schema schema) {
+        super(schema, ReflectData.get());
+    }
+
+    public ReflectDatumWriter(Schema schema, ReflectData data) {
+        super(schema, data);
+    }
+}
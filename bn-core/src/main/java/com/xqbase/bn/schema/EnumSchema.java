@@ -80,7 +80,7 @@ public class EnumSchema extends NamedSchema implements Iterable<String> {
     }
 
     public boolean contains(String symbol) {
-        return this.symbols.contains(symbol);
+        return this.ordinals.containsKey(symbol);
     }
 
     @Override
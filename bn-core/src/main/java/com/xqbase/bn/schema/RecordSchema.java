@@ -16,10 +16,21 @@ import java.util.*;
  */
 public class RecordSchema extends NamedSchema implements Iterable<Field> {
 
+    /** The property selecting the binary encoding of a record. */
+    public static final String ENCODING_PROPERTY = "encoding";
+    /** The encoding that writes a presence bitmap followed by the non-null fields only. */
+    public static final String SPARSE_ENCODING = "sparse";
+
     private final List<Field> fields;
     private final Map<String, Field> fieldLookup;
     private final Map<String, Field> fieldAliasLookup;
 
+    // the presence bit of each field, or -1; computed on first use, once all fields are parsed.
+    private volatile int[] presenceBits;
+    private int presenceBitCount;
+    // the branch a set presence bit stands for, or -1 if the union index is written.
+    private int[] presentBranches;
+
     private static final ThreadLocal<Set<RecordSchemaPair>> SEEN = new ThreadLocal<Set<RecordSchemaPair>>() {
         protected Set<RecordSchemaPair> initialValue() {
             return new HashSet<>();
@@ -66,7 +77,7 @@ public class RecordSchema extends NamedSchema implements Iterable<Field> {
         RecordSchema result = new RecordSchema(name, doc, aliases, props, fieldList, fieldMap,
                 fieldAliasMap, names);
 
-        int pos = 1;
+        int pos = 0;
         for (JsonNode field : fieldsNode) {
             String fieldName = JsonHelper.getRequiredString(field, "name", "Field node has no name field");
             Field f = createFiled(field, pos++, names);
@@ -153,9 +164,80 @@ public class RecordSchema extends NamedSchema implements Iterable<Field> {
         return fieldAliasLookup.get(alias.toLowerCase());
     }
 
+    /**
+     * Returns whether records of this schema are written in the sparse binary encoding:
+     * a bitmap with a bit for each field of a union with null, followed by the fields
+     * that are not null. Set by the property <tt>"encoding": "sparse"</tt>.
+     */
+    public boolean isSparse() {
+        return getPropertyMap() != null && SPARSE_ENCODING.equals(getPropertyMap().get(ENCODING_PROPERTY));
+    }
+
+    /**
+     * Returns the presence bit of the field at <tt>pos</tt> in the sparse encoding,
+     * or -1 if the field is not nullable and hence always written.
+     */
+    public int getPresenceBit(int pos) {
+        return presenceBits()[pos];
+    }
+
+    /**
+     * Returns the branch of the nullable union of the field at <tt>pos</tt> that a set
+     * presence bit stands for, if the union has no other branch than it and null, or -1.
+     * The sparse encoding leaves out the union index of such a field.
+     */
+    public int getPresentBranch(int pos) {
+        presenceBits();
+        return presentBranches[pos];
+    }
+
+    /**
+     * Returns the number of bytes of the presence bitmap in the sparse encoding.
+     */
+    public int getPresenceBytes() {
+        presenceBits();
+        return (presenceBitCount + 7) >>> 3;
+    }
+
+    private int[] presenceBits() {
+        int[] bits = presenceBits;
+        if (null == bits) {
+            bits = new int[fields.size()];
+            int[] branches = new int[bits.length];
+            int count = 0;
+            for (int i = 0; i < bits.length; i++) {
+                Schema schema = fields.get(i).getSchema();
+                bits[i] = isNullable(schema) ? count++ : -1;
+                branches[i] = bits[i] >= 0 && ((UnionSchema) schema).size() == 2
+                        ? 1 - nullIndex((UnionSchema) schema) : -1;
+            }
+            presenceBitCount = count;
+            presentBranches = branches;
+            presenceBits = bits;
+        }
+        return bits;
+    }
+
+    private static boolean isNullable(Schema schema) {
+        return schema.getType() == SchemaType.UNION && nullIndex((UnionSchema) schema) >= 0;
+    }
+
+    private static int nullIndex(UnionSchema schema) {
+        List<Schema> branches = schema.getSchemas();
+        for (int i = 0; i < branches.size(); i++) {
+            if (branches.get(i).getType() == SchemaType.NULL) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     protected void writeJsonFields(JsonGenerator gen, SchemaNames names) throws IOException {
         super.writeJsonFields(gen, names);
+        if (isSparse()) {
+            gen.writeStringField(ENCODING_PROPERTY, SPARSE_ENCODING);
+        }
 
         gen.writeFieldName("fields");
         gen.writeStartArray();
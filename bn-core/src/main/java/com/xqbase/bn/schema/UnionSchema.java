@@ -85,6 +85,16 @@ public class UnionSchema extends UnnamedSchema {
 
     }
 
+    /**
+     * Returns the index of the branch with the given name, or null if there is none.
+     *
+     * @param name Name of the branch, the simple name for named schemas.
+     * @return The index of the branch.
+     */
+    public Integer getIndexNamed(String name) {
+        return indexByName.get(name);
+    }
+
     @Override
     protected void writeJSON(JsonGenerator gen, SchemaNames names) throws IOException {
         gen.writeStartArray();
@@ -1,6 +1,18 @@
 package com.xqbase.bn.specific;
 
+import com.google.common.collect.MapMaker;
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
 import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.NamedSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utilities for generated Java classes.
@@ -11,6 +23,15 @@ public class SpecificData extends GenericData {
 
     private static final SpecificData INSTANCE = new SpecificData();
 
+    // marks schemas without a generated class
+    private static final Class<?> NO_CLASS = new Object() {}.getClass();
+
+    private final Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+    // the no-arg constructors of generated record classes.
+    private final Map<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<>();
+    // Java enum constants by ordinal, keyed by enum schema identity.
+    private final Map<EnumSchema, Object[]> enumConstants = new MapMaker().weakKeys().makeMap();
+
     public SpecificData() {}
 
     public SpecificData(ClassLoader classLoader) {
@@ -20,4 +41,105 @@ public class SpecificData extends GenericData {
     public static SpecificData get() {
         return INSTANCE;
     }
+
+    /**
+     * Returns the generated class named by the schema's full name, or null if there is none.
+     */
+    public Class<?> getClass(NamedSchema schema) {
+        String name = schema.getFullName();
+        Class<?> c = classCache.get(name);
+        if (null == c) {
+            try {
+                c = Class.forName(name, true, getClassLoader());
+            } catch (ClassNotFoundException e) {
+                c = NO_CLASS;
+            }
+            classCache.put(name, c);
+        }
+        return c == NO_CLASS ? null : c;
+    }
+
+    @Override
+    public Object newRecord(Object reuse, RecordSchema schema) {
+        Class<?> c = getClass(schema);
+        if (null == c) {
+            return super.newRecord(reuse, schema);
+        }
+        if (c.isInstance(reuse)) {
+            return reuse;
+        }
+        Constructor<?> constructor = constructors.get(c);
+        try {
+            if (null == constructor) {
+                constructor = c.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                constructors.put(c, constructor);
+            }
+            return constructor.newInstance();
+        } catch (InvocationTargetException e) {
+            throw new BaijiRuntimeException("Failed to instantiate " + c.getName(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new BaijiRuntimeException("Failed to instantiate " + c.getName(), e);
+        }
+    }
+
+    @Override
+    protected boolean accepts(Schema schema, Class<?> c) {
+        if (schema instanceof NamedSchema) {
+            Class<?> generated = getClass((NamedSchema) schema);
+            if (generated != null) {
+                return generated == c;
+            }
+        }
+        return super.accepts(schema, c);
+    }
+
+    @Override
+    public Object createEnum(String symbol, EnumSchema schema) {
+        Class<?> c = getClass(schema);
+        if (null == c || !c.isEnum()) {
+            return super.createEnum(symbol, schema);
+        }
+        for (Object constant : c.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(symbol)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("No enum constant " + c.getName() + "." + symbol);
+    }
+
+    /**
+     * Returns the constant of the generated enum at <tt>ordinal</tt>, from an array
+     * of constants built once per schema.
+     */
+    @Override
+    public Object createEnum(int ordinal, EnumSchema schema) {
+        Object[] constants = enumConstants.get(schema);
+        if (null == constants) {
+            constants = newEnumConstants(schema);
+            enumConstants.put(schema, constants);
+        }
+        if (0 == constants.length) {
+            return super.createEnum(ordinal, schema);
+        }
+        Object constant = constants[ordinal];
+        // symbols missing from the generated enum fail as they would by name
+        return constant != null ? constant : createEnum(schema.getEnumSymbols().get(ordinal), schema);
+    }
+
+    private Object[] newEnumConstants(EnumSchema schema) {
+        Class<?> c = getClass(schema);
+        if (null == c || !c.isEnum()) {
+            return new Object[0];
+        }
+        List<String> symbols = schema.getEnumSymbols();
+        Object[] constants = new Object[symbols.size()];
+        for (Object constant : c.getEnumConstants()) {
+            int ordinal = symbols.indexOf(((Enum<?>) constant).name());
+            if (ordinal >= 0) {
+                constants[ordinal] = constant;
+            }
+        }
+        return constants;
+    }
 }
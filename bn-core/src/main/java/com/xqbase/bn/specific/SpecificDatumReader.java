@@ -11,6 +11,14 @@ import com.xqbase.bn.schema.Schema;
 public class SpecificDatumReader<T> extends GenericDatumReader<T> {
 
     public SpecificDatumReader(Schema schema) {
-        super(schema);
+        super(schema, SpecificData.get());
+    }
+
+    public SpecificDatumReader(Schema schema, SpecificData data) {
+        super(schema, data);
+    }
+
+    public SpecificDatumReader(Schema writer, Schema reader, SpecificData data) {
+        super(writer, reader, data);
     }
 }
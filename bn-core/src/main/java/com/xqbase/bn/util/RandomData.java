@@ -0,0 +1,342 @@
+package com.xqbase.bn.util;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.MapSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.schema.SchemaType;
+import com.xqbase.bn.schema.UnionSchema;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates random datums valid for a schema, in the representation the datum
+ * readers of a {@link GenericData} produce. With a
+ * {@link com.xqbase.bn.specific.SpecificData}, records are instances of their
+ * generated classes.
+ * <p/>
+ * The lengths of strings and bytes and the sizes of arrays and maps are drawn
+ * from configurable {@link Sizes}, and nullable unions are null with a given
+ * probability, so that datums can be shaped like production traffic. The same
+ * seed and settings give the same datums.
+ * <p/>
+ * Recursive schemas are cut off below a maximum depth, by choosing the null
+ * branch of unions and leaving arrays and maps empty. Strings mix ASCII with
+ * characters outside of it, including supplementary ones. RandomData is not thread safe.
+ *
+ * @author Tony He
+ */
+public class RandomData {
+
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    // inclusive code point ranges strings are drawn from, each equally likely: ASCII letters
+    // and digits, then characters of two (Latin, Greek), three (CJK) and four (emoji, CJK
+    // extension B) bytes in UTF-8, the last two as surrogate pairs in a String
+    private static final int[] CODE_POINTS = {
+            '0', '9', 'A', 'Z', 'a', 'z',
+            0xC0, 0x24F, 0x391, 0x3C9,
+            0x4E00, 0x9FFF,
+            0x1F300, 0x1F64F, 0x20000, 0x2A6DF};
+
+    private final GenericData data;
+    private final Random random;
+    private Sizes stringLengths = Sizes.uniform(0, 16);
+    private Sizes bytesLengths = Sizes.uniform(0, 16);
+    private Sizes arraySizes = Sizes.uniform(0, 16);
+    private Sizes mapSizes = Sizes.uniform(0, 16);
+    // the probability of null for unions with a null branch, or negative to pick branches uniformly
+    private double nullProbability = -1;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int depth;
+
+    /**
+     * Creates a generator of generic datums.
+     */
+    public RandomData(long seed) {
+        this(GenericData.get(), seed);
+    }
+
+    public RandomData(GenericData data, long seed) {
+        if (null == data) {
+            throw new NullPointerException("data cannot be null");
+        }
+        this.data = data;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * A distribution of lengths or sizes.
+     */
+    public interface Sizes {
+
+        /**
+         * Returns a size, not negative.
+         */
+        int next(Random random);
+
+        /**
+         * Always <tt>size</tt>.
+         */
+        static Sizes fixed(final int size) {
+            checkSize(size);
+            return new Sizes() {
+                @Override
+                public int next(Random random) {
+                    return size;
+                }
+            };
+        }
+
+        /**
+         * Uniform between <tt>min</tt> and <tt>max</tt>, inclusive.
+         */
+        static Sizes uniform(final int min, final int max) {
+            checkSize(min);
+            if (max < min) {
+                throw new IllegalArgumentException("max " + max + " is less than min " + min);
+            }
+            return new Sizes() {
+                @Override
+                public int next(Random random) {
+                    return min + random.nextInt(max - min + 1);
+                }
+            };
+        }
+
+        /**
+         * Geometric with the given mean, capped at <tt>max</tt>: mostly small, with
+         * a long tail, as the sizes of collections usually are.
+         */
+        static Sizes geometric(final double mean, final int max) {
+            if (!(mean > 0)) {
+                throw new IllegalArgumentException("mean must be positive: " + mean);
+            }
+            checkSize(max);
+            final double p = 1 / (mean + 1);
+            return new Sizes() {
+                @Override
+                public int next(Random random) {
+                    double size = Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+                    return (int) Math.min(size, max);
+                }
+            };
+        }
+
+        /**
+         * One of <tt>sizes</tt>, each equally likely. Repeat a size to weight it,
+         * for instance to replay sizes sampled from production.
+         */
+        static Sizes oneOf(int... sizes) {
+            if (sizes.length == 0) {
+                throw new IllegalArgumentException("sizes cannot be empty");
+            }
+            final int[] copy = sizes.clone();
+            for (int size : copy) {
+                checkSize(size);
+            }
+            return new Sizes() {
+                @Override
+                public int next(Random random) {
+                    return copy[random.nextInt(copy.length)];
+                }
+            };
+        }
+    }
+
+    private static void checkSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size cannot be negative: " + size);
+        }
+    }
+
+    /**
+     * Sets the distribution of string lengths, in UTF-16 chars, and of map keys.
+     */
+    public RandomData setStringLengths(Sizes stringLengths) {
+        this.stringLengths = checkNotNull(stringLengths);
+        return this;
+    }
+
+    public RandomData setBytesLengths(Sizes bytesLengths) {
+        this.bytesLengths = checkNotNull(bytesLengths);
+        return this;
+    }
+
+    public RandomData setArraySizes(Sizes arraySizes) {
+        this.arraySizes = checkNotNull(arraySizes);
+        return this;
+    }
+
+    public RandomData setMapSizes(Sizes mapSizes) {
+        this.mapSizes = checkNotNull(mapSizes);
+        return this;
+    }
+
+    /**
+     * Sets the probability that a union with a null branch is null. The other
+     * branches share the rest equally. By default all branches are equally likely.
+     */
+    public RandomData setNullProbability(double nullProbability) {
+        if (!(nullProbability >= 0 && nullProbability <= 1)) {
+            throw new IllegalArgumentException("nullProbability must be between 0 and 1: " + nullProbability);
+        }
+        this.nullProbability = nullProbability;
+        return this;
+    }
+
+    /**
+     * Sets the depth of nested records, arrays and maps below which collections
+     * are left empty and nullable unions are null.
+     */
+    public RandomData setMaxDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be positive: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    private static Sizes checkNotNull(Sizes sizes) {
+        if (null == sizes) {
+            throw new NullPointerException("sizes cannot be null");
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns <tt>count</tt> random datums of <tt>schema</tt>.
+     */
+    public List<Object> generate(Schema schema, int count) {
+        List<Object> datums = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            datums.add(generate(schema));
+        }
+        return datums;
+    }
+
+    /**
+     * Returns a random datum of <tt>schema</tt>.
+     */
+    public Object generate(Schema schema) {
+        switch (schema.getType()) {
+            case RECORD:
+                return generateRecord((RecordSchema) schema);
+            case ENUM:
+                EnumSchema enumSchema = (EnumSchema) schema;
+                return data.createEnum(random.nextInt(enumSchema.size()), enumSchema);
+            case ARRAY:
+                Schema itemSchema = ((ArraySchema) schema).getItemSchema();
+                int size = nestedSize(arraySizes);
+                List<Object> array = new ArrayList<>(size);
+                depth++;
+                try {
+                    for (int i = 0; i < size; i++) {
+                        array.add(generate(itemSchema));
+                    }
+                } finally {
+                    depth--;
+                }
+                return array;
+            case MAP:
+                Schema valueSchema = ((MapSchema) schema).getValueSchema();
+                int entries = nestedSize(mapSizes);
+                Map<String, Object> map = new HashMap<>();
+                depth++;
+                try {
+                    for (int i = 0; i < entries; i++) {
+                        map.put(randomString(stringLengths.next(random)), generate(valueSchema));
+                    }
+                } finally {
+                    depth--;
+                }
+                return map;
+            case UNION:
+                return generate(chooseBranch((UnionSchema) schema));
+            case STRING:
+                return randomString(stringLengths.next(random));
+            case BYTES:
+                byte[] bytes = new byte[bytesLengths.next(random)];
+                random.nextBytes(bytes);
+                return ByteBuffer.wrap(bytes);
+            case INT:
+                return random.nextInt();
+            case LONG:
+                return random.nextLong();
+            case FLOAT:
+                return random.nextFloat();
+            case DOUBLE:
+                return random.nextDouble();
+            case DATETIME:
+                // between 1970 and 2100, in whole milliseconds
+                return Instant.ofEpochMilli((long) (random.nextDouble() * 4102444800000L));
+            case BOOLEAN:
+                return random.nextBoolean();
+            case NULL:
+                return null;
+            default:
+                throw new BaijiRuntimeException("Unknown type: " + schema);
+        }
+    }
+
+    private Object generateRecord(RecordSchema schema) {
+        Object record = data.newRecord(null, schema);
+        depth++;
+        try {
+            for (Field field : schema.getFields()) {
+                data.setField(record, field.getName(), field.getPos(), generate(field.getSchema()));
+            }
+        } finally {
+            depth--;
+        }
+        return record;
+    }
+
+    private Schema chooseBranch(UnionSchema schema) {
+        int nullIndex = -1;
+        List<Schema> branches = schema.getSchemas();
+        for (int i = 0; i < branches.size(); i++) {
+            if (branches.get(i).getType() == SchemaType.NULL) {
+                nullIndex = i;
+                break;
+            }
+        }
+        if (nullIndex < 0 || (depth < maxDepth && nullProbability < 0)) {
+            return schema.get(random.nextInt(schema.size()));
+        }
+        if (depth >= maxDepth || schema.size() == 1 || random.nextDouble() < nullProbability) {
+            return schema.get(nullIndex);
+        }
+        int index = random.nextInt(schema.size() - 1);
+        return schema.get(index < nullIndex ? index : index + 1);
+    }
+
+    private int nestedSize(Sizes sizes) {
+        return depth >= maxDepth ? 0 : sizes.next(random);
+    }
+
+    /**
+     * Returns a string of <tt>length</tt> chars, never splitting a surrogate pair.
+     */
+    private String randomString(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int range = random.nextInt(CODE_POINTS.length / 2) * 2;
+            int codePoint = CODE_POINTS[range] + random.nextInt(CODE_POINTS[range + 1] - CODE_POINTS[range] + 1);
+            if (sb.length() + Character.charCount(codePoint) <= length) {
+                sb.appendCodePoint(codePoint);
+            }
+        }
+        return sb.toString();
+    }
+}
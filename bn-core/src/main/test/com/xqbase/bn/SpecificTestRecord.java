@@ -0,0 +1,25 @@
+package com.xqbase.bn;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+
+/**
+ * A record class standing in for generated code, for the tests of serializers,
+ * their plans and metrics.
+ *
+ * @author Tony He
+ */
+public class SpecificTestRecord extends GenericData.Record implements SpecificRecord {
+
+    public static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+            "\"name\":\"SpecificTestRecord\", \"namespace\":\"com.xqbase.bn\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"name\", \"type\":\"string\"}, " +
+            "{\"name\":\"tags\", \"type\":{\"type\":\"array\", \"items\":\"string\"}}, " +
+            "{\"name\":\"note\", \"type\":[\"null\", \"string\"], \"default\":null}]}");
+
+    public SpecificTestRecord() {
+        super(SCHEMA);
+    }
+}
@@ -0,0 +1,237 @@
+package com.xqbase.bn;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.metrics.SerializerMetrics;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificRecord;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SerializerPlan}.
+ *
+ * @author Tony He
+ */
+public class TestSerializerPlan {
+
+    /**
+     * A class no other test serializes, so serializing it looks its plan up for the first time.
+     * It reads back as a {@link SpecificTestRecord}, the class its schema names.
+     */
+    static class FirstUseRecord extends SpecificTestRecord {
+    }
+
+    @Test
+    public void testPlansAreCached() {
+        SerializerPlan<SpecificTestRecord> plan =
+                SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.BINARY);
+        assertSame(plan, SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.BINARY));
+        assertNotSame(plan, SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.JSON));
+        assertSame(SpecificTestRecord.SCHEMA, plan.getSchema());
+        assertSame(SpecificTestRecord.SCHEMA, plan.getWriterSchema());
+        assertNull(plan.getJsonGrammar());
+        assertNotNull(SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.JSON).getJsonGrammar());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        SpecificTestRecord record = makeRecord(1);
+        for (SerializerPlan.Format format : SerializerPlan.Format.values()) {
+            SerializerPlan<SpecificTestRecord> plan = SerializerPlan.get(SpecificTestRecord.class, format);
+            for (int i = 0; i < 3; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                plan.write(record, out);
+                assertEquals(record, plan.read(null, new ByteArrayInputStream(out.toByteArray())));
+            }
+        }
+        for (Serializer serializer : new Serializer[]{new BinarySerializer(), new JSONSerializer()}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            serializer.serialize(record, out);
+            assertEquals(record, serializer.deserialize(SpecificTestRecord.class,
+                    new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+
+    @Test
+    public void testFirstSerialization() throws IOException {
+        FirstUseRecord record = new FirstUseRecord();
+        record.putLong(0, 3L);
+        record.put(1, "first");
+        record.put(2, Arrays.asList("t"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinarySerializer().serialize(record, out);
+        SpecificTestRecord result = new BinarySerializer().deserialize(SpecificTestRecord.class,
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(3L, result.get(0));
+        assertEquals("first", result.get(1));
+        assertEquals(Arrays.asList("t"), result.get(2));
+        assertNull(result.get(3));
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        final SerializerPlan<SpecificTestRecord> plan =
+                SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.BINARY);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        for (int i = 0; i < 200; i++) {
+                            SpecificTestRecord record = makeRecord(seed * 1000 + i);
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            plan.write(record, out);
+                            if (!record.equals(plan.read(null, new ByteArrayInputStream(out.toByteArray())))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriterSchema() throws IOException {
+        RecordSchema old = (RecordSchema) Schema.parse("{\"type\":\"record\", " +
+                "\"name\":\"SpecificTestRecord\", \"namespace\":\"com.xqbase.bn\", " +
+                "\"fields\":[{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"name\", \"type\":\"string\"}, " +
+                "{\"name\":\"tags\", \"type\":{\"type\":\"array\", \"items\":\"string\"}}]}");
+        GenericData.Record written = new GenericData.Record(old);
+        written.putLong(0, 7L);
+        written.put(1, "old");
+        written.put(2, Arrays.asList("a"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encoder encoder = new DirectBinaryEncoder(out);
+        new GenericDatumWriter<GenericData.Record>(old).write(written, encoder);
+        encoder.flush();
+
+        SerializerPlan<SpecificTestRecord> plan =
+                SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.BINARY, old);
+        assertSame(plan, SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.BINARY, old));
+        assertSame(old, plan.getWriterSchema());
+        SpecificTestRecord record = plan.read(null, new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(7L, record.get(0));
+        assertEquals("old", record.get(1));
+        assertNull(record.get(3));
+        try {
+            plan.write(record, new ByteArrayOutputStream());
+            fail("A plan for another writer schema cannot write");
+        } catch (BaijiRuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void testWarmUp() throws IOException {
+        Serializers.warmUp(Collections.<Class<? extends SpecificRecord>>singleton(SpecificTestRecord.class), 50);
+        SerializerMetrics.reset();
+        SerializerMetrics.setEnabled(true);
+        try {
+            new JSONSerializer().serialize(makeRecord(1), new ByteArrayOutputStream());
+            assertEquals(1, SerializerMetrics.get(SpecificTestRecord.SCHEMA).getWriterCache().getHits());
+        } finally {
+            SerializerMetrics.setEnabled(false);
+            SerializerMetrics.reset();
+        }
+    }
+
+    @Test
+    public void testJsonWriteRecyclesBuffers() throws IOException {
+        final SerializerPlan<SpecificTestRecord> plan =
+                SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.JSON);
+        final SpecificTestRecord record = makeRecord(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long allocated = allocatedPerCall(new Call() {
+            @Override
+            public void run() throws IOException {
+                out.reset();
+                plan.write(record, out);
+            }
+        });
+        // a generator left open allocates its 8 KB output buffer on every write
+        Assume.assumeTrue(allocated >= 0);
+        assertTrue("JSON write allocated " + allocated + " bytes per record", allocated < 2048);
+    }
+
+    @Test
+    public void testJsonReadRecyclesBuffers() throws IOException {
+        final SerializerPlan<SpecificTestRecord> plan =
+                SerializerPlan.get(SpecificTestRecord.class, SerializerPlan.Format.JSON);
+        final SpecificTestRecord record = makeRecord(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        plan.write(record, out);
+        final byte[] json = out.toByteArray();
+        long allocated = allocatedPerCall(new Call() {
+            @Override
+            public void run() throws IOException {
+                plan.read(record, new ByteArrayInputStream(json));
+            }
+        });
+        // a parser left open allocates its input buffers on every read
+        Assume.assumeTrue(allocated >= 0);
+        assertTrue("JSON read allocated " + allocated + " bytes per record", allocated < 2048);
+    }
+
+    private interface Call {
+        void run() throws IOException;
+    }
+
+    /**
+     * Returns the bytes allocated by one call, after warming it up, or -1 if
+     * allocation cannot be measured.
+     */
+    private static long allocatedPerCall(Call call) throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < 10000; i++) {
+            call.run();
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            call.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / 10000;
+    }
+
+    private static SpecificTestRecord makeRecord(int i) {
+        SpecificTestRecord record = new SpecificTestRecord();
+        record.putLong(0, i);
+        record.put(1, "name" + i);
+        record.put(2, Arrays.asList("t" + i, "u"));
+        record.put(3, i % 2 == 0 ? null : "note" + i);
+        return record;
+    }
+}
@@ -0,0 +1,120 @@
+package com.xqbase.bn.columnar;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.generic.GenericEnum;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ColumnarCodec} and {@link ColumnBatch}.
+ *
+ * @author Tony He
+ */
+public class TestColumnarCodec {
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"n\", \"type\":\"int\"}, " +
+            "{\"name\":\"t\", \"type\":\"datetime\"}, {\"name\":\"price\", \"type\":\"double\"}, " +
+            "{\"name\":\"flag\", \"type\":\"boolean\"}, {\"name\":\"city\", \"type\":\"string\"}, " +
+            "{\"name\":\"e\", \"type\":{\"type\":\"enum\", \"name\":\"e\", \"symbols\":[\"s1\", \"s2\"]}}, " +
+            "{\"name\":\"note\", \"type\":[\"null\", \"string\"]}, {\"name\":\"score\", \"type\":[\"null\", \"float\"]}, " +
+            "{\"name\":\"tags\", \"type\":{\"type\":\"array\", \"items\":\"string\"}}]}");
+
+    private static final String[] CITIES = {"Shanghai", "Beijing", "Shenzhen"};
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<GenericData.Record> records = makeRecords(100);
+        ColumnBatch<GenericData.Record> batch = roundTrip(records);
+        assertEquals(100, batch.size());
+        assertEquals(records, new ArrayList<>(batch.asList()));
+    }
+
+    @Test
+    public void testColumnVectors() throws IOException {
+        ColumnBatch<GenericData.Record> batch = roundTrip(makeRecords(10));
+        long[] ids = batch.getLongs(0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1000L + i * 3, ids[i]);
+            assertEquals(-i, batch.getInt(1, i));
+            assertEquals(i * 0.5, batch.getDoubles(3)[i], 0);
+            assertEquals(i % 2 == 0, batch.getBooleans(4).get(i));
+            assertEquals(CITIES[i % 3], batch.getString(5, i));
+            assertEquals(i % 2, batch.getLongs(6)[i]);
+            assertEquals(i % 3 != 0, batch.isNull(7, i));
+            assertEquals(i % 4 == 0, batch.isNull(8, i));
+        }
+        assertEquals(3, batch.getDictionary(5).length);
+        assertNull(batch.getString(7, 1));
+        assertEquals("note0", batch.getString(7, 0));
+    }
+
+    @Test
+    public void testSmallerThanRowEncoding() throws IOException {
+        List<GenericData.Record> records = makeRecords(1000);
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        Encoder encoder = new DirectBinaryEncoder(rows);
+        GenericDatumWriter<GenericData.Record> writer = new GenericDatumWriter<>(SCHEMA);
+        for (GenericData.Record record : records) {
+            writer.write(record, encoder);
+        }
+        encoder.flush();
+        assertTrue(write(records).length < rows.size());
+    }
+
+    @Test
+    public void testEmptyBatch() throws IOException {
+        ColumnBatch<GenericData.Record> batch = roundTrip(Collections.<GenericData.Record>emptyList());
+        assertEquals(0, batch.size());
+        assertTrue(batch.asList().isEmpty());
+    }
+
+    private static ColumnBatch<GenericData.Record> roundTrip(List<GenericData.Record> records) throws IOException {
+        byte[] bytes = write(records);
+        return new ColumnarCodec(SCHEMA).read(new DirectBinaryDecoder(new ByteArrayInputStream(bytes)));
+    }
+
+    private static byte[] write(List<GenericData.Record> records) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encoder encoder = new DirectBinaryEncoder(out);
+        new ColumnarCodec(SCHEMA).write(records, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static List<GenericData.Record> makeRecords(int count) {
+        EnumSchema enumSchema = (EnumSchema) SCHEMA.getField("e").getSchema();
+        List<GenericData.Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GenericData.Record record = new GenericData.Record(SCHEMA);
+            record.putLong(0, 1000L + i * 3);
+            record.putInt(1, -i);
+            record.putDatetimeMillis(2, 1431648000000L + i * 1000L);
+            record.putDouble(3, i * 0.5);
+            record.putBoolean(4, i % 2 == 0);
+            record.put(5, CITIES[i % 3]);
+            record.put(6, new GenericEnum(enumSchema, i % 2 == 0 ? "s1" : "s2"));
+            record.put(7, i % 3 == 0 ? "note" + i : null);
+            record.put(8, i % 4 == 0 ? null : (float) i);
+            record.put(9, Arrays.asList("a", "b" + i));
+            records.add(record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,263 @@
+package com.xqbase.bn.generic;
+
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Asserts that writing and reading a record with reuse stays under a budget of
+ * bytes allocated per message, for the schema shapes of the generic tests, and
+ * for reads resolving the writer's schema against another reader schema.
+ * Allocation is measured per thread by {@link com.sun.management.ThreadMXBean},
+ * after the code paths have been warmed up.
+ *
+ * @author Tony He
+ */
+@RunWith(Parameterized.class)
+public class TestAllocation {
+
+    private static final int WARMUP = 20000;
+    private static final int MESSAGES = 20000;
+
+    private static final RecordSchema PRIMITIVES = record("{\"name\":\"b\", \"type\":\"boolean\"}, " +
+            "{\"name\":\"i\", \"type\":\"int\"}, {\"name\":\"l\", \"type\":\"long\"}, " +
+            "{\"name\":\"f\", \"type\":\"float\"}, {\"name\":\"d\", \"type\":\"double\"}, " +
+            "{\"name\":\"t\", \"type\":\"datetime\"}");
+    private static final RecordSchema ENUM = record("{\"name\":\"e\", \"type\":{\"type\":\"enum\", " +
+            "\"name\":\"e\", \"symbols\":[\"s1\", \"s2\"]}}");
+    private static final RecordSchema ARRAY = record("{\"name\":\"a\", \"type\":{\"type\":\"array\", " +
+            "\"items\":{\"type\":\"record\", \"name\":\"p\", \"fields\":[{\"name\":\"x\", \"type\":\"int\"}, " +
+            "{\"name\":\"y\", \"type\":\"double\"}]}}}");
+    private static final RecordSchema UNION = record("{\"name\":\"u1\", \"type\":[\"null\", \"long\"]}, " +
+            "{\"name\":\"u2\", \"type\":[\"int\", \"double\"]}, {\"name\":\"u3\", \"type\":[\"null\", \"boolean\"]}");
+    private static final RecordSchema MAP = record("{\"name\":\"m\", \"type\":{\"type\":\"map\", \"values\":\"int\"}}");
+    private static final RecordSchema STRING = record("{\"name\":\"s\", \"type\":\"string\"}");
+
+    // read with a reader schema other than the writer's
+    private static final RecordSchema FIELDS_WRITER = record("{\"name\":\"a\", \"type\":\"int\"}, " +
+            "{\"name\":\"skipped\", \"type\":{\"type\":\"array\", \"items\":\"string\"}}, " +
+            "{\"name\":\"b\", \"type\":\"long\"}");
+    private static final RecordSchema FIELDS_READER = record("{\"name\":\"b\", \"type\":\"long\"}, " +
+            "{\"name\":\"a\", \"type\":\"int\"}");
+    private static final RecordSchema DEFAULTS_READER = record("{\"name\":\"i\", \"type\":\"int\"}, " +
+            "{\"name\":\"n\", \"type\":\"long\", \"default\":7}, " +
+            "{\"name\":\"u\", \"type\":[\"null\", \"int\"], \"default\":null}, " +
+            "{\"name\":\"s\", \"type\":\"string\", \"default\":\"none\"}");
+    private static final RecordSchema UNION_WRITER = record("{\"name\":\"w\", \"type\":\"int\"}, " +
+            "{\"name\":\"x\", \"type\":[\"null\", \"double\"]}, {\"name\":\"y\", \"type\":\"boolean\"}");
+    private static final RecordSchema UNION_READER = record("{\"name\":\"w\", \"type\":[\"null\", \"long\"]}, " +
+            "{\"name\":\"x\", \"type\":\"double\"}, {\"name\":\"y\", \"type\":[\"boolean\", \"string\"]}");
+
+    private final Schema schema;
+    private final Schema reader;
+    private final Object datum;
+    // bytes allowed per message, see data() for what each one is made of
+    private final long writeBudget;
+    private final long readBudget;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    public TestAllocation(String name, Schema schema, Schema reader, Object datum, int writeBudget, int readBudget) {
+        this.schema = schema;
+        this.reader = reader;
+        this.datum = datum;
+        this.writeBudget = writeBudget;
+        this.readBudget = readBudget;
+    }
+
+    /**
+     * The budgets are made of what a message must allocate, rounded up to the next 16 bytes
+     * for the JIT to keep or drop the field iterator of a record as it pleases:
+     * <ul>
+     * <li>writing a record may allocate the iterator over its fields, 32 bytes,</li>
+     * <li>DirectBinaryEncoder.writeDouble allocates its 8 byte buffer, 24 bytes,</li>
+     * <li>a string is written through a new Utf8 and its bytes, 48 bytes for short strings,</li>
+     * <li>union values are stored boxed, 16 bytes per Double and 24 per Long beyond the cache,</li>
+     * <li>a string read is a new String and its chars, up to 96 bytes with the decoding scratch.</li>
+     * </ul>
+     * Everything else is read into the reused record, and must not allocate.
+     */
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(
+                // write: double buffer and field iterator; read: nothing
+                new Object[]{"primitives", PRIMITIVES, PRIMITIVES, primitives(), 64, 16},
+                // write: field iterator; read: nothing, as enum values are shared
+                new Object[]{"enum", ENUM, ENUM, enumRecord(), 48, 16},
+                // write: ten items of a double buffer and a field iterator, and the list iterator;
+                // read: nothing, as the items are reused
+                new Object[]{"array", ARRAY, ARRAY, arrayRecord(), 640, 16},
+                // write: the boxed double, its buffer and the field iterator; read: the boxed double
+                new Object[]{"union", UNION, UNION, unionRecord(), 80, 32},
+                // write: two keys through Utf8, the entry iterator and the field iterator;
+                // read: two new String keys, two HashMap nodes and the decoding scratch
+                new Object[]{"map", MAP, MAP, mapRecord(), 192, 320},
+                // write: one string through Utf8 and the field iterator; read: one String
+                new Object[]{"string", STRING, STRING, stringRecord(), 96, 128},
+                // write: two strings through Utf8 and two iterators; read: nothing, as skipped
+                // strings go to a scratch Utf8 and the fields are reordered by the program
+                new Object[]{"resolve-fields", FIELDS_WRITER, FIELDS_READER, fieldsRecord(), 192, 16},
+                // write: as primitives; read: the string default, decoded into a new String,
+                // while the other defaults are primitives or null
+                new Object[]{"resolve-defaults", PRIMITIVES, DEFAULTS_READER, primitives(), 64, 128},
+                // write: the boxed double, its buffer and the field iterator; read: the int
+                // promoted and boxed as a Long of the reader union, the others are not boxed
+                new Object[]{"resolve-unions", UNION_WRITER, UNION_READER, unionWriterRecord(), 80, 32});
+    }
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        final GenericDatumWriter<Object> writer = new GenericDatumWriter<>(schema);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        final Encoder encoder = new DirectBinaryEncoder(out);
+        long allocated = allocatedPerMessage(new Message() {
+            @Override
+            public void run() throws IOException {
+                out.reset();
+                writer.write(datum, encoder);
+            }
+        });
+        assertTrue("write allocated " + allocated + " bytes per message, budget " + writeBudget,
+                allocated <= writeBudget);
+    }
+
+    @Test
+    public void testReadWithReuse() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<>(schema).write(datum, new DirectBinaryEncoder(out));
+        final GenericDatumReader<Object> reader = new GenericDatumReader<>(schema, this.reader);
+        final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        final DirectBinaryDecoder decoder = new DirectBinaryDecoder(in);
+        final Object[] reuse = new Object[1];
+        long allocated = allocatedPerMessage(new Message() {
+            @Override
+            public void run() throws IOException {
+                in.reset();
+                reuse[0] = reader.read(reuse[0], decoder);
+            }
+        });
+        assertTrue("read allocated " + allocated + " bytes per message, budget " + readBudget,
+                allocated <= readBudget);
+    }
+
+    private interface Message {
+        void run() throws IOException;
+    }
+
+    private long allocatedPerMessage(Message message) throws IOException {
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            message.run();
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MESSAGES; i++) {
+            message.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / MESSAGES;
+    }
+
+    private static RecordSchema record(String fields) {
+        return (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" + fields + "]}");
+    }
+
+    private static GenericData.Record primitives() {
+        GenericData.Record record = new GenericData.Record(PRIMITIVES);
+        record.putBoolean(0, true);
+        record.putInt(1, 101);
+        record.putLong(2, 1L << 40);
+        record.putFloat(3, 1.5f);
+        record.putDouble(4, 2.5);
+        record.putDatetimeMillis(5, 1431648000123L);
+        return record;
+    }
+
+    private static GenericData.Record enumRecord() {
+        GenericData.Record record = new GenericData.Record(ENUM);
+        record.put(0, new GenericEnum((EnumSchema) ENUM.getField("e").getSchema(), "s2"));
+        return record;
+    }
+
+    private static GenericData.Record arrayRecord() {
+        RecordSchema pointSchema = (RecordSchema) ((ArraySchema) ARRAY.getField("a").getSchema()).getItemSchema();
+        List<Object> points = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            GenericData.Record point = new GenericData.Record(pointSchema);
+            point.putInt(0, i);
+            point.putDouble(1, i * 0.5);
+            points.add(point);
+        }
+        GenericData.Record record = new GenericData.Record(ARRAY);
+        record.put(0, points);
+        return record;
+    }
+
+    private static GenericData.Record unionRecord() {
+        GenericData.Record record = new GenericData.Record(UNION);
+        record.put(0, 5L);
+        record.put(1, 2.5);
+        record.put(2, null);
+        return record;
+    }
+
+    private static GenericData.Record fieldsRecord() {
+        GenericData.Record record = new GenericData.Record(FIELDS_WRITER);
+        record.putInt(0, 3);
+        record.put(1, Arrays.asList("skipped", "too"));
+        record.putLong(2, 1L << 40);
+        return record;
+    }
+
+    private static GenericData.Record unionWriterRecord() {
+        GenericData.Record record = new GenericData.Record(UNION_WRITER);
+        record.putInt(0, 1 << 20);
+        record.put(1, 2.5);
+        record.putBoolean(2, true);
+        return record;
+    }
+
+    private static GenericData.Record mapRecord() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        GenericData.Record record = new GenericData.Record(MAP);
+        record.put(0, map);
+        return record;
+    }
+
+    private static GenericData.Record stringRecord() {
+        GenericData.Record record = new GenericData.Record(STRING);
+        record.put(0, "text");
+        return record;
+    }
+}
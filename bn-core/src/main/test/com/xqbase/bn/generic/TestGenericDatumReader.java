@@ -0,0 +1,252 @@
+package com.xqbase.bn.generic;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.util.Utf8;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for object reuse and schema resolution in {@link GenericDatumReader}.
+ *
+ * @author Tony He
+ */
+public class TestGenericDatumReader {
+
+    private static final RecordSchema INNER = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"inner\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"int\"}, {\"name\":\"name\", \"type\":\"string\"}]}");
+
+    private static final RecordSchema OUTER = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"outer\", \"fields\":[" +
+            "{\"name\":\"items\", \"type\":{\"type\":\"array\", \"items\":" + INNER + "}}, " +
+            "{\"name\":\"tags\", \"type\":{\"type\":\"map\", \"values\":\"long\"}}, " +
+            "{\"name\":\"payload\", \"type\":\"bytes\"}, {\"name\":\"text\", \"type\":\"string\"}]}");
+
+    @Test
+    public void testReuse() throws IOException {
+        RecordSchema schema = OUTER;
+        RecordSchema inner = (RecordSchema) ((ArraySchema) schema.getField("items").getSchema()).getItemSchema();
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<GenericData.Record>(schema)
+                .setUtf8Strings(true);
+
+        GenericData.Record first = reader.read(null, decoder(encode(makeRecord(schema, inner, 3, "a"))));
+        List<?> items = (List<?>) first.get("items");
+        Object item = items.get(0);
+        Map<?, ?> tags = (Map<?, ?>) first.get("tags");
+        ByteBuffer payload = (ByteBuffer) first.get("payload");
+        Utf8 text = (Utf8) first.get("text");
+
+        GenericData.Record second = reader.read(first, decoder(encode(makeRecord(schema, inner, 2, "bc"))));
+        assertSame(first, second);
+        assertSame(items, second.get("items"));
+        assertSame(item, ((List<?>) second.get("items")).get(0));
+        assertSame(tags, second.get("tags"));
+        assertSame(payload, second.get("payload"));
+        assertSame(text, second.get("text"));
+
+        assertEquals(2, items.size());
+        assertEquals(1, tags.size());
+        assertEquals("bc", text.toString());
+        assertEquals(1, ((GenericData.Record) items.get(1)).getInt(0));
+    }
+
+    @Test
+    public void testMapValuesReused() throws IOException {
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"byId\", \"type\":{\"type\":\"map\", \"values\":" + INNER + "}}]}");
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(schema);
+
+        GenericData.Record first = reader.read(null, decoder(encode(mapRecord(schema, "a", "b"))));
+        Map<?, ?> byId = (Map<?, ?>) first.get("byId");
+        Object a = byId.get("a");
+
+        GenericData.Record second = reader.read(first, decoder(encode(mapRecord(schema, "a", "c"))));
+        assertSame(byId, second.get("byId"));
+        assertSame(a, byId.get("a"));
+        assertEquals("ac", ((GenericData.Record) byId.get("a")).get(1));
+        assertEquals(2, byId.size());
+        assertFalse(byId.containsKey("b"));
+        assertEquals("cc", ((GenericData.Record) byId.get("c")).get(1));
+    }
+
+    private static GenericData.Record mapRecord(RecordSchema schema, String... keys) {
+        Map<String, Object> byId = new HashMap<>();
+        for (String key : keys) {
+            GenericData.Record value = new GenericData.Record(INNER);
+            value.putInt(0, byId.size());
+            value.put(1, key + keys[keys.length - 1]);
+            byId.put(key, value);
+        }
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put("byId", byId);
+        return record;
+    }
+
+    @Test
+    public void testSchemaResolution() throws IOException {
+        RecordSchema writer = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"id\", \"type\":\"int\"}, " +
+                "{\"name\":\"dropped\", \"type\":{\"type\":\"array\", \"items\":" + INNER + "}}, " +
+                "{\"name\":\"old\", \"type\":\"string\"}, " +
+                "{\"name\":\"color\", \"type\":{\"type\":\"enum\", \"name\":\"color\", \"symbols\":[\"RED\", \"BLUE\"]}}]}");
+        RecordSchema reader = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"color\", \"type\":{\"type\":\"enum\", \"name\":\"color\", \"symbols\":[\"BLUE\", \"RED\"]}}, " +
+                "{\"name\":\"renamed\", \"type\":[\"null\", \"string\"], \"aliases\":[\"old\"]}, " +
+                "{\"name\":\"id\", \"type\":\"int\"}, " +
+                "{\"name\":\"added\", \"type\":\"long\", \"default\":42}, " +
+                "{\"name\":\"tags\", \"type\":{\"type\":\"map\", \"values\":\"string\"}, \"default\":{\"k\":\"v\"}}]}");
+
+        GenericData.Record record = new GenericData.Record(writer);
+        record.putInt(0, 7);
+        List<Object> dropped = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            GenericData.Record item = new GenericData.Record(INNER);
+            item.putInt(0, i);
+            item.put(1, "item" + i);
+            dropped.add(item);
+        }
+        record.put(1, dropped);
+        record.put(2, "text");
+        record.put(3, new GenericEnum((EnumSchema) writer.getField("color").getSchema(), "BLUE"));
+
+        GenericDatumReader<GenericData.Record> datumReader = new GenericDatumReader<>(writer, reader);
+        GenericData.Record result = datumReader.read(null, decoder(encode(record)));
+        assertSame(reader, result.getSchema());
+        assertEquals(7, result.getInt(2));
+        assertEquals("text", result.get("renamed"));
+        assertEquals("BLUE", ((GenericEnum) result.get("color")).getValue());
+        assertEquals(42L, result.getLong(3));
+        assertEquals("v", ((Map<?, ?>) result.get("tags")).get("k"));
+
+        // defaults are read again from their encoded bytes.
+        result = datumReader.read(result, decoder(encode(record)));
+        assertEquals(42L, result.getLong(3));
+    }
+
+    @Test(expected = BaijiTypeException.class)
+    public void testMissingDefault() throws IOException {
+        RecordSchema reader = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"inner\", \"fields\":[" +
+                "{\"name\":\"id\", \"type\":\"int\"}, {\"name\":\"required\", \"type\":\"string\"}]}");
+        GenericData.Record record = new GenericData.Record(INNER);
+        record.putInt(0, 1);
+        record.put(1, "a");
+        new GenericDatumReader<GenericData.Record>(INNER, reader).read(null, decoder(encode(record)));
+    }
+
+    private static GenericData.Record makeRecord(RecordSchema schema, RecordSchema inner, int count, String text) {
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GenericData.Record item = new GenericData.Record(inner);
+            item.putInt(0, i);
+            item.put(1, text + i);
+            items.add(item);
+        }
+        Map<String, Object> tags = new HashMap<>();
+        tags.put(text, (long) count);
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put("items", items);
+        record.put("tags", tags);
+        record.put("payload", ByteBuffer.wrap(Arrays.copyOf(text.getBytes(), 2)));
+        record.put("text", text);
+        return record;
+    }
+
+    private static byte[] encode(GenericData.Record record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>((RecordSchema) record.getSchema())
+                .write(record, new DirectBinaryEncoder(out));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testReadItems() throws IOException {
+        Schema schema = OUTER.getField("items").getSchema();
+        GenericDatumWriter<Object> writer = new GenericDatumWriter<>(schema, GenericData.get(), 3);
+        List<GenericData.Record> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            GenericData.Record item = new GenericData.Record(INNER);
+            item.putInt(0, i);
+            item.put(1, "item" + i);
+            items.add(item);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(items.iterator(), new DirectBinaryEncoder(out));
+        new DirectBinaryEncoder(out).writeInt(21);
+        byte[] bytes = out.toByteArray();
+
+        GenericDatumReader<Object> reader = new GenericDatumReader<>(schema);
+        List<Object> visited = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        DirectBinaryDecoder decoder = decoder(bytes);
+        long count = reader.readItems(decoder, (GenericData.Record item) -> {
+            visited.add(item);
+            ids.add(item.getInt(0));
+        });
+        assertEquals(10, count);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ids);
+        // a single scratch item is reused for all items
+        assertSame(visited.get(0), visited.get(9));
+        // the decoder is left right after the array
+        assertEquals(21, decoder.readInt());
+
+        Iterator<GenericData.Record> iterator = reader.iterateItems(decoder(bytes), false);
+        List<GenericData.Record> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        assertEquals(items, result);
+    }
+
+    @Test
+    public void testInterleavedIterators() throws IOException {
+        Schema schema = OUTER.getField("items").getSchema();
+        GenericDatumWriter<Object> writer = new GenericDatumWriter<>(schema);
+        byte[] first = encodeItems(writer, 0, 5);
+        byte[] second = encodeItems(writer, 100, 5);
+
+        GenericDatumReader<Object> reader = new GenericDatumReader<>(schema);
+        Iterator<GenericData.Record> firstItems = reader.iterateItems(decoder(first), false);
+        Iterator<GenericData.Record> secondItems = reader.iterateItems(decoder(second), false);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, firstItems.next().getInt(0));
+            // a whole datum read in between
+            assertEquals(5, ((List<?>) reader.read(null, decoder(second))).size());
+            assertEquals(100 + i, secondItems.next().getInt(0));
+        }
+        assertFalse(firstItems.hasNext());
+        assertFalse(secondItems.hasNext());
+    }
+
+    private static byte[] encodeItems(GenericDatumWriter<Object> writer, int first, int count) throws IOException {
+        List<GenericData.Record> items = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            GenericData.Record item = new GenericData.Record(INNER);
+            item.putInt(0, i);
+            item.put(1, "item" + i);
+            items.add(item);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(items, new DirectBinaryEncoder(out));
+        return out.toByteArray();
+    }
+
+    private static DirectBinaryDecoder decoder(byte[] bytes) {
+        return new DirectBinaryDecoder(new ByteArrayInputStream(bytes));
+    }
+}
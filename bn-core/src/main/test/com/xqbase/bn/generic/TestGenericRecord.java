@@ -0,0 +1,295 @@
+package com.xqbase.bn.generic;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.schema.UnionSchema;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link GenericData.Record}.
+ *
+ * @author Tony He
+ */
+public class TestGenericRecord {
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"i\", \"type\":\"int\"}, {\"name\":\"l\", \"type\":\"long\"}, " +
+            "{\"name\":\"f\", \"type\":\"float\"}, {\"name\":\"d\", \"type\":\"double\"}, " +
+            "{\"name\":\"b\", \"type\":\"boolean\"}, {\"name\":\"s\", \"type\":\"string\"}, " +
+            "{\"name\":\"a\", \"type\":{\"type\":\"array\", \"items\":\"int\"}}, " +
+            "{\"name\":\"m\", \"type\":{\"type\":\"map\", \"values\":\"string\"}}, " +
+            "{\"name\":\"e\", \"type\":{\"type\":\"enum\", \"name\":\"e\", \"symbols\":[\"s1\", \"s2\"]}}, " +
+            "{\"name\":\"t\", \"type\":\"datetime\"}]}");
+
+    @Test
+    public void testTypedAccessors() {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.putInt(0, 101);
+        record.putLong(1, Long.MIN_VALUE);
+        record.putFloat(2, 1.5f);
+        record.putDouble(3, 101.78);
+        record.putBoolean(4, true);
+
+        assertEquals(101, record.getInt(0));
+        assertEquals(Long.MIN_VALUE, record.getLong(1));
+        assertEquals(1.5f, record.getFloat(2), 0);
+        assertEquals(101.78, record.getDouble(3), 0);
+        assertTrue(record.getBoolean(4));
+
+        assertEquals(101, record.get("i"));
+        assertEquals(Long.MIN_VALUE, record.get("l"));
+        assertEquals(1.5f, record.get("f"));
+        assertEquals(101.78, record.get("d"));
+        assertEquals(true, record.get("b"));
+    }
+
+    @Test
+    public void testBoxedAccessors() {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("i", 7);
+        record.put("s", "A");
+        assertEquals(7, record.getInt(0));
+        assertEquals("A", record.get(5));
+
+        record.put("i", null);
+        assertEquals(0, record.get("i"));
+        assertNull(record.get("unknown"));
+    }
+
+    @Test
+    public void testManyFieldNames() {
+        StringBuilder builder = new StringBuilder("{\"type\":\"record\", \"name\":\"r\", \"fields\":[");
+        for (int i = 0; i < 100; i++) {
+            builder.append(i > 0 ? ", " : "").append("{\"name\":\"f").append(i).append("\", \"type\":\"int\"}");
+        }
+        RecordSchema schema = (RecordSchema) Schema.parse(builder.append("]}").toString());
+        GenericData.Record record = new GenericData.Record(schema);
+        for (int i = 0; i < 100; i++) {
+            record.put("f" + i, i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, record.getInt(i));
+        }
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.putInt(0, -3);
+        record.putLong(1, 1L << 40);
+        record.putFloat(2, 2.25f);
+        record.putDouble(3, -0.5);
+        record.putBoolean(4, true);
+        record.put(5, "text");
+        List<Object> array = new ArrayList<>();
+        array.addAll(Arrays.asList(1, 2, 3));
+        record.put(6, array);
+        Map<String, Object> map = new HashMap<>();
+        map.put("k", "v");
+        record.put(7, map);
+        record.put(8, new GenericEnum((EnumSchema) SCHEMA.getField("e").getSchema(), "s2"));
+        record.putDatetimeMillis(9, 1431648000123L);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GenericDatumWriter<GenericData.Record> writer = new GenericDatumWriter<>(SCHEMA);
+        writer.write(record, new DirectBinaryEncoder(out));
+        assertEquals(out.size(), writer.sizeOf(record));
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(SCHEMA)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+
+        assertEquals(record, result);
+        assertEquals(Instant.ofEpochMilli(1431648000123L), result.get("t"));
+    }
+
+    @Test
+    public void testWriteUnions() throws IOException {
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"u\", \"fields\":[" +
+                "{\"name\":\"optional\", \"type\":[\"null\", \"string\"]}, " +
+                "{\"name\":\"any\", \"type\":{\"type\":\"array\", \"items\":[\"int\", \"string\", " +
+                "{\"type\":\"record\", \"name\":\"a\", \"fields\":[{\"name\":\"x\", \"type\":\"int\"}]}, " +
+                "{\"type\":\"record\", \"name\":\"b\", \"fields\":[{\"name\":\"y\", \"type\":\"long\"}]}, \"null\"]}}]}");
+        List<Schema> branches = ((UnionSchema) ((ArraySchema)
+                schema.getField("any").getSchema()).getItemSchema()).getSchemas();
+        GenericData.Record a = new GenericData.Record((RecordSchema) branches.get(2));
+        a.putInt(0, 5);
+        GenericData.Record b = new GenericData.Record((RecordSchema) branches.get(3));
+        b.putLong(0, 6L);
+        List<Object> any = new ArrayList<>(Arrays.asList(1, "s", a, b, null, b, 2));
+
+        GenericDatumWriter<GenericData.Record> writer = new GenericDatumWriter<>(schema);
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(schema);
+        for (String optional : Arrays.asList("text", null)) {
+            GenericData.Record record = new GenericData.Record(schema);
+            record.put(0, optional);
+            record.put(1, any);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.write(record, new DirectBinaryEncoder(out));
+            assertEquals(out.size(), writer.sizeOf(record));
+            GenericData.Record result = reader.read(null,
+                    new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+            assertEquals(optional, result.get(0));
+            assertEquals(any, result.get(1));
+        }
+    }
+
+    @Test
+    public void testWriteStreamedArray() throws IOException {
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"s\", \"fields\":[" +
+                "{\"name\":\"a\", \"type\":{\"type\":\"array\", \"items\":\"int\"}}, " +
+                "{\"name\":\"b\", \"type\":[\"null\", {\"type\":\"array\", \"items\":\"string\"}]}]}");
+        GenericDatumWriter<GenericData.Record> writer = new GenericDatumWriter<>(schema, GenericData.get(), 3);
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put(0, IntStream.range(0, 10).boxed());
+        record.put(1, Arrays.asList("x", "y").iterator());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(record, new DirectBinaryEncoder(out));
+        // the first block holds three items
+        assertEquals(6, out.toByteArray()[0]);
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(schema)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), result.get(0));
+        assertEquals(Arrays.asList("x", "y"), result.get(1));
+    }
+
+    @Test
+    public void testWriteIteratorReusingItem() throws IOException {
+        RecordSchema item = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"item\", \"fields\":[" +
+                "{\"name\":\"id\", \"type\":\"int\"}]}");
+        Schema schema = Schema.parse("{\"type\":\"array\", \"items\":" + item + "}");
+        final GenericData.Record scratch = new GenericData.Record(item);
+        // a cursor refilling a single item, as database cursors often do
+        Iterator<GenericData.Record> cursor = new Iterator<GenericData.Record>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < 7;
+            }
+
+            @Override
+            public GenericData.Record next() {
+                scratch.putInt(0, next++);
+                return scratch;
+            }
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<Object>(schema, GenericData.get(), 3).write(cursor, new DirectBinaryEncoder(out));
+        List<?> result = (List<?>) new GenericDatumReader<Object>(schema)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(7, result.size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i, ((GenericData.Record) result.get(i)).getInt(0));
+        }
+    }
+
+    // declared in a different order than the schema symbols
+    private enum Symbol { s2, s1, s3 }
+
+    @Test
+    public void testEnumOrdinals() throws IOException {
+        EnumSchema enumSchema = (EnumSchema) SCHEMA.getField("e").getSchema();
+        GenericEnum genericEnum = new GenericEnum(enumSchema, 1);
+        assertEquals("s2", genericEnum.getValue());
+        assertEquals(1, genericEnum.getOrdinal());
+        genericEnum.setValue("s1");
+        assertEquals(0, genericEnum.getOrdinal());
+
+        GenericData data = GenericData.get();
+        assertEquals(0, data.getEnumOrdinal(enumSchema, genericEnum));
+        assertEquals(1, data.getEnumOrdinal(enumSchema, Symbol.s2));
+        assertEquals(0, data.getEnumOrdinal(enumSchema, Symbol.s1));
+        assertEquals(1, data.getEnumOrdinal(enumSchema, "s2"));
+        try {
+            data.getEnumOrdinal(enumSchema, Symbol.s3);
+            fail("s3 is not a symbol of the schema");
+        } catch (BaijiTypeException expected) {
+        }
+
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"e\", \"type\":" + enumSchema + "}]}");
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put(0, Symbol.s2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>(schema).write(record, new DirectBinaryEncoder(out));
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(schema)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+        GenericEnum read = (GenericEnum) result.get(0);
+        assertEquals("s2", read.getValue());
+        assertEquals(1, read.getOrdinal());
+    }
+
+    @Test
+    public void testJavaEnumInUnionOfEnums() throws IOException {
+        // by symbols: only the second branch has all the constants of Symbol
+        assertEquals(1, GenericData.get().resolveUnion(enumUnion(
+                "{\"type\":\"enum\", \"name\":\"x\", \"symbols\":[\"s1\", \"s2\"]}, " +
+                "{\"type\":\"enum\", \"name\":\"y\", \"symbols\":[\"s1\", \"s2\", \"s3\"]}"), Symbol.s2));
+        // by name, ahead of symbols
+        assertEquals(1, GenericData.get().resolveUnion(enumUnion(
+                "{\"type\":\"enum\", \"name\":\"x\", \"symbols\":[\"s1\", \"s2\", \"s3\"]}, " +
+                "{\"type\":\"enum\", \"name\":\"Symbol\", \"symbols\":[\"s1\", \"s2\", \"s3\", \"s4\"]}"),
+                Symbol.s1));
+        try {
+            GenericData.get().resolveUnion(enumUnion(
+                    "{\"type\":\"enum\", \"name\":\"x\", \"symbols\":[\"s1\", \"s2\", \"s3\"]}, " +
+                    "{\"type\":\"enum\", \"name\":\"y\", \"symbols\":[\"s3\", \"s2\", \"s1\"]}"), Symbol.s1);
+            fail("Both branches have all the symbols of Symbol");
+        } catch (BaijiRuntimeException expected) {
+        }
+
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"u\", \"type\":[\"null\", " +
+                "{\"type\":\"enum\", \"name\":\"x\", \"symbols\":[\"s1\", \"s2\"]}, " +
+                "{\"type\":\"enum\", \"name\":\"y\", \"symbols\":[\"s3\", \"s2\", \"s1\"]}]}]}");
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put(0, Symbol.s1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>(schema).write(record, new DirectBinaryEncoder(out));
+        GenericEnum read = (GenericEnum) new GenericDatumReader<GenericData.Record>(schema)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray()))).get(0);
+        assertEquals("y", read.getSchema().getName());
+        assertEquals("s1", read.getValue());
+    }
+
+    private static UnionSchema enumUnion(String branches) {
+        return (UnionSchema) Schema.parse("[" + branches + "]");
+    }
+
+    @Test
+    public void testEnumValuesAreShared() {
+        EnumSchema enumSchema = (EnumSchema) SCHEMA.getField("e").getSchema();
+        GenericData data = GenericData.get();
+        GenericEnum value = (GenericEnum) data.createEnum(1, enumSchema);
+        assertSame(value, data.createEnum(1, enumSchema));
+        assertEquals("s2", value.getValue());
+        try {
+            value.setValue("s1");
+            fail("shared enum values cannot be changed");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals("s2", value.getValue());
+    }
+}
@@ -0,0 +1,50 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.util.Utf8;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the size functions of {@link BinaryData}.
+ *
+ * @author Tony He
+ */
+public class TestBinaryData {
+
+    @Test
+    public void testSizeOfInt() {
+        byte[] buf = new byte[5];
+        for (int n : new int[]{0, 1, -1, 63, -64, 64, -65, 8191, 8192, 1 << 20, 1 << 27, 1 << 28,
+                Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertEquals(String.valueOf(n), BinaryData.encodeInt(n, buf, 0), BinaryData.sizeOfInt(n));
+        }
+    }
+
+    @Test
+    public void testSizeOfLong() {
+        byte[] buf = new byte[10];
+        for (int shift = 0; shift < 64; shift++) {
+            for (long n : new long[]{1L << shift, (1L << shift) - 1, -(1L << shift)}) {
+                assertEquals(String.valueOf(n), BinaryData.encodeLong(n, buf, 0), BinaryData.sizeOfLong(n));
+            }
+        }
+    }
+
+    @Test
+    public void testSizeOfString() throws IOException {
+        String[] strings = {"", "ascii", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00 pair",
+                "lone \ud83d surrogate", "\ude00", new String(new char[200]).replace('\0', 'x')};
+        for (String s : strings) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+            encoder.writeString(s);
+            encoder.flush();
+            assertEquals(s, out.size(), BinaryData.sizeOfString(s));
+            assertEquals(s, out.size(), BinaryData.sizeOfString(new Utf8(s)));
+        }
+    }
+}
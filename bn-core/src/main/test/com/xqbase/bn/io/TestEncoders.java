@@ -5,8 +5,14 @@ import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Calendar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class TestEncoders {
 
@@ -17,4 +23,47 @@ public class TestEncoders {
         JsonEncoder enc = new JsonEncoder(s, new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8));
         enc.configure(out);
     }
+
+    // 2015-05-15T00:00:00.123Z, written as the zig-zag varint of its epoch millis
+    private static final long MILLIS = 1431648000123L;
+    private static final byte[] MILLIS_WIRE = {(byte) 0xF6, (byte) 0xE1, (byte) 0xF6, (byte) 0xCD, (byte) 0xAA, 0x53};
+
+    @Test
+    public void testDatetimeWireFormat() throws Exception {
+        ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        checkDatetime(new DirectBinaryEncoder(direct), direct);
+        ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+        checkDatetime(new BufferedBinaryEncoder(buffered, 64), buffered);
+
+        // instants before the epoch are negative longs
+        ByteArrayOutputStream negative = new ByteArrayOutputStream();
+        new DirectBinaryEncoder(negative).writeDatetimeMillis(-1L);
+        assertArrayEquals(new byte[]{0x01}, negative.toByteArray());
+    }
+
+    @Test
+    public void testDatetimeDecoding() throws Exception {
+        Decoder decoder = new DirectBinaryDecoder(new ByteArrayInputStream(concat(MILLIS_WIRE, 3)));
+        assertEquals(MILLIS, decoder.readDatetimeMillis());
+        assertEquals(Instant.ofEpochMilli(MILLIS), decoder.readDatetimeInstant());
+        assertEquals(MILLIS, decoder.readDatetime().getTimeInMillis());
+    }
+
+    private static void checkDatetime(Encoder encoder, ByteArrayOutputStream out) throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(MILLIS);
+        encoder.writeDatetimeMillis(MILLIS);
+        encoder.writeDatetime(Instant.ofEpochMilli(MILLIS));
+        encoder.writeDatetime(calendar);
+        encoder.flush();
+        assertArrayEquals(concat(MILLIS_WIRE, 3), out.toByteArray());
+    }
+
+    private static byte[] concat(byte[] bytes, int times) {
+        byte[] result = new byte[bytes.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(bytes, 0, result, i * bytes.length, bytes.length);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,220 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.generic.GenericEnum;
+import com.xqbase.bn.generic.GenericJsonDatumWriter;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JsonDecoder} and {@link GenericJsonDatumWriter}.
+ *
+ * @author Tony He
+ */
+public class TestJsonDecoder {
+
+    private static final RecordSchema POINT = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"point\", \"fields\":[" +
+            "{\"name\":\"x\", \"type\":\"int\"}, {\"name\":\"y\", \"type\":\"int\"}]}");
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"l\", \"type\":\"long\"}, {\"name\":\"d\", \"type\":\"double\"}, " +
+            "{\"name\":\"b\", \"type\":\"boolean\"}, {\"name\":\"s\", \"type\":\"string\"}, " +
+            "{\"name\":\"bytes\", \"type\":\"bytes\"}, {\"name\":\"t\", \"type\":\"datetime\"}, " +
+            "{\"name\":\"e\", \"type\":{\"type\":\"enum\", \"name\":\"e\", \"symbols\":[\"s1\", \"s2\"]}}, " +
+            "{\"name\":\"points\", \"type\":{\"type\":\"array\", \"items\":" + POINT + "}}, " +
+            "{\"name\":\"m\", \"type\":{\"type\":\"map\", \"values\":\"string\"}}, " +
+            "{\"name\":\"u\", \"type\":[\"null\", \"point\"]}, {\"name\":\"n\", \"type\":[\"null\", \"string\"]}]}");
+
+    @Test
+    public void testSameOutputAsJsonEncoder() throws IOException {
+        GenericData.Record record = makeRecord();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonEncoder encoder = new JsonEncoder(SCHEMA, expected);
+        new GenericDatumWriter<GenericData.Record>(SCHEMA).write(record, encoder);
+        encoder.flush();
+
+        assertEquals(expected.toString("UTF-8"), write(record));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        GenericData.Record record = makeRecord();
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(SCHEMA);
+        GenericData.Record result = reader.read(null, new JsonDecoder(SCHEMA, write(record)));
+        assertEquals(record, result);
+    }
+
+    @Test
+    public void testAllByteValues() throws IOException {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        GenericData.Record record = makeRecord();
+        record.put(4, ByteBuffer.wrap(bytes));
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(SCHEMA);
+
+        String json = write(record);
+        assertEquals(record, reader.read(null, new JsonDecoder(SCHEMA, json)));
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        JsonEncoder encoder = new JsonEncoder(SCHEMA, encoded);
+        new GenericDatumWriter<GenericData.Record>(SCHEMA).write(record, encoder);
+        encoder.flush();
+        assertEquals(json, encoded.toString("UTF-8"));
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>(SCHEMA).write(record, new DirectBinaryEncoder(binary));
+        ByteArrayOutputStream transcoded = new ByteArrayOutputStream();
+        new JsonTranscoder(SCHEMA).toJson(new ByteArrayInputStream(binary.toByteArray()), transcoded);
+        assertEquals(json, transcoded.toString("UTF-8"));
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        new JsonTranscoder(SCHEMA).toBinary(new ByteArrayInputStream(transcoded.toByteArray()), back);
+        assertEquals(record, reader.read(null,
+                new DirectBinaryDecoder(new ByteArrayInputStream(back.toByteArray()))));
+    }
+
+    @Test
+    public void testFieldsOutOfOrder() throws IOException {
+        String json = "{\"y\": 2, \"unknown\": {\"a\": [1, 2]}, \"x\": 1}";
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(POINT)
+                .read(null, new JsonDecoder(POINT, json));
+        assertEquals(1, result.getInt(0));
+        assertEquals(2, result.getInt(1));
+    }
+
+    @Test
+    public void testNestedFieldsOutOfOrder() throws IOException {
+        String json = "{\"n\": null, \"u\": {\"point\": {\"y\": 4, \"x\": 3}}, \"m\": {}, \"points\": [], " +
+                "\"e\": \"s1\", \"t\": 0, \"bytes\": \"\", \"s\": \"\", \"b\": false, \"d\": 0, \"l\": 5}";
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(SCHEMA)
+                .read(null, new JsonDecoder(SCHEMA, json));
+        assertEquals(5L, result.getLong(0));
+        GenericData.Record point = (GenericData.Record) result.get("u");
+        assertEquals(3, point.getInt(0));
+        assertEquals(4, point.getInt(1));
+        assertNull(result.get("n"));
+    }
+
+    @Test
+    public void testStreamOfRecords() throws IOException {
+        JsonDecoder decoder = new JsonDecoder(POINT, "{\"x\": 1, \"y\": 2} {\"y\": 4, \"x\": 3}");
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(POINT);
+        assertEquals(1, reader.read(null, decoder).getInt(0));
+        assertEquals(3, reader.read(null, decoder).getInt(0));
+    }
+
+    @Test
+    public void testStreamLeftOpen() throws IOException {
+        final boolean[] closed = new boolean[2];
+        JsonDecoder decoder = new JsonDecoder(POINT, new ByteArrayInputStream(
+                "{\"x\": 1, \"y\": 2}".getBytes("UTF-8")) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(POINT);
+        assertEquals(1, reader.read(null, decoder).getInt(0));
+        decoder.configure(new ByteArrayInputStream("{\"x\": 3, \"y\": 4}".getBytes("UTF-8")) {
+            @Override
+            public void close() {
+                closed[1] = true;
+            }
+        });
+        assertEquals(3, reader.read(null, decoder).getInt(0));
+        decoder.close();
+        assertFalse(closed[0]);
+        assertFalse(closed[1]);
+    }
+
+    @Test
+    public void testResolveWriterOnlyMap() throws IOException {
+        RecordSchema writer = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"tags\", \"type\":{\"type\":\"map\", \"values\":{\"type\":\"array\", \"items\":\"int\"}}}, " +
+                "{\"name\":\"id\", \"type\":\"int\"}]}");
+        RecordSchema reader = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"id\", \"type\":\"int\"}]}");
+        String json = "{\"tags\": {\"a\": [1, 2], \"b\": [], \"c\": [3]}, \"id\": 7} {\"tags\": {}, \"id\": 8}";
+        JsonDecoder decoder = new JsonDecoder(writer, json);
+        GenericDatumReader<GenericData.Record> datumReader = new GenericDatumReader<>(writer, reader);
+        assertEquals(7, datumReader.read(null, decoder).getInt(0));
+        assertEquals(8, datumReader.read(null, decoder).getInt(0));
+    }
+
+    @Test
+    public void testReconfigureAfterAbortedDatum() throws IOException {
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"abc\", \"fields\":[" +
+                "{\"name\":\"a\", \"type\":\"int\"}, {\"name\":\"b\", \"type\":\"int\"}, " +
+                "{\"name\":\"c\", \"type\":\"int\"}]}");
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(schema);
+        // c is buffered ahead of its turn, then the datum fails for want of b
+        JsonDecoder decoder = new JsonDecoder(schema, "{\"c\": 9, \"a\": 1}");
+        try {
+            reader.read(null, decoder);
+            fail("b is missing");
+        } catch (BaijiTypeException expected) {
+        }
+
+        decoder.configure(new ByteArrayInputStream("{\"a\": 2, \"b\": 3, \"c\": 4}".getBytes("UTF-8")));
+        GenericData.Record result = reader.read(null, decoder);
+        assertEquals(2, result.getInt(0));
+        assertEquals(3, result.getInt(1));
+        assertEquals(4, result.getInt(2));
+    }
+
+    private static GenericData.Record makeRecord() {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.putLong(0, 1L << 40);
+        record.putDouble(1, 2.5);
+        record.putBoolean(2, true);
+        record.put(3, "text");
+        record.put(4, ByteBuffer.wrap("bytes".getBytes()));
+        record.putDatetimeMillis(5, 1431648000123L);
+        record.put(6, new GenericEnum((EnumSchema) SCHEMA.getField("e").getSchema(), "s2"));
+        RecordSchema pointSchema = (RecordSchema) ((ArraySchema) SCHEMA.getField("points").getSchema()).getItemSchema();
+        List<Object> points = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            GenericData.Record point = new GenericData.Record(pointSchema);
+            point.putInt(0, i);
+            point.putInt(1, -i);
+            points.add(point);
+        }
+        record.put(7, points);
+        Map<String, Object> map = new HashMap<>();
+        map.put("k", "v");
+        record.put(8, map);
+        record.put(9, points.get(1));
+        record.put(10, null);
+        return record;
+    }
+
+    private static String write(GenericData.Record record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        new GenericJsonDatumWriter<GenericData.Record>(SCHEMA).write(record, generator);
+        generator.flush();
+        return out.toString("UTF-8");
+    }
+}
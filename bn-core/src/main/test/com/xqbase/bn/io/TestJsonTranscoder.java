@@ -0,0 +1,106 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.generic.GenericEnum;
+import com.xqbase.bn.generic.GenericJsonDatumWriter;
+import com.xqbase.bn.schema.ArraySchema;
+import com.xqbase.bn.schema.EnumSchema;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JsonTranscoder}.
+ *
+ * @author Tony He
+ */
+public class TestJsonTranscoder {
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"name\", \"type\":[\"null\", \"string\"]}, " +
+            "{\"name\":\"e\", \"type\":{\"type\":\"enum\", \"name\":\"e\", \"symbols\":[\"s1\", \"s2\"]}}, " +
+            "{\"name\":\"items\", \"type\":{\"type\":\"array\", \"items\":{\"type\":\"record\", \"name\":\"item\", " +
+            "\"fields\":[{\"name\":\"price\", \"type\":\"double\"}, {\"name\":\"flag\", \"type\":\"boolean\"}]}}}, " +
+            "{\"name\":\"m\", \"type\":{\"type\":\"map\", \"values\":\"int\"}}]}");
+
+    @Test
+    public void testBinaryToJson() throws IOException {
+        GenericData.Record record = makeRecord();
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new JsonTranscoder(SCHEMA).toJson(new ByteArrayInputStream(binary(record)), json);
+        assertEquals(json(record), json.toString("UTF-8"));
+    }
+
+    @Test
+    public void testJsonToBinary() throws IOException {
+        GenericData.Record record = makeRecord();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new JsonTranscoder(SCHEMA).toBinary(new ByteArrayInputStream(json(record).getBytes("UTF-8")), binary);
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(SCHEMA)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(binary.toByteArray())));
+        assertEquals(record, result);
+    }
+
+    @Test
+    public void testJsonFieldsOutOfOrder() throws IOException {
+        String json = "{\"m\": {\"a\": 1}, \"items\": [{\"flag\": true, \"price\": 1.5}], \"e\": \"s2\", " +
+                "\"name\": null, \"id\": 3}";
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new JsonTranscoder(SCHEMA).toBinary(new ByteArrayInputStream(json.getBytes("UTF-8")), binary);
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        new JsonTranscoder(SCHEMA).toJson(new ByteArrayInputStream(binary.toByteArray()), result);
+        assertEquals("{\"id\":3,\"name\":null,\"e\":\"s2\",\"items\":[{\"price\":1.5,\"flag\":true}],\"m\":{\"a\":1}}",
+                result.toString("UTF-8"));
+    }
+
+    private static GenericData.Record makeRecord() {
+        RecordSchema itemSchema = (RecordSchema) ((ArraySchema) SCHEMA.getField("items").getSchema()).getItemSchema();
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.putLong(0, 42L);
+        record.put(1, "name");
+        record.put(2, new GenericEnum((EnumSchema) SCHEMA.getField("e").getSchema(), "s1"));
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            GenericData.Record item = new GenericData.Record(itemSchema);
+            item.putDouble(0, i + 0.5);
+            item.putBoolean(1, i % 2 == 0);
+            items.add(item);
+        }
+        record.put(3, items);
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        record.put(4, map);
+        return record;
+    }
+
+    private static byte[] binary(GenericData.Record record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>(SCHEMA).write(record, new DirectBinaryEncoder(out));
+        return out.toByteArray();
+    }
+
+    private static String json(GenericData.Record record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = new JsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        new GenericJsonDatumWriter<GenericData.Record>(SCHEMA).write(record, generator);
+        generator.flush();
+        return out.toString("UTF-8");
+    }
+}
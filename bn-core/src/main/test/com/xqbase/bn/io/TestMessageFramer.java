@@ -0,0 +1,216 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.exceptions.BaijiRuntimeException;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageFramer}, {@link DeflateCodec} and {@link Lz4Codec}.
+ *
+ * @author Tony He
+ */
+public class TestMessageFramer {
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"text\", \"type\":\"string\"}]}");
+
+    @Test
+    public void testCodecRoundTrip() throws IOException {
+        Random random = new Random(42);
+        for (CompressionCodec codec : new CompressionCodec[]{new Lz4Codec(), new DeflateCodec()}) {
+            for (int length : new int[]{0, 1, 5, 12, 13, 16, 100, 1000, 70000}) {
+                byte[] text = text(length);
+                assertRoundTrip(codec, text);
+                byte[] noise = new byte[length];
+                random.nextBytes(noise);
+                assertRoundTrip(codec, noise);
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedFrames() throws IOException {
+        byte[] message = text(10000);
+        for (CompressionCodec codec : new CompressionCodec[]{new Lz4Codec(), new DeflateCodec()}) {
+            MessageFramer framer = new MessageFramer(codec);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            framer.writeFrame(message, 0, message.length, out);
+            assertTrue(out.size() < message.length / 2);
+
+            MessageFramer.Frame frame = framer.readFrame(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(codec.getId(), frame.getCodecId());
+            assertEquals(message.length, frame.getLength());
+            assertArrayEquals(message, Arrays.copyOf(frame.getBuffer(), frame.getLength()));
+            frame.release();
+        }
+    }
+
+    @Test
+    public void testUncompressedFrames() throws IOException {
+        MessageFramer framer = new MessageFramer(new Lz4Codec());
+        // under the threshold
+        byte[] small = text(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framer.writeFrame(small, 0, small.length, out);
+        assertEquals(MessageFramer.HEADER_SIZE + small.length, out.size());
+        // not compressible
+        byte[] noise = new byte[5000];
+        new Random(7).nextBytes(noise);
+        framer.writeFrame(noise, 0, noise.length, out);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        MessageFramer.Frame frame = framer.readFrame(in);
+        assertEquals(MessageFramer.UNCOMPRESSED, frame.getCodecId());
+        assertArrayEquals(small, Arrays.copyOf(frame.getBuffer(), frame.getLength()));
+        frame.release();
+        frame = framer.readFrame(in);
+        assertEquals(MessageFramer.UNCOMPRESSED, frame.getCodecId());
+        assertArrayEquals(noise, Arrays.copyOf(frame.getBuffer(), frame.getLength()));
+        frame.release();
+    }
+
+    @Test
+    public void testPooledBuffers() throws IOException {
+        SegmentedOutputStream.ChunkPool pool = new SegmentedOutputStream.ChunkPool(1024, 4);
+        MessageFramer framer = new MessageFramer(null, 16, pool);
+        byte[] message = text(500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framer.writeFrame(message, 0, message.length, out);
+        framer.writeFrame(message, 0, message.length, out);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        MessageFramer.Frame first = framer.readFrame(in);
+        byte[] buffer = first.getBuffer();
+        assertEquals(1024, buffer.length);
+        first.release();
+        first.release();
+        MessageFramer.Frame second = framer.readFrame(in);
+        assertSame(buffer, second.getBuffer());
+        assertArrayEquals(message, Arrays.copyOf(second.getBuffer(), second.getLength()));
+        second.release();
+    }
+
+    @Test
+    public void testDatumRoundTrip() throws IOException {
+        MessageFramer framer = new MessageFramer(new Lz4Codec(), 64, new SegmentedOutputStream.ChunkPool(4096, 4));
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.putLong(0, 42L);
+        record.put(1, new String(text(3000), "US-ASCII"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framer.write(new GenericDatumWriter<GenericData.Record>(SCHEMA), record, out);
+        assertTrue(out.size() < 3000);
+
+        GenericData.Record result = framer.read(new GenericDatumReader<GenericData.Record>(SCHEMA), null,
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(record, result);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptFrame() throws IOException {
+        byte[] message = text(5000);
+        MessageFramer framer = new MessageFramer(new Lz4Codec());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framer.writeFrame(message, 0, message.length, out);
+        byte[] frame = out.toByteArray();
+        // claim one more uncompressed byte than the body holds
+        frame[6]++;
+        framer.readFrame(new ByteArrayInputStream(frame));
+    }
+
+    @Test
+    public void testLz4LengthOverflow() {
+        // enough runs of 255 to wrap an int length negative
+        int runs = Integer.MAX_VALUE / 255 + 1;
+
+        // a literal length wrapping negative
+        byte[] literals = new byte[runs + 3];
+        literals[0] = (byte) 0xF0;
+        Arrays.fill(literals, 1, runs + 1, (byte) 0xFF);
+        assertCorruptLz4(literals, 100);
+
+        // a match length wrapping negative, in front of a well-formed last sequence
+        byte[] match = new byte[runs + 8];
+        match[0] = 0x1F;
+        match[1] = 'a';
+        match[2] = 1;
+        Arrays.fill(match, 4, runs + 4, (byte) 0xFF);
+        match[runs + 5] = 0x10;
+        match[runs + 6] = 'b';
+        assertCorruptLz4(Arrays.copyOf(match, runs + 7), 2);
+    }
+
+    private static void assertCorruptLz4(byte[] src, int dstLen) {
+        try {
+            new Lz4Codec().decompress(src, 0, src.length, new byte[dstLen], 0, dstLen);
+            fail("Corrupt LZ4 data accepted");
+        } catch (IOException e) {
+            assertEquals("Corrupt LZ4 data", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOversizedFrame() throws IOException {
+        MessageFramer framer = new MessageFramer(null, 0, new SegmentedOutputStream.ChunkPool(4096, 4), 100);
+        byte[] message = text(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framer.writeFrame(message, 0, message.length, out);
+        byte[] frame = out.toByteArray();
+        assertEquals(100, framer.readFrame(new ByteArrayInputStream(frame)).getLength());
+        try {
+            framer.writeFrame(text(101), 0, 101, new ByteArrayOutputStream());
+            fail("message longer than the maximum frame size");
+        } catch (BaijiRuntimeException expected) {
+        }
+
+        // lengths over the maximum, and negative ones, are rejected before anything is allocated
+        assertInvalidHeader(framer, frame, 3, 0x00, 0x00, 0x00, 0x65);
+        assertInvalidHeader(framer, frame, 3, 0x7F, 0xFF, 0xFF, 0xFF);
+        assertInvalidHeader(framer, frame, 3, 0xFF, 0xFF, 0xFF, 0xFF);
+        assertInvalidHeader(framer, frame, 7, 0xFF, 0xFF, 0xFF, 0xFF);
+        // a wrong magic byte or version
+        assertInvalidHeader(framer, frame, 0, 0x00);
+        assertInvalidHeader(framer, frame, 1, MessageFramer.VERSION + 1);
+    }
+
+    private static void assertInvalidHeader(MessageFramer framer, byte[] frame, int pos, int... bytes)
+            throws IOException {
+        byte[] corrupt = frame.clone();
+        for (int i = 0; i < bytes.length; i++) {
+            corrupt[pos + i] = (byte) bytes[i];
+        }
+        try {
+            framer.readFrame(new ByteArrayInputStream(corrupt));
+            fail("invalid header accepted");
+        } catch (BaijiRuntimeException expected) {
+        }
+    }
+
+    private static void assertRoundTrip(CompressionCodec codec, byte[] data) throws IOException {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length) + 3];
+        int n = codec.compress(data, 0, data.length, compressed, 3);
+        byte[] result = new byte[data.length];
+        codec.decompress(compressed, 3, n, result, 0, data.length);
+        assertArrayEquals(data, result);
+    }
+
+    private static byte[] text(int length) {
+        String words = "the quick brown fox jumps over the lazy dog ";
+        byte[] text = new byte[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (byte) words.charAt((i * 7 / 5) % words.length());
+        }
+        return text;
+    }
+}
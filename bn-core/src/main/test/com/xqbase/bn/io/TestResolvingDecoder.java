@@ -0,0 +1,169 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.exceptions.BaijiTypeException;
+import com.xqbase.bn.schema.Field;
+import com.xqbase.bn.schema.Schema;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ResolvingDecoder}.
+ *
+ * @author Tony He
+ */
+public class TestResolvingDecoder {
+
+    private static final Schema LIST = Schema.parse("{\"type\":\"record\", \"name\":\"LongList\", \"fields\":[" +
+            "{\"name\":\"value\", \"type\":\"long\"}, {\"name\":\"next\", \"type\":[\"null\", \"LongList\"]}]}");
+
+    @Test
+    public void testRecursiveRecord() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        for (long i = 1; i <= 3; i++) {
+            encoder.writeLong(i);
+            encoder.writeUnionIndex(i < 3 ? 1 : 0);
+        }
+
+        ResolvingDecoder decoder = resolving(LIST, out.toByteArray());
+        for (long i = 1; i <= 3; i++) {
+            Field[] fields = decoder.readFieldOrder();
+            assertEquals("value", fields[0].getName());
+            assertEquals(i, decoder.readLong());
+            if (decoder.readUnionIndex() == 0) {
+                decoder.readNull();
+            }
+        }
+        decoder.drain();
+    }
+
+    @Test
+    public void testNestedCollections() throws IOException {
+        Schema schema = Schema.parse("{\"type\":\"map\", \"values\":{\"type\":\"array\", \"items\":" +
+                "{\"type\":\"enum\", \"name\":\"e\", \"symbols\":[\"s1\", \"s2\"]}}}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        encoder.writeMapStart();
+        encoder.setItemCount(2);
+        encoder.writeString("a");
+        encoder.writeArrayStart();
+        encoder.setItemCount(2);
+        encoder.writeEnum(1);
+        encoder.writeEnum(0);
+        encoder.writeArrayEnd();
+        encoder.writeString("b");
+        encoder.writeArrayStart();
+        encoder.setItemCount(0);
+        encoder.writeArrayEnd();
+        encoder.writeMapEnd();
+
+        ResolvingDecoder decoder = resolving(schema, out.toByteArray());
+        assertEquals(2, decoder.readMapStart());
+        assertEquals("a", decoder.readString());
+        assertEquals(2, decoder.readArrayStart());
+        assertEquals(1, decoder.readEnum());
+        assertEquals(0, decoder.readEnum());
+        assertEquals(0, decoder.readArrayNext());
+        assertEquals("b", decoder.readString());
+        assertEquals(0, decoder.readArrayStart());
+        assertEquals(0, decoder.readMapNext());
+        decoder.drain();
+    }
+
+    @Test(expected = BaijiTypeException.class)
+    public void testTypeMismatch() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DirectBinaryEncoder(out).writeLong(1);
+        ResolvingDecoder decoder = resolving(LIST, out.toByteArray());
+        decoder.readFieldOrder();
+        decoder.readInt();
+    }
+
+    @Test
+    public void testWriterUnionToNonUnion() throws IOException {
+        Schema writer = Schema.parse("[\"null\", \"string\"]");
+        Schema reader = Schema.parse("\"string\"");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        encoder.writeUnionIndex(1);
+        encoder.writeString("text");
+        ResolvingDecoder decoder = resolving(writer, reader, out.toByteArray());
+        assertEquals("text", decoder.readString());
+        decoder.drain();
+
+        // the null branch only fails when it is found in the data
+        out.reset();
+        encoder.writeUnionIndex(0);
+        decoder = resolving(writer, reader, out.toByteArray());
+        try {
+            decoder.readString();
+            fail("null cannot be read as a string");
+        } catch (BaijiTypeException expected) {
+        }
+    }
+
+    @Test
+    public void testPromotion() throws IOException {
+        Schema writer = Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"a\", \"type\":\"int\"}, {\"name\":\"b\", \"type\":\"int\"}, " +
+                "{\"name\":\"c\", \"type\":\"int\"}, {\"name\":\"d\", \"type\":\"long\"}, " +
+                "{\"name\":\"e\", \"type\":\"long\"}, {\"name\":\"f\", \"type\":\"float\"}, " +
+                "{\"name\":\"g\", \"type\":\"int\"}, {\"name\":\"h\", \"type\":[\"int\", \"float\"]}]}");
+        Schema reader = Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+                "{\"name\":\"a\", \"type\":\"long\"}, {\"name\":\"b\", \"type\":\"float\"}, " +
+                "{\"name\":\"c\", \"type\":\"double\"}, {\"name\":\"d\", \"type\":\"float\"}, " +
+                "{\"name\":\"e\", \"type\":\"double\"}, {\"name\":\"f\", \"type\":\"double\"}, " +
+                "{\"name\":\"g\", \"type\":[\"null\", \"long\"]}, {\"name\":\"h\", \"type\":\"double\"}]}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        encoder.writeInt(-7);
+        encoder.writeInt(3);
+        encoder.writeInt(Integer.MAX_VALUE);
+        encoder.writeLong(1L << 40);
+        encoder.writeLong(-5L);
+        encoder.writeFloat(1.5f);
+        encoder.writeInt(9);
+        encoder.writeUnionIndex(1);
+        encoder.writeFloat(0.25f);
+
+        ResolvingDecoder decoder = resolving(writer, reader, out.toByteArray());
+        decoder.readFieldOrder();
+        assertEquals(-7L, decoder.readLong());
+        assertEquals(3f, decoder.readFloat(), 0);
+        assertEquals(Integer.MAX_VALUE, decoder.readDouble(), 0);
+        assertEquals((float) (1L << 40), decoder.readFloat(), 0);
+        assertEquals(-5.0, decoder.readDouble(), 0);
+        assertEquals(1.5, decoder.readDouble(), 0);
+        assertEquals(1, decoder.readUnionIndex());
+        assertEquals(9L, decoder.readLong());
+        assertEquals(0.25, decoder.readDouble(), 0);
+        decoder.drain();
+    }
+
+    @Test(expected = BaijiTypeException.class)
+    public void testNoDemotion() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DirectBinaryEncoder(out).writeLong(1);
+        resolving(Schema.parse("\"long\""), Schema.parse("\"int\""), out.toByteArray()).readInt();
+    }
+
+    @Test
+    public void testResolverIsShared() {
+        assertSame(ResolvingDecoder.resolve(LIST), ResolvingDecoder.resolve(LIST));
+    }
+
+    private static ResolvingDecoder resolving(Schema schema, byte[] bytes) throws IOException {
+        return DecoderFactory.get().resolvingDecoder(schema,
+                new DirectBinaryDecoder(new ByteArrayInputStream(bytes)));
+    }
+
+    private static ResolvingDecoder resolving(Schema writer, Schema reader, byte[] bytes) throws IOException {
+        return DecoderFactory.get().resolvingDecoder(writer, reader,
+                new DirectBinaryDecoder(new ByteArrayInputStream(bytes)));
+    }
+}
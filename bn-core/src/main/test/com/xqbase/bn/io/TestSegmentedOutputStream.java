@@ -0,0 +1,77 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SegmentedOutputStream} and {@link SegmentedBinaryEncoder}.
+ *
+ * @author Tony He
+ */
+public class TestSegmentedOutputStream {
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"l\", \"type\":\"long\"}, {\"name\":\"d\", \"type\":\"double\"}, " +
+            "{\"name\":\"s\", \"type\":\"string\"}, {\"name\":\"a\", \"type\":{\"type\":\"array\", \"items\":\"int\"}}]}");
+
+    @Test
+    public void testSameBytesAsDirectEncoder() throws IOException {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.putLong(0, Long.MIN_VALUE);
+        record.putDouble(1, 1.25);
+        record.put(2, "a string longer than a single chunk of the stream");
+        List<Object> array = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            array.add(i * 1000);
+        }
+        record.put(3, array);
+        GenericDatumWriter<GenericData.Record> writer = new GenericDatumWriter<>(SCHEMA);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writer.write(record, new DirectBinaryEncoder(expected));
+
+        SegmentedOutputStream.ChunkPool pool = new SegmentedOutputStream.ChunkPool(16, 64);
+        SegmentedOutputStream out = new SegmentedOutputStream(pool);
+        writer.write(record, new SegmentedBinaryEncoder(out));
+
+        assertEquals(expected.size(), out.size());
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+
+        ByteBuffer[] buffers = out.toByteBuffers();
+        assertTrue(buffers.length > 1);
+        ByteArrayOutputStream gathered = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : buffers) {
+            assertTrue(buffer.remaining() <= 16);
+            gathered.write(buffer.array(), buffer.position(), buffer.remaining());
+        }
+        assertArrayEquals(expected.toByteArray(), gathered.toByteArray());
+    }
+
+    @Test
+    public void testReleaseReusesChunks() {
+        SegmentedOutputStream.ChunkPool pool = new SegmentedOutputStream.ChunkPool(16, 1);
+        SegmentedOutputStream out = new SegmentedOutputStream(pool);
+        out.write(new byte[20], 0, 20);
+        byte[] first = out.toByteBuffers()[0].array();
+        out.release();
+        assertEquals(0, out.size());
+
+        out.write(7);
+        ByteBuffer[] buffers = out.toByteBuffers();
+        assertEquals(1, buffers.length);
+        assertSame(first, buffers[0].array());
+        assertEquals(1, buffers[0].remaining());
+        assertEquals(7, buffers[0].get());
+    }
+}
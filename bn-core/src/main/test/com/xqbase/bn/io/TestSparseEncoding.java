@@ -0,0 +1,434 @@
+package com.xqbase.bn.io;
+
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.schema.UnionSchema;
+import com.xqbase.bn.util.Utf8;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the sparse encoding of records.
+ *
+ * @author Tony He
+ */
+public class TestSparseEncoding {
+
+    private static final String INNER = "{\"type\":\"record\", \"name\":\"inner\", \"encoding\":\"sparse\", \"fields\":[" +
+            "{\"name\":\"x\", \"type\":[\"null\", \"int\"]}, {\"name\":\"y\", \"type\":[\"string\", \"null\"]}]}";
+
+    private static final RecordSchema SCHEMA = (RecordSchema) Schema.parse(schema("sparse", 12));
+    private static final RecordSchema DENSE = (RecordSchema) Schema.parse(schema("dense", 12));
+
+    private static String schema(String encoding, int optionalFields) {
+        StringBuilder builder = new StringBuilder("{\"type\":\"record\", \"name\":\"event\", \"encoding\":\"")
+                .append(encoding).append("\", \"fields\":[{\"name\":\"id\", \"type\":\"long\"}");
+        for (int i = 0; i < optionalFields; i++) {
+            builder.append(", {\"name\":\"f").append(i).append("\", \"type\":[\"null\", \"string\"]}");
+        }
+        builder.append(", {\"name\":\"inners\", \"type\":[\"null\", {\"type\":\"array\", \"items\":")
+                .append(INNER).append("}]}]}");
+        return builder.toString();
+    }
+
+    @Test
+    public void testSchema() {
+        assertTrue(SCHEMA.isSparse());
+        assertFalse(DENSE.isSparse());
+        assertEquals(-1, SCHEMA.getPresenceBit(0));
+        assertEquals(0, SCHEMA.getPresenceBit(1));
+        assertEquals(2, SCHEMA.getPresenceBytes());
+        assertTrue(((RecordSchema) Schema.parse(SCHEMA.toString())).isSparse());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        GenericData.Record record = makeRecord(SCHEMA);
+        byte[] bytes = write(SCHEMA, record);
+        assertEquals(new GenericDatumWriter<GenericData.Record>(SCHEMA).sizeOf(record), bytes.length);
+        assertTrue(bytes.length < write(DENSE, makeRecord(DENSE)).length);
+
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(SCHEMA)
+                .read(null, decoder(bytes));
+        assertEquals(record, result);
+        assertNull(result.get("f0"));
+        assertEquals("three", result.get("f3"));
+    }
+
+    @Test
+    public void testPresentUnionIndexLeftOut() throws IOException {
+        RecordSchema schema = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", " +
+                "\"encoding\":\"sparse\", \"fields\":[{\"name\":\"a\", \"type\":[\"string\", \"null\"]}, " +
+                "{\"name\":\"b\", \"type\":[\"null\", \"int\", \"string\"]}, " +
+                "{\"name\":\"c\", \"type\":[\"null\", " + INNER + "]}]}");
+        assertEquals(0, schema.getPresentBranch(0));
+        assertEquals(-1, schema.getPresentBranch(1));
+        assertEquals(1, schema.getPresentBranch(2));
+
+        GenericData.Record inner = new GenericData.Record((RecordSchema) ((UnionSchema)
+                schema.getField("c").getSchema()).get(1));
+        inner.put(0, 3);
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put(0, "x");
+        record.put(1, 5);
+        record.put(2, inner);
+        byte[] bytes = write(schema, record);
+        // bitmap, "x" without its index, branch 1 of b then 5, c without its index: bitmap, 3
+        assertArrayEquals(new byte[]{7, 2, 'x', 2, 10, 1, 6}, bytes);
+        assertEquals(new GenericDatumWriter<GenericData.Record>(schema).sizeOf(record), bytes.length);
+        assertEquals(record, new GenericDatumReader<GenericData.Record>(schema).read(null, decoder(bytes)));
+
+        // read as a non-union field
+        RecordSchema reader = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"r\", " +
+                "\"fields\":[{\"name\":\"a\", \"type\":\"string\"}]}");
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(schema, reader)
+                .read(null, decoder(bytes));
+        assertEquals("x", result.get("a"));
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new JsonTranscoder(schema).toJson(new ByteArrayInputStream(bytes), json);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new JsonTranscoder(schema).toBinary(new ByteArrayInputStream(json.toByteArray()), binary);
+        assertArrayEquals(bytes, binary.toByteArray());
+    }
+
+    @Test
+    public void testResolution() throws IOException {
+        RecordSchema reader = (RecordSchema) Schema.parse("{\"type\":\"record\", \"name\":\"event\", \"fields\":[" +
+                "{\"name\":\"f3\", \"type\":[\"null\", \"string\"]}, {\"name\":\"f4\", \"type\":[\"null\", \"string\"]}, " +
+                "{\"name\":\"id\", \"type\":\"long\"}, {\"name\":\"extra\", \"type\":\"int\", \"default\":7}]}");
+        byte[] bytes = write(SCHEMA, makeRecord(SCHEMA));
+        GenericData.Record result = new GenericDatumReader<GenericData.Record>(SCHEMA, reader)
+                .read(null, decoder(bytes));
+        assertEquals(42L, result.get("id"));
+        assertEquals("three", result.get("f3"));
+        assertNull(result.get("f4"));
+        assertEquals(7, result.get("extra"));
+    }
+
+    @Test
+    public void testJsonTranscoding() throws IOException {
+        byte[] bytes = write(SCHEMA, makeRecord(SCHEMA));
+        JsonTranscoder transcoder = new JsonTranscoder(SCHEMA);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        transcoder.toJson(new ByteArrayInputStream(bytes), json);
+        assertTrue(json.toString("UTF-8").contains("\"f0\":null"));
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        transcoder.toBinary(new ByteArrayInputStream(json.toByteArray()), binary);
+        GenericDatumReader<GenericData.Record> reader = new GenericDatumReader<>(SCHEMA);
+        assertEquals(makeRecord(SCHEMA), reader.read(null, decoder(binary.toByteArray())));
+        assertEquals(makeRecord(SCHEMA), reader.read(null, new JsonDecoder(SCHEMA, json.toString("UTF-8"))));
+    }
+
+    @Test
+    public void testDelegatingCodecs() throws IOException {
+        GenericData.Record record = makeRecord(SCHEMA);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>(SCHEMA)
+                .write(record, new ForwardingEncoder(new DirectBinaryEncoder(out)));
+        byte[] bytes = out.toByteArray();
+        assertArrayEquals(write(SCHEMA, record), bytes);
+        assertEquals(record, new GenericDatumReader<GenericData.Record>(SCHEMA)
+                .read(null, new ForwardingDecoder(decoder(bytes))));
+    }
+
+    private static GenericData.Record makeRecord(RecordSchema schema) {
+        GenericData.Record record = new GenericData.Record(schema);
+        record.putLong(0, 42L);
+        record.put("f3", "three");
+        record.put("f11", "eleven");
+        RecordSchema inner = (RecordSchema) Schema.parse(INNER);
+        List<Object> inners = new ArrayList<>();
+        for (Integer x : Arrays.asList(1, null)) {
+            GenericData.Record item = new GenericData.Record(inner);
+            item.put(0, x);
+            inners.add(item);
+        }
+        record.put("inners", inners);
+        return record;
+    }
+
+    private static byte[] write(RecordSchema schema, GenericData.Record record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenericDatumWriter<GenericData.Record>(schema).write(record, new DirectBinaryEncoder(out));
+        return out.toByteArray();
+    }
+
+    private static DirectBinaryDecoder decoder(byte[] bytes) {
+        return new DirectBinaryDecoder(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * A decoder that only passes the calls on, as a wrapping decoder would.
+     */
+    private static class ForwardingDecoder implements Decoder {
+
+        private final Decoder in;
+
+        ForwardingDecoder(Decoder in) {
+            this.in = in;
+        }
+
+        @Override
+        public void readNull() throws IOException {
+            in.readNull();
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return in.readBoolean();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return in.readFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return in.readDouble();
+        }
+
+        @Override
+        public byte[] readBytes() throws IOException {
+            return in.readBytes();
+        }
+
+        @Override
+        public ByteBuffer readBytes(ByteBuffer old) throws IOException {
+            return in.readBytes(old);
+        }
+
+        @Override
+        public void readFixed(byte[] bytes, int start, int length) throws IOException {
+            in.readFixed(bytes, start, length);
+        }
+
+        @Override
+        public void readFixed(byte[] bytes) throws IOException {
+            in.readFixed(bytes);
+        }
+
+        @Override
+        public Utf8 readString(Utf8 old) throws IOException {
+            return in.readString(old);
+        }
+
+        @Override
+        public String readString() throws IOException {
+            return in.readString();
+        }
+
+        @Override
+        public Calendar readDatetime() throws IOException {
+            return in.readDatetime();
+        }
+
+        @Override
+        public Instant readDatetimeInstant() throws IOException {
+            return in.readDatetimeInstant();
+        }
+
+        @Override
+        public long readDatetimeMillis() throws IOException {
+            return in.readDatetimeMillis();
+        }
+
+        @Override
+        public int readEnum() throws IOException {
+            return in.readEnum();
+        }
+
+        @Override
+        public long readArrayStart() throws IOException {
+            return in.readArrayStart();
+        }
+
+        @Override
+        public long readArrayNext() throws IOException {
+            return in.readArrayNext();
+        }
+
+        @Override
+        public long readMapStart() throws IOException {
+            return in.readMapStart();
+        }
+
+        @Override
+        public long readMapNext() throws IOException {
+            return in.readMapNext();
+        }
+
+        @Override
+        public int readUnionIndex() throws IOException {
+            return in.readUnionIndex();
+        }
+
+        @Override
+        public boolean usesPresenceBitmap() {
+            return in.usesPresenceBitmap();
+        }
+    }
+
+    /**
+     * An encoder that only passes the calls on, as a wrapping encoder would.
+     */
+    private static class ForwardingEncoder implements Encoder {
+
+        private final Encoder out;
+
+        ForwardingEncoder(Encoder out) {
+            this.out = out;
+        }
+
+        @Override
+        public void writeNull() throws IOException {
+            out.writeNull();
+        }
+
+        @Override
+        public void writeBoolean(boolean b) throws IOException {
+            out.writeBoolean(b);
+        }
+
+        @Override
+        public void writeInt(int n) throws IOException {
+            out.writeInt(n);
+        }
+
+        @Override
+        public void writeLong(long n) throws IOException {
+            out.writeLong(n);
+        }
+
+        @Override
+        public void writeFloat(float f) throws IOException {
+            out.writeFloat(f);
+        }
+
+        @Override
+        public void writeDouble(double d) throws IOException {
+            out.writeDouble(d);
+        }
+
+        @Override
+        public void writeString(Utf8 str) throws IOException {
+            out.writeString(str);
+        }
+
+        @Override
+        public void writeString(String str) throws IOException {
+            out.writeString(str);
+        }
+
+        @Override
+        public void writeString(CharSequence charSequence) throws IOException {
+            out.writeString(charSequence);
+        }
+
+        @Override
+        public void writeBytes(byte[] bytes, int start, int len) throws IOException {
+            out.writeBytes(bytes, start, len);
+        }
+
+        @Override
+        public void writeBytes(ByteBuffer bytes) throws IOException {
+            out.writeBytes(bytes);
+        }
+
+        @Override
+        public void writeFixed(byte[] bytes, int start, int len) throws IOException {
+            out.writeFixed(bytes, start, len);
+        }
+
+        @Override
+        public void writeDatetime(Calendar date) throws IOException {
+            out.writeDatetime(date);
+        }
+
+        @Override
+        public void writeDatetime(Instant instant) throws IOException {
+            out.writeDatetime(instant);
+        }
+
+        @Override
+        public void writeDatetimeMillis(long millis) throws IOException {
+            out.writeDatetimeMillis(millis);
+        }
+
+        @Override
+        public void writeEnum(int e) throws IOException {
+            out.writeEnum(e);
+        }
+
+        @Override
+        public void writeArrayStart() throws IOException {
+            out.writeArrayStart();
+        }
+
+        @Override
+        public void setItemCount(long itemCount) throws IOException {
+            out.setItemCount(itemCount);
+        }
+
+        @Override
+        public void startItem() throws IOException {
+            out.startItem();
+        }
+
+        @Override
+        public void writeArrayEnd() throws IOException {
+            out.writeArrayEnd();
+        }
+
+        @Override
+        public void writeMapStart() throws IOException {
+            out.writeMapStart();
+        }
+
+        @Override
+        public void writeMapEnd() throws IOException {
+            out.writeMapEnd();
+        }
+
+        @Override
+        public void writeUnionIndex(int unionIndex) throws IOException {
+            out.writeUnionIndex(unionIndex);
+        }
+
+        @Override
+        public boolean usesPresenceBitmap() {
+            return out.usesPresenceBitmap();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.xqbase.bn.metrics;
+
+import com.xqbase.bn.BinarySerializer;
+import com.xqbase.bn.InstrumentedSerializer;
+import com.xqbase.bn.Serializer;
+import com.xqbase.bn.SpecificTestRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SerializerMetrics} and {@link InstrumentedSerializer}.
+ *
+ * @author Tony He
+ */
+public class TestSerializerMetrics {
+
+    @Before
+    public void setUp() {
+        SerializerMetrics.reset();
+        SerializerMetrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        SerializerMetrics.setEnabled(false);
+        SerializerMetrics.reset();
+    }
+
+    @Test
+    public void testSerializerMetrics() throws IOException {
+        Serializer serializer = new InstrumentedSerializer(new BinarySerializer());
+        SpecificTestRecord record = new SpecificTestRecord();
+        record.putLong(0, 42L);
+        record.put(1, "name");
+        record.put(2, Arrays.asList("tag"));
+
+        byte[] bytes = null;
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            serializer.serialize(record, out);
+            bytes = out.toByteArray();
+        }
+        for (int i = 0; i < 2; i++) {
+            assertEquals(record, serializer.deserialize(SpecificTestRecord.class, new ByteArrayInputStream(bytes)));
+        }
+
+        SchemaMetrics metrics = SerializerMetrics.getAll().get("com.xqbase.bn.SpecificTestRecord");
+        assertNotNull(metrics);
+        assertEquals(3, metrics.getSerializeCount());
+        assertEquals(3L * bytes.length, metrics.getSerializedBytes());
+        assertEquals(2, metrics.getDeserializeCount());
+        assertEquals(2L * bytes.length, metrics.getDeserializedBytes());
+        assertEquals(3, metrics.getSerializeNanos().getCount());
+        assertEquals(2, metrics.getDeserializeNanos().getCount());
+        // the first lookup of each cache may miss, depending on earlier use of the serializer
+        assertEquals(3, metrics.getWriterCache().getHits() + metrics.getWriterCache().getMisses());
+        assertTrue(metrics.getWriterCache().getHits() >= 2);
+        assertTrue(metrics.getReaderCache().getHits() >= 1);
+        assertTrue(metrics.getResolverCache().getHits() >= 1);
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        SerializerMetrics.setEnabled(false);
+        SpecificTestRecord record = new SpecificTestRecord();
+        record.put(1, "");
+        record.put(2, Collections.emptyList());
+        new InstrumentedSerializer(new BinarySerializer()).serialize(record, new ByteArrayOutputStream());
+        assertTrue(SerializerMetrics.getAll().isEmpty());
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.0);
+        long median = histogram.getPercentile(0.5);
+        assertTrue(median >= 50 && median <= 63);
+        assertEquals(100, histogram.getPercentile(1.0));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
@@ -0,0 +1,195 @@
+package com.xqbase.bn.reflect;
+
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.schema.RecordSchema;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.schema.SchemaType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ReflectData}, {@link ReflectDatumWriter} and {@link ReflectDatumReader}.
+ *
+ * @author Tony He
+ */
+public class TestReflectData {
+
+    public enum Color {
+        RED, GREEN
+    }
+
+    public static class Item {
+        String name;
+        double price;
+    }
+
+    public static class Base {
+        long id;
+    }
+
+    public static class Order extends Base {
+        int quantity;
+        short flags;
+        boolean paid;
+        String note;
+        byte[] payload;
+        Color color;
+        Instant created;
+        List<Item> items;
+        Map<String, Integer> counts;
+        transient int ignored;
+    }
+
+    public static class Converted {
+        Date date;
+        List<Date> dates;
+        List<Calendar> calendars;
+        List<Short> shorts;
+        List<byte[]> payloads;
+        Map<String, Byte> bytes;
+        Map<String, List<Date>> nested;
+    }
+
+    @Test
+    public void testConvertedItems() throws IOException {
+        Converted converted = new Converted();
+        converted.date = new Date(1431648000123L);
+        converted.dates = Arrays.asList(new Date(1L), new Date(2L));
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(3L);
+        converted.calendars = Collections.singletonList(calendar);
+        converted.shorts = Arrays.asList((short) 1, (short) -2);
+        converted.payloads = Arrays.asList(new byte[]{1, 2}, new byte[0]);
+        converted.bytes = new HashMap<>();
+        converted.bytes.put("b", (byte) 7);
+        converted.nested = new HashMap<>();
+        converted.nested.put("n", Collections.singletonList(new Date(4L)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        new ReflectDatumWriter<Converted>(Converted.class).write(converted, encoder);
+        encoder.flush();
+        Converted result = new ReflectDatumReader<>(Converted.class)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+
+        assertEquals(converted.date, result.date);
+        assertEquals(converted.dates, result.dates);
+        assertEquals(3L, result.calendars.get(0).getTimeInMillis());
+        assertEquals(converted.shorts, result.shorts);
+        assertEquals(2, result.payloads.size());
+        assertArrayEquals(new byte[]{1, 2}, result.payloads.get(0));
+        assertArrayEquals(new byte[0], result.payloads.get(1));
+        assertEquals(converted.bytes, result.bytes);
+        assertEquals(converted.nested, result.nested);
+    }
+
+    @Test
+    public void testSchema() {
+        RecordSchema schema = (RecordSchema) ReflectData.get().getSchema(Order.class);
+        assertSame(schema, ReflectData.get().getSchema(Order.class));
+        assertEquals("com.xqbase.bn.reflect.TestReflectData.Order", schema.getFullName());
+        assertEquals(10, schema.getFields().size());
+        assertEquals("id", schema.getFields().get(0).getName());
+        assertEquals(SchemaType.LONG, schema.getField("id").getSchema().getType());
+        assertEquals(SchemaType.INT, schema.getField("flags").getSchema().getType());
+        assertEquals(SchemaType.UNION, schema.getField("note").getSchema().getType());
+        assertNull(schema.getField("ignored"));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Order order = makeOrder();
+        Order result = roundTrip(order, null);
+        assertEquals(order.id, result.id);
+        assertEquals(order.quantity, result.quantity);
+        assertEquals(order.flags, result.flags);
+        assertEquals(order.paid, result.paid);
+        assertEquals(order.note, result.note);
+        assertArrayEquals(order.payload, result.payload);
+        assertEquals(order.color, result.color);
+        assertEquals(order.created, result.created);
+        assertEquals(2, result.items.size());
+        assertEquals("b", result.items.get(1).name);
+        assertEquals(2.5, result.items.get(1).price, 0);
+        assertEquals(order.counts, result.counts);
+    }
+
+    @Test
+    public void testNullsAndReuse() throws IOException {
+        Order order = new Order();
+        order.id = 7;
+        Order reuse = makeOrder();
+        Order result = roundTrip(order, reuse);
+        assertSame(reuse, result);
+        assertEquals(7, result.id);
+        assertNull(result.note);
+        assertNull(result.items);
+        assertNull(result.created);
+    }
+
+    @Test
+    public void testReadWithWriterSchema() throws IOException {
+        Schema writer = Schema.parse("{\"type\":\"record\", \"name\":\"Item\", \"fields\":[" +
+                "{\"name\":\"extra\", \"type\":\"int\"}, {\"name\":\"price\", \"type\":\"double\"}, " +
+                "{\"name\":\"name\", \"type\":[\"null\", \"string\"]}]}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        encoder.writeInt(3);
+        encoder.writeDouble(1.5);
+        encoder.writeUnionIndex(1);
+        encoder.writeString("a");
+        encoder.flush();
+        Item item = new ReflectDatumReader<>(writer, Item.class)
+                .read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals("a", item.name);
+        assertEquals(1.5, item.price, 0);
+    }
+
+    private static Order makeOrder() {
+        Order order = new Order();
+        order.id = 1L << 40;
+        order.quantity = 3;
+        order.flags = 12;
+        order.paid = true;
+        order.note = "note";
+        order.payload = new byte[]{1, 2, 3};
+        order.color = Color.GREEN;
+        order.created = Instant.ofEpochMilli(1431648000123L);
+        order.items = new ArrayList<>();
+        for (String name : Arrays.asList("a", "b")) {
+            Item item = new Item();
+            item.name = name;
+            item.price = order.items.size() + 1.5;
+            order.items.add(item);
+        }
+        order.counts = new HashMap<>();
+        order.counts.put("k", 5);
+        return order;
+    }
+
+    private static Order roundTrip(Order order, Order reuse) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectBinaryEncoder encoder = new DirectBinaryEncoder(out);
+        ReflectDatumWriter<Order> writer = new ReflectDatumWriter<>(Order.class);
+        writer.write(order, encoder);
+        encoder.flush();
+        assertEquals(out.size(), writer.sizeOf(order));
+        return new ReflectDatumReader<>(Order.class)
+                .read(reuse, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray())));
+    }
+}
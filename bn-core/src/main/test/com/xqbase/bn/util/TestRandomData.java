@@ -0,0 +1,136 @@
+package com.xqbase.bn.util;
+
+import com.xqbase.bn.SpecificTestRecord;
+import com.xqbase.bn.generic.GenericData;
+import com.xqbase.bn.generic.GenericDatumReader;
+import com.xqbase.bn.generic.GenericDatumWriter;
+import com.xqbase.bn.generic.GenericJsonDatumWriter;
+import com.xqbase.bn.io.DirectBinaryDecoder;
+import com.xqbase.bn.io.DirectBinaryEncoder;
+import com.xqbase.bn.io.Encoder;
+import com.xqbase.bn.io.JsonDecoder;
+import com.xqbase.bn.schema.Schema;
+import com.xqbase.bn.specific.SpecificData;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link RandomData}.
+ *
+ * @author Tony He
+ */
+public class TestRandomData {
+
+    private static final Schema SCHEMA = Schema.parse("{\"type\":\"record\", \"name\":\"r\", \"fields\":[" +
+            "{\"name\":\"b\", \"type\":\"boolean\"}, {\"name\":\"i\", \"type\":\"int\"}, " +
+            "{\"name\":\"l\", \"type\":\"long\"}, {\"name\":\"f\", \"type\":\"float\"}, " +
+            "{\"name\":\"d\", \"type\":\"double\"}, {\"name\":\"t\", \"type\":\"datetime\"}, " +
+            "{\"name\":\"s\", \"type\":\"string\"}, {\"name\":\"bytes\", \"type\":\"bytes\"}, " +
+            "{\"name\":\"e\", \"type\":{\"type\":\"enum\", \"name\":\"e\", \"symbols\":[\"s1\", \"s2\", \"s3\"]}}, " +
+            "{\"name\":\"a\", \"type\":{\"type\":\"array\", \"items\":\"string\"}}, " +
+            "{\"name\":\"m\", \"type\":{\"type\":\"map\", \"values\":\"long\"}}, " +
+            "{\"name\":\"u\", \"type\":[\"null\", \"int\", \"string\"]}, " +
+            "{\"name\":\"next\", \"type\":[\"null\", \"r\"]}]}");
+
+    @Test
+    public void testSeed() {
+        assertEquals(new RandomData(7).generate(SCHEMA, 20), new RandomData(7).generate(SCHEMA, 20));
+        assertNotEquals(new RandomData(7).generate(SCHEMA, 20), new RandomData(8).generate(SCHEMA, 20));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        GenericDatumWriter<Object> writer = new GenericDatumWriter<>(SCHEMA);
+        GenericDatumReader<Object> reader = new GenericDatumReader<>(SCHEMA);
+        GenericJsonDatumWriter<Object> jsonWriter = new GenericJsonDatumWriter<>(SCHEMA);
+        JsonFactory factory = new JsonFactory();
+        for (Object datum : new RandomData(42).generate(SCHEMA, 200)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Encoder encoder = new DirectBinaryEncoder(out);
+            writer.write(datum, encoder);
+            encoder.flush();
+            assertEquals(datum, reader.read(null, new DirectBinaryDecoder(new ByteArrayInputStream(out.toByteArray()))));
+        }
+        RandomData random = new RandomData(42);
+        for (Object datum : random.generate(SCHEMA, 200)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonGenerator generator = factory.createJsonGenerator(out, JsonEncoding.UTF8);
+            jsonWriter.write(datum, generator);
+            generator.flush();
+            assertEquals(datum, reader.read(null, new JsonDecoder(SCHEMA, new ByteArrayInputStream(out.toByteArray()))));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSizes() {
+        RandomData random = new RandomData(1)
+                .setStringLengths(RandomData.Sizes.fixed(5))
+                .setArraySizes(RandomData.Sizes.oneOf(2, 3))
+                .setMapSizes(RandomData.Sizes.geometric(2, 4))
+                .setNullProbability(0)
+                .setMaxDepth(3);
+        for (Object datum : random.generate(SCHEMA, 50)) {
+            GenericData.Record record = (GenericData.Record) datum;
+            assertEquals(5, ((String) record.get("s")).length());
+            int size = ((List<String>) record.get("a")).size();
+            assertTrue(size == 2 || size == 3);
+            for (String item : (List<String>) record.get("a")) {
+                assertEquals(5, item.length());
+            }
+            assertTrue(((Map<String, Long>) record.get("m")).size() <= 4);
+            assertNotNull(record.get("u"));
+            // nullable unions are only null below the maximum depth
+            int depth = 1;
+            for (Object next = record.get("next"); next != null; next = ((GenericData.Record) next).get("next")) {
+                depth++;
+            }
+            assertEquals(3, depth);
+        }
+
+        random.setNullProbability(1);
+        for (Object datum : random.generate(SCHEMA, 50)) {
+            assertNull(((GenericData.Record) datum).get("u"));
+            assertNull(((GenericData.Record) datum).get("next"));
+        }
+    }
+
+    @Test
+    public void testStrings() {
+        Schema schema = Schema.parse("\"string\"");
+        boolean nonAscii = false;
+        boolean supplementary = false;
+        RandomData random = new RandomData(5).setStringLengths(RandomData.Sizes.uniform(1, 8));
+        for (Object datum : random.generate(schema, 200)) {
+            String s = (String) datum;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                nonAscii |= c > 0x7F;
+                if (Character.isHighSurrogate(c)) {
+                    assertTrue(Character.isLowSurrogate(s.charAt(++i)));
+                    supplementary = true;
+                } else {
+                    assertFalse(Character.isLowSurrogate(c));
+                }
+            }
+        }
+        assertTrue(nonAscii);
+        assertTrue(supplementary);
+    }
+
+    @Test
+    public void testSpecificRecords() {
+        Object datum = new RandomData(SpecificData.get(), 3).generate(SpecificTestRecord.SCHEMA);
+        assertTrue(datum instanceof SpecificTestRecord);
+    }
+}
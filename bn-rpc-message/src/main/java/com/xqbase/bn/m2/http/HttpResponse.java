@@ -3,13 +3,64 @@ package com.xqbase.bn.m2.http;
 import com.xqbase.bn.m2.Response;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Created by tonyhe on 15-5-26.
  */
 public class HttpResponse implements Response {
+
+    public static final int OK = 200;
+
+    private final int status;
+    private final Map<String, String> headers;
+    private final ByteBuffer entity;
+
+    public HttpResponse() {
+        this(null);
+    }
+
+    public HttpResponse(ByteBuffer entity) {
+        this(OK, Collections.<String, String>emptyMap(), entity);
+    }
+
+    /**
+     * @param headers the headers, a header received more than once having its
+     *                values joined by commas
+     */
+    public HttpResponse(int status, Map<String, String> headers, ByteBuffer entity) {
+        if (null == headers) {
+            throw new NullPointerException("headers cannot be null");
+        }
+        Map<String, String> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        copy.putAll(headers);
+        this.status = status;
+        this.headers = Collections.unmodifiableMap(copy);
+        this.entity = entity;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the headers, with case insensitive names.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns whether the status is a 2xx one.
+     */
+    public boolean isSuccess() {
+        return status >= 200 && status < 300;
+    }
+
     @Override
     public ByteBuffer getEntity() {
-        return null;
+        return entity;
     }
 }
@@ -0,0 +1,43 @@
+package com.xqbase.bn.transport.bridge.common;
+
+/**
+ * Simple implementation of {@link TransportResponse}.
+ *
+ * @author Tony He
+ */
+public class TransportResponseImpl<T> implements TransportResponse<T> {
+
+    private final T response;
+    private final Throwable error;
+
+    private TransportResponseImpl(T response, Throwable error) {
+        this.response = response;
+        this.error = error;
+    }
+
+    public static <T> TransportResponse<T> success(T response) {
+        return new TransportResponseImpl<>(response, null);
+    }
+
+    public static <T> TransportResponse<T> error(Throwable error) {
+        if (null == error) {
+            throw new NullPointerException("error cannot be null");
+        }
+        return new TransportResponseImpl<>(null, error);
+    }
+
+    @Override
+    public T getResponse() {
+        return response;
+    }
+
+    @Override
+    public boolean hasError() {
+        return error != null;
+    }
+
+    @Override
+    public Throwable getError() {
+        return error;
+    }
+}
@@ -0,0 +1,517 @@
+package com.xqbase.bn.transport.http.client;
+
+import com.xqbase.bn.common.callback.Callback;
+import com.xqbase.bn.m2.Request;
+import com.xqbase.bn.m2.RequestContext;
+import com.xqbase.bn.m2.Response;
+import com.xqbase.bn.m2.http.HttpRequest;
+import com.xqbase.bn.transport.apool.exceptions.SizeLimitExceededException;
+import com.xqbase.bn.transport.apool.util.None;
+import com.xqbase.bn.transport.bridge.client.TransportClient;
+import com.xqbase.bn.transport.bridge.common.TimeoutTransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponseImpl;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.ChannelGroupFutureListener;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.handler.codec.http2.HttpUtil;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapter;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HttpClient multiplexing requests over HTTP/2 connections, based on Netty.
+ * <p/>
+ * Instead of checking a channel out of a pool for each request, the client opens
+ * up to a few connections per host and sends each request as a stream of one of
+ * them, the least loaded. Another connection is only opened once all those of
+ * the host carry their maximum of concurrent streams, and requests wait when
+ * the host has as many connections as allowed.
+ * <p/>
+ * The receive windows of streams and of whole connections are configurable, so
+ * that large responses are not throttled by the 64KB default of HTTP/2.
+ * Connections are cleartext and start HTTP/2 directly, without upgrade, so
+ * that only http URIs of servers known to speak HTTP/2 are supported.
+ *
+ * @author Tony He
+ */
+public class Http2NettyClient implements TransportClient {
+
+    private static final int DEFAULT_HTTP_PORT = 80;
+
+    public static final int DEFAULT_CONNECTIONS_PER_HOST = 1;
+    public static final int DEFAULT_MAX_STREAMS_PER_CONNECTION = 100;
+    public static final int DEFAULT_WINDOW_SIZE = Http2CodecUtil.DEFAULT_WINDOW_SIZE;
+    public static final int DEFAULT_MAX_CONTENT_LENGTH = 8 * 1024 * 1024;
+
+    private final ChannelGroup allChannels = new DefaultChannelGroup("Http2 Transport Channels", GlobalEventExecutor.INSTANCE);
+    private final ConcurrentHashMap<SocketAddress, HostConnections> hosts = new ConcurrentHashMap<>();
+    private final Bootstrap bootstrap;
+
+    private final ScheduledExecutorService timeoutSchedule;
+    private final ExecutorService callbackExecutor;
+
+    private final int requestTimeout;
+    private final int connectionsPerHost;
+    private final int maxStreamsPerConnection;
+    private final int maxWaiters;
+    private final int initialWindowSize;
+    private final int connectionWindowSize;
+    private final int maxContentLength;
+    private final String name;
+
+    private final AtomicReference<State> stateRef = new AtomicReference<>(State.RUNNING);
+    private enum State { RUNNING, SHUT_DOWN }
+
+    /**
+     * Creates a client with the default limits and windows.
+     */
+    public Http2NettyClient(EventLoopGroup eventLoopGroup,
+                            ScheduledExecutorService timeoutSchedule,
+                            ExecutorService callbackExecutor,
+                            int requestTimeout,
+                            int maxWaiters,
+                            String name) {
+        this(eventLoopGroup, timeoutSchedule, callbackExecutor, requestTimeout, DEFAULT_CONNECTIONS_PER_HOST,
+                DEFAULT_MAX_STREAMS_PER_CONNECTION, maxWaiters, DEFAULT_WINDOW_SIZE, DEFAULT_WINDOW_SIZE,
+                DEFAULT_MAX_CONTENT_LENGTH, name);
+    }
+
+    /**
+     * @param connectionsPerHost      the maximum number of connections to a host
+     * @param maxStreamsPerConnection the maximum number of requests in flight on a
+     *                                connection, besides the limit the server sets
+     * @param maxWaiters              the maximum number of requests of a host
+     *                                waiting for a stream
+     * @param initialWindowSize       the receive window of each stream, in bytes
+     * @param connectionWindowSize    the receive window of each connection, shared
+     *                                by its streams, in bytes
+     * @param maxContentLength        the maximum length of a response body
+     */
+    public Http2NettyClient(EventLoopGroup eventLoopGroup,
+                            ScheduledExecutorService timeoutSchedule,
+                            ExecutorService callbackExecutor,
+                            int requestTimeout,
+                            int connectionsPerHost,
+                            int maxStreamsPerConnection,
+                            int maxWaiters,
+                            int initialWindowSize,
+                            int connectionWindowSize,
+                            int maxContentLength,
+                            String name) {
+        if (connectionsPerHost < 1) {
+            throw new IllegalArgumentException("connectionsPerHost must be positive: " + connectionsPerHost);
+        }
+        if (maxStreamsPerConnection < 1) {
+            throw new IllegalArgumentException("maxStreamsPerConnection must be positive: " + maxStreamsPerConnection);
+        }
+        if (initialWindowSize < 0) {
+            throw new IllegalArgumentException("initialWindowSize cannot be negative: " + initialWindowSize);
+        }
+        if (connectionWindowSize < DEFAULT_WINDOW_SIZE) {
+            throw new IllegalArgumentException("connectionWindowSize cannot be less than " + DEFAULT_WINDOW_SIZE
+                    + ": " + connectionWindowSize);
+        }
+        this.bootstrap = new Bootstrap().group(eventLoopGroup).channel(NioSocketChannel.class);
+        this.timeoutSchedule = timeoutSchedule;
+        this.callbackExecutor = callbackExecutor;
+        this.requestTimeout = requestTimeout;
+        this.connectionsPerHost = connectionsPerHost;
+        this.maxStreamsPerConnection = maxStreamsPerConnection;
+        this.maxWaiters = maxWaiters;
+        this.initialWindowSize = initialWindowSize;
+        this.connectionWindowSize = connectionWindowSize;
+        this.maxContentLength = maxContentLength;
+        this.name = name;
+    }
+
+    @Override
+    public void request(Request request, RequestContext requestContext, TransportCallback<Response> callback) {
+        if (!(request instanceof HttpRequest)) {
+            errorResponse(callback, new IllegalArgumentException("Not an HTTP request: " + request));
+            return;
+        }
+        TimeoutTransportCallback<Response> timeoutCallback = new TimeoutTransportCallback<>(timeoutSchedule,
+                callbackExecutor, requestTimeout, TimeUnit.MICROSECONDS, callback);
+        writeRequest((HttpRequest) request, timeoutCallback);
+    }
+
+    private void writeRequest(HttpRequest request, TimeoutTransportCallback<Response> callback) {
+        State state = stateRef.get();
+        if (state != State.RUNNING) {
+            errorResponse(callback, new IllegalStateException("Client is " + state));
+            return;
+        }
+
+        URI uri = request.getUri();
+        if (null == uri) {
+            errorResponse(callback, new IllegalArgumentException("URI cannot be null"));
+            return;
+        }
+        String schema = uri.getScheme();
+        if (!"http".equalsIgnoreCase(schema)) {
+            errorResponse(callback, new IllegalArgumentException("Unknown schema: " + schema + " only http support"));
+            return;
+        }
+        int port = uri.getPort();
+        if (-1 == port) {
+            port = DEFAULT_HTTP_PORT;
+        }
+
+        SocketAddress address = new InetSocketAddress(uri.getHost(), port);
+        getHostConnections(address).write(toHttpRequest(request, uri), callback);
+    }
+
+    HostConnections getHostConnections(SocketAddress address) {
+        HostConnections connections = hosts.get(address);
+        if (null == connections) {
+            connections = new HostConnections(address);
+            HostConnections existedConnections = hosts.putIfAbsent(address, connections);
+            if (existedConnections != null) {
+                connections = existedConnections;
+            }
+        }
+        return connections;
+    }
+
+    private static FullHttpRequest toHttpRequest(HttpRequest request, URI uri) {
+        String path = uri.getRawPath();
+        if (null == path || path.isEmpty()) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path = path + "?" + uri.getRawQuery();
+        }
+        ByteBuffer entity = request.getEntity();
+        ByteBuf content = null == entity ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(entity.duplicate());
+        FullHttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+                null == entity ? HttpMethod.GET : HttpMethod.POST, path, content);
+        httpRequest.headers().set(HttpHeaderNames.HOST, uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        httpRequest.headers().set(HttpUtil.ExtensionHeaderNames.SCHEME.text(), "http");
+        httpRequest.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        return httpRequest;
+    }
+
+    @Override
+    public void shutdown(final Callback<None> callback) {
+        if (!stateRef.compareAndSet(State.RUNNING, State.SHUT_DOWN)) {
+            callback.onError(new IllegalStateException("Client " + name + " is already shut down"));
+            return;
+        }
+        for (HostConnections connections : hosts.values()) {
+            connections.failWaiters(new IllegalStateException("Client is " + State.SHUT_DOWN));
+        }
+        allChannels.close().addListener(new ChannelGroupFutureListener() {
+            @Override
+            public void operationComplete(ChannelGroupFuture future) throws Exception {
+                callback.onSuccess(None.none());
+            }
+        });
+    }
+
+    static <T> void errorResponse(TransportCallback<T> callback, Throwable e) {
+        callback.onResponse(TransportResponseImpl.<T>error(e));
+    }
+
+    /**
+     * A request waiting for a stream.
+     */
+    private static class Waiter {
+        private final FullHttpRequest request;
+        private final TimeoutTransportCallback<Response> callback;
+
+        private Waiter(FullHttpRequest request, TimeoutTransportCallback<Response> callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * The connections of a host, with the number of requests in flight on each,
+     * and the requests waiting for a stream.
+     */
+    class HostConnections {
+
+        private final SocketAddress address;
+        private final Bootstrap hostBootstrap;
+        private final Map<Channel, Integer> inFlight = new IdentityHashMap<>();
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private int connecting;
+
+        private HostConnections(SocketAddress address) {
+            this.address = address;
+            this.hostBootstrap = bootstrap.clone().handler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) throws Exception {
+                    HostConnections.this.initChannel(ch);
+                }
+            });
+        }
+
+        /**
+         * Adds the HTTP/2 handlers of a connection to the host to the pipeline.
+         */
+        void initChannel(final Channel ch) throws Http2Exception {
+            Http2Connection connection = new DefaultHttp2Connection(false);
+            InboundHttp2ToHttpAdapter adapter = new InboundHttp2ToHttpAdapter.Builder(connection)
+                    .maxContentLength(maxContentLength)
+                    .propagateSettings(false)
+                    .build();
+            HttpToHttp2ConnectionHandler connectionHandler = new HttpToHttp2ConnectionHandler(connection, adapter);
+            connection.local().flowController().initialWindowSize(initialWindowSize);
+            ch.pipeline().addLast(connectionHandler, new Http2ResponseHandler(connectionHandler,
+                    connectionWindowSize, new Http2ResponseHandler.StreamListener() {
+                        @Override
+                        public void onStreamClosed() {
+                            streamClosed(ch);
+                        }
+                    }));
+        }
+
+        void write(FullHttpRequest request, TimeoutTransportCallback<Response> callback) {
+            Channel channel;
+            boolean connect = false;
+            boolean rejected = false;
+            final Waiter waiter = new Waiter(request, callback);
+            synchronized (this) {
+                channel = leastLoaded();
+                if (channel != null) {
+                    inFlight.put(channel, inFlight.get(channel) + 1);
+                } else if (waiters.size() >= maxWaiters) {
+                    rejected = true;
+                } else {
+                    waiters.add(waiter);
+                    if (inFlight.size() + connecting < connectionsPerHost) {
+                        connecting++;
+                        connect = true;
+                    }
+                }
+            }
+            if (channel != null) {
+                send(channel, request, callback);
+                return;
+            }
+            if (rejected) {
+                request.release();
+                errorResponse(callback, new SizeLimitExceededException("Too many requests waiting for " + address));
+                return;
+            }
+            callback.addTimeoutTask(new Runnable() {
+                @Override
+                public void run() {
+                    boolean removed;
+                    synchronized (HostConnections.this) {
+                        removed = waiters.remove(waiter);
+                    }
+                    if (removed) {
+                        waiter.request.release();
+                    }
+                }
+            });
+            if (connect) {
+                connect();
+            }
+        }
+
+        // called holding the lock
+        private Channel leastLoaded() {
+            Channel channel = null;
+            int least = maxStreamsPerConnection;
+            for (Map.Entry<Channel, Integer> entry : inFlight.entrySet()) {
+                if (entry.getValue() < least && entry.getKey().isActive()) {
+                    channel = entry.getKey();
+                    least = entry.getValue();
+                }
+            }
+            return channel;
+        }
+
+        private void send(final Channel channel, final FullHttpRequest request,
+                          final TimeoutTransportCallback<Response> callback) {
+            channel.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Http2ResponseHandler handler = channel.pipeline().get(Http2ResponseHandler.class);
+                    if (null == handler) {
+                        // the channel was closed before the request got to its event loop
+                        request.release();
+                        streamClosed(channel);
+                        errorResponse(callback, new IllegalStateException("Connection to " + address + " is closed"));
+                        return;
+                    }
+                    final int streamId = handler.write(request, callback);
+                    if (streamId > 0) {
+                        callback.addTimeoutTask(new Runnable() {
+                            @Override
+                            public void run() {
+                                channel.eventLoop().execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        handler.cancel(streamId);
+                                    }
+                                });
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        private void connect() {
+            hostBootstrap.connect(address).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        connected(future.channel());
+                    } else {
+                        connectFailed(future.cause());
+                    }
+                }
+            });
+        }
+
+        void connected(final Channel channel) {
+            allChannels.add(channel);
+            if (stateRef.get() != State.RUNNING) {
+                // the client was shut down while connecting, maybe after closing its channels
+                synchronized (this) {
+                    connecting--;
+                }
+                channel.close();
+                return;
+            }
+            channel.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    closed(channel);
+                }
+            });
+            List<Waiter> ready;
+            synchronized (this) {
+                connecting--;
+                ready = use(channel);
+            }
+            send(channel, ready);
+        }
+
+        /**
+         * Puts an open channel to use, sending it the requests waiting for a stream.
+         */
+        void open(Channel channel) {
+            List<Waiter> ready;
+            synchronized (this) {
+                ready = use(channel);
+            }
+            send(channel, ready);
+        }
+
+        // called holding the lock, returns the waiters the channel has streams for
+        private List<Waiter> use(Channel channel) {
+            List<Waiter> ready = new ArrayList<>();
+            while (ready.size() < maxStreamsPerConnection && !waiters.isEmpty()) {
+                ready.add(waiters.poll());
+            }
+            inFlight.put(channel, ready.size());
+            return ready;
+        }
+
+        private void send(Channel channel, List<Waiter> ready) {
+            for (Waiter waiter : ready) {
+                send(channel, waiter.request, waiter.callback);
+            }
+        }
+
+        private void connectFailed(Throwable cause) {
+            boolean failWaiters;
+            synchronized (this) {
+                connecting--;
+                // the waiters are left to the connections still up or being opened
+                failWaiters = inFlight.isEmpty() && 0 == connecting;
+            }
+            if (failWaiters) {
+                failWaiters(cause);
+            }
+        }
+
+        private void closed(Channel channel) {
+            boolean connect = false;
+            synchronized (this) {
+                inFlight.remove(channel);
+                if (!waiters.isEmpty() && inFlight.size() + connecting < connectionsPerHost
+                        && stateRef.get() == State.RUNNING) {
+                    connecting++;
+                    connect = true;
+                }
+            }
+            if (connect) {
+                connect();
+            }
+        }
+
+        private void streamClosed(Channel channel) {
+            Waiter waiter = null;
+            synchronized (this) {
+                Integer count = inFlight.get(channel);
+                if (null == count) {
+                    return;
+                }
+                if (channel.isActive() && !waiters.isEmpty()) {
+                    // the stream is handed over to a waiter
+                    waiter = waiters.poll();
+                } else {
+                    inFlight.put(channel, count - 1);
+                }
+            }
+            if (waiter != null) {
+                send(channel, waiter.request, waiter.callback);
+            }
+        }
+
+        void failWaiters(Throwable cause) {
+            List<Waiter> failed;
+            synchronized (this) {
+                failed = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            for (Waiter waiter : failed) {
+                waiter.request.release();
+                errorResponse(waiter.callback, cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.xqbase.bn.transport.http.client;
+
+import com.xqbase.bn.m2.Response;
+import com.xqbase.bn.m2.http.HttpResponse;
+import com.xqbase.bn.transport.bridge.common.TransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponse;
+import com.xqbase.bn.transport.bridge.common.TransportResponseImpl;
+import com.xqbase.bn.transport.http.common.HttpStatusException;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.HttpUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Netty pipeline handler of an HTTP/2 connection, placed after the
+ * {@link Http2ConnectionHandler} and its HTTP adapters. Each request is written
+ * on a new stream, and the response of a stream completes the callback of its
+ * request, in whatever order responses arrive.
+ * <p/>
+ * All methods run on the event loop of the channel.
+ *
+ * @author Tony He
+ */
+class Http2ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+    /**
+     * Notified on the event loop once a request written through {@link #write} is
+     * done, whether it succeeded, failed or could not open a stream.
+     */
+    interface StreamListener {
+        void onStreamClosed();
+    }
+
+    private static final CharSequence STREAM_ID = HttpUtil.ExtensionHeaderNames.STREAM_ID.text();
+
+    private final Http2ConnectionHandler connectionHandler;
+    private final int connectionWindowSize;
+    private final StreamListener listener;
+    private final Map<Integer, TransportCallback<Response>> callbacks = new HashMap<>();
+    private ChannelHandlerContext ctx;
+
+    /**
+     * @param connectionWindowSize the receive window of the whole connection, to
+     *                             be raised from the HTTP/2 default once connected
+     */
+    Http2ResponseHandler(Http2ConnectionHandler connectionHandler, int connectionWindowSize, StreamListener listener) {
+        this.connectionHandler = connectionHandler;
+        this.connectionWindowSize = connectionWindowSize;
+        this.listener = listener;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        // the connection handler before this one has sent the preface and settings
+        Http2Connection connection = connectionHandler.connection();
+        int delta = connectionWindowSize - connection.local().flowController().windowSize(connection.connectionStream());
+        if (delta > 0) {
+            connection.local().flowController().incrementWindowSize(ctx, connection.connectionStream(), delta);
+            ctx.flush();
+        }
+        super.channelActive(ctx);
+    }
+
+    /**
+     * Writes the request on a new stream.
+     *
+     * @return the id of the stream, or -1 if none could be opened
+     */
+    int write(final FullHttpRequest request, TransportCallback<Response> callback) {
+        Http2Connection connection = connectionHandler.connection();
+        if (!connection.local().acceptingNewStreams() || connection.goAwayReceived()) {
+            request.release();
+            fail(callback, new Http2Exception(Http2Error.REFUSED_STREAM, "Connection does not accept new streams"));
+            return -1;
+        }
+        final int streamId = connection.local().nextStreamId();
+        if (streamId < 0) {
+            request.release();
+            fail(callback, new Http2Exception(Http2Error.REFUSED_STREAM, "No stream ids left on connection"));
+            return -1;
+        }
+        request.headers().setInt(STREAM_ID, streamId);
+        callbacks.put(streamId, callback);
+        ctx.writeAndFlush(request).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    complete(streamId, TransportResponseImpl.<Response>error(future.cause()));
+                }
+            }
+        });
+        return streamId;
+    }
+
+    /**
+     * Cancels the stream of a request given up on, such as one timed out.
+     */
+    void cancel(int streamId) {
+        if (callbacks.remove(streamId) != null) {
+            connectionHandler.writeRstStream(ctx, streamId, Http2Error.CANCEL.code(), ctx.newPromise());
+            ctx.flush();
+            listener.onStreamClosed();
+        }
+    }
+
+    @Override
+    protected void messageReceived(ChannelHandlerContext ctx, FullHttpResponse msg) throws Exception {
+        Integer streamId = msg.headers().getInt(STREAM_ID);
+        if (null == streamId) {
+            return;
+        }
+        complete(streamId, toTransportResponse(msg));
+    }
+
+    /**
+     * Converts a response, status and headers included. Responses whose status is
+     * not a 2xx one complete their request with an {@link HttpStatusException}.
+     */
+    static TransportResponse<Response> toTransportResponse(FullHttpResponse msg) {
+        ByteBuffer entity = ByteBuffer.allocate(msg.content().readableBytes());
+        msg.content().getBytes(msg.content().readerIndex(), entity);
+        entity.flip();
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<CharSequence, CharSequence> header : msg.headers()) {
+            String name = header.getKey().toString();
+            String value = header.getValue().toString();
+            String previous = headers.get(name);
+            headers.put(name, null == previous ? value : previous + ", " + value);
+        }
+        HttpResponse response = new HttpResponse(msg.status().code(), headers, entity);
+        if (!response.isSuccess()) {
+            return TransportResponseImpl.<Response>error(new HttpStatusException(response));
+        }
+        return TransportResponseImpl.<Response>success(response);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        // the connection handler only closes the channel once no stream is active,
+        // so the streams still waiting are reset first
+        for (int streamId : callbacks.keySet()) {
+            connectionHandler.writeRstStream(ctx, streamId, Http2Error.CANCEL.code(), ctx.newPromise());
+        }
+        ctx.flush();
+        failAll(cause);
+        ctx.close();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failAll(new ClosedChannelException());
+        super.channelInactive(ctx);
+    }
+
+    private void complete(int streamId, TransportResponse<Response> response) {
+        TransportCallback<Response> callback = callbacks.remove(streamId);
+        if (callback != null) {
+            listener.onStreamClosed();
+            callback.onResponse(response);
+        }
+    }
+
+    private void fail(TransportCallback<Response> callback, Throwable cause) {
+        listener.onStreamClosed();
+        callback.onResponse(TransportResponseImpl.<Response>error(cause));
+    }
+
+    private void failAll(Throwable cause) {
+        for (Iterator<TransportCallback<Response>> it = callbacks.values().iterator(); it.hasNext(); ) {
+            TransportCallback<Response> callback = it.next();
+            it.remove();
+            listener.onStreamClosed();
+            callback.onResponse(TransportResponseImpl.<Response>error(cause));
+        }
+    }
+}
@@ -13,9 +13,14 @@ import com.xqbase.bn.transport.apool.util.None;
 import com.xqbase.bn.transport.bridge.client.*;
 import com.xqbase.bn.transport.bridge.common.TimeoutTransportCallback;
 import com.xqbase.bn.transport.bridge.common.TransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponse;
+import com.xqbase.bn.transport.bridge.common.TransportResponseImpl;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.util.concurrent.GlobalEventExecutor;
@@ -25,6 +30,9 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +40,14 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * HttpClient based on Netty.
+ * <p/>
+ * By default a channel is checked out of the pool for each request and put back
+ * once the response is received. With pipelining enabled, up to a maximum number
+ * of requests are written on a checked out keep-alive channel without waiting
+ * for their responses, which the {@link HttpResponseHandler} matches to requests
+ * in order. A new channel is only checked out when all those of the address are
+ * full, and a channel goes back to the pool once all its responses are received.
+ * A slow response delays those behind it on the same channel.
  *
  * @author Tony He
  */
@@ -41,6 +57,11 @@ public class HttpNettyClient implements TransportClient {
     private static final int DEFAULT_HTTP_PORT = 80;
     private static final int DEFAULT_HTTPS_PORT = 443;
 
+    /**
+     * One request in flight per channel, which disables pipelining.
+     */
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 1;
+
     private final ChannelPoolManager poolManager;
     private final ChannelGroup allChannels = new DefaultChannelGroup("Transport Channels", GlobalEventExecutor.INSTANCE);
 
@@ -49,6 +70,8 @@ public class HttpNettyClient implements TransportClient {
 
     private final int requestTimeout;
     private final String name;
+    private final int maxPipelinedRequests;
+    private final ConcurrentHashMap<SocketAddress, PipelinedChannels> pipelinedChannels = new ConcurrentHashMap<>();
 
     private final AtomicReference<State> stateRef = new AtomicReference<>(State.RUNNING);
     private enum State { RUNNING, SHUTTING_DOWN, SHUT_DOWN }
@@ -62,12 +85,40 @@ public class HttpNettyClient implements TransportClient {
                            String name,
                            int minPoolSize,
                            AsyncPoolImpl.Strategy strategy) {
+        this(timeoutSchedule, callbackExecutor, requestTimeout, idleTimeout, poolSize, maxWaiters, name,
+                minPoolSize, strategy, DEFAULT_MAX_PIPELINED_REQUESTS);
+    }
+
+    /**
+     * @param maxPipelinedRequests the maximum number of requests in flight on a
+     *                             channel, more than 1 to enable pipelining
+     */
+    public HttpNettyClient(ScheduledExecutorService timeoutSchedule,
+                           ExecutorService callbackExecutor,
+                           int requestTimeout,
+                           int idleTimeout,
+                           int poolSize,
+                           int maxWaiters,
+                           String name,
+                           int minPoolSize,
+                           AsyncPoolImpl.Strategy strategy,
+                           int maxPipelinedRequests) {
+        if (maxPipelinedRequests < 1) {
+            throw new IllegalArgumentException("maxPipelinedRequests must be positive: " + maxPipelinedRequests);
+        }
         this.name = name;
         this.requestTimeout = requestTimeout;
         this.timeoutSchedule = timeoutSchedule;
         this.callbackExecutor = callbackExecutor;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        Bootstrap bootstrap = new Bootstrap().handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ch.pipeline().addLast(new HttpResponseHandler());
+            }
+        });
         this.poolManager = new ChannelPoolManager(new ChannelPoolFactoryImpl(
-                new Bootstrap(),
+                bootstrap,
                 poolSize,
                 minPoolSize,
                 idleTimeout,
@@ -79,9 +130,10 @@ public class HttpNettyClient implements TransportClient {
     private void writeRequestWithTimeout(HttpRequest request, RequestContext requestContext, TransportCallback<Response> callback) {
         TimeoutTransportCallback<Response> timeoutCallback = new TimeoutTransportCallback<>(timeoutSchedule, callbackExecutor,
                 requestTimeout, TimeUnit.MICROSECONDS, callback);
+        writeRequest(request, requestContext, timeoutCallback);
     }
 
-    private void writeRequest(final HttpRequest request, RequestContext requestContext, final TimeoutTransportCallback callback) {
+    private void writeRequest(final HttpRequest request, RequestContext requestContext, final TimeoutTransportCallback<Response> callback) {
         State state = stateRef.get();
         if (state != State.RUNNING) {
             errorResponse(callback, new IllegalStateException("Client is " + state));
@@ -113,11 +165,16 @@ public class HttpNettyClient implements TransportClient {
             return;
         }
 
+        if (maxPipelinedRequests > 1) {
+            getPipelinedChannels(address, pool).write(request, callback);
+            return;
+        }
+
         // Now we get the channel pool
         final Cancellable pendingGet = pool.get(new Callback<Channel>() {
             @Override
             public void onError(Throwable e) {
-
+                errorResponse(callback, e);
             }
 
             @Override
@@ -136,14 +193,13 @@ public class HttpNettyClient implements TransportClient {
                     }
                 });
 
-                channel.pipeline().get(HttpResponseHandler.class).setAttachment(channel.pipeline().context(HttpResponseHandler.class),
-                        callback);
+                channel.pipeline().get(HttpResponseHandler.class).addCallback(callback);
 
                 final State s = stateRef.get();
                 if (s == State.SHUT_DOWN) {
 
                 }
-                channel.write(request);
+                channel.writeAndFlush(request);
             }
         });
         if (pendingGet != null) {
@@ -158,7 +214,11 @@ public class HttpNettyClient implements TransportClient {
 
     @Override
     public void request(Request request, RequestContext requestContext, TransportCallback<Response> callback) {
-
+        if (!(request instanceof HttpRequest)) {
+            errorResponse(callback, new IllegalArgumentException("Not an HTTP request: " + request));
+            return;
+        }
+        writeRequestWithTimeout((HttpRequest) request, requestContext, callback);
     }
 
     @Override
@@ -167,7 +227,133 @@ public class HttpNettyClient implements TransportClient {
     }
 
     static <T> void errorResponse(TransportCallback<T> callback, Throwable e) {
-        callback.onResponse(null);
+        callback.onResponse(TransportResponseImpl.<T>error(e));
+    }
+
+    private PipelinedChannels getPipelinedChannels(SocketAddress address, AsyncPool<Channel> pool) {
+        PipelinedChannels channels = pipelinedChannels.get(address);
+        if (null == channels) {
+            channels = new PipelinedChannels(pool, maxPipelinedRequests);
+            PipelinedChannels existedChannels = pipelinedChannels.putIfAbsent(address, channels);
+            if (existedChannels != null) {
+                channels = existedChannels;
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * The channels of an address checked out for pipelining, with the number of
+     * requests in flight on each.
+     */
+    static class PipelinedChannels {
+
+        private final AsyncPool<Channel> pool;
+        private final int maxPipelinedRequests;
+        private final Map<Channel, Integer> inFlight = new IdentityHashMap<>();
+
+        PipelinedChannels(AsyncPool<Channel> pool, int maxPipelinedRequests) {
+            this.pool = pool;
+            this.maxPipelinedRequests = maxPipelinedRequests;
+        }
+
+        void write(final HttpRequest request, final TimeoutTransportCallback<Response> callback) {
+            synchronized (this) {
+                Channel channel = null;
+                int least = maxPipelinedRequests;
+                for (Map.Entry<Channel, Integer> entry : inFlight.entrySet()) {
+                    if (entry.getValue() < least && entry.getKey().isActive()) {
+                        channel = entry.getKey();
+                        least = entry.getValue();
+                    }
+                }
+                if (channel != null) {
+                    send(channel, request, callback);
+                    return;
+                }
+            }
+
+            // all the channels are full, check out another one
+            final Cancellable pendingGet = pool.get(new Callback<Channel>() {
+                @Override
+                public void onError(Throwable e) {
+                    errorResponse(callback, e);
+                }
+
+                @Override
+                public void onSuccess(Channel channel) {
+                    synchronized (PipelinedChannels.this) {
+                        inFlight.put(channel, 0);
+                        send(channel, request, callback);
+                    }
+                }
+            });
+            if (pendingGet != null) {
+                callback.addTimeoutTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        pendingGet.cancel();
+                    }
+                });
+            }
+        }
+
+        // called holding the lock, so that callbacks are queued in the order requests are written
+        private void send(final Channel channel, HttpRequest request, final TimeoutTransportCallback<Response> callback) {
+            inFlight.put(channel, inFlight.get(channel) + 1);
+            callback.addTimeoutTask(new Runnable() {
+                @Override
+                public void run() {
+                    // the response may still come, ahead of those of the requests
+                    // pipelined behind, so the channel cannot be reused
+                    channel.close();
+                }
+            });
+            channel.pipeline().get(HttpResponseHandler.class).addCallback(new TransportCallback<Response>() {
+                @Override
+                public void onResponse(TransportResponse<Response> response) {
+                    complete(channel);
+                    callback.onResponse(response);
+                }
+            });
+            channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        // fails the callbacks of the channel
+                        future.channel().close();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Returns the number of requests in flight on a checked out channel,
+         * or 0 if the channel is not checked out.
+         */
+        synchronized int getInFlight(Channel channel) {
+            Integer count = inFlight.get(channel);
+            return null == count ? 0 : count;
+        }
+
+        private void complete(Channel channel) {
+            synchronized (this) {
+                Integer count = inFlight.get(channel);
+                if (null == count) {
+                    return;
+                }
+                if (count > 1) {
+                    inFlight.put(channel, count - 1);
+                    return;
+                }
+                inFlight.remove(channel);
+            }
+            if (channel.isActive()) {
+                pool.put(channel);
+            } else {
+                pool.dispose(channel);
+            }
+        }
     }
 
     private class ChannelPoolFactoryImpl implements ChannelPoolFactory {
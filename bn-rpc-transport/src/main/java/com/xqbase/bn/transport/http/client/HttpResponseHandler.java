@@ -1,31 +1,76 @@
 package com.xqbase.bn.transport.http.client;
 
+import com.xqbase.bn.m2.Response;
 import com.xqbase.bn.m2.http.HttpResponse;
-import com.xqbase.bn.transport.bridge.client.InboundHandlerWithAttachment;
 import com.xqbase.bn.transport.bridge.common.TransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponseImpl;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPromise;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Netty pipeline handler which takes a complete received message and invoke
  * the specified actions.
+ * <p/>
+ * Callbacks are queued in the order their requests are written, and HTTP/1.1
+ * answers requests on a connection in order, so that each response completes
+ * the callback at the head of the queue. Requests can thus be pipelined on a
+ * channel. When the channel fails or closes, the callbacks still waiting are
+ * completed with the error, and a failed channel is closed. A handler is bound to one channel.
  *
  * @author Tony He
  */
-public class HttpResponseHandler extends InboundHandlerWithAttachment<TransportCallback<HttpResponse>> {
+public class HttpResponseHandler extends SimpleChannelInboundHandler<HttpResponse> {
 
-    @Override
-    protected void messageReceived(ChannelHandlerContext ctx, Object msg) throws Exception {
+    private final Queue<TransportCallback<Response>> callbacks = new ConcurrentLinkedQueue<>();
 
+    /**
+     * Queues the callback of a request about to be written. Must be called in
+     * the same order the requests are written.
+     */
+    public void addCallback(TransportCallback<Response> callback) {
+        callbacks.offer(callback);
+    }
+
+    /**
+     * Returns the number of requests waiting for their response.
+     */
+    public int getPendingCount() {
+        return callbacks.size();
+    }
+
+    @Override
+    protected void messageReceived(ChannelHandlerContext ctx, HttpResponse msg) throws Exception {
+        TransportCallback<Response> callback = callbacks.poll();
+        if (callback != null) {
+            callback.onResponse(TransportResponseImpl.<Response>success(msg));
+        }
+        // let the pool handler see the response too
+        ctx.fireChannelRead(ReferenceCountUtil.retain(msg));
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        // responses can no longer be matched to requests, so the channel must not
+        // be reused; closing it first keeps callbacks from returning it to a pool
+        ctx.close();
+        failAll(cause);
         super.exceptionCaught(ctx, cause);
     }
 
     @Override
-    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
-        super.close(ctx, promise);
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failAll(new ClosedChannelException());
+        super.channelInactive(ctx);
+    }
+
+    private void failAll(Throwable cause) {
+        for (TransportCallback<Response> callback = callbacks.poll(); callback != null; callback = callbacks.poll()) {
+            callback.onResponse(TransportResponseImpl.<Response>error(cause));
+        }
     }
 }
@@ -0,0 +1,27 @@
+package com.xqbase.bn.transport.http.common;
+
+import com.xqbase.bn.m2.http.HttpResponse;
+
+/**
+ * Represents an HTTP response whose status is not a 2xx one. The response,
+ * headers and entity included, is kept for the caller to inspect.
+ *
+ * @author Tony He
+ */
+public class HttpStatusException extends Exception {
+
+    private final transient HttpResponse response;
+
+    public HttpStatusException(HttpResponse response) {
+        super("HTTP status " + response.getStatus());
+        this.response = response;
+    }
+
+    public int getStatus() {
+        return response.getStatus();
+    }
+
+    public HttpResponse getResponse() {
+        return response;
+    }
+}
@@ -0,0 +1,116 @@
+package com.xqbase.bn.transport.http.client;
+
+import com.xqbase.bn.common.callback.Callback;
+import com.xqbase.bn.m2.Response;
+import com.xqbase.bn.transport.apool.util.None;
+import com.xqbase.bn.transport.bridge.common.TimeoutTransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponse;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http2.HttpUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the stream accounting of {@link Http2NettyClient}, on embedded channels.
+ *
+ * @author Tony He
+ */
+public class TestHttp2NettyClient {
+
+    private static final CharSequence STREAM_ID = HttpUtil.ExtensionHeaderNames.STREAM_ID.text();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<TransportResponse<Response>> responses = new ArrayList<>();
+    private EventLoopGroup group;
+    private Http2NettyClient client;
+    private Http2NettyClient.HostConnections connections;
+
+    @Before
+    public void setUp() {
+        group = new NioEventLoopGroup(1);
+        // one connection of one stream, so that a second request waits
+        client = new Http2NettyClient(group, scheduler, executor, 60000000, 1, 1, 10,
+                Http2NettyClient.DEFAULT_WINDOW_SIZE, Http2NettyClient.DEFAULT_WINDOW_SIZE, 1024, "test");
+        connections = client.getHostConnections(new InetSocketAddress("localhost", 80));
+    }
+
+    @After
+    public void tearDown() {
+        group.shutdownGracefully();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFreedStreamHandedToWaiter() {
+        EmbeddedChannel channel = channel();
+        connections.open(channel);
+        FullHttpRequest first = TestHttp2ResponseHandler.request();
+        FullHttpRequest second = TestHttp2ResponseHandler.request();
+        connections.write(first, callback());
+        connections.write(second, callback());
+        channel.runPendingTasks();
+        int firstId = first.headers().getInt(STREAM_ID);
+        assertNull(second.headers().getInt(STREAM_ID));
+
+        channel.writeInbound(TestHttp2ResponseHandler.streamResponse(firstId));
+        channel.runPendingTasks();
+        assertEquals(1, responses.size());
+        int secondId = second.headers().getInt(STREAM_ID);
+        assertTrue(secondId > firstId);
+
+        channel.writeInbound(TestHttp2ResponseHandler.streamResponse(secondId));
+        assertEquals(2, responses.size());
+        assertFalse(responses.get(0).hasError());
+        assertFalse(responses.get(1).hasError());
+    }
+
+    @Test
+    public void testConnectedAfterShutdown() {
+        client.shutdown(new Callback<None>() {
+            @Override
+            public void onError(Throwable e) {
+                fail(e.toString());
+            }
+
+            @Override
+            public void onSuccess(None none) {
+            }
+        });
+        EmbeddedChannel channel = channel();
+        connections.connected(channel);
+        channel.runPendingTasks();
+        assertFalse(channel.isOpen());
+    }
+
+    private EmbeddedChannel channel() {
+        return new EmbeddedChannel(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                connections.initChannel(ch);
+            }
+        });
+    }
+
+    private TimeoutTransportCallback<Response> callback() {
+        return new TimeoutTransportCallback<>(scheduler, executor, 1, TimeUnit.MINUTES,
+                TestHttpResponseHandler.collect(responses));
+    }
+}
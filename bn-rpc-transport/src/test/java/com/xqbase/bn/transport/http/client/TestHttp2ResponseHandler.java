@@ -0,0 +1,165 @@
+package com.xqbase.bn.transport.http.client;
+
+import com.xqbase.bn.m2.Response;
+import com.xqbase.bn.m2.http.HttpResponse;
+import com.xqbase.bn.transport.bridge.common.TransportResponse;
+import com.xqbase.bn.transport.http.common.HttpStatusException;
+import com.xqbase.bn.transport.bridge.common.TransportCallback;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.handler.codec.http2.HttpUtil;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Http2ResponseHandler}.
+ *
+ * @author Tony He
+ */
+public class TestHttp2ResponseHandler {
+
+    @Test
+    public void testSuccess() {
+        TransportResponse<Response> result = Http2ResponseHandler.toTransportResponse(
+                response(HttpResponseStatus.OK, "hello"));
+        assertFalse(result.hasError());
+        HttpResponse response = (HttpResponse) result.getResponse();
+        assertEquals(200, response.getStatus());
+        assertEquals("text/plain", response.getHeaders().get("Content-Type"));
+        assertEquals("hello", StandardCharsets.UTF_8.decode(response.getEntity()).toString());
+    }
+
+    @Test
+    public void testServerError() {
+        TransportResponse<Response> result = Http2ResponseHandler.toTransportResponse(
+                response(HttpResponseStatus.INTERNAL_SERVER_ERROR, "failed"));
+        assertTrue(result.hasError());
+        HttpStatusException error = (HttpStatusException) result.getError();
+        assertEquals(500, error.getStatus());
+        assertEquals("failed", StandardCharsets.UTF_8.decode(error.getResponse().getEntity()).toString());
+    }
+
+    @Test
+    public void testCompleteClosesStreamOnce() {
+        Streams streams = new Streams();
+        int first = streams.handler.write(request(), streams.callback());
+        int second = streams.handler.write(request(), streams.callback());
+        assertTrue(first > 0);
+        assertTrue(second > first);
+
+        streams.channel.writeInbound(streamResponse(second));
+        assertEquals(1, streams.closed);
+        assertEquals(1, streams.responses.size());
+        assertFalse(streams.responses.get(0).hasError());
+        // a response on a stream already completed is ignored
+        streams.channel.writeInbound(streamResponse(second));
+        assertEquals(1, streams.closed);
+        streams.channel.writeInbound(streamResponse(first));
+        assertEquals(2, streams.closed);
+        assertEquals(2, streams.responses.size());
+    }
+
+    @Test
+    public void testCancelClosesStreamOnce() {
+        Streams streams = new Streams();
+        int streamId = streams.handler.write(request(), streams.callback());
+        streams.handler.cancel(streamId);
+        assertEquals(1, streams.closed);
+        streams.handler.cancel(streamId);
+        assertEquals(1, streams.closed);
+        // the response of a cancelled stream completes nothing
+        streams.channel.writeInbound(streamResponse(streamId));
+        assertEquals(1, streams.closed);
+        assertTrue(streams.responses.isEmpty());
+    }
+
+    @Test
+    public void testCloseFailsAllStreamsOnce() {
+        Streams streams = new Streams();
+        streams.handler.write(request(), streams.callback());
+        streams.handler.write(request(), streams.callback());
+        // the connection is lost, rather than closed through the pipeline
+        streams.channel.unsafe().close(streams.channel.voidPromise());
+        streams.channel.runPendingTasks();
+        assertEquals(2, streams.closed);
+        assertEquals(2, streams.responses.size());
+        assertTrue(streams.responses.get(0).getError() instanceof ClosedChannelException);
+        assertTrue(streams.responses.get(1).getError() instanceof ClosedChannelException);
+    }
+
+    @Test
+    public void testExceptionFailsAllStreamsOnce() {
+        Streams streams = new Streams();
+        streams.handler.write(request(), streams.callback());
+        IOException cause = new IOException("reset");
+        streams.channel.pipeline().fireExceptionCaught(cause);
+        streams.channel.runPendingTasks();
+        assertEquals(1, streams.closed);
+        assertSame(cause, streams.responses.get(0).getError());
+        assertFalse(streams.channel.isOpen());
+    }
+
+    /**
+     * A handler on an embedded channel, counting the streams it reports closed.
+     */
+    private static class Streams implements Http2ResponseHandler.StreamListener {
+        final Http2ResponseHandler handler;
+        final EmbeddedChannel channel;
+        final List<TransportResponse<Response>> responses = new ArrayList<>();
+        int closed;
+
+        Streams() {
+            Http2Connection connection = new DefaultHttp2Connection(false);
+            HttpToHttp2ConnectionHandler connectionHandler = new HttpToHttp2ConnectionHandler(connection,
+                    new InboundHttp2ToHttpAdapter.Builder(connection).maxContentLength(1024).build());
+            handler = new Http2ResponseHandler(connectionHandler, Http2NettyClient.DEFAULT_WINDOW_SIZE, this);
+            channel = new EmbeddedChannel(connectionHandler, handler);
+        }
+
+        @Override
+        public void onStreamClosed() {
+            closed++;
+        }
+
+        TransportCallback<Response> callback() {
+            return TestHttpResponseHandler.collect(responses);
+        }
+    }
+
+    static FullHttpRequest request() {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        request.headers().set(HttpUtil.ExtensionHeaderNames.SCHEME.text(), "http");
+        return request;
+    }
+
+    static FullHttpResponse streamResponse(int streamId) {
+        FullHttpResponse response = response(HttpResponseStatus.OK, "");
+        response.headers().setInt(HttpUtil.ExtensionHeaderNames.STREAM_ID.text(), streamId);
+        return response;
+    }
+
+    private static FullHttpResponse response(HttpResponseStatus status, String content) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.copiedBuffer(content, StandardCharsets.UTF_8));
+        response.headers().set("content-type", "text/plain");
+        return response;
+    }
+}
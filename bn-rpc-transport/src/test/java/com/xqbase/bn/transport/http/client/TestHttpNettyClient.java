@@ -0,0 +1,175 @@
+package com.xqbase.bn.transport.http.client;
+
+import com.xqbase.bn.common.callback.Callback;
+import com.xqbase.bn.m2.Response;
+import com.xqbase.bn.m2.http.HttpRequest;
+import com.xqbase.bn.m2.http.HttpResponse;
+import com.xqbase.bn.transport.apool.AsyncPool;
+import com.xqbase.bn.transport.apool.stats.PoolStats;
+import com.xqbase.bn.transport.apool.util.Cancellable;
+import com.xqbase.bn.transport.apool.util.None;
+import com.xqbase.bn.transport.bridge.common.TimeoutTransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponse;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the pipelining of requests in {@link HttpNettyClient}.
+ *
+ * @author Tony He
+ */
+public class TestHttpNettyClient {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<TransportResponse<Response>> responses = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLeastLoadedChannel() {
+        EmbeddedChannel a = channel();
+        EmbeddedChannel b = channel();
+        Pool pool = new Pool(a, b);
+        HttpNettyClient.PipelinedChannels channels = new HttpNettyClient.PipelinedChannels(pool, 3);
+
+        HttpRequest first = new HttpRequest();
+        channels.write(first, callback());
+        assertSame(first, a.readOutbound());
+        channels.write(new HttpRequest(), callback());
+        channels.write(new HttpRequest(), callback());
+        assertEquals(3, channels.getInFlight(a));
+        assertEquals(1, pool.gets);
+
+        // a is full, so b is checked out, and takes the next request too
+        channels.write(new HttpRequest(), callback());
+        channels.write(new HttpRequest(), callback());
+        assertEquals(2, pool.gets);
+        assertEquals(2, channels.getInFlight(b));
+
+        a.writeInbound(new HttpResponse());
+        a.writeInbound(new HttpResponse());
+        assertEquals(2, responses.size());
+        channels.write(new HttpRequest(), callback());
+        assertEquals(2, channels.getInFlight(a));
+        assertEquals(2, channels.getInFlight(b));
+        assertEquals(2, pool.gets);
+    }
+
+    @Test
+    public void testChannelReturnedWhenIdle() {
+        EmbeddedChannel a = channel();
+        Pool pool = new Pool(a);
+        HttpNettyClient.PipelinedChannels channels = new HttpNettyClient.PipelinedChannels(pool, 2);
+        channels.write(new HttpRequest(), callback());
+        channels.write(new HttpRequest(), callback());
+
+        a.writeInbound(new HttpResponse());
+        assertTrue(pool.put.isEmpty());
+        a.writeInbound(new HttpResponse());
+        assertEquals(Collections.<Channel>singletonList(a), pool.put);
+        assertEquals(0, channels.getInFlight(a));
+        assertTrue(pool.disposed.isEmpty());
+    }
+
+    @Test
+    public void testClosedChannelDisposed() {
+        EmbeddedChannel a = channel();
+        Pool pool = new Pool(a);
+        HttpNettyClient.PipelinedChannels channels = new HttpNettyClient.PipelinedChannels(pool, 2);
+        channels.write(new HttpRequest(), callback());
+        channels.write(new HttpRequest(), callback());
+
+        a.close();
+        a.runPendingTasks();
+        assertEquals(2, responses.size());
+        assertTrue(responses.get(0).hasError());
+        assertTrue(responses.get(1).hasError());
+        assertEquals(Collections.<Channel>singletonList(a), pool.disposed);
+        assertTrue(pool.put.isEmpty());
+        assertEquals(0, channels.getInFlight(a));
+    }
+
+    private static EmbeddedChannel channel() {
+        return new EmbeddedChannel(new HttpResponseHandler());
+    }
+
+    private TimeoutTransportCallback<Response> callback() {
+        return new TimeoutTransportCallback<>(scheduler, executor, 1, TimeUnit.MINUTES,
+                TestHttpResponseHandler.collect(responses));
+    }
+
+    /**
+     * Hands out the given channels in order, recording those put back and disposed.
+     */
+    private static class Pool implements AsyncPool<Channel> {
+
+        private final Deque<Channel> available = new ArrayDeque<>();
+        private final List<Channel> put = new ArrayList<>();
+        private final List<Channel> disposed = new ArrayList<>();
+        private int gets;
+
+        Pool(Channel... channels) {
+            Collections.addAll(available, channels);
+        }
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public Cancellable get(Callback<Channel> callback) {
+            gets++;
+            callback.onSuccess(available.poll());
+            return null;
+        }
+
+        @Override
+        public void put(Channel obj) {
+            put.add(obj);
+        }
+
+        @Override
+        public void dispose(Channel obj) {
+            disposed.add(obj);
+        }
+
+        @Override
+        public void shutdown(Callback<None> callback) {
+        }
+
+        @Override
+        public Collection<Callback<Channel>> cancelWaiters() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public PoolStats getStats() {
+            return null;
+        }
+    }
+}
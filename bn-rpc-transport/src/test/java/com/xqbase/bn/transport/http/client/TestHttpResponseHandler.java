@@ -0,0 +1,91 @@
+package com.xqbase.bn.transport.http.client;
+
+import com.xqbase.bn.m2.Response;
+import com.xqbase.bn.m2.http.HttpResponse;
+import com.xqbase.bn.transport.bridge.common.TransportCallback;
+import com.xqbase.bn.transport.bridge.common.TransportResponse;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link HttpResponseHandler}.
+ *
+ * @author Tony He
+ */
+public class TestHttpResponseHandler {
+
+    @Test
+    public void testResponsesInOrder() {
+        HttpResponseHandler handler = new HttpResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        List<TransportResponse<Response>> first = new ArrayList<>();
+        List<TransportResponse<Response>> second = new ArrayList<>();
+        handler.addCallback(collect(first));
+        handler.addCallback(collect(second));
+        assertEquals(2, handler.getPendingCount());
+
+        HttpResponse a = new HttpResponse();
+        HttpResponse b = new HttpResponse();
+        channel.writeInbound(a);
+        assertEquals(1, first.size());
+        assertSame(a, first.get(0).getResponse());
+        assertTrue(second.isEmpty());
+        channel.writeInbound(b);
+        assertSame(b, second.get(0).getResponse());
+        assertEquals(0, handler.getPendingCount());
+
+        // the responses are passed on to the handlers behind
+        assertSame(a, channel.readInbound());
+        assertSame(b, channel.readInbound());
+    }
+
+    @Test
+    public void testInactiveFailsPending() {
+        HttpResponseHandler handler = new HttpResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        List<TransportResponse<Response>> responses = new ArrayList<>();
+        handler.addCallback(collect(responses));
+        handler.addCallback(collect(responses));
+        channel.writeInbound(new HttpResponse());
+
+        channel.close();
+        channel.runPendingTasks();
+        assertEquals(2, responses.size());
+        assertFalse(responses.get(0).hasError());
+        assertTrue(responses.get(1).getError() instanceof ClosedChannelException);
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    @Test
+    public void testExceptionFailsPendingAndCloses() {
+        HttpResponseHandler handler = new HttpResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        List<TransportResponse<Response>> responses = new ArrayList<>();
+        handler.addCallback(collect(responses));
+        handler.addCallback(collect(responses));
+
+        IOException cause = new IOException("reset");
+        channel.pipeline().fireExceptionCaught(cause);
+        assertEquals(2, responses.size());
+        assertSame(cause, responses.get(0).getError());
+        assertSame(cause, responses.get(1).getError());
+        assertFalse(channel.isOpen());
+        assertEquals(0, handler.getPendingCount());
+    }
+
+    static TransportCallback<Response> collect(final List<TransportResponse<Response>> responses) {
+        return new TransportCallback<Response>() {
+            @Override
+            public void onResponse(TransportResponse<Response> response) {
+                responses.add(response);
+            }
+        };
+    }
+}